@@ -0,0 +1,89 @@
+/**
+ * Provides benchmarks for reading articles.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Responsible for timing what happens to every article page once it's loaded:
+ * parsing its HTML, reading the fields, picking the lead out of the paragraphs,
+ * and trimming a transcript lead with a rule.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArticleBenchmark {
+  private static final String URL = "https://www.npr.org/2021/10/17/1";
+
+  /** The bundled NPR article definition, which drops header paragraphs. */
+  private SourceDefinition.Article definition;
+
+  /** What's read from each article. */
+  private Extraction extraction;
+
+  private String html;
+  private HtmlPage page;
+
+  /** What was read from the page. */
+  private Extraction.Result read;
+
+  /** A transcript lead that ends by introducing a guest. */
+  private String lead;
+
+  private LeadRules.Rule newsWrap;
+
+  @Setup
+  public void setUp() {
+    this.definition = Scraper.SOURCES.get("npr").article;
+    this.extraction = GenericScraper.articleExtraction(this.definition);
+    this.html = Fixtures.nprArticle(1);
+    this.page =
+      new HtmlPage(Jsoup.parse(this.html, URL), URL, this.html.length());
+    this.read = this.page.extract(this.extraction);
+    this.lead = Fixtures.transcriptLead(2);
+    this.newsWrap = LeadRules.get("news-wrap");
+  }
+
+  /** Parse an article, as the HTTP engine does with every page it fetches. */
+  @Benchmark
+  public Document parse() {
+    return Jsoup.parse(this.html, URL);
+  }
+
+  /** Read every field of an article in one pass over the parsed page. */
+  @Benchmark
+  public Extraction.Result extract() {
+    return this.page.extract(this.extraction);
+  }
+
+  /** Drop header paragraphs and join the rest into the lead. */
+  @Benchmark
+  public Map<String, String> readLead() {
+    return GenericScraper.readLead(this.definition, this.read);
+  }
+
+  /** Cut the guest's introduction off a transcript lead. */
+  @Benchmark
+  public String newsWrap() {
+    return this.newsWrap.apply(this.lead, "Interview");
+  }
+}
@@ -0,0 +1,39 @@
+/**
+ * Provides the entry point of the benchmarks.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Responsible for running the benchmarks the way we compare them across changes:
+ * with the GC profiler, so every result comes with its allocation rate, and with
+ * the results written as JSON to target/jmh-result.json unless -rff says otherwise.
+ * Takes the usual JMH command line, e.g. a regular expression to run some benchmarks.
+ */
+public class Benchmarks {
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions command = new CommandLineOptions(args);
+    if (command.shouldHelp() || command.shouldList()) {
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+    ChainedOptionsBuilder options = new OptionsBuilder()
+      .parent(command)
+      .addProfiler(GCProfiler.class);
+    if (!command.getResult().hasValue()) {
+      options
+        .resultFormat(ResultFormatType.JSON)
+        .result("target/jmh-result.json");
+    }
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Provides article-sized inputs for the benchmarks.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Responsible for generating inputs shaped like what the scrapers actually see.
+ * The text is made up but sized like real news: sentences of about 20 words,
+ * paragraphs of about 3 sentences, and articles of about 30 paragraphs, a few of
+ * which are section headers. The same seed always gives the same inputs.
+ */
+final class Fixtures {
+  /** Words the text is made of. */
+  private static final String[] WORDS = (
+    "the a of to in and said on for that with was is by officials new " +
+    "president state government people year would more after told city " +
+    "court police report week federal percent health million country " +
+    "workers election vote public company could about than last first"
+  ).split(" ");
+
+  /** Number of paragraphs in an article. */
+  static final int PARAGRAPHS = 30;
+
+  /** Every how many paragraphs a section header appears. */
+  static final int HEADER_EVERY = 8;
+
+  /** Number of articles a source's index links to. */
+  static final int ARTICLES = 10;
+
+  /** Number of teasers on an index page. */
+  static final int TEASERS = 7;
+
+  private Fixtures() {}
+
+  /**
+   * Make a sentence.
+   * @param random Picks the words.
+   * @return       About 20 words, capitalized and ending with a period.
+   */
+  static String sentence(Random random) {
+    StringBuilder sentence = new StringBuilder();
+    int words = 14 + random.nextInt(12);
+    for (int i = 0; i < words; ++i) {
+      String word = WORDS[random.nextInt(WORDS.length)];
+      if (i == 0) {
+        sentence.append(Character.toUpperCase(word.charAt(0)));
+        sentence.append(word, 1, word.length());
+      } else {
+        sentence.append(' ').append(word);
+      }
+    }
+    return sentence.append('.').toString();
+  }
+
+  /**
+   * Make a paragraph.
+   * @param random Picks the words.
+   * @return       A few sentences.
+   */
+  static String paragraph(Random random) {
+    List<String> sentences = new ArrayList<>();
+    int count = 2 + random.nextInt(3);
+    for (int i = 0; i < count; ++i) {
+      sentences.add(sentence(random));
+    }
+    return String.join(" ", sentences);
+  }
+
+  /**
+   * Make an article page shaped like an NPR story, so the bundled NPR definition applies.
+   * Every HEADER_EVERY-th paragraph is a bold section header, which the
+   * definition drops, and the last one is an editor's note.
+   * @param seed Picks the words.
+   * @return     The page's HTML.
+   */
+  static String nprArticle(long seed) {
+    Random random = new Random(seed);
+    StringBuilder html = new StringBuilder();
+    html.append("<html><head><title>");
+    html.append(sentence(random));
+    html.append("</title></head><body><header><p>Menu</p></header>");
+    html.append("<div id=\"storytext\">");
+    for (int i = 0; i < PARAGRAPHS; ++i) {
+      if (i > 0 && i % HEADER_EVERY == 0) {
+        html
+          .append("<p><strong>")
+          .append(sentence(random))
+          .append("</strong></p>");
+      } else {
+        html.append("<p>").append(paragraph(random)).append("</p>");
+      }
+    }
+    html.append("<p>Editor's note: ").append(sentence(random)).append("</p>");
+    html.append("</div><footer><p>Copyright</p></footer></body></html>");
+    return html.toString();
+  }
+
+  /**
+   * Make a transcript lead shaped like a PBS interview's: news, then the guest's introduction.
+   * @param seed Picks the words.
+   * @return     The lead.
+   */
+  static String transcriptLead(long seed) {
+    Random random = new Random(seed);
+    return (
+      paragraph(random) + " For more, I'm joined by " + sentence(random)
+    );
+  }
+
+  /**
+   * Make the items a source yields: its teasers, then one item per article.
+   * @param seed Picks the words.
+   * @return     Items the way scrapers store them.
+   */
+  static List<Map<String, String>> items(long seed) {
+    Random random = new Random(seed);
+    List<Map<String, String>> items = new ArrayList<>();
+    for (int i = 0; i < TEASERS + ARTICLES; ++i) {
+      items.add(
+        item(paragraph(random), "https://example.org/" + seed + "/" + i)
+      );
+    }
+    return items;
+  }
+
+  /**
+   * Make article-sized texts to summarize.
+   * @param count Number of texts.
+   * @param seed  Picks the words.
+   * @return      The texts, each as long as an article's lead paragraphs joined.
+   */
+  static List<String> texts(int count, long seed) {
+    Random random = new Random(seed);
+    List<String> texts = new ArrayList<>();
+    for (int i = 0; i < count; ++i) {
+      List<String> paragraphs = new ArrayList<>();
+      for (int j = 0; j < PARAGRAPHS; ++j) {
+        paragraphs.add(paragraph(random));
+      }
+      texts.add(String.join(" ", paragraphs));
+    }
+    return texts;
+  }
+
+  /**
+   * Make an item.
+   * @param text The item's text.
+   * @param url  The item's URL.
+   * @return     The item, the way scrapers store it.
+   */
+  static Map<String, String> item(String text, String url) {
+    Map<String, String> item = new HashMap<>();
+    item.put("text", text);
+    item.put("url", url);
+    item.put("needsSummary", "no");
+    return item;
+  }
+}
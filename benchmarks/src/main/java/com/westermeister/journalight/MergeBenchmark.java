@@ -0,0 +1,80 @@
+/**
+ * Provides benchmarks for combining scraped items into a digest.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Responsible for timing what happens once a source's pages are scraped:
+ * merging its teasers and articles in index order, and rendering every
+ * source's items into the digest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+  /** One source's items: teasers, then one per article. */
+  private List<Map<String, String>> items;
+
+  /** Every source's items, by key, as Scraper.run() returns them. */
+  private Map<String, List<Map<String, String>>> result;
+
+  @Setup
+  public void setUp() {
+    this.items = Fixtures.items(1);
+    this.result = new HashMap<>();
+    long seed = 2;
+    for (String source : Scraper.SOURCES.keySet()) {
+      this.result.put(source, Fixtures.items(seed++));
+    }
+  }
+
+  /** Track a source's articles as they finish and merge them behind its teasers. */
+  @Benchmark
+  public List<Map<String, String>> mergeSource() throws InterruptedException {
+    SourceRun run = new SourceRun("https://example.org/");
+    run.indexed(this.items.subList(0, Fixtures.TEASERS));
+    for (int i = Fixtures.TEASERS; i < this.items.size(); ++i) {
+      Map<String, String> item = this.items.get(i);
+      run.add(
+        item.get("url"),
+        CompletableFuture.completedFuture(List.of(item)),
+        done -> {}
+      );
+    }
+    run.seal(articles -> {});
+    return run.await(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+  }
+
+  /** Render the digest as text, as a run prints it. */
+  @Benchmark
+  public String digestText() {
+    return Digest.text(this.result);
+  }
+
+  /** Render the digest as JSON, as the daemon serves it. */
+  @Benchmark
+  public String digestJson() {
+    return Digest.json(this.result);
+  }
+}
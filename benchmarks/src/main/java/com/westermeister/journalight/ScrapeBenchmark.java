@@ -0,0 +1,85 @@
+/**
+ * Provides end-to-end benchmarks of scraping against a local fake news server.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Responsible for timing whole runs of the scraper: every index and article of
+ * a few SyntheticNews sources, fetched from a FakeNewsServer that answers after
+ * a realistic delay. Nothing is summarized and nothing leaves the machine, so
+ * the numbers only move when scheduling, fetching or parsing does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djournalight.deadline=3600")
+public class ScrapeBenchmark {
+  /** Number of sources. */
+  private static final int SOURCES = 4;
+
+  /** Browsers in the pool, whose workers run every page's task. */
+  @Param({ "1", "4" })
+  public int browsers;
+
+  /** Articles per source. */
+  @Param({ "100", "1000" })
+  public int articles;
+
+  /** Delay of every response, in milliseconds. */
+  @Param({ "20" })
+  public int latency;
+
+  private FakeNewsServer server;
+  private BrowserPool pool;
+  private Scraper scraper;
+
+  @Setup
+  public void setUp() throws IOException {
+    SyntheticNews news = new SyntheticNews(SOURCES, this.articles, 1);
+    this.server = new FakeNewsServer(news::page, 1);
+    this.server.latency(
+      Duration.ofMillis(this.latency),
+      Duration.ofMillis(this.latency)
+    );
+    this.server.start();
+    Replay.shared().replayTo(this.server.base());
+    this.pool = new BrowserPool(this.browsers);
+    this.scraper = new Scraper(this.pool, news.sources());
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.scraper.close();
+    this.pool.close();
+    this.server.close();
+    Replay.shared().replayTo(null);
+  }
+
+  /** Scrape every source in full. */
+  @Benchmark
+  public Map<String, List<Map<String, String>>> run() {
+    return this.scraper.run();
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * Provides benchmarks for the summarizers' own work, outside the model.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Responsible for timing the JSON on either side of a summarization request:
+ * encoding a batch of article-sized texts into a request line, and decoding
+ * the response line into summaries. No worker is started. Also times the
+ * extractive summarizer, which does all of its work in the JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SummarizerBenchmark {
+  /** Texts per request: one, and the pipeline's default batch. */
+  @Param({ "1", "4" })
+  public int batch;
+
+  /** Encodes and decodes lines the way the summarizer does. */
+  private final Gson gson = new Gson();
+
+  private ModelSummarizer summarizer;
+  private ExtractiveSummarizer extractive;
+  private List<String> texts;
+
+  /** A response to a request with the texts. */
+  private String response;
+
+  @Setup
+  public void setUp() {
+    this.summarizer =
+      new ModelSummarizer(List.of("true"), Duration.ofSeconds(1));
+    this.extractive = new ExtractiveSummarizer();
+    this.texts = Fixtures.texts(this.batch, 3);
+    List<String> summaries = new ArrayList<>();
+    for (String text : this.texts) {
+      summaries.add(text.substring(0, text.indexOf('.') + 1));
+    }
+    JsonObject response = new JsonObject();
+    response.addProperty("id", 1);
+    response.addProperty("ok", true);
+    response.add("summaries", this.gson.toJsonTree(summaries));
+    this.response = this.gson.toJson(response);
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.summarizer.close();
+  }
+
+  /** Encode a request line. */
+  @Benchmark
+  public String encode() {
+    return this.gson.toJson(this.summarizer.request(this.texts));
+  }
+
+  /** Decode a response line into summaries. */
+  @Benchmark
+  public List<String> decode() {
+    JsonObject frame = this.gson.fromJson(this.response, JsonObject.class);
+    return this.summarizer.summaries(frame, this.batch);
+  }
+
+  /** Summarize the texts by picking out their most central sentences. */
+  @Benchmark
+  public List<String> extract() {
+    return this.extractive.summarize(this.texts);
+  }
+}
@@ -0,0 +1,26 @@
+#!/bin/sh
+# Run Journalight from a jar with an AppCDS archive of its classes and its
+# dependencies', so the JVM maps them instead of loading and verifying them on
+# every start. The first run records the archive as it exits; later runs use
+# it. The jar, and with it the archive, is rebuilt whenever a source changes.
+# Arguments are passed on, e.g. ./fast-start.sh --daemon, as are JAVA_OPTS.
+set -e
+cd "$(dirname "$0")"
+
+JAR=target/journalight-1.0-SNAPSHOT.jar
+ARCHIVE=target/journalight.jsa
+if [ ! -f "$JAR" ] || [ -n "$(find src pom.xml -newer "$JAR" -print -quit)" ]; then
+  mvn -q -DskipTests package dependency:build-classpath \
+    -Dmdep.outputFile=target/classpath.txt
+  # An archive only matches the exact jars it was recorded from.
+  rm -f "$ARCHIVE"
+fi
+
+if [ -f "$ARCHIVE" ]; then
+  CDS="-XX:SharedArchiveFile=$ARCHIVE"
+else
+  echo "Recording $ARCHIVE for the next runs" >&2
+  CDS="-XX:ArchiveClassesAtExit=$ARCHIVE"
+fi
+exec java $CDS $JAVA_OPTS -cp "$JAR:$(cat target/classpath.txt)" \
+  com.westermeister.journalight.App "$@"
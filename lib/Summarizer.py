@@ -1,4 +1,4 @@
-"""Provides Summarizer class and stdio interface."""
+"""Provides Summarizer class and stdio interfaces (one-shot and long-lived worker)."""
 
 from dotenv import load_dotenv
 
@@ -14,6 +14,7 @@ import logging
 import sys
 import time
 
+import torch
 from transformers import pipeline
 
 
@@ -21,9 +22,20 @@ class Summarizer:
 
     """Can convert long text (up to about 4000 chars) into tweet-sized summaries."""
 
-    def __init__(self):
-        """Initialize summarization model and logger."""
-        self._model = pipeline("summarization")
+    # Longest text the model is given, in characters.
+    MAX_INPUT = 3999
+
+    def __init__(self, model=None, batch_size=1):
+        """
+        Initialize summarization model and logger.
+
+        Parameters:
+            model (str): Name of the model to load, or None for the pipeline's default.
+            batch_size (int): Number of texts to run through the model at once.
+        """
+        self._model = pipeline("summarization", model=model)
+        self.batch_size = max(1, batch_size)
+        self.model_name = self._model.model.name_or_path
         logging.basicConfig(
             format="%(asctime)s.%(msecs)03dZ [Summarizer] %(levelname)s: %(message)s",
             datefmt="%Y-%m-%dT%H:%M:%S",
@@ -43,27 +55,108 @@ class Summarizer:
         """
         try:
             data = json.loads(json_str)
-            retval = []
-            for text in data:
-                summary = self._summarize(text)
-                retval.append(summary)
-            retval = json.dumps(retval)
+            retval = json.dumps(self.summarize_all(data))
             return retval
         except Exception as e:
             logging.error(str(e))
 
-    def _summarize(self, text):
+    def summarize_all(self, texts, min_length=20, max_length=280, batch_size=None):
+        """
+        Summarizes texts in batches.
+
+        Texts are sorted by length first, so each batch holds texts of about the same
+        length and little of the model's work goes into padding the shorter ones.
+
+        Parameters:
+            texts (list): The texts to summarize.
+            min_length (int): Minimum length of each summary in tokens.
+            max_length (int): Maximum length of each summary in tokens.
+            batch_size (int): Number of texts per batch, or None for the default.
+        Returns:
+            (list): The summaries, in the same order as the texts.
+        """
+        size = max(1, batch_size or self.batch_size)
+        order = sorted(range(len(texts)), key=lambda i: len(texts[i]), reverse=True)
+        summaries = [None] * len(texts)
+        for start in range(0, len(order), size):
+            batch = order[start : start + size]
+            if len(batch) == 1:
+                summaries[batch[0]] = self._summarize(
+                    texts[batch[0]], min_length, max_length
+                )
+                continue
+            summaries_of_batch = self._summarize_batch(
+                [texts[i] for i in batch], min_length, max_length
+            )
+            for i, summary in zip(batch, summaries_of_batch):
+                summaries[i] = summary
+        return summaries
+
+    def _summarize_batch(self, texts, min_length=20, max_length=280):
+        """
+        Summarizes several texts in one run of the model.
+
+        The pipeline would run a list of texts through the model one at a time, so the
+        batch is tokenized and generated from here instead, with the shorter texts
+        padded to the longest. Generation uses the model's own settings, as the
+        pipeline does.
+
+        Parameters:
+            texts (list): The texts to summarize.
+            min_length (int): Minimum length of each summary in tokens.
+            max_length (int): Maximum length of each summary in tokens.
+        Returns:
+            (list): The summaries, in the same order as the texts.
+        """
+        # Cut off as in _summarize(); truncation only guards the token limit.
+        inputs = self._model.tokenizer(
+            [text[0 : self.MAX_INPUT] for text in texts],
+            padding=True,
+            truncation=True,
+            return_tensors="pt",
+        ).to(self._model.device)
+        with torch.no_grad():
+            output_ids = self._model.model.generate(
+                **inputs, min_length=min_length, max_length=max_length
+            )
+        return [
+            self._clean(summary)
+            for summary in self._model.tokenizer.batch_decode(
+                output_ids, skip_special_tokens=True
+            )
+        ]
+
+    def _summarize(self, text, min_length=20, max_length=280):
         """
         Summarizes text.
 
         Parameters:
             text (str): The text to summarize.
+            min_length (int): Minimum length of the summary in tokens.
+            max_length (int): Maximum length of the summary in tokens.
         Returns:
             (str): The summary.
         """
-        # The length restrictions will give us a summary about the size of a tweet.
-        summary_obj = self._model(text[0:3999], min_length=20, max_length=280)
-        summary = summary_obj[0]["summary_text"]
+        # The default length restrictions will give us a summary about the size of a tweet.
+        # Truncated the same way as batches, in case the cut-off text still has too many tokens.
+        summary_obj = self._model(
+            text[0 : self.MAX_INPUT],
+            min_length=min_length,
+            max_length=max_length,
+            truncation=True,
+        )
+        return self._clean(summary_obj[0]["summary_text"])
+
+    @staticmethod
+    def _clean(summary):
+        """
+        Fixes the model's usual mistakes in a summary.
+
+        Parameters:
+            summary (str): The summary as generated.
+        Returns:
+            (str): The fixed summary.
+        """
         # The generated summaries tend to have some minor errors, which we fix.
         # Remove leading and trailing whitespace.
         summary = summary.strip()
@@ -75,7 +168,73 @@ class Summarizer:
         return summary
 
 
+def serve(summarizer, stdin, stdout):
+    """
+    Answers framed requests until stdin is closed or a shutdown request arrives.
+
+    Every frame is a single line of JSON (NDJSON) in both directions. Requests look like
+    {"id": 1, "type": "summarize", "texts": [...]}, {"id": 2, "type": "ping"} or
+    {"id": 3, "type": "shutdown"}. Each response echoes the request's "id" and has an
+    "ok" flag; failed requests carry an "error" message instead of a result. Before any
+    request is read, a {"type": "ready"} frame announces that the model is loaded.
+    Summarize requests may override the length limits with "min_length" and
+    "max_length", and the number of texts run through the model at once with "batch_size".
+
+    Parameters:
+        summarizer (Summarizer): The loaded model to serve.
+        stdin (file): Stream to read request frames from.
+        stdout (file): Stream to write response frames to.
+    """
+
+    def send(frame):
+        stdout.write(json.dumps(frame) + "\n")
+        stdout.flush()
+
+    send({"type": "ready", "model": summarizer.model_name, "pid": os.getpid()})
+    for line in stdin:
+        line = line.strip()
+        if not line:
+            continue
+        request_id = None
+        try:
+            request = json.loads(line)
+            request_id = request.get("id")
+            kind = request.get("type")
+            if kind == "summarize":
+                options = {
+                    key: request[key]
+                    for key in ("min_length", "max_length", "batch_size")
+                    if key in request
+                }
+                summaries = summarizer.summarize_all(request["texts"], **options)
+                send({"id": request_id, "ok": True, "summaries": summaries})
+            elif kind == "ping":
+                send({"id": request_id, "ok": True})
+            elif kind == "shutdown":
+                send({"id": request_id, "ok": True})
+                return
+            else:
+                raise ValueError("unknown request type: " + str(kind))
+        except Exception as e:
+            logging.error(str(e))
+            send({"id": request_id, "ok": False, "error": str(e)})
+
+
 if __name__ == "__main__":
-    json_str = sys.stdin.readline()
-    sys.stdout.write(Summarizer()(json_str))
-    sys.stdout.flush()
+    args = sys.argv[1:]
+    model = args[args.index("--model") + 1] if "--model" in args else None
+    batch_size = (
+        int(args[args.index("--batch-size") + 1]) if "--batch-size" in args else 1
+    )
+    if "--threads" in args:
+        # Several workers share the machine, so each sticks to its share of the cores.
+        torch.set_num_threads(int(args[args.index("--threads") + 1]))
+    if "--worker" in args:
+        # Anything the libraries print must not end up interleaved with our frames.
+        protocol_out = sys.stdout
+        sys.stdout = sys.stderr
+        serve(Summarizer(model, batch_size), sys.stdin, protocol_out)
+    else:
+        json_str = sys.stdin.readline()
+        sys.stdout.write(Summarizer(model, batch_size)(json_str))
+        sys.stdout.flush()
@@ -5,76 +5,333 @@
 
 package com.westermeister.journalight;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import jdk.jfr.Recording;
 
 /** Responsible for running the program. */
 public class App {
+  /** Where every run's items are archived. */
+  private static final Path ARCHIVE_DIRECTORY = Paths.get(".cache", "archive");
 
-  public static void main(String[] args) {
-    // Scrape articles.
-    Scraper scraper = new Scraper();
-    Map<String, List<Map<String, String>>> result = scraper.run();
-
-    // Summarize them if necessary.
-    List<String> articles = new ArrayList<>();
-    for (String source : result.keySet()) {
-      for (int i = 0; i < result.get(source).size(); ++i) {
-        if (result.get(source).get(i).get("needsSummary") == "yes") {
-          articles.add(result.get(source).get(i).get("text"));
-        }
+  /** Where the full-text index of every run's articles is kept. */
+  private static final Path INDEX_DIRECTORY = Paths.get(".cache", "index");
+
+  public static void main(String[] args) throws IOException {
+    Startup.main();
+    // Optionally record the run with Flight Recorder, e.g. -Djournalight.jfr=run.jfr.
+    String recordTo = System.getProperty(Events.RECORDING_PROPERTY);
+    Recording recording = recordTo == null
+      ? null
+      : Events.record(Paths.get(recordTo));
+    FakeNewsServer replaying = replayServer();
+    try {
+      // With --daemon, keep running and serve the digest instead of printing it once.
+      List<String> arguments = Arrays.asList(args);
+      if (arguments.contains("--daemon")) {
+        serve();
+      } else if (arguments.contains("--search")) {
+        // With --search QUERY, search the articles of earlier runs instead of scraping.
+        search(
+          String.join(
+            " ",
+            arguments.subList(arguments.indexOf("--search") + 1, args.length)
+          )
+        );
+      } else if (arguments.contains("--since")) {
+        // With --since 24h (or 7d), print what earlier runs found in that time.
+        since(arguments.get(arguments.indexOf("--since") + 1));
+      } else if (arguments.contains("--changes")) {
+        // With --changes, print what each source's latest run added and removed.
+        changes();
+      } else {
+        run();
       }
-    }
-    Summarizer summarizer = new Summarizer();
-    List<String> summaries = summarizer.summarize(articles);
-    for (String source : result.keySet()) {
-      for (int i = 0; i < result.get(source).size(); ++i) {
-        if (result.get(source).get(i).get("needsSummary") == "yes") {
-          result.get(source).get(i).put("text", summaries.get(0));
-          summaries.remove(0);
-        }
+      Replay.shared().save();
+      // Optionally keep the run's metrics, e.g. -Djournalight.metrics=metrics.prom.
+      String metricsTo = System.getProperty(Metrics.FILE_PROPERTY);
+      if (metricsTo != null) {
+        Metrics.write(Paths.get(metricsTo));
+        System.out.format("Metrics written to %s%n", metricsTo);
+      }
+    } finally {
+      if (replaying != null) {
+        System.out.format("Replay server: %s%n", replaying.stats());
+        replaying.close();
+      }
+      if (recording != null) {
+        recording.stop();
+        recording.close();
+        System.out.format("Flight recording written to %s%n", recordTo);
       }
     }
+    System.exit(0);
+  }
 
-    System.out.println();
+  /** Scrape, summarize and print the news. */
+  private static void run() {
+    // Scrape articles, summarizing them as they come in if necessary.
+    // Each summary is written straight into the item it belongs to.
+    Map<String, List<Map<String, String>>> result;
+    String utilization;
+    String report;
+    SummaryCache cache = summaryCache();
+    SeenStore seen = seenStore();
+    AssetCache assets = assetCache();
+    Duplicates duplicates = duplicates();
+    SearchIndex index = searchIndex();
+    RunArchive archive = runArchive();
+    try (
+      Scraper scraper = new Scraper();
+      Summarizer summarizer = Summarizer.create()
+    ) {
+      summarizer.useCache(cache);
+      scraper.useSeenStore(seen);
+      scraper.useAssetCache(assets);
+      SummaryPipeline pipeline = new SummaryPipeline(summarizer);
+      pipeline.useDuplicates(duplicates);
+      pipeline.start();
+      result = scraper.run(pipeline);
+      pipeline.finish();
+      utilization = scraper.utilization();
+      report = scraper.report();
+    }
+    // Only saved once every summary is in, so no unsummarized text is ever reused.
+    if (seen != null) {
+      seen.save();
+    }
+    if (index != null) {
+      index.add(result, Instant.now());
+      index.close();
+    }
+    if (archive != null) {
+      archive.append(result, Instant.now());
+      archive.close();
+    }
+    System.out.format("Summary cache: %s%n", cache.stats());
+    System.out.format("Request filter: %s%n", RequestFilter.stats());
+    if (assets != null) {
+      System.out.format("Asset cache: %s%n", assets.stats());
+    }
+    System.out.format("Browser pool: %s%n", utilization);
+    System.out.format("Pages: %s%n", report);
+    System.out.format("Startup: %s%n", Startup.report());
 
-    System.out.println("From PBS:");
     System.out.println();
-    for (int i = 0; i < result.get("pbs").size(); ++i) {
-      System.out.format(
-        "%d. %s%n",
-        i + 1,
-        result.get("pbs").get(i).get("text")
-      );
+    System.out.print(Digest.text(result));
+  }
+
+  /**
+   * Keep the digest fresh and serve it over HTTP until the JVM is shut down.
+   * The port is set with -Djournalight.port, 8080 by default.
+   * @throws IOException If the port can't be bound.
+   */
+  private static void serve() throws IOException {
+    int port = Integer.getInteger("journalight.port", 8080);
+    SummaryCache cache = summaryCache();
+    SeenStore seen = seenStore();
+    try (
+      SearchIndex index = searchIndex();
+      RunArchive archive = runArchive();
+      Scraper scraper = new Scraper();
+      Summarizer summarizer = Summarizer.create();
+      Daemon daemon = new Daemon(
+        scraper,
+        summarizer,
+        seen,
+        Daemon.intervals(),
+        new InetSocketAddress(port)
+      )
+    ) {
+      summarizer.useCache(cache);
+      scraper.useSeenStore(seen);
+      scraper.useAssetCache(assetCache());
+      daemon.useDuplicates(duplicates());
+      daemon.useIndex(index);
+      daemon.useArchive(archive);
+      Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+      daemon.start();
+      System.out.format("Serving the digest at http://localhost:%d/%n", port);
+      daemon.awaitClose();
+    } catch (InterruptedException e) {
+      System.err.println("Interrupt occurred!");
+      Thread.currentThread().interrupt();
     }
+  }
 
-    System.out.println();
+  /**
+   * Print the newest articles of earlier runs that match a query. The search is
+   * limited with -Djournalight.search.source, -Djournalight.search.from and
+   * -Djournalight.search.until (dates like 2021-06-01), and
+   * -Djournalight.search.limit, 20 by default.
+   * @param query Words that must all occur, and "quoted phrases".
+   */
+  private static void search(String query) {
+    try (SearchIndex index = new SearchIndex(INDEX_DIRECTORY, true)) {
+      List<SearchIndex.Hit> hits = index.search(
+        query,
+        System.getProperty("journalight.search.source"),
+        SearchIndex.time(System.getProperty("journalight.search.from")),
+        SearchIndex.time(System.getProperty("journalight.search.until")),
+        Integer.getInteger("journalight.search.limit", 20)
+      );
+      for (SearchIndex.Hit hit : hits) {
+        System.out.format(
+          "%s %s %s%n%s%n%n",
+          hit.time,
+          hit.source,
+          hit.url,
+          hit.text
+        );
+      }
+      System.out.format("%d hits in %d articles%n", hits.size(), index.size());
+    }
+  }
 
-    System.out.println("From NPR:");
-    System.out.println();
-    for (int i = 0; i < result.get("npr").size(); ++i) {
+  /**
+   * Print the digest of everything earlier runs found in a recent span of time,
+   * each article once, newest first.
+   * @param span How far back to go, like "24h" or "7d".
+   */
+  private static void since(String span) {
+    try (RunArchive archive = new RunArchive(ARCHIVE_DIRECTORY, true)) {
+      Instant from = Instant.now().minus(Daemon.parseInterval(span));
       System.out.format(
-        "%d. %s%n",
-        i + 1,
-        result.get("npr").get(i).get("text")
+        "%d runs since %s%n%n",
+        archive.runs(from, null).size(),
+        from
       );
+      System.out.print(Digest.text(archive.digest(from, null)));
     }
+  }
 
-    System.out.println();
-
-    System.out.println("From UPI:");
-    System.out.println();
-    for (int i = 0; i < result.get("upi").size(); ++i) {
-      System.out.format(
-        "%d. %s%n",
-        i + 1,
-        result.get("upi").get(i).get("text")
+  /** Print what each source's latest run added and removed since its run before. */
+  private static void changes() {
+    try (RunArchive archive = new RunArchive(ARCHIVE_DIRECTORY, true)) {
+      Map<String, List<Map<String, String>>> changes = archive.changes(
+        Scraper.SOURCES.keySet()
       );
+      for (Map.Entry<String, List<Map<String, String>>> source : changes
+        .entrySet()) {
+        System.out.format("From %s:%n%n", source.getKey());
+        for (Map<String, String> item : source.getValue()) {
+          System.out.format(
+            "%s %s%n",
+            "added".equals(item.get("change")) ? "+" : "-",
+            item.get("text")
+          );
+        }
+        System.out.println();
+      }
     }
+  }
 
-    System.out.println();
-    System.exit(0);
+  /**
+   * Open the summary cache.
+   * @return The cache.
+   */
+  private static SummaryCache summaryCache() {
+    return new SummaryCache(Paths.get(".cache", "summaries"));
+  }
+
+  /**
+   * Open the cache for browser pages' scripts and stylesheets, unless disabled
+   * with -Djournalight.assets=false. Recorded and replayed runs do without it.
+   * @return The cache, or null.
+   */
+  private static AssetCache assetCache() {
+    boolean enabled =
+      Boolean.parseBoolean(System.getProperty("journalight.assets", "true")) &&
+      !Replay.shared().active();
+    return enabled ? new AssetCache(Paths.get(".cache", "assets")) : null;
+  }
+
+  /**
+   * Set up detection of the same story from several sources, unless disabled
+   * with -Djournalight.dedup=false.
+   * @return The index of summarized stories, or null.
+   */
+  private static Duplicates duplicates() {
+    boolean enabled = Boolean.parseBoolean(
+      System.getProperty("journalight.dedup", "true")
+    );
+    return enabled ? new Duplicates() : null;
+  }
+
+  /**
+   * Open the full-text index of every run's articles, unless disabled with
+   * -Djournalight.index=false.
+   * @return The index, or null.
+   */
+  private static SearchIndex searchIndex() {
+    boolean enabled = Boolean.parseBoolean(
+      System.getProperty("journalight.index", "true")
+    );
+    return enabled ? new SearchIndex(INDEX_DIRECTORY) : null;
+  }
+
+  /**
+   * Open the archive of every run's items, unless disabled with
+   * -Djournalight.archive=false.
+   * @return The archive, or null.
+   */
+  private static RunArchive runArchive() {
+    boolean enabled = Boolean.parseBoolean(
+      System.getProperty("journalight.archive", "true")
+    );
+    return enabled ? new RunArchive(ARCHIVE_DIRECTORY) : null;
+  }
+
+  /**
+   * Open the seen-URL store, unless incremental runs are disabled.
+   * Unless disabled, nothing an earlier run scraped is scraped again.
+   * @return The store, or null.
+   */
+  private static SeenStore seenStore() {
+    boolean incremental = Boolean.parseBoolean(
+      System.getProperty("journalight.incremental", "true")
+    );
+    return incremental ? new SeenStore(Paths.get(".cache", "seen")) : null;
+  }
+
+  /**
+   * Replay a recorded run from a fake news server, if -Djournalight.replay names
+   * a directory that -Djournalight.record wrote. Every response is delayed by
+   * -Djournalight.replay.latency milliseconds plus up to
+   * -Djournalight.replay.jitter more, and a share of -Djournalight.replay.errors
+   * of them fail, e.g. 0.05.
+   * @return The started server, or null if not replaying.
+   * @throws IOException If no port can be bound.
+   */
+  private static FakeNewsServer replayServer() throws IOException {
+    String from = System.getProperty("journalight.replay");
+    if (from == null) {
+      return null;
+    }
+    Snapshots snapshots = new Snapshots(Paths.get(from));
+    FakeNewsServer server = new FakeNewsServer(snapshots::get, 0);
+    server.latency(
+      Duration.ofMillis(Integer.getInteger("journalight.replay.latency", 0)),
+      Duration.ofMillis(Integer.getInteger("journalight.replay.jitter", 0))
+    );
+    server.failures(
+      Double.parseDouble(System.getProperty("journalight.replay.errors", "0"))
+    );
+    server.start();
+    Replay.shared().replayTo(server.base());
+    System.out.format(
+      "Replaying %d responses from %s at %s%n",
+      snapshots.size(),
+      from,
+      server.base()
+    );
+    return server;
   }
 }
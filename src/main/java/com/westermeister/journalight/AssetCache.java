@@ -0,0 +1,693 @@
+/**
+ * Provides a cross-run disk cache for the static assets browser pages load.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.microsoft.playwright.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Responsible for loading the scripts and stylesheets of browser pages from disk
+ * instead of the network. Each run starts its browsers with empty profiles, so
+ * without this every run downloads the same framework bundles again.
+ *
+ * Assets are cached by URL, with their bodies stored by content hash so a bundle
+ * served under several URLs is only stored once. Freshness follows the response's
+ * Cache-Control header. An asset seen for the first time, or whose entry is
+ * stale, is loaded by the page as usual, so pages never wait for the cache.
+ * Meanwhile a new asset is downloaded into the cache in the background, and a
+ * stale entry with an ETag or Last-Modified date is revalidated there with a
+ * conditional request. The least recently used entries are evicted
+ * once the bodies outgrow the size limit.
+ *
+ * The index of entries is only written by save(). Bodies the index doesn't
+ * list, e.g. of downloads that finished after the last save, are deleted when
+ * the cache is opened again, so they never escape the size limit.
+ */
+class AssetCache {
+  /** Default size limit of the stored bodies. */
+  private static final long DEFAULT_MAX_BYTES = 128L * 1024 * 1024;
+
+  /** Resource types worth caching, as in Playwright's Request.resourceType(). */
+  private static final Set<String> CACHED_TYPES = Set.of(
+    "script",
+    "stylesheet"
+  );
+
+  /** Response headers kept with an entry and sent back to the page. */
+  private static final List<String> KEPT_HEADERS = List.of(
+    "content-type",
+    "access-control-allow-origin",
+    "timing-allow-origin"
+  );
+
+  /** How long a single asset request may take. */
+  private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+  /** Finds the max-age directive of a Cache-Control header. */
+  private static final Pattern MAX_AGE = Pattern.compile(
+    "max-age=\"?(\\d+)",
+    Pattern.CASE_INSENSITIVE
+  );
+
+  /** JSON shape of the index. */
+  private static final Type INDEX = new TypeToken<Map<String, Entry>>() {}
+    .getType();
+
+  /** Directory that holds the cache. */
+  private final Path directory;
+
+  /** Size limit of the stored bodies. */
+  private final long maxBytes;
+
+  /** Downloads and revalidates assets. */
+  private final HttpClient client;
+
+  /** Every entry by URL. Guarded by this. */
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  /** Size of every stored body by content hash. Guarded by this. */
+  private final Map<String, Long> blobs = new HashMap<>();
+
+  /** Downloads running in the background, by URL. */
+  private final Map<String, CompletableFuture<Void>> downloading =
+    new ConcurrentHashMap<>();
+
+  /** URLs whose responses aren't cacheable, so they aren't downloaded again. */
+  private final Set<String> uncacheable = ConcurrentHashMap.newKeySet();
+
+  private final Gson gson = new Gson();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong revalidations = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong bytesServed = new AtomicLong();
+
+  /** The counters as of the last stats(), in its order. Guarded by this. */
+  private long[] reported = new long[4];
+
+  /**
+   * Use the default size limit.
+   * @param directory Directory that holds the cache; created if missing.
+   */
+  AssetCache(Path directory) {
+    this(directory, DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Open a cache, picking up whatever earlier runs saved.
+   * @param directory Directory that holds the cache; created if missing.
+   * @param maxBytes  Size limit of the stored bodies.
+   */
+  AssetCache(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.client =
+      HttpClient
+        .newBuilder()
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .connectTimeout(Duration.ofSeconds(10))
+        .build();
+    try {
+      Files.createDirectories(directory.resolve("blobs"));
+      Path index = directory.resolve("index.json");
+      Map<String, Entry> saved = Files.exists(index)
+        ? this.gson.fromJson(
+            Files.readString(index, StandardCharsets.UTF_8),
+            INDEX
+          )
+        : null;
+      if (saved != null) {
+        for (Map.Entry<String, Entry> entry : saved.entrySet()) {
+          Path blob = this.path(entry.getValue().blob);
+          if (Files.exists(blob)) {
+            this.entries.put(entry.getKey(), entry.getValue());
+            this.blobs.put(entry.getValue().blob, Files.size(blob));
+          }
+        }
+      }
+      try (Stream<Path> files = Files.walk(directory.resolve("blobs"), 2)) {
+        files
+          .filter(Files::isRegularFile)
+          .filter(
+            file -> !this.blobs.containsKey(file.getFileName().toString())
+          )
+          .forEach(AssetCache::delete);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Answer a browser page's request from the cache if possible.
+   * Only GET requests for scripts and stylesheets are considered. One that
+   * misses is left to the page, and its asset downloaded in the background.
+   * @param route The intercepted request.
+   * @return      True if the request was fulfilled, false if the caller must let it through.
+   */
+  boolean serve(Route route) {
+    Request request = route.request();
+    if (
+      !request.method().equals("GET") ||
+      !CACHED_TYPES.contains(request.resourceType())
+    ) {
+      return false;
+    }
+    Asset asset = this.lookup(request.url());
+    if (asset == null) {
+      this.download(request.url());
+      return false;
+    }
+    route.fulfill(
+      new Route.FulfillOptions()
+        .setStatus(200)
+        .setHeaders(asset.headers)
+        .setBodyBytes(asset.body)
+    );
+    return true;
+  }
+
+  /**
+   * Look an asset up. A stale entry counts as a miss, and is revalidated in the background.
+   * @param url The asset's URL.
+   * @return    The asset, or null if it isn't cached or is stale.
+   */
+  Asset lookup(String url) {
+    Entry entry;
+    synchronized (this) {
+      entry = this.entries.get(url);
+    }
+    if (entry == null) {
+      this.misses.incrementAndGet();
+      Metrics.CACHE.inc("assets", "miss");
+      return null;
+    }
+    if (!entry.isFresh(Instant.now())) {
+      this.misses.incrementAndGet();
+      Metrics.CACHE.inc("assets", "stale");
+      this.revalidate(url, entry);
+      return null;
+    }
+    this.hits.incrementAndGet();
+    Metrics.CACHE.inc("assets", "hit");
+    byte[] body;
+    try {
+      body = Files.readAllBytes(this.path(entry.blob));
+    } catch (IOException e) {
+      System.err.format("Could not read cached asset %s: %s%n", url, e);
+      this.forget(url);
+      return null;
+    }
+    synchronized (this) {
+      entry.lastUsed = Instant.now().toEpochMilli();
+    }
+    this.bytesServed.addAndGet(body.length);
+    return new Asset(entry.headers, body);
+  }
+
+  /**
+   * Download an asset into the cache in the background, unless it's already being downloaded.
+   * @param url The asset's URL.
+   * @return    Completes once the asset is stored, or found not to be cacheable.
+   */
+  CompletableFuture<Void> download(String url) {
+    return this.fetch(url, null);
+  }
+
+  /**
+   * Download an asset in the background, or revalidate its stale entry, unless
+   * that's already under way.
+   * @param url   The asset's URL.
+   * @param stale The stale entry to revalidate, or null to download the asset.
+   * @return      Completes once the asset is stored, refreshed, or found not to be cacheable.
+   */
+  private CompletableFuture<Void> fetch(String url, Entry stale) {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    if (
+      this.uncacheable.contains(url) ||
+      this.downloading.putIfAbsent(url, done) != null
+    ) {
+      return CompletableFuture.completedFuture(null);
+    }
+    HttpRequest.Builder request = this.request(url);
+    if (stale != null && stale.etag != null) {
+      request.header("If-None-Match", stale.etag);
+    }
+    if (stale != null && stale.lastModified != null) {
+      request.header("If-Modified-Since", stale.lastModified);
+    }
+    this.client.sendAsync(
+        request.build(),
+        HttpResponse.BodyHandlers.ofByteArray()
+      )
+      .thenAccept(
+        response -> {
+          if (stale != null && response.statusCode() == 304) {
+            this.refresh(stale, response.headers());
+          } else {
+            this.store(url, response);
+          }
+        }
+      )
+      .exceptionally(
+        e -> {
+          System.err.format("Could not cache asset %s: %s%n", url, e);
+          return null;
+        }
+      )
+      .whenComplete(
+        (ignored, e) -> {
+          this.downloading.remove(url);
+          done.complete(null);
+        }
+      );
+    return done;
+  }
+
+  /**
+   * Wait for the background downloads, so save() can index what they store.
+   * @param timeout Longest to wait. Downloads still running then are left out.
+   */
+  void awaitDownloads(Duration timeout) {
+    CompletableFuture<?>[] running = this.downloading
+      .values()
+      .toArray(new CompletableFuture<?>[0]);
+    try {
+      CompletableFuture
+        .allOf(running)
+        .get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      System.err.format(
+        "Saving the asset cache without %d unfinished downloads%n",
+        this.downloading.size()
+      );
+    } catch (ExecutionException e) {
+      // Never happens, since failed downloads are reported and swallowed.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Write out the index of entries, so the next run finds them. */
+  synchronized void save() {
+    Path index = this.directory.resolve("index.json");
+    try {
+      Path temp = Files.createTempFile(this.directory, "index.json", ".tmp");
+      Files.writeString(
+        temp,
+        this.gson.toJson(this.entries),
+        StandardCharsets.UTF_8
+      );
+      Files.move(
+        temp,
+        index,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      );
+    } catch (IOException e) {
+      System.err.format("Could not save asset cache index: %s%n", e);
+    }
+  }
+
+  /**
+   * Describe how well the cache has done since this was last called, so each
+   * run gets its own numbers even when the cache outlives it, as in the daemon.
+   * @return A one-line summary of the hit ratio and bytes served.
+   */
+  synchronized String stats() {
+    long[] counters = {
+      this.hits.get(),
+      this.misses.get(),
+      this.revalidations.get(),
+      this.bytesServed.get(),
+    };
+    long[] run = new long[counters.length];
+    for (int i = 0; i < counters.length; ++i) {
+      run[i] = counters[i] - this.reported[i];
+    }
+    this.reported = counters;
+    long total = run[0] + run[1];
+    return String.format(
+      "%d%% hit ratio (%d hits, %d misses, %d revalidated), %d KiB served",
+      total == 0 ? 0 : run[0] * 100 / total,
+      run[0],
+      run[1],
+      run[2],
+      run[3] / 1024
+    );
+  }
+
+  /**
+   * Get the number of lookups answered with a fresh entry.
+   * @return The counter value.
+   */
+  long hits() {
+    return this.hits.get();
+  }
+
+  /**
+   * Get the number of stale entries the server said were unchanged.
+   * @return The counter value.
+   */
+  long revalidations() {
+    return this.revalidations.get();
+  }
+
+  /**
+   * Get the number of lookups that went to the network, stale entries included.
+   * @return The counter value.
+   */
+  long misses() {
+    return this.misses.get();
+  }
+
+  /**
+   * Ask the server in the background whether a stale entry is still good.
+   * @param url   The asset's URL.
+   * @param entry The stale entry. Dropped if it can't be revalidated.
+   */
+  private void revalidate(String url, Entry entry) {
+    if (entry.etag == null && entry.lastModified == null) {
+      this.forget(url);
+      this.download(url);
+      return;
+    }
+    this.fetch(url, entry);
+  }
+
+  /**
+   * Mark an entry as fresh again, since the server says it's unchanged.
+   * @param entry   The entry.
+   * @param headers The headers of the server's 304 response.
+   */
+  private void refresh(Entry entry, HttpHeaders headers) {
+    synchronized (this) {
+      entry.storedAt = Instant.now().toEpochMilli();
+      entry.maxAgeSeconds = maxAge(headers, entry.lastModified);
+    }
+    this.revalidations.incrementAndGet();
+    Metrics.CACHE.inc("assets", "revalidated");
+  }
+
+  /**
+   * Store a response, if it's cacheable, evicting old entries if needed.
+   * @param url      The asset's URL.
+   * @param response The response.
+   * @return         The new entry, or null if the response isn't cacheable.
+   */
+  private Entry store(String url, HttpResponse<byte[]> response) {
+    HttpHeaders headers = response.headers();
+    String cacheControl = headers.firstValue("Cache-Control").orElse("");
+    String etag = headers.firstValue("ETag").orElse(null);
+    String lastModified = headers.firstValue("Last-Modified").orElse(null);
+    long maxAge = maxAge(headers, lastModified);
+    if (
+      response.statusCode() != 200 ||
+      cacheControl.contains("no-store") ||
+      cacheControl.contains("private") ||
+      (maxAge <= 0 && etag == null && lastModified == null)
+    ) {
+      this.uncacheable.add(url);
+      this.forget(url);
+      return null;
+    }
+
+    Entry entry = new Entry();
+    entry.blob = hex(sha256(response.body()));
+    entry.etag = etag;
+    entry.lastModified = lastModified;
+    entry.maxAgeSeconds = maxAge;
+    entry.storedAt = Instant.now().toEpochMilli();
+    entry.lastUsed = entry.storedAt;
+    for (String name : KEPT_HEADERS) {
+      headers
+        .firstValue(name)
+        .ifPresent(value -> entry.headers.put(name, value));
+    }
+    try {
+      this.writeBlob(entry.blob, response.body());
+    } catch (IOException e) {
+      System.err.format("Could not cache asset %s: %s%n", url, e);
+      return null;
+    }
+    synchronized (this) {
+      Entry previous = this.entries.put(url, entry);
+      this.blobs.put(entry.blob, (long) response.body().length);
+      if (previous != null) {
+        this.release(previous.blob);
+      }
+      this.evict();
+    }
+    return entry;
+  }
+
+  /**
+   * Drop an entry.
+   * @param url The asset's URL.
+   */
+  private synchronized void forget(String url) {
+    Entry entry = this.entries.remove(url);
+    if (entry != null) {
+      this.release(entry.blob);
+    }
+  }
+
+  /** Drop least recently used entries until the bodies fit the size limit. */
+  private synchronized void evict() {
+    long total = this.blobs.values().stream().mapToLong(Long::longValue).sum();
+    if (total <= this.maxBytes) {
+      return;
+    }
+    List<Map.Entry<String, Entry>> byUse = new ArrayList<>(
+      this.entries.entrySet()
+    );
+    byUse.sort(Comparator.comparingLong(entry -> entry.getValue().lastUsed));
+    for (Map.Entry<String, Entry> entry : byUse) {
+      if (total <= this.maxBytes) {
+        break;
+      }
+      this.entries.remove(entry.getKey());
+      total -= this.release(entry.getValue().blob);
+    }
+  }
+
+  /**
+   * Delete a body once no entry refers to it.
+   * @param blob The body's content hash.
+   * @return     The bytes freed, which is 0 if the body is still in use.
+   */
+  private synchronized long release(String blob) {
+    for (Entry entry : this.entries.values()) {
+      if (entry.blob.equals(blob)) {
+        return 0;
+      }
+    }
+    Long size = this.blobs.remove(blob);
+    try {
+      Files.deleteIfExists(this.path(blob));
+    } catch (IOException e) {
+      System.err.format("Could not evict cached asset %s: %s%n", blob, e);
+    }
+    return size == null ? 0 : size;
+  }
+
+  /**
+   * Write a body unless it's already stored.
+   * @param blob The body's content hash.
+   * @param body The body.
+   * @throws IOException If writing fails.
+   */
+  private void writeBlob(String blob, byte[] body) throws IOException {
+    Path file = this.path(blob);
+    if (Files.exists(file)) {
+      return;
+    }
+    Files.createDirectories(file.getParent());
+    Path temp = Files.createTempFile(file.getParent(), blob, ".tmp");
+    Files.write(temp, body);
+    Files.move(
+      temp,
+      file,
+      StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE
+    );
+  }
+
+  /**
+   * Start building a request for an asset.
+   * @param url The asset's URL.
+   * @return    The request, without conditions.
+   */
+  private HttpRequest.Builder request(String url) {
+    return HttpRequest
+      .newBuilder(URI.create(url))
+      .timeout(TIMEOUT)
+      .header("User-Agent", HttpFetcher.USER_AGENT)
+      .GET();
+  }
+
+  /**
+   * Get the disk location of a body. Bodies are spread over subdirectories by hash prefix.
+   * @param blob The body's content hash.
+   * @return     The body's file.
+   */
+  private Path path(String blob) {
+    return this.directory
+      .resolve("blobs")
+      .resolve(blob.substring(0, 2))
+      .resolve(blob);
+  }
+
+  /**
+   * Delete a file, reporting rather than throwing if that fails.
+   * @param file The file.
+   */
+  private static void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      System.err.format("Couldn't delete %s: %s%n", file, e);
+    }
+  }
+
+  /**
+   * Work out how long a response stays fresh.
+   * Without a max-age, a tenth of the time since the asset last changed is used,
+   * as browsers do.
+   * @param headers      The response's headers.
+   * @param lastModified Its Last-Modified date, or null.
+   * @return             The lifetime in seconds, 0 if it must always be revalidated.
+   */
+  private static long maxAge(HttpHeaders headers, String lastModified) {
+    String cacheControl = headers.firstValue("Cache-Control").orElse("");
+    if (cacheControl.contains("no-cache")) {
+      return 0;
+    }
+    Matcher matcher = MAX_AGE.matcher(cacheControl);
+    if (matcher.find()) {
+      return Long.parseLong(matcher.group(1));
+    }
+    if (lastModified == null) {
+      return 0;
+    }
+    try {
+      Instant modified = ZonedDateTime
+        .parse(lastModified, DateTimeFormatter.RFC_1123_DATE_TIME)
+        .toInstant();
+      return Math.max(
+        0,
+        Duration.between(modified, Instant.now()).getSeconds() / 10
+      );
+    } catch (DateTimeParseException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Hash a body.
+   * @param body The body.
+   * @return     Its SHA-256 hash.
+   */
+  private static byte[] sha256(byte[] body) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(body);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available", e);
+    }
+  }
+
+  /**
+   * Encode bytes as lowercase hex.
+   * @param bytes The bytes.
+   * @return      The hex string.
+   */
+  private static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /** A cached asset, ready to be sent to a page. */
+  static class Asset {
+    final Map<String, String> headers;
+    final byte[] body;
+
+    Asset(Map<String, String> headers, byte[] body) {
+      this.headers = headers;
+      this.body = body;
+    }
+  }
+
+  /** What the index knows about a cached URL. */
+  private static class Entry {
+    /** Content hash of the body. */
+    String blob;
+
+    /** Headers sent back to the page. */
+    Map<String, String> headers = new HashMap<>();
+
+    /** The ETag to revalidate with, or null. */
+    String etag;
+
+    /** The Last-Modified date to revalidate with, or null. */
+    String lastModified;
+
+    /** When the response was stored or last revalidated, in epoch milliseconds. */
+    long storedAt;
+
+    /** How long the response stays fresh after storedAt. */
+    long maxAgeSeconds;
+
+    /** When the entry was last served, in epoch milliseconds. */
+    long lastUsed;
+
+    /**
+     * Check whether the entry may be served without asking the server.
+     * @param now The current time.
+     * @return    True if fresh, false if stale.
+     */
+    boolean isFresh(Instant now) {
+      return now.toEpochMilli() < this.storedAt + this.maxAgeSeconds * 1000;
+    }
+  }
+}
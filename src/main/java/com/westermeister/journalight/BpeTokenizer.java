@@ -0,0 +1,268 @@
+/**
+ * Provides the byte-level BPE tokenizer of GPT-2 and BART models.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Responsible for turning text into a model's token IDs and back, the way the
+ * Python tokenizers library does for GPT-2 and BART. Text is split into words,
+ * numbers, punctuation and spaces; each piece's UTF-8 bytes are spelled with
+ * printable characters, one per byte; and those are merged pairwise, lowest
+ * ranked merge first, until no merge from "merges.txt" applies. What's left
+ * is looked up in "vocab.json". Every byte has a token, so nothing is unknown.
+ *
+ * Pieces recur a lot in news text, so their tokens are kept. Safe for use by
+ * several threads at once.
+ */
+class BpeTokenizer {
+  /** Splits text into pieces, as GPT-2's tokenizer does. */
+  private static final Pattern PIECES = Pattern.compile(
+    "'s|'t|'re|'ve|'m|'ll|'d| ?\\p{L}+| ?\\p{N}+| ?[^\\s\\p{L}\\p{N}]+|" +
+    "\\s+(?!\\S)|\\s+"
+  );
+
+  /** Type of vocab.json. */
+  private static final Type VOCABULARY = new TypeToken<Map<String, Integer>>() {}
+    .getType();
+
+  /** Tokens that mark where text starts and ends rather than spell any. */
+  private static final Set<String> SPECIAL = Set.of(
+    "<s>",
+    "</s>",
+    "<pad>",
+    "<unk>",
+    "<mask>",
+    "<|endoftext|>"
+  );
+
+  /** Most pieces whose tokens are kept before they're all forgotten. */
+  private static final int MAX_CACHED = 50_000;
+
+  /** Printable character that spells each byte. */
+  private static final char[] BYTE_CHARS = new char[256];
+
+  /** Byte spelled by each printable character, or -1. */
+  private static final int[] CHAR_BYTES = new int[512];
+
+  static {
+    // Printable Latin-1 characters spell themselves; the rest are moved past 255.
+    int next = 256;
+    for (int b = 0; b < 256; ++b) {
+      boolean printable =
+        (b >= '!' && b <= '~') || (b >= 0xA1 && b <= 0xAC) || b >= 0xAE;
+      BYTE_CHARS[b] = (char) (printable ? b : next++);
+    }
+    Arrays.fill(CHAR_BYTES, -1);
+    for (int b = 0; b < 256; ++b) {
+      CHAR_BYTES[BYTE_CHARS[b]] = b;
+    }
+  }
+
+  /** Token IDs by token. */
+  private final Map<String, Integer> ids;
+
+  /** Tokens by token ID. */
+  private final String[] tokens;
+
+  /** Rank of each merge, keyed by its two tokens joined by a space. */
+  private final Map<String, Integer> ranks = new HashMap<>();
+
+  /** Tokens of each piece seen so far. */
+  private final Map<String, int[]> cache = new ConcurrentHashMap<>();
+
+  /**
+   * Load a model's tokenizer files.
+   * @param directory Directory with "vocab.json" and "merges.txt".
+   */
+  BpeTokenizer(Path directory) {
+    try (
+      Reader vocabulary = Files.newBufferedReader(
+        directory.resolve("vocab.json"),
+        StandardCharsets.UTF_8
+      )
+    ) {
+      this.ids = new Gson().fromJson(vocabulary, VOCABULARY);
+      List<String> merges = Files.readAllLines(
+        directory.resolve("merges.txt"),
+        StandardCharsets.UTF_8
+      );
+      for (String merge : merges) {
+        if (!merge.startsWith("#version") && !merge.isBlank()) {
+          this.ranks.putIfAbsent(merge, this.ranks.size());
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    int size = 0;
+    for (int id : this.ids.values()) {
+      size = Math.max(size, id + 1);
+    }
+    this.tokens = new String[size];
+    for (Map.Entry<String, Integer> entry : this.ids.entrySet()) {
+      this.tokens[entry.getValue()] = entry.getKey();
+    }
+  }
+
+  /**
+   * Get a token's ID, e.g. of a special token.
+   * @param token The token, e.g. "</s>".
+   * @return      Its ID.
+   * @throws IllegalArgumentException If the vocabulary lacks the token.
+   */
+  int id(String token) {
+    Integer id = this.ids.get(token);
+    if (id == null) {
+      throw new IllegalArgumentException(
+        "No token " + token + " in vocabulary"
+      );
+    }
+    return id;
+  }
+
+  /**
+   * Get the number of tokens, which is the size of the model's logits.
+   * @return The number.
+   */
+  int size() {
+    return this.tokens.length;
+  }
+
+  /**
+   * Turn text into token IDs, without special tokens.
+   * @param text The text.
+   * @return     The IDs.
+   */
+  List<Integer> encode(String text) {
+    List<Integer> encoded = new ArrayList<>();
+    Matcher pieces = PIECES.matcher(text);
+    while (pieces.find()) {
+      String piece = pieces.group();
+      int[] ids = this.cache.get(piece);
+      if (ids == null) {
+        ids = this.bpe(spell(piece));
+        if (this.cache.size() >= MAX_CACHED) {
+          this.cache.clear();
+        }
+        this.cache.put(piece, ids);
+      }
+      for (int id : ids) {
+        encoded.add(id);
+      }
+    }
+    return encoded;
+  }
+
+  /**
+   * Turn token IDs back into text, leaving out special tokens like "</s>".
+   * @param ids The IDs.
+   * @return    The text.
+   */
+  String decode(List<Integer> ids) {
+    StringBuilder spelled = new StringBuilder();
+    for (int id : ids) {
+      String token = id >= 0 && id < this.tokens.length
+        ? this.tokens[id]
+        : null;
+      if (token != null && !SPECIAL.contains(token)) {
+        spelled.append(token);
+      }
+    }
+    byte[] bytes = new byte[spelled.length()];
+    int length = 0;
+    for (int i = 0; i < spelled.length(); ++i) {
+      char c = spelled.charAt(i);
+      int b = c < CHAR_BYTES.length ? CHAR_BYTES[c] : -1;
+      if (b >= 0) {
+        bytes[length++] = (byte) b;
+      }
+    }
+    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Spell a piece's UTF-8 bytes with printable characters, one per byte.
+   * @param piece The piece.
+   * @return      The spelling.
+   */
+  private static String spell(String piece) {
+    byte[] bytes = piece.getBytes(StandardCharsets.UTF_8);
+    char[] spelled = new char[bytes.length];
+    for (int i = 0; i < bytes.length; ++i) {
+      spelled[i] = BYTE_CHARS[bytes[i] & 0xFF];
+    }
+    return new String(spelled);
+  }
+
+  /**
+   * Merge a spelled piece's characters into tokens, lowest ranked merge first.
+   * @param spelled The piece, as spelled by spell().
+   * @return        The tokens' IDs.
+   */
+  private int[] bpe(String spelled) {
+    List<String> symbols = new ArrayList<>();
+    for (int i = 0; i < spelled.length(); ++i) {
+      symbols.add(String.valueOf(spelled.charAt(i)));
+    }
+    while (symbols.size() > 1) {
+      int best = -1;
+      int bestRank = Integer.MAX_VALUE;
+      for (int i = 0; i + 1 < symbols.size(); ++i) {
+        Integer rank = this.ranks.get(
+          symbols.get(i) + " " + symbols.get(i + 1)
+        );
+        if (rank != null && rank < bestRank) {
+          best = i;
+          bestRank = rank;
+        }
+      }
+      if (best < 0) {
+        break;
+      }
+      // Every occurrence of the pair is merged, left to right.
+      String first = symbols.get(best);
+      String second = symbols.get(best + 1);
+      List<String> merged = new ArrayList<>();
+      for (int i = 0; i < symbols.size(); ++i) {
+        if (
+          i + 1 < symbols.size() &&
+          symbols.get(i).equals(first) &&
+          symbols.get(i + 1).equals(second)
+        ) {
+          merged.add(first + second);
+          ++i;
+        } else {
+          merged.add(symbols.get(i));
+        }
+      }
+      symbols = merged;
+    }
+    int[] ids = new int[symbols.size()];
+    for (int i = 0; i < ids.length; ++i) {
+      Integer id = this.ids.get(symbols.get(i));
+      ids[i] = id != null ? id : this.ids.getOrDefault("<unk>", 0);
+    }
+    return ids;
+  }
+}
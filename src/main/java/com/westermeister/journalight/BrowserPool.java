@@ -0,0 +1,658 @@
+/**
+ * Provides a fixed pool of browsers shared by all scrapers.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.microsoft.playwright.*;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Responsible for sharing a fixed number of browsers between scrapers.
+ * Playwright Java objects may only be used by the thread that created them,
+ * so each browser belongs to one worker thread for its whole life. Scrapers
+ * submit tasks, and whichever worker picks a task up runs it on its own
+ * thread with a page in a fresh, isolated browser context. Browsers are
+ * launched on first use, kept across tasks, and relaunched after serving a
+ * number of pages or when their processes grow past a memory limit. Tasks
+ * that may not need a browser at all can take their page lazily, so Playwright
+ * isn't even started while no task has asked for a page. Rather than launched,
+ * browsers can be connected to a Chromium that's already running, over the
+ * Chrome DevTools Protocol at the URL set with "journalight.cdp".
+ *
+ * Tasks may fork more tasks, e.g. an index page forks one task per article.
+ * Forked tasks go to the forking worker's own queue, which it works through
+ * oldest first; a worker with nothing left steals the newest tasks of the
+ * others, so no browser idles while any source still has pages to load. A
+ * task bound to a URL is only picked up once the host's politeness limits
+ * allow a request, so a worker never sits on one host's rate limit while
+ * another host's pages could be loading. A task whose result is cancelled
+ * before a worker picks it up is dropped.
+ */
+class BrowserPool implements AutoCloseable {
+  /** Default number of pages a browser serves before it's relaunched. */
+  private static final int DEFAULT_MAX_PAGES = 100;
+
+  /** Default resident memory of a browser's processes before it's relaunched. */
+  private static final long DEFAULT_MAX_MEMORY_BYTES = 1L << 30;
+
+  /** Longest a worker waits before looking for tasks again, in milliseconds. */
+  private static final long MAX_IDLE_MS = 1000;
+
+  /** How long a worker waits for busy hosts to free a slot, in milliseconds. */
+  private static final long SLOT_POLL_MS = 50;
+
+  /** System property naming a running Chromium's DevTools URL, e.g. "http://localhost:9222". */
+  static final String CDP_PROPERTY = "journalight.cdp";
+
+  /** Keeps driver process detection from mixing up concurrently started workers. */
+  private static final Object SPAWN_LOCK = new Object();
+
+  /** Tasks submitted from outside the pool, waiting for any worker. */
+  private final Deque<Task> shared = new ConcurrentLinkedDeque<>();
+
+  /** The workers, each with its own queue of forked tasks. */
+  private final List<Worker> workers = new ArrayList<>();
+
+  /** The worker threads. */
+  private final List<Thread> threads = new ArrayList<>();
+
+  /** The worker running on the current thread, if any. */
+  private final ThreadLocal<Worker> self = new ThreadLocal<>();
+
+  /** Keeps tasks bound to a URL polite towards its host. */
+  private final RateLimiter limiter = RateLimiter.shared();
+
+  /** Idle workers wait on this for tasks to be added or finished. */
+  private final Object signal = new Object();
+
+  /** Counts additions and completions of tasks. Guarded by signal. */
+  private long changes;
+
+  /** When the pool was started, for utilization. */
+  private final long startedNanos = System.nanoTime();
+
+  /** Number of pages a browser serves before it's relaunched. */
+  private final int maxPages;
+
+  /** Resident memory of a browser's processes before it's relaunched. */
+  private final long maxMemoryBytes;
+
+  /** DevTools URL of a running Chromium to connect to, or null to launch browsers. */
+  private final String cdpEndpoint = System.getProperty(CDP_PROPERTY);
+
+  /** Set once close() has been called. */
+  private volatile boolean closed;
+
+  /**
+   * Start a pool with default recycling limits.
+   * @param size Number of worker threads, and therefore browsers.
+   */
+  BrowserPool(int size) {
+    this(size, DEFAULT_MAX_PAGES, DEFAULT_MAX_MEMORY_BYTES);
+  }
+
+  /**
+   * Start a pool. Browsers aren't launched until a task needs one.
+   * @param size           Number of worker threads, and therefore browsers.
+   * @param maxPages       Number of pages a browser serves before it's relaunched.
+   * @param maxMemoryBytes Resident memory of a browser's processes before it's relaunched.
+   */
+  BrowserPool(int size, int maxPages, long maxMemoryBytes) {
+    this.maxPages = maxPages;
+    this.maxMemoryBytes = maxMemoryBytes;
+    for (int i = 0; i < size; ++i) {
+      Worker worker = new Worker();
+      this.workers.add(worker);
+      Thread thread = new Thread(worker, "browser-" + i);
+      // Idle browsers shouldn't keep the program alive.
+      thread.setDaemon(true);
+      thread.start();
+      this.threads.add(thread);
+    }
+  }
+
+  /**
+   * Run a task on a worker's thread with a page of its own.
+   * The page lives in a fresh browser context, which is closed when the task returns.
+   * The task may open more pages in the same context via page.context().newPage().
+   * @param task What to do with the page. Must not hand the page to other threads.
+   * @return     The task's result, or its exception.
+   */
+  <T> CompletableFuture<T> submit(Function<Page, T> task) {
+    return this.fork(null, (page, permit) -> task.apply(page));
+  }
+
+  /**
+   * Run a task on a worker's thread, with a page of its own if it asks for one.
+   * @param task What to do with the page's supplier. The browser is only launched,
+   *             and the page only opened, once the task first calls it.
+   * @return     The task's result, or its exception.
+   */
+  <T> CompletableFuture<T> submitLazily(Function<Supplier<Page>, T> task) {
+    return this.forkLazily(null, (pages, permit) -> task.apply(pages));
+  }
+
+  /**
+   * Run a task that loads a URL on a worker's thread with a page of its own.
+   * Called from a task, the new task goes to the current worker's queue, where
+   * idle workers may steal it. The task isn't started until the URL's host
+   * allows a request, and it's handed the claimed in-flight slot.
+   * @param url  The URL the task loads first, or null if it isn't bound to a host.
+   * @param task What to do with the page and the slot, which is null without a URL.
+   *             The slot must be released once the URL has loaded.
+   * @return     The task's result, or its exception.
+   */
+  <T> CompletableFuture<T> fork(
+    String url,
+    BiFunction<Page, RateLimiter.Permit, T> task
+  ) {
+    return this.forkLazily(
+        url,
+        (pages, permit) -> task.apply(pages.get(), permit)
+      );
+  }
+
+  /**
+   * Run a task that loads a URL on a worker's thread, with a page of its own if
+   * it asks for one. Otherwise like fork().
+   * @param url  The URL the task loads first, or null if it isn't bound to a host.
+   * @param task What to do with the page's supplier and the slot. The browser is
+   *             only launched, and the page only opened, once the task first
+   *             calls the supplier.
+   * @return     The task's result, or its exception.
+   */
+  <T> CompletableFuture<T> forkLazily(
+    String url,
+    BiFunction<Supplier<Page>, RateLimiter.Permit, T> task
+  ) {
+    Worker worker = this.self.get();
+    if (this.closed && worker == null) {
+      throw new IllegalStateException("Browser pool is closed");
+    }
+    CompletableFuture<T> future = new CompletableFuture<>();
+    Task queued = new Task(
+      url,
+      future,
+      (runner, permit) -> {
+        try {
+          future.complete(runner.lease(pages -> task.apply(pages, permit)));
+        } catch (Throwable e) {
+          if (permit != null) {
+            permit.release();
+          }
+          future.completeExceptionally(e);
+        }
+      }
+    );
+    (worker != null ? worker.local : this.shared).addLast(queued);
+    this.changed();
+    return future;
+  }
+
+  /**
+   * Describe how busy each worker has been since the pool started.
+   * @return A one-line summary per worker, joined by "; ".
+   */
+  String utilization() {
+    long elapsed = Math.max(1, System.nanoTime() - this.startedNanos);
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < this.workers.size(); ++i) {
+      Worker worker = this.workers.get(i);
+      lines.add(
+        String.format(
+          "%s %d%% busy, %d tasks, %d stolen",
+          this.threads.get(i).getName(),
+          worker.busyNanos * 100 / elapsed,
+          worker.tasksRun,
+          worker.tasksStolen
+        )
+      );
+    }
+    return String.join("; ", lines);
+  }
+
+  /**
+   * Count the browsers launched or connected to since the pool started.
+   * @return The number, relaunches included.
+   */
+  long launches() {
+    long launches = 0;
+    for (Worker worker : this.workers) {
+      launches += worker.launches;
+    }
+    return launches;
+  }
+
+  /** Let queued tasks finish, then close every browser. */
+  @Override
+  public void close() {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    this.changed();
+    try {
+      for (Thread thread : this.threads) {
+        thread.join();
+      }
+    } catch (InterruptedException e) {
+      System.err.println("Interrupt occurred!");
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** A worker thread and the browser it owns. */
+  private class Worker implements Runnable {
+    /** The worker's Playwright instance, or null if not launched. */
+    private Playwright playwright;
+
+    /** The worker's browser, or null if not launched. */
+    private Browser browser;
+
+    /** IDs of the Playwright driver processes, which the browser processes descend from. */
+    private Set<Long> driverPids = new HashSet<>();
+
+    /** Number of pages the current browser has served. */
+    private int pagesServed;
+
+    /** Tasks forked by this worker. It takes the oldest, thieves take the newest. */
+    final Deque<Task> local = new ConcurrentLinkedDeque<>();
+
+    /** Time spent running tasks. Written by the worker only. */
+    volatile long busyNanos;
+
+    /** Number of tasks run. Written by the worker only. */
+    volatile long tasksRun;
+
+    /** Number of browsers launched or connected to. Written by the worker only. */
+    volatile long launches;
+
+    /** Number of tasks stolen from other workers. Written by the worker only. */
+    volatile long tasksStolen;
+
+    /** Run tasks until the pool is closed and every queue is empty. */
+    public void run() {
+      BrowserPool.this.self.set(this);
+      try {
+        while (true) {
+          Task task = BrowserPool.this.next(this);
+          if (task == null) {
+            break;
+          }
+          long start = System.nanoTime();
+          try {
+            task.body.accept(this, task.permit);
+          } finally {
+            this.busyNanos += System.nanoTime() - start;
+            ++this.tasksRun;
+            if (task.stolen) {
+              ++this.tasksStolen;
+            }
+            BrowserPool.this.changed();
+          }
+        }
+      } catch (InterruptedException e) {
+        // Treated like a stop request.
+      } finally {
+        this.shutDown();
+      }
+    }
+
+    /**
+     * Run a task with a page in a fresh context, then relaunch the browser if it's worn out.
+     * @param task What to do with the page's supplier, which opens the page the
+     *             first time it's called.
+     * @return     The task's result.
+     */
+    <T> T lease(Function<Supplier<Page>, T> task) {
+      Lease lease = new Lease();
+      try {
+        return task.apply(lease);
+      } finally {
+        if (lease.context != null) {
+          lease.context.close();
+          if (
+            this.pagesServed >= BrowserPool.this.maxPages ||
+            this.memoryBytes() >= BrowserPool.this.maxMemoryBytes
+          ) {
+            this.shutDown();
+          }
+        }
+      }
+    }
+
+    /** A page for one task, in a fresh context, opened the first time it's asked for. */
+    private class Lease implements Supplier<Page> {
+      /** The page's context, or null if not opened yet. */
+      BrowserContext context;
+
+      /** The page, or null if not opened yet. */
+      private Page page;
+
+      /** Implement interface method. */
+      @Override
+      public Page get() {
+        if (this.page == null) {
+          Worker.this.launch();
+          this.context = Worker.this.browser.newContext();
+          this.context.onPage(opened -> ++Worker.this.pagesServed);
+          this.page = this.context.newPage();
+        }
+        return this.page;
+      }
+    }
+
+    /** Launch a browser unless one is already running. */
+    private void launch() {
+      if (this.browser != null && this.browser.isConnected()) {
+        return;
+      }
+      Events.BrowserLaunch event = new Events.BrowserLaunch();
+      event.begin();
+      event.relaunch = this.pagesServed > 0;
+      this.shutDown();
+      synchronized (SPAWN_LOCK) {
+        Set<Long> before = childPids();
+        this.playwright = Playwright.create();
+        this.driverPids = childPids();
+        this.driverPids.removeAll(before);
+      }
+      String endpoint = BrowserPool.this.cdpEndpoint;
+      if (endpoint != null) {
+        try {
+          this.browser = this.playwright.chromium().connectOverCDP(endpoint);
+          event.connected = true;
+        } catch (PlaywrightException e) {
+          System.err.format(
+            "Could not connect to Chromium at %s, launching one instead: %s%n",
+            endpoint,
+            e
+          );
+          Metrics.ERRORS.inc("browser", "connect");
+        }
+      }
+      if (this.browser == null) {
+        this.browser = this.playwright.chromium().launch();
+      }
+      this.pagesServed = 0;
+      ++this.launches;
+      event.commit();
+      Startup.browserReady();
+    }
+
+    /** Close the browser and its Playwright instance, if running. */
+    private void shutDown() {
+      if (this.playwright != null) {
+        try {
+          this.playwright.close();
+        } catch (PlaywrightException e) {
+          System.err.format("Could not close browser cleanly: %s%n", e);
+        }
+      }
+      this.playwright = null;
+      this.browser = null;
+      this.driverPids = new HashSet<>();
+    }
+
+    /**
+     * Measure the resident memory of the driver and browser processes.
+     * @return The total in bytes, or 0 where /proc isn't available.
+     */
+    private long memoryBytes() {
+      long total = 0;
+      for (long pid : this.driverPids) {
+        ProcessHandle driver = ProcessHandle.of(pid).orElse(null);
+        if (driver == null) {
+          continue;
+        }
+        total += residentBytes(driver.pid());
+        List<ProcessHandle> browserProcesses = driver
+          .descendants()
+          .collect(Collectors.toList());
+        for (ProcessHandle process : browserProcesses) {
+          total += residentBytes(process.pid());
+        }
+      }
+      return total;
+    }
+  }
+
+  /**
+   * Wait for a task the worker may run now: its own oldest, else a submitted
+   * one, else another worker's newest.
+   * @param worker The worker asking.
+   * @return       The task, now owned by the worker, or null once the pool is
+   *               closed and every queue is empty.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  private Task next(Worker worker) throws InterruptedException {
+    while (true) {
+      long seen;
+      synchronized (this.signal) {
+        seen = this.changes;
+      }
+      // Hosts that turned a task down during this scan, with a URL on each.
+      Map<String, String> busy = new HashMap<>();
+      Task task = this.take(worker.local, true, busy);
+      if (task == null) {
+        task = this.take(this.shared, true, busy);
+      }
+      for (int i = 0; task == null && i < this.workers.size(); ++i) {
+        Worker victim = this.workers.get(i);
+        if (victim != worker) {
+          task = this.take(victim.local, false, busy);
+          if (task != null) {
+            task.stolen = true;
+          }
+        }
+      }
+      if (task != null) {
+        return task;
+      }
+
+      long waitMs = busy.isEmpty() ? MAX_IDLE_MS : this.waitMillis(busy);
+      synchronized (this.signal) {
+        if (this.closed && this.idle()) {
+          this.signal.notifyAll();
+          return null;
+        }
+        if (this.changes == seen) {
+          this.signal.wait(waitMs);
+        }
+      }
+    }
+  }
+
+  /**
+   * Take the first task from a queue whose host allows a request now.
+   * @param tasks    The queue.
+   * @param fromHead Whether to look from the oldest task, rather than the newest.
+   * @param busy     Hosts known to turn tasks down, which gets any new ones added.
+   * @return         The task, with its in-flight slot claimed, or null.
+   */
+  private Task take(
+    Deque<Task> tasks,
+    boolean fromHead,
+    Map<String, String> busy
+  ) {
+    Iterator<Task> candidates = fromHead
+      ? tasks.iterator()
+      : tasks.descendingIterator();
+    while (candidates.hasNext()) {
+      Task task = candidates.next();
+      if (task.host != null && busy.containsKey(task.host)) {
+        continue;
+      }
+      // Another worker may have taken it since.
+      if (!tasks.removeFirstOccurrence(task)) {
+        continue;
+      }
+      // Nobody waits for a cancelled task, so it's dropped unrun.
+      if (task.result.isDone()) {
+        continue;
+      }
+      if (task.url == null) {
+        return task;
+      }
+      task.permit = this.limiter.tryAcquire(task.url);
+      if (task.permit != null) {
+        return task;
+      }
+      busy.put(task.host, task.url);
+      if (fromHead) {
+        tasks.addFirst(task);
+      } else {
+        tasks.addLast(task);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Work out how long to wait for a busy host to allow a request.
+   * @param busy Hosts that turned tasks down, with a URL on each.
+   * @return     The wait in milliseconds.
+   */
+  private long waitMillis(Map<String, String> busy) {
+    long nanos = Long.MAX_VALUE;
+    for (String url : busy.values()) {
+      nanos = Math.min(nanos, this.limiter.nanosUntilToken(url));
+    }
+    // With tokens to spare, the host is waiting on in-flight slots instead.
+    if (nanos == 0) {
+      return SLOT_POLL_MS;
+    }
+    return Math.min(TimeUnit.NANOSECONDS.toMillis(nanos) + 1, MAX_IDLE_MS);
+  }
+
+  /**
+   * Check whether every queue is empty.
+   * @return True if no task is waiting.
+   */
+  private boolean idle() {
+    if (!this.shared.isEmpty()) {
+      return false;
+    }
+    for (Worker worker : this.workers) {
+      if (!worker.local.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Wake idle workers, since a task was added or finished, or the pool closed. */
+  private void changed() {
+    synchronized (this.signal) {
+      ++this.changes;
+      this.signal.notifyAll();
+    }
+  }
+
+  /** A queued task. */
+  private static class Task {
+    /** The URL the task loads first, or null. */
+    final String url;
+
+    /** The URL's host, or null. */
+    final String host;
+
+    /** The task's result, which is done before the task runs only if it was cancelled. */
+    final CompletableFuture<?> result;
+
+    /** Runs the task on a worker with the claimed slot. */
+    final BiConsumer<Worker, RateLimiter.Permit> body;
+
+    /** The claimed in-flight slot. Set by the worker that took the task. */
+    RateLimiter.Permit permit;
+
+    /** Whether the task was stolen from another worker's queue. */
+    boolean stolen;
+
+    Task(
+      String url,
+      CompletableFuture<?> result,
+      BiConsumer<Worker, RateLimiter.Permit> body
+    ) {
+      this.url = url;
+      this.host = url == null ? null : host(url);
+      this.result = result;
+      this.body = body;
+    }
+  }
+
+  /**
+   * Get a URL's host, the way RateLimiter buckets requests.
+   * @param url The URL.
+   * @return    The host, or an empty string if there is none.
+   */
+  private static String host(String url) {
+    try {
+      String host = URI.create(url).getHost();
+      return host == null ? "" : host;
+    } catch (IllegalArgumentException e) {
+      return "";
+    }
+  }
+
+  /**
+   * List the Playwright driver processes started by this JVM.
+   * @return Their process IDs.
+   */
+  private static Set<Long> childPids() {
+    return ProcessHandle
+      .current()
+      .children()
+      .filter(
+        process ->
+          process
+            .info()
+            .commandLine()
+            .orElse("playwright")
+            .contains("playwright")
+      )
+      .map(ProcessHandle::pid)
+      .collect(Collectors.toCollection(HashSet::new));
+  }
+
+  /**
+   * Read a process's resident set size from /proc.
+   * @param pid The process ID.
+   * @return    The size in bytes, or 0 if unknown.
+   */
+  private static long residentBytes(long pid) {
+    Path status = Paths.get("/proc", String.valueOf(pid), "status");
+    try {
+      for (String line : Files.readAllLines(status)) {
+        if (line.startsWith("VmRSS:")) {
+          return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // Not Linux, or the process is gone.
+    }
+    return 0;
+  }
+}
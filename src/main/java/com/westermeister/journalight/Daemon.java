@@ -0,0 +1,473 @@
+/**
+ * Provides a long-running mode that keeps the digest fresh and serves it over HTTP.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Responsible for keeping a digest fresh without paying for startup each time.
+ * Browsers and the summarizer stay warm between refreshes, and each source is
+ * scraped again on its own schedule. Every refresh renders the digest into a
+ * snapshot up front, so requests are answered from memory and never wait for
+ * scraping.
+ *
+ * A source's interval can be set with a system property named
+ * "journalight.refresh.SOURCE", e.g. -Djournalight.refresh.npr=10m.
+ * Intervals take s, m or h suffixes, or ISO-8601 durations.
+ */
+class Daemon implements AutoCloseable {
+  /** Time between refreshes of a source without a configured interval. */
+  private static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(15);
+
+  /** Most hits a query is answered with. */
+  private static final int MAX_HITS = 100;
+
+  /** Does the scraping. Its browsers stay up between refreshes. */
+  private final Scraper scraper;
+
+  /** Does the summarizing. Its worker stays up between refreshes. */
+  private final Summarizer summarizer;
+
+  /** What earlier refreshes scraped, or null to scrape everything each time. */
+  private final SeenStore seen;
+
+  /** Stories summarized so far by any source, or null to summarize every item. */
+  private volatile Duplicates duplicates;
+
+  /** Keeps every refresh's items searchable, or null. */
+  private volatile SearchIndex index;
+
+  /** Keeps every refresh's items, or null. */
+  private volatile RunArchive archive;
+
+  /** Time between refreshes, by source key. */
+  private final Map<String, Duration> intervals;
+
+  /** The latest items of each source that has been refreshed. */
+  private final Map<String, List<Map<String, String>>> latest =
+    new ConcurrentHashMap<>();
+
+  /** Runs the refreshes. */
+  private final ScheduledExecutorService scheduler;
+
+  /** Serves the snapshot. */
+  private final HttpServer server;
+
+  /** Runs the server's request handlers. */
+  private final ExecutorService handlers = Executors.newFixedThreadPool(4);
+
+  /** Tells snapshots apart in ETags, also across restarts. */
+  private final String epoch = Long.toHexString(System.currentTimeMillis());
+
+  /** Number of snapshots rendered so far. Guarded by this. */
+  private long version;
+
+  /** Released by close(). */
+  private final CountDownLatch closed = new CountDownLatch(1);
+
+  /** The digest as of the last refresh, ready to be sent. */
+  private volatile Snapshot snapshot;
+
+  /**
+   * Set up the daemon without starting anything.
+   * @param scraper    Does the scraping.
+   * @param summarizer Does the summarizing.
+   * @param seen       What earlier refreshes scraped, or null to scrape everything each time.
+   * @param intervals  Time between refreshes, by source key. Sources not listed aren't scraped.
+   * @param address    Where to serve the digest.
+   * @throws IOException If the address can't be bound.
+   */
+  Daemon(
+    Scraper scraper,
+    Summarizer summarizer,
+    SeenStore seen,
+    Map<String, Duration> intervals,
+    InetSocketAddress address
+  ) throws IOException {
+    this.scraper = scraper;
+    this.summarizer = summarizer;
+    this.seen = seen;
+    this.intervals = intervals;
+    this.scheduler =
+      Executors.newScheduledThreadPool(
+        Math.max(1, intervals.size()),
+        task -> {
+          Thread thread = new Thread(task, "daemon-refresh");
+          thread.setDaemon(true);
+          return thread;
+        }
+      );
+    this.server = HttpServer.create(address, 0);
+    this.server.createContext("/", this::serve);
+    this.server.setExecutor(this.handlers);
+    this.render();
+  }
+
+  /**
+   * Read each source's refresh interval from the system properties.
+   * @return Time between refreshes, by source key, for every source.
+   */
+  static Map<String, Duration> intervals() {
+    Map<String, Duration> intervals = new HashMap<>();
+    for (String source : Scraper.SOURCES.keySet()) {
+      String configured = System.getProperty("journalight.refresh." + source);
+      Duration interval = DEFAULT_INTERVAL;
+      if (configured != null) {
+        try {
+          interval = parseInterval(configured);
+        } catch (RuntimeException e) {
+          System.err.format(
+            "Ignoring malformed refresh interval for %s: %s%n",
+            source,
+            configured
+          );
+        }
+      }
+      intervals.put(source, interval);
+    }
+    return intervals;
+  }
+
+  /**
+   * Parse an interval like "90s", "15m", "2h", "7d" or "PT15M".
+   * @param interval The interval.
+   * @return         The duration.
+   */
+  static Duration parseInterval(String interval) {
+    String trimmed = interval.trim().toLowerCase();
+    if (trimmed.startsWith("p")) {
+      return Duration.parse(trimmed.toUpperCase());
+    }
+    long amount = Long.parseLong(trimmed.substring(0, trimmed.length() - 1));
+    switch (trimmed.charAt(trimmed.length() - 1)) {
+      case 's':
+        return Duration.ofSeconds(amount);
+      case 'm':
+        return Duration.ofMinutes(amount);
+      case 'h':
+        return Duration.ofHours(amount);
+      case 'd':
+        return Duration.ofDays(amount);
+      default:
+        throw new IllegalArgumentException("Unknown unit in " + interval);
+    }
+  }
+
+  /**
+   * Give near-duplicates of stories summarized before by any source their summaries.
+   * Must be called before start().
+   * @param duplicates The stories summarized so far, or null to summarize every item.
+   */
+  void useDuplicates(Duplicates duplicates) {
+    this.duplicates = duplicates;
+  }
+
+  /**
+   * Add every refresh's items to a full-text index, and serve it at "/search".
+   * Must be called before start().
+   * @param index The index, or null to neither index nor serve queries.
+   */
+  void useIndex(SearchIndex index) {
+    this.index = index;
+  }
+
+  /**
+   * Append every refresh's items to an archive of runs.
+   * Must be called before start().
+   * @param archive The archive, or null to keep only the latest items.
+   */
+  void useArchive(RunArchive archive) {
+    this.archive = archive;
+  }
+
+  /** Start serving, warm up the summarizer, and start refreshing every source right away. */
+  void start() {
+    this.server.start();
+    this.scheduler.execute(
+      () -> {
+        if (!this.summarizer.isHealthy()) {
+          System.err.println("Summarizer is not answering yet");
+        }
+      }
+    );
+    for (Map.Entry<String, Duration> entry : this.intervals.entrySet()) {
+      this.scheduler.scheduleWithFixedDelay(
+        () -> this.refresh(entry.getKey()),
+        0,
+        entry.getValue().toMillis(),
+        TimeUnit.MILLISECONDS
+      );
+    }
+  }
+
+  /**
+   * Get the port the digest is served on.
+   * @return The port, which is useful when the daemon was given port 0.
+   */
+  int port() {
+    return this.server.getAddress().getPort();
+  }
+
+  /**
+   * Wait until close() is called.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  void awaitClose() throws InterruptedException {
+    this.closed.await();
+  }
+
+  /** Stop serving and refreshing. The scraper and summarizer are left to their owners. */
+  @Override
+  public void close() {
+    if (this.closed.getCount() == 0) {
+      return;
+    }
+    this.scheduler.shutdownNow();
+    this.server.stop(0);
+    this.handlers.shutdown();
+    this.closed.countDown();
+  }
+
+  /**
+   * Scrape and summarize one source, then publish the result.
+   * A refresh that fails or finds nothing keeps the source's previous items.
+   * @param source The source's key.
+   */
+  void refresh(String source) {
+    long start = System.nanoTime();
+    SummaryPipeline pipeline = new SummaryPipeline(this.summarizer);
+    pipeline.useDuplicates(this.duplicates);
+    pipeline.start();
+    List<Map<String, String>> items;
+    try {
+      items = this.scraper.run(source, pipeline);
+      pipeline.finish();
+    } catch (RuntimeException e) {
+      System.err.format(
+        "Refreshing %s failed, keeping the last digest: %s%n",
+        source,
+        e
+      );
+      // What was recorded may lack its summaries, so it mustn't be saved later.
+      if (this.seen != null) {
+        this.seen.discard(source);
+      }
+      return;
+    }
+    if (items.isEmpty() && this.latest.containsKey(source)) {
+      System.err.format(
+        "Refreshing %s found nothing, keeping the last digest%n",
+        source
+      );
+      return;
+    }
+    // Only saved once every summary is in, so no unsummarized text is ever reused.
+    if (this.seen != null) {
+      this.seen.save(source);
+    }
+    this.publish(source, items);
+    SearchIndex index = this.index;
+    if (index != null) {
+      index.add(source, items, Instant.now());
+      index.flush();
+    }
+    RunArchive archive = this.archive;
+    if (archive != null) {
+      archive.append(source, items, Instant.now());
+    }
+    System.out.format(
+      "Refreshed %s: %d items in %ds%n",
+      source,
+      items.size(),
+      TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)
+    );
+    // Refreshes share the cache, so this covers all since the last report.
+    String assets = this.scraper.assetStats();
+    if (assets != null) {
+      System.out.format("Asset cache: %s%n", assets);
+    }
+  }
+
+  /**
+   * Replace a source's items and re-render the snapshot.
+   * @param source The source's key.
+   * @param items  Its latest items.
+   */
+  void publish(String source, List<Map<String, String>> items) {
+    this.latest.put(source, items);
+    this.render();
+  }
+
+  /** Render the latest items of every source into a new snapshot. */
+  private synchronized void render() {
+    Map<String, List<Map<String, String>>> result = new HashMap<>(this.latest);
+    ++this.version;
+    this.snapshot =
+      new Snapshot(
+        Digest.text(result).getBytes(StandardCharsets.UTF_8),
+        Digest.json(result).getBytes(StandardCharsets.UTF_8),
+        "\"" + this.epoch + "-" + this.version + "\"",
+        DateTimeFormatter.RFC_1123_DATE_TIME.format(
+          Instant.now().atOffset(ZoneOffset.UTC)
+        )
+      );
+  }
+
+  /**
+   * Answer a request from the current snapshot.
+   * "/" and "/digest" serve plain text, "/digest.json" serves JSON.
+   * "/metrics" serves the metrics as of now, for Prometheus to scrape.
+   * "/search" serves hits of the full-text index as JSON, newest first, for
+   * the query parameters "q", "source", "from", "until" and "limit".
+   * @param exchange The request and its response.
+   * @throws IOException If the response can't be sent.
+   */
+  private void serve(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      Snapshot current = this.snapshot;
+      String method = exchange.getRequestMethod();
+      String path = exchange.getRequestURI().getPath();
+      byte[] body;
+      String type;
+      // Live responses aren't part of the snapshot, so have no ETag.
+      boolean live = false;
+      if (path.equals("/") || path.equals("/digest")) {
+        body = current.text;
+        type = "text/plain; charset=utf-8";
+      } else if (path.equals("/digest.json")) {
+        body = current.json;
+        type = "application/json; charset=utf-8";
+      } else if (path.equals("/metrics")) {
+        body = Metrics.text().getBytes(StandardCharsets.UTF_8);
+        type = Metrics.CONTENT_TYPE;
+        live = true;
+      } else if (path.equals("/search") && this.index != null) {
+        try {
+          body =
+            this.search(exchange.getRequestURI().getRawQuery())
+              .getBytes(StandardCharsets.UTF_8);
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+          exchange.sendResponseHeaders(400, -1);
+          return;
+        }
+        type = "application/json; charset=utf-8";
+        live = true;
+      } else {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      if (!method.equals("GET") && !method.equals("HEAD")) {
+        exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+
+      exchange.getResponseHeaders().set("Content-Type", type);
+      if (live) {
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(
+          200,
+          method.equals("HEAD") ? -1 : body.length
+        );
+        if (!method.equals("HEAD")) {
+          exchange.getResponseBody().write(body);
+        }
+        return;
+      }
+      exchange.getResponseHeaders().set("ETag", current.etag);
+      exchange.getResponseHeaders().set("Last-Modified", current.lastModified);
+      exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+      String cached = exchange.getRequestHeaders().getFirst("If-None-Match");
+      if (current.etag.equals(cached)) {
+        exchange.sendResponseHeaders(304, -1);
+        return;
+      }
+      if (method.equals("HEAD")) {
+        exchange.sendResponseHeaders(200, -1);
+        return;
+      }
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+    }
+  }
+
+  /**
+   * Answer a query of the full-text index.
+   * @param query The request's raw query string, or null.
+   * @return      The hits as a JSON list of {"source", "url", "text", "time"} objects.
+   * @throws DateTimeParseException   If "from" or "until" isn't a date or an instant.
+   * @throws IllegalArgumentException If "limit" isn't a positive number.
+   */
+  private String search(String query) {
+    Map<String, String> parameters = new HashMap<>();
+    for (String parameter : query == null ? new String[0] : query.split("&")) {
+      String[] pair = parameter.split("=", 2);
+      parameters.put(
+        URLDecoder.decode(pair[0], StandardCharsets.UTF_8),
+        pair.length < 2
+          ? ""
+          : URLDecoder.decode(pair[1], StandardCharsets.UTF_8)
+      );
+    }
+    int limit = Integer.parseInt(parameters.getOrDefault("limit", "20"));
+    String source = parameters.get("source");
+    List<Map<String, String>> hits = new ArrayList<>();
+    for (
+      SearchIndex.Hit hit : this.index.search(
+        parameters.get("q"),
+        source == null || source.isEmpty() ? null : source,
+        SearchIndex.time(parameters.get("from")),
+        SearchIndex.time(parameters.get("until")),
+        Math.min(limit, MAX_HITS)
+      )
+    ) {
+      Map<String, String> entry = new LinkedHashMap<>();
+      entry.put("source", hit.source);
+      entry.put("url", hit.url);
+      entry.put("text", hit.text);
+      entry.put("time", hit.time.toString());
+      hits.add(entry);
+    }
+    return new Gson().toJson(hits);
+  }
+
+  /** A rendered digest. */
+  private static class Snapshot {
+    final byte[] text;
+    final byte[] json;
+    final String etag;
+    final String lastModified;
+
+    Snapshot(byte[] text, byte[] json, String etag, String lastModified) {
+      this.text = text;
+      this.json = json;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * Provides the rendering of scraped news into a digest.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.google.gson.Gson;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Responsible for turning scraped and summarized news into something to read. */
+final class Digest {
+  private Digest() {}
+
+  /**
+   * Render a digest as plain text: a numbered list per source.
+   * @param result Scraped data by source key, as returned by Scraper.run().
+   * @return       The digest. Sources missing from the result are listed as empty.
+   */
+  static String text(Map<String, List<Map<String, String>>> result) {
+    StringBuilder text = new StringBuilder();
+    for (SourceDefinition source : Scraper.SOURCES.values()) {
+      text.append(String.format("From %s:%n%n", source.name));
+      List<Map<String, String>> items = result.getOrDefault(
+        source.key,
+        List.of()
+      );
+      for (int i = 0; i < items.size(); ++i) {
+        text.append(String.format("%d. %s%n", i + 1, items.get(i).get("text")));
+      }
+      text.append(System.lineSeparator());
+    }
+    return text.toString();
+  }
+
+  /**
+   * Render a digest as JSON: an object with a list of {"text", "url"} objects per source.
+   * Items found to tell the same story as another have its URL as "sameStoryAs".
+   * @param result Scraped data by source key, as returned by Scraper.run().
+   * @return       The digest.
+   */
+  static String json(Map<String, List<Map<String, String>>> result) {
+    Map<String, Object> digest = new LinkedHashMap<>();
+    for (String source : Scraper.SOURCES.keySet()) {
+      List<Map<String, String>> items = result.getOrDefault(source, List.of());
+      List<Map<String, String>> entries = new ArrayList<>();
+      for (Map<String, String> item : items) {
+        Map<String, String> entry = new LinkedHashMap<>();
+        entry.put("text", item.get("text"));
+        entry.put("url", item.get("url"));
+        if (item.containsKey("sameStoryAs")) {
+          entry.put("sameStoryAs", item.get("sameStoryAs"));
+        }
+        entries.add(entry);
+      }
+      digest.put(source, entries);
+    }
+    return new Gson().toJson(digest);
+  }
+}
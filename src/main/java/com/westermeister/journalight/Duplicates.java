@@ -0,0 +1,253 @@
+/**
+ * Provides detection of the same story told by several sources.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Responsible for remembering which stories have been summarized already, so
+ * a near-duplicate from another source can reuse the summary. Outlets often
+ * run the same wire story with a few words changed, so texts are compared by
+ * the Jaccard similarity of their sets of word 3-grams ("shingles").
+ *
+ * Each text is boiled down to a MinHash signature: for each of 128 hash
+ * functions, the smallest hash of any of its shingles. Two signatures agree
+ * in about as many places as the texts' shingle sets overlap. To find similar
+ * signatures without comparing against all of them, they're indexed by 32
+ * bands of 4 hashes each (locality-sensitive hashing), and only signatures
+ * that share a whole band are compared. Pairs that are at least half similar
+ * nearly always share one; pairs that are less than a quarter similar rarely do.
+ *
+ * A story is never a duplicate of itself: one found again at the same URL,
+ * e.g. an updated article on a later run, isn't matched against its earlier
+ * text, and replaces it once summarized. The oldest stories are forgotten once
+ * there are too many. Safe for use by several pipelines at once.
+ */
+class Duplicates {
+  /** Least estimated similarity of two texts of the same story. */
+  static final double THRESHOLD = 0.5;
+
+  /** Number of bands a signature is indexed by. */
+  private static final int BANDS = 32;
+
+  /** Number of hashes in a band. */
+  private static final int ROWS = 4;
+
+  /** Words in a shingle. */
+  private static final int SHINGLE = 3;
+
+  /** Default number of stories remembered. */
+  private static final int DEFAULT_CAPACITY = 10_000;
+
+  /** Seeds one hash function each. Fixed, so signatures stay comparable. */
+  private static final long[] SEEDS = new SplittableRandom(0x5EED)
+    .longs(BANDS * ROWS)
+    .toArray();
+
+  /** Number of stories remembered. */
+  private final int capacity;
+
+  /** Every story remembered, oldest first. */
+  private final Deque<Story> stories = new ArrayDeque<>();
+
+  /** The stories by band, keyed by the band's number and hashes. */
+  private final Map<Long, List<Story>> bands = new HashMap<>();
+
+  /** The stories by the URL their text was found at. */
+  private final Map<String, Story> urls = new HashMap<>();
+
+  /** Remember the default number of stories. */
+  Duplicates() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Set the number of stories to remember.
+   * @param capacity Number of stories remembered before the oldest are forgotten.
+   */
+  Duplicates(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Find the most similar story summarized so far, other than the text's own.
+   * @param signature The text's signature.
+   * @param url       Where the text was found. A story from there is skipped.
+   * @return          The story, or null if none is similar enough.
+   */
+  synchronized Story find(long[] signature, String url) {
+    Story best = null;
+    double bestSimilarity = THRESHOLD;
+    for (long key : keys(signature)) {
+      for (Story story : this.bands.getOrDefault(key, List.of())) {
+        if (url != null && url.equals(story.url)) {
+          continue;
+        }
+        double similarity = similarity(signature, story.signature);
+        // A story sharing several bands is seen several times, which is harmless.
+        if (similarity >= bestSimilarity) {
+          best = story;
+          bestSimilarity = similarity;
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Remember a summarized story, forgetting the oldest if there are too many.
+   * @param signature The text's signature.
+   * @param url       Where the text was found. Replaces the story found there before, if any.
+   * @param summary   Its summary.
+   */
+  synchronized void add(long[] signature, String url, String summary) {
+    Story story = new Story(signature, url, summary);
+    Story previous = url == null ? null : this.urls.put(url, story);
+    if (previous != null) {
+      this.stories.remove(previous);
+      this.unband(previous);
+    }
+    this.stories.addLast(story);
+    for (long key : keys(signature)) {
+      this.bands.computeIfAbsent(key, k -> new ArrayList<>()).add(story);
+    }
+    while (this.stories.size() > this.capacity) {
+      Story oldest = this.stories.removeFirst();
+      this.urls.remove(oldest.url, oldest);
+      this.unband(oldest);
+    }
+  }
+
+  /**
+   * Take a story out of the bands it's indexed by.
+   * @param story The story.
+   */
+  private void unband(Story story) {
+    for (long key : keys(story.signature)) {
+      List<Story> band = this.bands.get(key);
+      band.remove(story);
+      if (band.isEmpty()) {
+        this.bands.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Get the number of stories remembered.
+   * @return The number.
+   */
+  synchronized int size() {
+    return this.stories.size();
+  }
+
+  /**
+   * Compute a text's MinHash signature.
+   * @param text The text.
+   * @return     The signature, or null if the text is too short to have a shingle.
+   */
+  static long[] signature(String text) {
+    if (text == null) {
+      return null;
+    }
+    List<Integer> words = new ArrayList<>();
+    String lowered = text.toLowerCase(Locale.US);
+    for (String word : lowered.split("[^\\p{L}\\p{N}]+")) {
+      if (!word.isEmpty()) {
+        words.add(word.hashCode());
+      }
+    }
+    if (words.size() < SHINGLE) {
+      return null;
+    }
+    long[] signature = new long[BANDS * ROWS];
+    Arrays.fill(signature, Long.MAX_VALUE);
+    for (int i = 0; i + SHINGLE <= words.size(); ++i) {
+      long shingle = 0;
+      for (int k = 0; k < SHINGLE; ++k) {
+        shingle = mix(shingle + words.get(i + k));
+      }
+      for (int j = 0; j < signature.length; ++j) {
+        // Kept non-negative, so every hash is at most the initial Long.MAX_VALUE.
+        long hash = mix(shingle ^ SEEDS[j]) >>> 1;
+        if (hash < signature[j]) {
+          signature[j] = hash;
+        }
+      }
+    }
+    return signature;
+  }
+
+  /**
+   * Estimate how similar two texts are from their signatures.
+   * @param a One text's signature.
+   * @param b The other text's signature.
+   * @return  The share of hashes they agree on, about the Jaccard similarity
+   *          of their shingles.
+   */
+  static double similarity(long[] a, long[] b) {
+    int same = 0;
+    for (int i = 0; i < a.length; ++i) {
+      if (a[i] == b[i]) {
+        ++same;
+      }
+    }
+    return (double) same / a.length;
+  }
+
+  /**
+   * Get the keys a signature is indexed by, one per band.
+   * @param signature The signature.
+   * @return          The keys, each mixing the band's number with its hashes.
+   */
+  private static long[] keys(long[] signature) {
+    long[] keys = new long[BANDS];
+    for (int band = 0; band < BANDS; ++band) {
+      long key = band;
+      for (int row = 0; row < ROWS; ++row) {
+        key = mix(key * 31 + signature[band * ROWS + row]);
+      }
+      keys[band] = key;
+    }
+    return keys;
+  }
+
+  /**
+   * Scramble the bits of a number, as in SplitMix64.
+   * @param x The number.
+   * @return  Its hash.
+   */
+  private static long mix(long x) {
+    x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+    x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+    return x ^ (x >>> 31);
+  }
+
+  /** A story that has been summarized. */
+  static final class Story {
+    /** Its text's signature. */
+    final long[] signature;
+
+    /** Where its text was found. */
+    final String url;
+
+    /** Its summary. */
+    final String summary;
+
+    Story(long[] signature, String url, String summary) {
+      this.signature = signature;
+      this.url = url;
+      this.summary = summary;
+    }
+  }
+}
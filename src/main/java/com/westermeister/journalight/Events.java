@@ -0,0 +1,200 @@
+/**
+ * Provides Flight Recorder events for every stage of a run.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+
+/**
+ * Responsible for telling JDK Flight Recorder where a run's time goes.
+ * Each stage of scraping and summarizing has an event type, all under the
+ * "Journalight" category. Events cost next to nothing unless a recording is
+ * running, which can be one started by record() or one attached from outside,
+ * e.g. with -XX:StartFlightRecording or jcmd.
+ */
+final class Events {
+  /** Name of the system property that makes App record the run to a file. */
+  static final String RECORDING_PROPERTY = "journalight.jfr";
+
+  private Events() {}
+
+  /**
+   * Start recording this JVM with the "profile" settings plus every Journalight event.
+   * The recording is written to the file when it's stopped.
+   * @param destination The file to write.
+   * @return            The running recording. Stop it to write the file.
+   */
+  static Recording record(Path destination) {
+    try {
+      Recording recording = new Recording(
+        Configuration.getConfiguration("profile")
+      );
+      recording.setName("journalight");
+      recording.setToDisk(true);
+      recording.setDestination(destination);
+      recording.start();
+      return recording;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (ParseException e) {
+      throw new IllegalStateException(
+        "The JDK's profile settings are invalid",
+        e
+      );
+    }
+  }
+
+  /** A browser and its Playwright driver being launched. */
+  @Name("journalight.BrowserLaunch")
+  @Label("Browser Launch")
+  @Category({ "Journalight", "Scraping" })
+  static class BrowserLaunch extends Event {
+    @Label("Relaunch")
+    @Description("Whether a worn-out browser was replaced")
+    boolean relaunch;
+
+    @Label("Connected")
+    @Description("Whether a running Chromium was connected to over CDP")
+    boolean connected;
+  }
+
+  /** A page being loaded, by either engine, until it's ready to be read. */
+  @Name("journalight.Navigate")
+  @Label("Navigate")
+  @Category({ "Journalight", "Scraping" })
+  static class Navigate extends Event {
+    @Label("Source")
+    String source;
+
+    @Label("URL")
+    String url;
+
+    @Label("Engine")
+    String engine;
+
+    @Label("Bytes")
+    @Description("Size of the document as transferred, if known")
+    @DataAmount
+    long bytes;
+  }
+
+  /** A wait for a host's politeness limits. */
+  @Name("journalight.RateLimit")
+  @Label("Rate Limit Wait")
+  @Category({ "Journalight", "Scraping" })
+  static class RateLimit extends Event {
+    @Label("Source")
+    String source;
+
+    @Label("URL")
+    String url;
+  }
+
+  /** An extraction being read from a page. */
+  @Name("journalight.Extract")
+  @Label("Extract")
+  @Category({ "Journalight", "Scraping" })
+  static class Extract extends Event {
+    @Label("Source")
+    String source;
+
+    @Label("URL")
+    String url;
+
+    @Label("Engine")
+    String engine;
+
+    @Label("Fields")
+    int fields;
+  }
+
+  /** A scraped item being stored and, if it needs a summary, queued for one. */
+  @Name("journalight.Store")
+  @Label("Store")
+  @Category({ "Journalight", "Scraping" })
+  static class Store extends Event {
+    @Label("Source")
+    String source;
+
+    @Label("URL")
+    String url;
+
+    @Label("Needs Summary")
+    boolean needsSummary;
+
+    @Label("Text Bytes")
+    @DataAmount
+    long bytes;
+  }
+
+  /** A summarizer worker process being started and loading its model. */
+  @Name("journalight.WorkerStart")
+  @Label("Summarizer Worker Start")
+  @Category({ "Journalight", "Summarizing" })
+  static class WorkerStart extends Event {
+    @Label("Command")
+    String command;
+
+    @Label("Model")
+    String model;
+
+    @Label("Process ID")
+    long pid;
+  }
+
+  /** One call to the summarizer, cache lookups included. */
+  @Name("journalight.SummarizeBatch")
+  @Label("Summarize Batch")
+  @Category({ "Journalight", "Summarizing" })
+  static class SummarizeBatch extends Event {
+    @Label("Texts")
+    int texts;
+
+    @Label("Cache Hits")
+    int cacheHits;
+
+    @Label("Input Bytes")
+    @DataAmount
+    long inputBytes;
+
+    @Label("Output Bytes")
+    @DataAmount
+    long outputBytes;
+  }
+
+  /**
+   * One item summarized by the pipeline.
+   * Items are summarized in batches, so the duration is that of the item's batch.
+   */
+  @Name("journalight.SummarizeItem")
+  @Label("Summarize Item")
+  @Category({ "Journalight", "Summarizing" })
+  static class SummarizeItem extends Event {
+    @Label("URL")
+    String url;
+
+    @Label("Batch Size")
+    int batchSize;
+
+    @Label("Input Bytes")
+    @DataAmount
+    long inputBytes;
+
+    @Label("Output Bytes")
+    @DataAmount
+    long outputBytes;
+  }
+}
@@ -0,0 +1,269 @@
+/**
+ * Provides summarization by picking out sentences, without leaving the JVM.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Responsible for summarizing text extractively, with TextRank. A text is
+ * split into sentences, each sentence is scored by how much its words overlap
+ * with every other sentence's, and the best-scoring sentences that fit into
+ * the length of a tweet are kept, in their original order.
+ *
+ * Summaries are worse than the model's, since nothing is reworded, but take
+ * well under a millisecond and need neither Python nor the model's memory.
+ * The same selection trims long texts for a ModelSummarizer.
+ */
+class ExtractiveSummarizer implements Summarizer {
+  /** Shortest summary worth producing, in characters. */
+  static final int MIN_LENGTH = 20;
+
+  /** Longest summary to produce, in characters. Roughly a tweet. */
+  static final int MAX_LENGTH = 280;
+
+  /** Damping factor of the ranking, as in PageRank. */
+  private static final double DAMPING = 0.85;
+
+  /** Ranking stops once no score moves by more than this. */
+  private static final double CONVERGED = 1e-4;
+
+  /** Ranking stops after this many rounds even if scores still move. */
+  private static final int MAX_ROUNDS = 100;
+
+  /** Marks a sentence that had to be cut short. */
+  private static final String ELLIPSIS = "...";
+
+  /** Words too common to say what two sentences have in common. */
+  private static final Set<String> STOPWORDS = Set.of(
+    (
+      "a an and are as at be been but by for from had has have he her his i " +
+      "in is it its of on or our said she that the their they this to was " +
+      "we were which who will with would you"
+    ).split(" ")
+  );
+
+  /** Implement interface method. */
+  @Override
+  public List<String> summarize(List<String> strings) {
+    long started = System.nanoTime();
+    List<String> summaries = new ArrayList<>();
+    for (String string : strings) {
+      summaries.add(extract(string, MAX_LENGTH));
+    }
+    Metrics.SUMMARIZE_BATCH.since(started);
+    return summaries;
+  }
+
+  /** Implement interface method. */
+  @Override
+  public String model() {
+    return "textrank";
+  }
+
+  /**
+   * Pick out a text's most central sentences.
+   * @param text     The text.
+   * @param maxChars Longest result, in characters, at least MIN_LENGTH.
+   * @return         The text itself if short enough, or else its best sentences in
+   *                 their original order, or the best one cut short if it's too long.
+   */
+  static String extract(String text, int maxChars) {
+    String stripped = text.strip();
+    if (stripped.length() <= maxChars) {
+      return stripped;
+    }
+    List<String> sentences = sentences(stripped);
+    double[] scores = rank(sentences);
+
+    Integer[] order = new Integer[sentences.size()];
+    for (int i = 0; i < order.length; ++i) {
+      order[i] = i;
+    }
+    // Ties go to the earlier sentence, since news puts what matters first.
+    Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+
+    boolean[] picked = new boolean[sentences.size()];
+    int length = 0;
+    for (int index : order) {
+      int added = sentences.get(index).length() + (length > 0 ? 1 : 0);
+      if (length + added <= maxChars) {
+        picked[index] = true;
+        length += added;
+      }
+    }
+    if (length < MIN_LENGTH) {
+      return cut(fallback(sentences, order, maxChars), maxChars);
+    }
+
+    StringBuilder summary = new StringBuilder();
+    for (int i = 0; i < picked.length; ++i) {
+      if (picked[i]) {
+        summary.append(summary.length() > 0 ? " " : "");
+        summary.append(sentences.get(i));
+      }
+    }
+    return summary.toString();
+  }
+
+  /**
+   * Split a text into sentences.
+   * @param text The text.
+   * @return     Its sentences, without surrounding whitespace, leaving out empty ones.
+   */
+  static List<String> sentences(String text) {
+    List<String> sentences = new ArrayList<>();
+    BreakIterator iterator = BreakIterator.getSentenceInstance(Locale.US);
+    iterator.setText(text);
+    int start = iterator.first();
+    int end = iterator.next();
+    for (; end != BreakIterator.DONE; start = end, end = iterator.next()) {
+      String sentence = text.substring(start, end).strip();
+      if (!sentence.isEmpty()) {
+        sentences.add(sentence);
+      }
+    }
+    return sentences;
+  }
+
+  /**
+   * Score sentences by how central they are to the text, with TextRank.
+   * Two sentences are linked by the words they share, relative to their lengths.
+   * @param sentences The sentences.
+   * @return          Their scores, in the same order.
+   */
+  static double[] rank(List<String> sentences) {
+    int count = sentences.size();
+    List<Set<String>> words = new ArrayList<>();
+    for (String sentence : sentences) {
+      words.add(words(sentence));
+    }
+    double[][] weights = new double[count][count];
+    double[] totals = new double[count];
+    for (int i = 0; i < count; ++i) {
+      for (int j = i + 1; j < count; ++j) {
+        double weight = similarity(words.get(i), words.get(j));
+        weights[i][j] = weight;
+        weights[j][i] = weight;
+        totals[i] += weight;
+        totals[j] += weight;
+      }
+    }
+
+    double[] scores = new double[count];
+    Arrays.fill(scores, 1);
+    for (int round = 0; round < MAX_ROUNDS; ++round) {
+      double[] next = new double[count];
+      double moved = 0;
+      for (int i = 0; i < count; ++i) {
+        double sum = 0;
+        for (int j = 0; j < count; ++j) {
+          if (weights[j][i] > 0) {
+            sum += weights[j][i] / totals[j] * scores[j];
+          }
+        }
+        next[i] = 1 - DAMPING + DAMPING * sum;
+        moved = Math.max(moved, Math.abs(next[i] - scores[i]));
+      }
+      scores = next;
+      if (moved < CONVERGED) {
+        break;
+      }
+    }
+    return scores;
+  }
+
+  /**
+   * Get the words of a sentence that say something about it.
+   * @param sentence The sentence.
+   * @return         Its distinct words, lowercased, without stopwords.
+   */
+  private static Set<String> words(String sentence) {
+    Set<String> words = new HashSet<>();
+    String lowered = sentence.toLowerCase(Locale.US);
+    for (String word : lowered.split("[^\\p{L}\\p{N}]+")) {
+      if (!word.isEmpty() && !STOPWORDS.contains(word)) {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Measure how much two sentences have in common, as in the TextRank paper.
+   * @param a One sentence's words.
+   * @param b The other sentence's words.
+   * @return  The number of shared words, over the sum of the log of their numbers.
+   */
+  private static double similarity(Set<String> a, Set<String> b) {
+    double norm = Math.log(a.size() + 1) + Math.log(b.size() + 1);
+    if (norm == 0) {
+      return 0;
+    }
+    int shared = 0;
+    for (String word : a) {
+      if (b.contains(word)) {
+        ++shared;
+      }
+    }
+    return shared / norm;
+  }
+
+  /**
+   * Pick the one sentence to stand for a text when the best ones together are
+   * too short, e.g. because a short one came first and a long one second.
+   * @param sentences The text's sentences.
+   * @param order     Their indexes, best first.
+   * @param maxChars  Longest result, in characters.
+   * @return          The best sentence of at least MIN_LENGTH characters that
+   *                  fits; else the shortest one that long, to be cut; else the
+   *                  best one.
+   */
+  private static String fallback(
+    List<String> sentences,
+    Integer[] order,
+    int maxChars
+  ) {
+    String shortest = null;
+    for (int index : order) {
+      String sentence = sentences.get(index);
+      if (sentence.length() < MIN_LENGTH) {
+        continue;
+      }
+      if (sentence.length() <= maxChars) {
+        return sentence;
+      }
+      if (shortest == null || sentence.length() < shortest.length()) {
+        shortest = sentence;
+      }
+    }
+    return shortest != null ? shortest : sentences.get(order[0]);
+  }
+
+  /**
+   * Cut a sentence short at a word boundary, if it's too long.
+   * @param sentence The sentence.
+   * @param maxChars Longest result, in characters, including the ellipsis.
+   * @return         The sentence if it fits, or else as many of its words as
+   *                 fit, followed by an ellipsis.
+   */
+  private static String cut(String sentence, int maxChars) {
+    if (sentence.length() <= maxChars) {
+      return sentence;
+    }
+    int limit = Math.min(maxChars - ELLIPSIS.length(), sentence.length());
+    int end = sentence.lastIndexOf(' ', limit);
+    if (end < MIN_LENGTH) {
+      end = limit;
+    }
+    return sentence.substring(0, end).strip() + ELLIPSIS;
+  }
+}
@@ -0,0 +1,209 @@
+/**
+ * Provides a local stand-in for the news sites.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Responsible for serving news pages locally, so runs can be repeated and
+ * measured without the real sites. Pages come from recorded snapshots or a
+ * SyntheticNews generator, at the paths Replay rewrites their URLs to.
+ *
+ * To look like a real site under load, every response can be delayed by a
+ * fixed latency plus random jitter, and a share of them can fail with a 503.
+ * The randomness is seeded, so a replay sees the same delays and failures in
+ * the same order, as far as concurrent requests allow.
+ */
+class FakeNewsServer implements AutoCloseable {
+  /** Gets the page for an original URL, or null if there's none. */
+  private final Function<String, Snapshots.Snapshot> pages;
+
+  private final HttpServer server;
+
+  /** Runs the handlers. Unbounded, so delayed responses don't hold up others. */
+  private final ExecutorService handlers = Executors.newCachedThreadPool(
+    task -> {
+      Thread thread = new Thread(task, "fake-news-server");
+      thread.setDaemon(true);
+      return thread;
+    }
+  );
+
+  /** Picks delays and failures. Guarded by itself. */
+  private final Random random;
+
+  /** Delay of every response, in milliseconds. */
+  private volatile long latencyMs;
+
+  /** Largest extra delay of a response, in milliseconds. */
+  private volatile long jitterMs;
+
+  /** Share of requests that fail, from 0 to 1. */
+  private volatile double failureRate;
+
+  /** Number of requests answered. */
+  private final AtomicLong requests = new AtomicLong();
+
+  /** Number of requests failed on purpose. */
+  private final AtomicLong failures = new AtomicLong();
+
+  /**
+   * Set up a server on a free local port without starting it.
+   * @param pages Gets the page for an original URL, or null if there's none.
+   * @param seed  Seeds the delays and failures.
+   * @throws IOException If no port can be bound.
+   */
+  FakeNewsServer(Function<String, Snapshots.Snapshot> pages, long seed)
+    throws IOException {
+    this.pages = pages;
+    this.random = new Random(seed);
+    this.server =
+      HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+        0
+      );
+    this.server.createContext("/", this::serve);
+    this.server.setExecutor(this.handlers);
+  }
+
+  /**
+   * Delay every response.
+   * @param latency Delay of every response.
+   * @param jitter  Largest extra delay, picked at random per response.
+   */
+  void latency(Duration latency, Duration jitter) {
+    this.latencyMs = latency.toMillis();
+    this.jitterMs = jitter.toMillis();
+  }
+
+  /**
+   * Fail a share of requests with a 503.
+   * @param rate The share, from 0 for none to 1 for all.
+   */
+  void failures(double rate) {
+    this.failureRate = rate;
+  }
+
+  /** Start serving. */
+  void start() {
+    this.server.start();
+  }
+
+  /**
+   * Get the URL to hand to Replay.replayTo().
+   * @return E.g. "http://127.0.0.1:8099".
+   */
+  String base() {
+    InetSocketAddress address = this.server.getAddress();
+    return String.format(
+      "http://%s:%d",
+      address.getAddress().getHostAddress(),
+      address.getPort()
+    );
+  }
+
+  /**
+   * Describe what the server has done so far.
+   * @return A one-line summary of the counters.
+   */
+  String stats() {
+    return String.format(
+      "%d requests, %d failed on purpose",
+      this.requests.get(),
+      this.failures.get()
+    );
+  }
+
+  /**
+   * Get the number of requests answered so far.
+   * @return The counter value.
+   */
+  long requests() {
+    return this.requests.get();
+  }
+
+  /** Stop serving. */
+  @Override
+  public void close() {
+    this.server.stop(0);
+    this.handlers.shutdownNow();
+  }
+
+  /**
+   * Answer a request, after the configured delay.
+   * @param exchange The request and its response.
+   * @throws IOException If the response can't be sent.
+   */
+  private void serve(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      this.requests.incrementAndGet();
+      long delay;
+      boolean fail;
+      synchronized (this.random) {
+        long jitter = this.jitterMs;
+        delay =
+          this.latencyMs +
+          (jitter > 0 ? (long) (this.random.nextDouble() * jitter) : 0);
+        fail = this.random.nextDouble() < this.failureRate;
+      }
+      if (delay > 0) {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      if (fail) {
+        this.failures.incrementAndGet();
+        exchange.sendResponseHeaders(503, -1);
+        return;
+      }
+      if (!exchange.getRequestMethod().equals("GET")) {
+        exchange.getResponseHeaders().set("Allow", "GET");
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+
+      String url = Replay.decode(
+        exchange.getRequestURI().getRawPath() + query(exchange)
+      );
+      Snapshots.Snapshot page = url == null ? null : this.pages.apply(url);
+      if (page == null) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      if (page.contentType != null) {
+        exchange.getResponseHeaders().set("Content-Type", page.contentType);
+      }
+      exchange.sendResponseHeaders(
+        page.status,
+        page.body.length == 0 ? -1 : page.body.length
+      );
+      exchange.getResponseBody().write(page.body);
+    }
+  }
+
+  /**
+   * Get a request's query string as sent.
+   * @param exchange The request.
+   * @return         "?" and the query, or an empty string if there's none.
+   */
+  private static String query(HttpExchange exchange) {
+    String query = exchange.getRequestURI().getRawQuery();
+    return query == null ? "" : "?" + query;
+  }
+}
@@ -0,0 +1,497 @@
+/**
+ * Provides the file format of the full-text index's segments.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Responsible for one immutable file of a SearchIndex: a batch of documents,
+ * and for each term, the documents it occurs in and where. Segments are read
+ * through a memory mapping, so however large the archive grows, only the parts
+ * a query touches are ever paged in, and none of it is kept on the heap.
+ *
+ * The file is laid out as follows, all numbers big-endian:
+ *
+ * - Header: magic, version, number of documents, number of terms, oldest and
+ *   newest document time, and the offsets of the sections below.
+ * - Document table: per document, oldest first, its time in epoch
+ *   milliseconds and the offset of its stored fields.
+ * - Stored fields: per document, its source, URL and text, each as a length
+ *   and UTF-8 bytes.
+ * - Term table: per term, sorted by UTF-8 bytes so it can be binary searched,
+ *   the offset of the term, the offset of its postings, and the number of
+ *   documents it occurs in.
+ * - Terms: each as a two-byte length and UTF-8 bytes.
+ * - Postings: per term, per document it occurs in, the difference to the
+ *   previous document's number, the number of occurrences, and the difference
+ *   of each occurrence's position to the previous one, all as variable-length
+ *   integers of 7 bits per byte.
+ */
+class IndexSegment {
+  /** Starts every segment: "JLIX". */
+  private static final int MAGIC = 0x4A4C4958;
+
+  /** Version of the layout. */
+  private static final int VERSION = 1;
+
+  /** Size of the header, in bytes. */
+  private static final int HEADER = 48;
+
+  /** Size of a document table entry, in bytes. */
+  private static final int DOC_ENTRY = 12;
+
+  /** Size of a term table entry, in bytes. */
+  private static final int TERM_ENTRY = 12;
+
+  /** Where the segment is stored. */
+  private final Path path;
+
+  /** The whole file. Only read with absolute gets, so threads can share it. */
+  private final ByteBuffer buffer;
+
+  private final int docs;
+  private final int terms;
+  private final long oldest;
+  private final long newest;
+  private final int docTable;
+  private final int stored;
+  private final int termTable;
+  private final int termBytes;
+  private final int postings;
+
+  /**
+   * Map a segment file.
+   * @param path Where the segment is stored.
+   * @throws IOException If it can't be read or isn't a segment.
+   */
+  IndexSegment(Path path) throws IOException {
+    this.path = path;
+    try (
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)
+    ) {
+      this.buffer =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (
+      this.buffer.capacity() < HEADER ||
+      this.buffer.getInt(0) != MAGIC ||
+      this.buffer.getInt(4) != VERSION
+    ) {
+      throw new IOException("Not an index segment: " + path);
+    }
+    this.docs = this.buffer.getInt(8);
+    this.terms = this.buffer.getInt(12);
+    this.oldest = this.buffer.getLong(16);
+    this.newest = this.buffer.getLong(24);
+    this.docTable = HEADER;
+    this.stored = this.buffer.getInt(32);
+    this.termTable = this.buffer.getInt(36);
+    this.termBytes = this.buffer.getInt(40);
+    this.postings = this.buffer.getInt(44);
+  }
+
+  /**
+   * Get where the segment is stored.
+   * @return The file.
+   */
+  Path path() {
+    return this.path;
+  }
+
+  /**
+   * Get the number of documents.
+   * @return The number.
+   */
+  int docs() {
+    return this.docs;
+  }
+
+  /**
+   * Get the time of the oldest document.
+   * @return Epoch milliseconds.
+   */
+  long oldest() {
+    return this.oldest;
+  }
+
+  /**
+   * Get the time of the newest document.
+   * @return Epoch milliseconds.
+   */
+  long newest() {
+    return this.newest;
+  }
+
+  /**
+   * Get a document's time.
+   * @param doc The document's number.
+   * @return    Epoch milliseconds.
+   */
+  long time(int doc) {
+    return this.buffer.getLong(this.docTable + doc * DOC_ENTRY);
+  }
+
+  /**
+   * Read a document's stored fields.
+   * @param doc The document's number.
+   * @return    The document.
+   */
+  Doc doc(int doc) {
+    int entry = this.docTable + doc * DOC_ENTRY;
+    int at = this.stored + this.buffer.getInt(entry + 8);
+    String[] fields = new String[3];
+    for (int i = 0; i < fields.length; ++i) {
+      int length = this.buffer.getInt(at);
+      byte[] bytes = new byte[length];
+      this.buffer.get(at + 4, bytes);
+      fields[i] = new String(bytes, StandardCharsets.UTF_8);
+      at += 4 + length;
+    }
+    return new Doc(this.time(doc), fields[0], fields[1], fields[2]);
+  }
+
+  /**
+   * Read every document, oldest first.
+   * @return The documents.
+   */
+  List<Doc> all() {
+    List<Doc> all = new ArrayList<>();
+    for (int i = 0; i < this.docs; ++i) {
+      all.add(this.doc(i));
+    }
+    return all;
+  }
+
+  /**
+   * Look up a term's postings.
+   * @param term      The term.
+   * @param positions Whether to read where in each document it occurs, too.
+   * @return          The documents it occurs in, and where if asked for, or
+   *                  null if it doesn't occur.
+   */
+  Postings postings(String term, boolean positions) {
+    int entry = this.find(term.getBytes(StandardCharsets.UTF_8));
+    if (entry < 0) {
+      return null;
+    }
+    int at = this.postings + this.buffer.getInt(entry + 4);
+    int count = this.buffer.getInt(entry + 8);
+    int[] docs = new int[count];
+    int[][] where = positions ? new int[count][] : null;
+    int[] cursor = { at };
+    int doc = 0;
+    for (int i = 0; i < count; ++i) {
+      doc += this.varint(cursor);
+      docs[i] = doc;
+      int occurrences = this.varint(cursor);
+      if (!positions) {
+        this.skipVarints(cursor, occurrences);
+        continue;
+      }
+      where[i] = new int[occurrences];
+      int position = 0;
+      for (int j = 0; j < occurrences; ++j) {
+        position += this.varint(cursor);
+        where[i][j] = position;
+      }
+    }
+    return new Postings(docs, where);
+  }
+
+  /**
+   * Check whether a term occurs at all.
+   * @param term The term.
+   * @return     True if it does.
+   */
+  boolean contains(String term) {
+    return this.find(term.getBytes(StandardCharsets.UTF_8)) >= 0;
+  }
+
+  /**
+   * Binary search the term table.
+   * @param term The term's UTF-8 bytes.
+   * @return     The position of its entry in the file, or -1 if it's missing.
+   */
+  private int find(byte[] term) {
+    int low = 0;
+    int high = this.terms - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int entry = this.termTable + middle * TERM_ENTRY;
+      int compared =
+        this.compare(this.termBytes + this.buffer.getInt(entry), term);
+      if (compared < 0) {
+        low = middle + 1;
+      } else if (compared > 0) {
+        high = middle - 1;
+      } else {
+        return entry;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Compare a stored term with a term, byte by byte, without copying it.
+   * @param at   The position of the stored term's length.
+   * @param term The other term's UTF-8 bytes.
+   * @return     Less than, equal to or greater than 0 as the stored term
+   *             sorts before, with or after the other.
+   */
+  private int compare(int at, byte[] term) {
+    int length = this.buffer.getShort(at) & 0xffff;
+    for (int i = 0; i < Math.min(length, term.length); ++i) {
+      byte stored = this.buffer.get(at + 2 + i);
+      int compared = Byte.compareUnsigned(stored, term[i]);
+      if (compared != 0) {
+        return compared;
+      }
+    }
+    return length - term.length;
+  }
+
+  /**
+   * Read a variable-length integer.
+   * @param cursor Holds the position to read at, which is moved past the integer.
+   * @return       The integer.
+   */
+  private int varint(int[] cursor) {
+    int value = 0;
+    for (int shift = 0;; shift += 7) {
+      byte b = this.buffer.get(cursor[0]++);
+      value |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  /**
+   * Skip variable-length integers without decoding them.
+   * @param cursor Holds the position to read at, which is moved past the integers.
+   * @param count  Number of integers.
+   */
+  private void skipVarints(int[] cursor, int count) {
+    for (int skipped = 0; skipped < count;) {
+      if (this.buffer.get(cursor[0]++) >= 0) {
+        ++skipped;
+      }
+    }
+  }
+
+  /**
+   * Write documents into a new segment file, replacing it atomically.
+   * @param path Where to store the segment.
+   * @param docs The documents. They're stored oldest first.
+   * @throws IOException If writing fails.
+   */
+  static void write(Path path, List<Doc> docs) throws IOException {
+    List<Doc> sorted = new ArrayList<>(docs);
+    sorted.sort(Comparator.comparingLong(doc -> doc.time));
+
+    ByteArrayOutputStream storedBytes = new ByteArrayOutputStream();
+    DataOutputStream stored = new DataOutputStream(storedBytes);
+    int[] storedAt = new int[sorted.size()];
+    Map<String, PostingsWriter> postings = new HashMap<>();
+    for (int i = 0; i < sorted.size(); ++i) {
+      Doc doc = sorted.get(i);
+      storedAt[i] = stored.size();
+      for (String field : new String[] { doc.source, doc.url, doc.text }) {
+        byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+        stored.writeInt(bytes.length);
+        stored.write(bytes);
+      }
+      Map<String, List<Integer>> positions = new LinkedHashMap<>();
+      List<String> words = SearchIndex.words(doc.text);
+      for (int position = 0; position < words.size(); ++position) {
+        positions
+          .computeIfAbsent(words.get(position), word -> new ArrayList<>())
+          .add(position);
+      }
+      for (String term : doc.fieldTerms()) {
+        positions.computeIfAbsent(term, t -> new ArrayList<>()).add(0);
+      }
+      for (Map.Entry<String, List<Integer>> term : positions.entrySet()) {
+        postings
+          .computeIfAbsent(term.getKey(), t -> new PostingsWriter())
+          .add(i, term.getValue());
+      }
+    }
+
+    List<byte[]> terms = new ArrayList<>();
+    Map<byte[], PostingsWriter> byBytes = new IdentityHashMap<>();
+    for (Map.Entry<String, PostingsWriter> term : postings.entrySet()) {
+      byte[] bytes = term.getKey().getBytes(StandardCharsets.UTF_8);
+      if (bytes.length > 0xffff) {
+        continue;
+      }
+      terms.add(bytes);
+      byBytes.put(bytes, term.getValue());
+    }
+    terms.sort(Arrays::compareUnsigned);
+
+    ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+    DataOutputStream termOut = new DataOutputStream(termBytes);
+    ByteArrayOutputStream postingBytes = new ByteArrayOutputStream();
+    ByteArrayOutputStream termTable = new ByteArrayOutputStream();
+    DataOutputStream table = new DataOutputStream(termTable);
+    for (byte[] term : terms) {
+      PostingsWriter writer = byBytes.get(term);
+      table.writeInt(termOut.size());
+      table.writeInt(postingBytes.size());
+      table.writeInt(writer.count);
+      termOut.writeShort(term.length);
+      termOut.write(term);
+      writer.bytes.writeTo(postingBytes);
+    }
+
+    int storedOffset = HEADER + sorted.size() * DOC_ENTRY;
+    int termTableOffset = storedOffset + stored.size();
+    int termBytesOffset = termTableOffset + termTable.size();
+    int postingsOffset = termBytesOffset + termBytes.size();
+    long end = (long) postingsOffset + postingBytes.size();
+    if (end > Integer.MAX_VALUE) {
+      throw new IOException("Index segment would be too large: " + path);
+    }
+
+    ByteArrayOutputStream fileBytes = new ByteArrayOutputStream((int) end);
+    DataOutputStream file = new DataOutputStream(fileBytes);
+    file.writeInt(MAGIC);
+    file.writeInt(VERSION);
+    file.writeInt(sorted.size());
+    file.writeInt(terms.size());
+    file.writeLong(sorted.isEmpty() ? 0 : sorted.get(0).time);
+    file.writeLong(sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1).time);
+    file.writeInt(storedOffset);
+    file.writeInt(termTableOffset);
+    file.writeInt(termBytesOffset);
+    file.writeInt(postingsOffset);
+    for (int i = 0; i < sorted.size(); ++i) {
+      file.writeLong(sorted.get(i).time);
+      file.writeInt(storedAt[i]);
+    }
+    storedBytes.writeTo(file);
+    termTable.writeTo(file);
+    termBytes.writeTo(file);
+    postingBytes.writeTo(file);
+    file.flush();
+
+    Path temp = Files.createTempFile(
+      path.getParent(),
+      path.getFileName().toString(),
+      ".tmp"
+    );
+    Files.write(temp, fileBytes.toByteArray());
+    Files.move(
+      temp,
+      path,
+      StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE
+    );
+  }
+
+  /** A document as stored in a segment. */
+  static final class Doc {
+    /** When it was indexed, in epoch milliseconds. */
+    final long time;
+
+    /** The key of the source it's from. */
+    final String source;
+
+    /** Where it was found. */
+    final String url;
+
+    /** Its text: the summary, if it was summarized. */
+    final String text;
+
+    Doc(long time, String source, String url, String text) {
+      this.time = time;
+      this.source = source;
+      this.url = url;
+      this.text = text;
+    }
+
+    /**
+     * Get the terms that find a document by its fields rather than its words.
+     * They contain a colon, so no word of a text can be mistaken for one.
+     * @return The source's term and the document's key term.
+     */
+    List<String> fieldTerms() {
+      return List.of(
+        SearchIndex.sourceTerm(this.source),
+        SearchIndex.keyTerm(this.url, this.text)
+      );
+    }
+  }
+
+  /** Where a term occurs. */
+  static final class Postings {
+    /** The documents it occurs in, in ascending order. */
+    final int[] docs;
+
+    /** Its positions in each of them, in ascending order, or null if not read. */
+    final int[][] positions;
+
+    Postings(int[] docs, int[][] positions) {
+      this.docs = docs;
+      this.positions = positions;
+    }
+  }
+
+  /** Builds the postings of one term. */
+  private static final class PostingsWriter {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    int count;
+    int last;
+
+    /**
+     * Add a document the term occurs in.
+     * @param doc       The document's number, greater than any added before.
+     * @param positions The term's positions in it, in ascending order.
+     */
+    void add(int doc, List<Integer> positions) {
+      varint(this.bytes, doc - this.last);
+      varint(this.bytes, positions.size());
+      int previous = 0;
+      for (int position : positions) {
+        varint(this.bytes, position - previous);
+        previous = position;
+      }
+      this.last = doc;
+      ++this.count;
+    }
+
+    /**
+     * Write a variable-length integer.
+     * @param out   Where to write it.
+     * @param value The integer, at least 0.
+     */
+    private static void varint(ByteArrayOutputStream out, int value) {
+      while ((value & ~0x7f) != 0) {
+        out.write((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      out.write(value);
+    }
+  }
+}
@@ -0,0 +1,560 @@
+/**
+ * Provides operational metrics for every stage of a run, in Prometheus format.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Responsible for counting what every run does, continuously, where Events
+ * only tell where one recorded run's time went. Each metric is a counter, a
+ * gauge or a latency histogram, optionally split by labels such as the source.
+ *
+ * Updates never lock: counts are striped LongAdders, and histograms keep
+ * log-linear buckets in the style of HdrHistogram, with eight buckets per
+ * power of two, so any quantile is known to within 12.5%. Metrics are exported
+ * in the Prometheus text format, at "/metrics" in daemon mode, and to the file
+ * named by the system property "journalight.metrics" after a single run.
+ */
+final class Metrics {
+  /** Name of the system property that makes App write the metrics to a file. */
+  static final String FILE_PROPERTY = "journalight.metrics";
+
+  /** Content type of the exposition format. */
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  /** Every metric, in the order they're exported. */
+  private static final List<Metric> REGISTRY = new CopyOnWriteArrayList<>();
+
+  static final Counter PAGES = new Counter(
+    "journalight_pages_total",
+    "Pages loaded, by source and engine.",
+    "source",
+    "engine"
+  );
+
+  static final Histogram NAVIGATION = new Histogram(
+    "journalight_navigation_seconds",
+    "Time to load a page until it can be read, by source and engine.",
+    "source",
+    "engine"
+  );
+
+  static final Histogram EXTRACTION = new Histogram(
+    "journalight_extraction_seconds",
+    "Time to read an extraction from a loaded page, by source and engine.",
+    "source",
+    "engine"
+  );
+
+  static final Histogram RATE_LIMIT_WAIT = new Histogram(
+    "journalight_rate_limit_wait_seconds",
+    "Time spent waiting for a host's politeness limits, by source.",
+    "source"
+  );
+
+  static final Counter ARTICLES = new Counter(
+    "journalight_articles_total",
+    "Articles at the end of a run, by source and how they ended.",
+    "source",
+    "status"
+  );
+
+  static final Gauge SUMMARY_QUEUE = new Gauge(
+    "journalight_summary_queue_depth",
+    "Items waiting for a summary."
+  );
+
+  static final Gauge STARTUP = new Gauge(
+    "journalight_startup_milliseconds",
+    "Time from the JVM's start to a milestone: main, browser or navigation.",
+    "milestone"
+  );
+
+  static final Histogram SUMMARIZE_BATCH = new Histogram(
+    "journalight_summarize_batch_seconds",
+    "Time of one call to the summarizer, cache lookups included."
+  );
+
+  static final Histogram SUMMARIZE_ITEM = new Histogram(
+    "journalight_summarize_item_seconds",
+    "Time to summarize an item: its batch's time divided by the batch's size."
+  );
+
+  static final Counter DUPLICATES = new Counter(
+    "journalight_summary_duplicates_total",
+    "Items given the summary of a near-duplicate instead of being summarized."
+  );
+
+  static final Histogram SEARCH = new Histogram(
+    "journalight_search_seconds",
+    "Time to answer a query of the search index."
+  );
+
+  static final Counter CACHE = new Counter(
+    "journalight_cache_lookups_total",
+    "Cache lookups, by cache and result.",
+    "cache",
+    "result"
+  );
+
+  static final Counter ERRORS = new Counter(
+    "journalight_errors_total",
+    "Errors that were handled instead of failing the run, by component and kind.",
+    "component",
+    "kind"
+  );
+
+  private Metrics() {}
+
+  /**
+   * Render every metric in the Prometheus text format.
+   * @return The exposition.
+   */
+  static String text() {
+    StringBuilder out = new StringBuilder();
+    for (Metric metric : REGISTRY) {
+      metric.write(out);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Write every metric to a file, e.g. for node_exporter's textfile collector.
+   * The file is replaced atomically, so it's never read half-written.
+   * @param file The file.
+   */
+  static void write(Path file) {
+    try {
+      Path directory = file.toAbsolutePath().getParent();
+      Files.createDirectories(directory);
+      Path temp = Files.createTempFile(directory, "metrics", ".tmp");
+      Files.writeString(temp, text(), StandardCharsets.UTF_8);
+      Files.move(
+        temp,
+        file,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      );
+    } catch (IOException e) {
+      System.err.format("Could not write metrics to %s: %s%n", file, e);
+    }
+  }
+
+  /** A metric and its values, one for each combination of labels used so far. */
+  abstract static class Metric {
+    final String name;
+    final String help;
+
+    /** Names of the labels that split the metric, e.g. "source". */
+    private final String[] labelNames;
+
+    /**
+     * Describe a metric and register it for export.
+     * @param name       The metric's name.
+     * @param help       A sentence describing it.
+     * @param labelNames Names of the labels that split it.
+     */
+    Metric(String name, String help, String... labelNames) {
+      this.name = name;
+      this.help = help;
+      this.labelNames = labelNames;
+      REGISTRY.add(this);
+    }
+
+    /**
+     * Turn label values into a key for the metric's values.
+     * @param labels One value per label name.
+     * @return       The key.
+     */
+    List<String> key(String[] labels) {
+      if (labels.length != this.labelNames.length) {
+        throw new IllegalArgumentException(
+          String.format(
+            "%s takes %d labels, not %d",
+            this.name,
+            this.labelNames.length,
+            labels.length
+          )
+        );
+      }
+      return Arrays.asList(labels);
+    }
+
+    /**
+     * Write the metric's HELP and TYPE lines.
+     * @param out  Gets the lines.
+     * @param type "counter", "gauge" or "histogram".
+     */
+    void writeHeader(StringBuilder out, String type) {
+      out.append("# HELP ").append(this.name).append(' ');
+      out.append(this.help.replace("\\", "\\\\").replace("\n", "\\n"));
+      out.append("\n# TYPE ").append(this.name).append(' ').append(type);
+      out.append('\n');
+    }
+
+    /**
+     * Write one sample line.
+     * @param out    Gets the line.
+     * @param suffix Appended to the name, e.g. "_bucket", or empty.
+     * @param key    The sample's label values.
+     * @param extra  An extra label, e.g. "le=\"0.5\"", or null.
+     * @param value  The sample's value.
+     */
+    void writeSample(
+      StringBuilder out,
+      String suffix,
+      List<String> key,
+      String extra,
+      String value
+    ) {
+      out.append(this.name).append(suffix);
+      if (!key.isEmpty() || extra != null) {
+        out.append('{');
+        for (int i = 0; i < key.size(); ++i) {
+          out.append(i > 0 ? "," : "").append(this.labelNames[i]).append("=\"");
+          out.append(
+            String
+              .valueOf(key.get(i))
+              .replace("\\", "\\\\")
+              .replace("\"", "\\\"")
+              .replace("\n", "\\n")
+          );
+          out.append('"');
+        }
+        if (extra != null) {
+          out.append(key.isEmpty() ? "" : ",").append(extra);
+        }
+        out.append('}');
+      }
+      out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Sort a metric's values by their labels, so exports are stable.
+     * @param values The values by label values.
+     * @return       The same, sorted.
+     */
+    static <T> Map<String, Map.Entry<List<String>, T>> sorted(
+      Map<List<String>, T> values
+    ) {
+      Map<String, Map.Entry<List<String>, T>> sorted = new TreeMap<>();
+      for (Map.Entry<List<String>, T> entry : values.entrySet()) {
+        sorted.put(String.join("\u0000", entry.getKey()), entry);
+      }
+      return sorted;
+    }
+
+    /**
+     * Write the metric in the exposition format.
+     * @param out Gets the lines.
+     */
+    abstract void write(StringBuilder out);
+  }
+
+  /** A count that only goes up, e.g. of pages loaded. */
+  static final class Counter extends Metric {
+    private final Map<List<String>, LongAdder> values =
+      new ConcurrentHashMap<>();
+
+    Counter(String name, String help, String... labelNames) {
+      super(name, help, labelNames);
+    }
+
+    /**
+     * Count one.
+     * @param labels One value per label name.
+     */
+    void inc(String... labels) {
+      this.add(1, labels);
+    }
+
+    /**
+     * Count several.
+     * @param amount How many, at least 0.
+     * @param labels One value per label name.
+     */
+    void add(long amount, String... labels) {
+      this.values.computeIfAbsent(this.key(labels), key -> new LongAdder())
+        .add(amount);
+    }
+
+    /**
+     * Get the count so far.
+     * @param labels One value per label name.
+     * @return       The count.
+     */
+    long get(String... labels) {
+      LongAdder value = this.values.get(this.key(labels));
+      return value == null ? 0 : value.sum();
+    }
+
+    @Override
+    void write(StringBuilder out) {
+      this.writeHeader(out, "counter");
+      for (Map.Entry<List<String>, LongAdder> entry : sorted(this.values)
+        .values()) {
+        this.writeSample(
+          out,
+          "",
+          entry.getKey(),
+          null,
+          Long.toString(entry.getValue().sum())
+        );
+      }
+    }
+  }
+
+  /** A level that goes up and down, e.g. of a queue. */
+  static final class Gauge extends Metric {
+    private final Map<List<String>, LongAdder> values =
+      new ConcurrentHashMap<>();
+
+    Gauge(String name, String help, String... labelNames) {
+      super(name, help, labelNames);
+    }
+
+    /**
+     * Move the level.
+     * @param delta  How far, up if positive.
+     * @param labels One value per label name.
+     */
+    void add(long delta, String... labels) {
+      this.values.computeIfAbsent(this.key(labels), key -> new LongAdder())
+        .add(delta);
+    }
+
+    /**
+     * Get the level.
+     * @param labels One value per label name.
+     * @return       The level.
+     */
+    long get(String... labels) {
+      LongAdder value = this.values.get(this.key(labels));
+      return value == null ? 0 : value.sum();
+    }
+
+    @Override
+    void write(StringBuilder out) {
+      this.writeHeader(out, "gauge");
+      for (Map.Entry<List<String>, LongAdder> entry : sorted(this.values)
+        .values()) {
+        this.writeSample(
+          out,
+          "",
+          entry.getKey(),
+          null,
+          Long.toString(entry.getValue().sum())
+        );
+      }
+    }
+  }
+
+  /**
+   * A distribution of durations, e.g. of page loads.
+   * Exported with a bucket per power of two microseconds from about 1 ms to 67 s.
+   */
+  static final class Histogram extends Metric {
+    /** Smallest and largest exported bucket bounds, as powers of two microseconds. */
+    private static final int FIRST_EXPORTED = 10;
+    private static final int LAST_EXPORTED = 26;
+
+    private final Map<List<String>, Buckets> values = new ConcurrentHashMap<>();
+
+    Histogram(String name, String help, String... labelNames) {
+      super(name, help, labelNames);
+    }
+
+    /**
+     * Record a duration.
+     * @param nanos  The duration, in nanoseconds.
+     * @param labels One value per label name.
+     */
+    void record(long nanos, String... labels) {
+      this.values.computeIfAbsent(this.key(labels), key -> new Buckets())
+        .record(nanos);
+    }
+
+    /**
+     * Record the time since something started.
+     * @param started When it started, in System.nanoTime() terms.
+     * @param labels  One value per label name.
+     */
+    void since(long started, String... labels) {
+      this.record(System.nanoTime() - started, labels);
+    }
+
+    /**
+     * Get the number of durations recorded.
+     * @param labels One value per label name.
+     * @return       The count.
+     */
+    long count(String... labels) {
+      Buckets buckets = this.values.get(this.key(labels));
+      return buckets == null ? 0 : buckets.count.sum();
+    }
+
+    /**
+     * Estimate a quantile of the durations recorded.
+     * @param quantile The quantile, e.g. 0.95.
+     * @param labels   One value per label name.
+     * @return         An upper bound of it in seconds, within 12.5%, or 0 if nothing was recorded.
+     */
+    double quantile(double quantile, String... labels) {
+      Buckets buckets = this.values.get(this.key(labels));
+      return buckets == null ? 0 : buckets.quantile(quantile);
+    }
+
+    @Override
+    void write(StringBuilder out) {
+      this.writeHeader(out, "histogram");
+      for (Map.Entry<List<String>, Buckets> entry : sorted(this.values)
+        .values()) {
+        List<String> key = entry.getKey();
+        Buckets buckets = entry.getValue();
+        // Read once, so the buckets, count and sum agree with each other.
+        long[] counts = buckets.snapshot();
+        long cumulative = 0;
+        int next = 0;
+        for (int power = FIRST_EXPORTED; power <= LAST_EXPORTED; ++power) {
+          int end = Buckets.index(1L << power);
+          for (; next < end; ++next) {
+            cumulative += counts[next];
+          }
+          double bound = (1L << power) / 1e6;
+          this.writeSample(
+            out,
+            "_bucket",
+            key,
+            "le=\"" + bound + "\"",
+            Long.toString(cumulative)
+          );
+        }
+        long total = 0;
+        for (long count : counts) {
+          total += count;
+        }
+        this.writeSample(
+          out,
+          "_bucket",
+          key,
+          "le=\"+Inf\"",
+          Long.toString(total)
+        );
+        this.writeSample(
+          out,
+          "_sum",
+          key,
+          null,
+          Double.toString(buckets.sumNanos.sum() / 1e9)
+        );
+        this.writeSample(out, "_count", key, null, Long.toString(total));
+      }
+    }
+  }
+
+  /**
+   * Log-linear buckets of microseconds. Values below 8 get a bucket each, and
+   * every power of two above is split into 8 equal buckets.
+   */
+  static final class Buckets {
+    /** Buckets per power of two, as a power of two. */
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+
+    /** Largest value told apart, in microseconds: about 12 days. */
+    private static final long MAX = (1L << 40) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX) + 1);
+    final LongAdder count = new LongAdder();
+    final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * Record a duration.
+     * @param nanos The duration, in nanoseconds.
+     */
+    void record(long nanos) {
+      long micros = Math.min(Math.max(nanos, 0) / 1000, MAX);
+      this.counts.incrementAndGet(index(micros));
+      this.count.increment();
+      this.sumNanos.add(Math.max(nanos, 0));
+    }
+
+    /**
+     * Copy the counts.
+     * @return Every bucket's count.
+     */
+    long[] snapshot() {
+      long[] counts = new long[this.counts.length()];
+      for (int i = 0; i < counts.length; ++i) {
+        counts[i] = this.counts.get(i);
+      }
+      return counts;
+    }
+
+    /**
+     * Estimate a quantile.
+     * @param quantile The quantile, e.g. 0.95.
+     * @return         The upper bound of the bucket it falls into, in seconds.
+     */
+    double quantile(double quantile) {
+      long[] counts = this.snapshot();
+      long total = 0;
+      for (long count : counts) {
+        total += count;
+      }
+      if (total == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(quantile * total));
+      long seen = 0;
+      for (int i = 0; i < counts.length; ++i) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return lowest(i + 1) / 1e6;
+        }
+      }
+      return (MAX + 1) / 1e6;
+    }
+
+    /**
+     * Get the bucket a value falls into.
+     * @param micros The value, from 0 to MAX.
+     * @return       The bucket's index.
+     */
+    static int index(long micros) {
+      if (micros < SUB) {
+        return (int) micros;
+      }
+      int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+      return (shift + 1) * SUB + (int) ((micros >>> shift) & (SUB - 1));
+    }
+
+    /**
+     * Get the lowest value of a bucket.
+     * @param index The bucket's index.
+     * @return      The value, in microseconds.
+     */
+    static long lowest(int index) {
+      if (index < SUB) {
+        return index;
+      }
+      int shift = index / SUB - 1;
+      return (long) (SUB + index % SUB) << shift;
+    }
+  }
+}
@@ -0,0 +1,811 @@
+/**
+ * Bindings to Python Summarization module.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Responsible for summarizing text abstractively, with a transformer model.
+ * The Python model is loaded once by a long-lived worker process, which is
+ * started on first use and restarted if it crashes. Requests and responses
+ * are single lines of JSON matched up by their "id" field.
+ *
+ * There can be several workers, set with the system property
+ * "journalight.summarizers", each using its share of the CPU cores. A call
+ * with several texts is then split between them, longest texts first, so the
+ * call finishes as early as possible. Each worker runs its texts through the
+ * model in batches of "journalight.summarizer.batch" texts of similar length.
+ *
+ * The model only reads the first few thousand characters of a text. Setting
+ * "journalight.summarizer.trim" to a number of characters has longer texts cut
+ * down to their most central sentences first, by an ExtractiveSummarizer, so
+ * the model reads the gist instead of just the beginning.
+ */
+class ModelSummarizer implements Summarizer {
+  /** Model used unless told otherwise. Pinned so cached summaries stay comparable. */
+  static final String DEFAULT_MODEL = "sshleifer/distilbart-cnn-12-6";
+
+  /** Shortest summary the model may produce, in tokens. */
+  static final int MIN_LENGTH = 20;
+
+  /** Longest summary the model may produce, in tokens. Roughly a tweet. */
+  static final int MAX_LENGTH = 280;
+
+  /** The first run may have to download the model, so be generous. */
+  private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(10);
+
+  /** Default limit for a single summarization request. */
+  private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(10);
+
+  /** Limit for a health check round trip. */
+  private static final Duration PING_TIMEOUT = Duration.ofSeconds(10);
+
+  /** Number of stderr lines from the worker to keep for error messages. */
+  private static final int STDERR_TAIL_LINES = 20;
+
+  /** Default number of worker processes. Each one holds a copy of the model. */
+  private static final int DEFAULT_WORKERS = 1;
+
+  /** Default number of texts a worker runs through the model at once. */
+  private static final int DEFAULT_BATCH_SIZE = 8;
+
+  /** Default length texts are trimmed to before the model reads them. 0 means never. */
+  static final int DEFAULT_TRIM = 0;
+
+  /** Command line that starts the worker. */
+  private final List<String> command;
+
+  /** Name of the model the worker is asked to load. */
+  private final String model;
+
+  /** Limit for a single summarization request. */
+  private final Duration requestTimeout;
+
+  /** Length texts are trimmed to before the model reads them, or 0 to never trim. */
+  private final int trimTo;
+
+  private final Gson gson = new Gson();
+
+  /** Source of correlation IDs. */
+  private final AtomicLong nextId = new AtomicLong();
+
+  /** The worker processes, each started on first use. */
+  private final List<Worker> workers = new ArrayList<>();
+
+  /** Waits on the workers that a call was split between. */
+  private final ExecutorService dispatcher = Executors.newCachedThreadPool(
+    task -> {
+      Thread thread = new Thread(task, "summarizer-dispatch");
+      thread.setDaemon(true);
+      return thread;
+    }
+  );
+
+  /** Consulted before the worker, or null to always ask the worker. */
+  private SummaryCache cache;
+
+  /** Use the bundled Python module with the default model, timeouts and number of workers. */
+  ModelSummarizer() {
+    this(
+      Integer.getInteger("journalight.summarizers", DEFAULT_WORKERS),
+      Integer.getInteger("journalight.summarizer.batch", DEFAULT_BATCH_SIZE)
+    );
+  }
+
+  /**
+   * Use the bundled Python module with the default model and timeouts.
+   * @param workers   Number of worker processes, which split the CPU cores between them.
+   * @param batchSize Number of texts a worker runs through the model at once.
+   */
+  ModelSummarizer(int workers, int batchSize) {
+    this(
+      bundledCommand(workers, batchSize),
+      DEFAULT_MODEL,
+      REQUEST_TIMEOUT,
+      workers
+    );
+  }
+
+  /**
+   * Use a custom worker command.
+   * @param command        Command line that starts a worker speaking the NDJSON protocol.
+   * @param requestTimeout Limit for a single summarization request.
+   */
+  ModelSummarizer(List<String> command, Duration requestTimeout) {
+    this(command, DEFAULT_MODEL, requestTimeout);
+  }
+
+  /**
+   * Use a custom worker command.
+   * @param command        Command line that starts a worker speaking the NDJSON protocol.
+   * @param model          Name of the model the command loads.
+   * @param requestTimeout Limit for a single summarization request.
+   */
+  ModelSummarizer(List<String> command, String model, Duration requestTimeout) {
+    this(command, model, requestTimeout, 1);
+  }
+
+  /**
+   * Use a custom worker command, started as several workers.
+   * @param command        Command line that starts a worker speaking the NDJSON protocol.
+   * @param model          Name of the model the command loads.
+   * @param requestTimeout Limit for a single summarization request.
+   * @param workers        Number of worker processes to split calls between.
+   */
+  ModelSummarizer(
+    List<String> command,
+    String model,
+    Duration requestTimeout,
+    int workers
+  ) {
+    this.command = new ArrayList<>(command);
+    this.model = model;
+    this.requestTimeout = requestTimeout;
+    this.trimTo =
+      Integer.getInteger("journalight.summarizer.trim", DEFAULT_TRIM);
+    for (int i = 0; i < Math.max(1, workers); ++i) {
+      this.workers.add(new Worker(i));
+    }
+  }
+
+  /**
+   * Build the command line that starts a bundled worker.
+   * @param workers   Number of workers that will run, to give each its share of the cores.
+   * @param batchSize Number of texts a worker runs through the model at once.
+   * @return          The command line.
+   */
+  private static List<String> bundledCommand(int workers, int batchSize) {
+    List<String> command = new ArrayList<>(
+      Arrays.asList(
+        "python",
+        "./lib/Summarizer.py",
+        "--worker",
+        "--model",
+        DEFAULT_MODEL,
+        "--batch-size",
+        String.valueOf(batchSize)
+      )
+    );
+    // Without this, every worker would try to use every core.
+    if (workers > 1) {
+      int cores = Runtime.getRuntime().availableProcessors();
+      command.add("--threads");
+      command.add(String.valueOf(Math.max(1, cores / workers)));
+    }
+    return command;
+  }
+
+  /**
+   * Answer repeated texts from a cache. Only misses reach the worker.
+   * @param cache The cache to consult and fill.
+   */
+  @Override
+  public void useCache(SummaryCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Summarizes each string within a list of strings.
+   * @param strings The list of strings to be summarized.
+   * @return        Summaries for each string, in the same order.
+   * @throws SummarizerException If the worker fails, times out, or crashes twice in a row.
+   */
+  @Override
+  public List<String> summarize(List<String> strings) {
+    Events.SummarizeBatch event = new Events.SummarizeBatch();
+    event.begin();
+    long started = System.nanoTime();
+    List<String> result = this.summarizeCached(this.trim(strings), event);
+    Metrics.SUMMARIZE_BATCH.since(started);
+    event.end();
+    if (event.shouldCommit()) {
+      event.texts = strings.size();
+      event.inputBytes = bytes(strings);
+      event.outputBytes = bytes(result);
+      event.commit();
+    }
+    return result;
+  }
+
+  /**
+   * Cut long strings down to their most central sentences, if set up to.
+   * @param strings The list of strings to be summarized.
+   * @return        The strings the model should read instead, in the same order.
+   */
+  private List<String> trim(List<String> strings) {
+    if (this.trimTo <= 0) {
+      return strings;
+    }
+    List<String> trimmed = new ArrayList<>();
+    for (String string : strings) {
+      trimmed.add(ExtractiveSummarizer.extract(string, this.trimTo));
+    }
+    return trimmed;
+  }
+
+  /**
+   * Summarize each string, consulting the cache first if there is one.
+   * @param strings The list of strings to be summarized.
+   * @param event   Gets the number of cache hits.
+   * @return        Summaries for each string, in the same order.
+   */
+  private List<String> summarizeCached(
+    List<String> strings,
+    Events.SummarizeBatch event
+  ) {
+    if (this.cache == null) {
+      return this.summarizeUncached(strings);
+    }
+
+    List<String> result = new ArrayList<>();
+    List<String> keys = new ArrayList<>();
+    List<String> misses = new ArrayList<>();
+    for (String string : strings) {
+      String key = SummaryCache.key(string, this.model, MIN_LENGTH, MAX_LENGTH);
+      String summary = this.cache.get(key);
+      result.add(summary);
+      keys.add(key);
+      if (summary == null) {
+        misses.add(string);
+      }
+    }
+
+    event.cacheHits = strings.size() - misses.size();
+    List<String> fresh = this.summarizeUncached(misses);
+    for (int i = 0, j = 0; i < result.size(); ++i) {
+      if (result.get(i) == null) {
+        String summary = fresh.get(j++);
+        this.cache.put(keys.get(i), summary);
+        result.set(i, summary);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Have the workers summarize each string, split between them if there are several.
+   * @param strings The list of strings to be summarized.
+   * @return        Summaries for each string, in the same order.
+   */
+  private List<String> summarizeUncached(List<String> strings) {
+    if (strings.isEmpty()) {
+      return new ArrayList<>();
+    }
+    List<List<Integer>> shards = shard(strings, this.workers.size());
+    if (shards.size() == 1) {
+      return this.summarizeOn(this.workers.get(0), strings);
+    }
+
+    List<CompletableFuture<List<String>>> results = new ArrayList<>();
+    for (int i = 0; i < shards.size(); ++i) {
+      Worker worker = this.workers.get(i);
+      List<String> texts = new ArrayList<>();
+      for (int index : shards.get(i)) {
+        texts.add(strings.get(index));
+      }
+      results.add(
+        CompletableFuture.supplyAsync(
+          () -> this.summarizeOn(worker, texts),
+          this.dispatcher
+        )
+      );
+    }
+    String[] summaries = new String[strings.size()];
+    for (int i = 0; i < shards.size(); ++i) {
+      List<String> shardSummaries;
+      try {
+        shardSummaries = results.get(i).join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof SummarizerException) {
+          throw (SummarizerException) e.getCause();
+        }
+        throw e;
+      }
+      for (int j = 0; j < shardSummaries.size(); ++j) {
+        summaries[shards.get(i).get(j)] = shardSummaries.get(j);
+      }
+    }
+    return new ArrayList<>(Arrays.asList(summaries));
+  }
+
+  /**
+   * Have one worker summarize each string.
+   * @param worker  The worker.
+   * @param strings The list of strings to be summarized.
+   * @return        Summaries for each string, in the same order.
+   */
+  private List<String> summarizeOn(Worker worker, List<String> strings) {
+    JsonObject request = this.request(strings);
+    JsonObject response;
+    try {
+      response = worker.call(request, this.requestTimeout);
+    } catch (SummarizerException e) {
+      // A worker that died mid-request gets replaced and one more attempt.
+      // Timeouts and model errors are not retried, they'd most likely just happen again.
+      if (!(e.getCause() instanceof IOException)) {
+        throw e;
+      }
+      System.err.format("Summarizer worker crashed, restarting: %s%n", e);
+      Metrics.ERRORS.inc("summarizer", "worker_crash");
+      response = worker.call(request, this.requestTimeout);
+    }
+    return this.summaries(response, strings.size());
+  }
+
+  /**
+   * Split texts between workers so they all finish at about the same time.
+   * Texts are handed out longest first, each to the worker with the least text so far.
+   * @param strings The texts.
+   * @param workers Number of workers.
+   * @return        The indexes of each worker's texts, longest first, leaving out idle workers.
+   */
+  static List<List<Integer>> shard(List<String> strings, int workers) {
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < strings.size(); ++i) {
+      order.add(i);
+    }
+    order.sort((a, b) -> strings.get(b).length() - strings.get(a).length());
+
+    List<List<Integer>> shards = new ArrayList<>();
+    long[] loads = new long[Math.max(1, workers)];
+    for (int i = 0; i < loads.length; ++i) {
+      shards.add(new ArrayList<>());
+    }
+    for (int index : order) {
+      int lightest = 0;
+      for (int i = 1; i < loads.length; ++i) {
+        if (loads[i] < loads[lightest]) {
+          lightest = i;
+        }
+      }
+      shards.get(lightest).add(index);
+      loads[lightest] += strings.get(index).length();
+    }
+    shards.removeIf(List::isEmpty);
+    return shards;
+  }
+
+  /**
+   * Build the request that has the worker summarize each string.
+   * @param strings The list of strings to be summarized.
+   * @return        The request, without an "id".
+   */
+  JsonObject request(List<String> strings) {
+    JsonObject request = new JsonObject();
+    request.addProperty("type", "summarize");
+    request.addProperty("min_length", MIN_LENGTH);
+    request.addProperty("max_length", MAX_LENGTH);
+    request.add("texts", this.gson.toJsonTree(strings));
+    return request;
+  }
+
+  /**
+   * Read the summaries from the worker's response.
+   * @param response The successful response.
+   * @param expected Number of strings that were sent.
+   * @return         Summaries for each string, in the same order.
+   * @throws SummarizerException If the number of summaries doesn't match.
+   */
+  List<String> summaries(JsonObject response, int expected) {
+    String[] summaries = this.gson.fromJson(
+      response.get("summaries"),
+      String[].class
+    );
+    if (summaries == null || summaries.length != expected) {
+      throw new SummarizerException(
+        String.format(
+          "Expected %d summaries but the worker returned %d",
+          expected,
+          summaries == null ? 0 : summaries.length
+        )
+      );
+    }
+    return new ArrayList<>(Arrays.asList(summaries));
+  }
+
+  /**
+   * Check whether every worker is up and answering requests, starting them if needed.
+   * A worker that is busy with another request counts as healthy as long as it's alive.
+   * @return True if the workers are usable, false otherwise.
+   */
+  @Override
+  public boolean isHealthy() {
+    for (Worker worker : this.workers) {
+      if (!worker.isHealthy()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the name of the model the worker is asked to load.
+   * @return The model name.
+   */
+  @Override
+  public String model() {
+    return this.model;
+  }
+
+  /**
+   * Get the number of workers that calls are split between.
+   * @return The number of worker processes.
+   */
+  @Override
+  public int workers() {
+    return this.workers.size();
+  }
+
+  /** Ask every worker to exit, and kill the ones that don't. */
+  @Override
+  public void close() {
+    for (Worker worker : this.workers) {
+      worker.close();
+    }
+    this.dispatcher.shutdownNow();
+  }
+
+  /**
+   * Start a background thread that won't keep the JVM alive.
+   * @param name The thread's name.
+   * @param task What the thread should do.
+   */
+  private static void startDaemon(String name, Runnable task) {
+    Thread thread = new Thread(task, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Measure strings for events.
+   * @param strings The strings.
+   * @return        Their total size in UTF-8.
+   */
+  static long bytes(List<String> strings) {
+    long total = 0;
+    for (String string : strings) {
+      total += string.getBytes(StandardCharsets.UTF_8).length;
+    }
+    return total;
+  }
+
+  /** One worker process, and the requests waiting on it. */
+  private class Worker {
+    /** Tells workers apart in thread names. */
+    private final int number;
+
+    /** Requests that are waiting for a response, keyed by correlation ID. */
+    private final Map<Long, CompletableFuture<JsonObject>> pending =
+      new ConcurrentHashMap<>();
+
+    /** The last few lines the worker wrote to stderr. Guarded by itself. */
+    private final Deque<String> stderrTail = new ArrayDeque<>();
+
+    /** The running process, or null if none has been started. Guarded by this. */
+    private volatile Process process;
+
+    /** Request stream of the running process. Guarded by this. */
+    private BufferedWriter writer;
+
+    Worker(int number) {
+      this.number = number;
+    }
+
+    /**
+     * Check whether the worker is up and answering requests, starting it if needed.
+     * A worker that is busy with another request counts as healthy as long as it's alive.
+     * @return True if the worker is usable, false otherwise.
+     */
+    boolean isHealthy() {
+      Process current = this.process;
+      if (current != null && !this.pending.isEmpty()) {
+        return current.isAlive();
+      }
+      JsonObject ping = new JsonObject();
+      ping.addProperty("type", "ping");
+      try {
+        this.call(ping, PING_TIMEOUT);
+        return true;
+      } catch (SummarizerException e) {
+        return false;
+      }
+    }
+
+    /** Ask the worker to exit, and kill it if it doesn't. */
+    synchronized void close() {
+      Process current = this.process;
+      if (current == null) {
+        return;
+      }
+      try {
+        this.writer.write("{\"type\":\"shutdown\"}");
+        this.writer.newLine();
+        this.writer.flush();
+        this.writer.close();
+        current.waitFor(5, TimeUnit.SECONDS);
+      } catch (IOException e) {
+        // Already gone.
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      this.stop();
+    }
+
+    /**
+     * Send a request to the worker and wait for the matching response.
+     * @param request The request; an "id" field is added to it.
+     * @param timeout How long to wait for the response.
+     * @return        The successful response.
+     * @throws SummarizerException If the request failed. The cause is an IOException if the worker died.
+     */
+    JsonObject call(JsonObject request, Duration timeout) {
+      long id = ModelSummarizer.this.nextId.incrementAndGet();
+      request.addProperty("id", id);
+      CompletableFuture<JsonObject> future = new CompletableFuture<>();
+      try {
+        synchronized (this) {
+          // Register only once the worker is up, so an older worker's exit can't fail us.
+          this.ensureStarted();
+          this.pending.put(id, future);
+          this.writer.write(ModelSummarizer.this.gson.toJson(request));
+          this.writer.newLine();
+          this.writer.flush();
+        }
+        JsonObject response = future.get(
+          timeout.toMillis(),
+          TimeUnit.MILLISECONDS
+        );
+        if (!response.get("ok").getAsBoolean()) {
+          Metrics.ERRORS.inc("summarizer", "worker_error");
+          throw new SummarizerException(
+            "Summarizer worker failed: " + response.get("error").getAsString()
+          );
+        }
+        return response;
+      } catch (IOException e) {
+        throw new SummarizerException("Could not reach summarizer worker", e);
+      } catch (ExecutionException e) {
+        throw new SummarizerException(
+          "Summarizer worker died: " + e.getCause().getMessage(),
+          e.getCause()
+        );
+      } catch (TimeoutException e) {
+        // We can't tell a stuck worker from a slow one, so the next call gets a fresh one.
+        Metrics.ERRORS.inc("summarizer", "timeout");
+        synchronized (this) {
+          this.stop();
+        }
+        throw new SummarizerException(
+          String.format(
+            "Summarizer worker timed out after %ds",
+            timeout.toSeconds()
+          ),
+          e
+        );
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SummarizerException("Interrupted while summarizing", e);
+      } finally {
+        this.pending.remove(id);
+      }
+    }
+
+    /**
+     * Start a worker unless one is already running, and wait until its model is loaded.
+     * Callers must hold the lock on this.
+     * @throws IOException If the process can't be started.
+     */
+    private void ensureStarted() throws IOException {
+      if (this.process != null && this.process.isAlive()) {
+        return;
+      }
+      synchronized (this.stderrTail) {
+        this.stderrTail.clear();
+      }
+
+      Events.WorkerStart event = new Events.WorkerStart();
+      event.begin();
+      Process started = new ProcessBuilder(ModelSummarizer.this.command)
+        .start();
+      CompletableFuture<JsonObject> ready = new CompletableFuture<>();
+      startDaemon(
+        "summarizer-stdout-" + this.number,
+        () -> this.readResponses(started, ready)
+      );
+      startDaemon(
+        "summarizer-stderr-" + this.number,
+        () -> this.readErrors(started)
+      );
+      this.process = started;
+      this.writer =
+        new BufferedWriter(
+          new OutputStreamWriter(
+            started.getOutputStream(),
+            StandardCharsets.UTF_8
+          )
+        );
+
+      try {
+        ready.get(STARTUP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        event.command = String.join(" ", ModelSummarizer.this.command);
+        event.model = ModelSummarizer.this.model;
+        event.pid = started.pid();
+        event.commit();
+      } catch (ExecutionException e) {
+        this.stop();
+        throw new IOException(
+          "Summarizer worker failed to start: " + e.getCause().getMessage(),
+          e.getCause()
+        );
+      } catch (TimeoutException e) {
+        this.stop();
+        throw new SummarizerException(
+          "Summarizer worker did not become ready",
+          e
+        );
+      } catch (InterruptedException e) {
+        this.stop();
+        Thread.currentThread().interrupt();
+        throw new SummarizerException(
+          "Interrupted while starting summarizer",
+          e
+        );
+      }
+    }
+
+    /**
+     * Kill the current worker, if any, and fail the requests still waiting on it.
+     * Callers must hold the lock on this.
+     */
+    private void stop() {
+      if (this.process != null) {
+        this.process.destroyForcibly();
+        this.process = null;
+        this.writer = null;
+      }
+      EOFException stopped = new EOFException("worker was stopped");
+      for (CompletableFuture<JsonObject> future : this.pending.values()) {
+        future.completeExceptionally(stopped);
+      }
+    }
+
+    /**
+     * Dispatch every response frame of a worker to the request waiting for it.
+     * @param worker The worker process to read from.
+     * @param ready  Completed with the worker's ready frame.
+     */
+    private void readResponses(
+      Process worker,
+      CompletableFuture<JsonObject> ready
+    ) {
+      try (
+        BufferedReader reader = new BufferedReader(
+          new InputStreamReader(worker.getInputStream(), StandardCharsets.UTF_8)
+        )
+      ) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          JsonObject frame;
+          try {
+            frame = ModelSummarizer.this.gson.fromJson(line, JsonObject.class);
+          } catch (RuntimeException e) {
+            System.err.format(
+              "Ignoring malformed summarizer output: %s%n",
+              line
+            );
+            Metrics.ERRORS.inc("summarizer", "malformed_output");
+            continue;
+          }
+          if (frame == null) {
+            continue;
+          }
+          if (
+            frame.has("type") && frame.get("type").getAsString().equals("ready")
+          ) {
+            ready.complete(frame);
+            continue;
+          }
+          if (frame.has("id") && !frame.get("id").isJsonNull()) {
+            CompletableFuture<JsonObject> future = this.pending.get(
+              frame.get("id").getAsLong()
+            );
+            if (future != null) {
+              future.complete(frame);
+            }
+          }
+        }
+      } catch (IOException e) {
+        // Treated the same as a regular end of stream below.
+      }
+
+      EOFException exited = new EOFException(this.describeExit(worker));
+      ready.completeExceptionally(exited);
+      // Requests sent to a newer worker aren't ours to fail.
+      if (this.process == worker) {
+        for (CompletableFuture<JsonObject> future : this.pending.values()) {
+          future.completeExceptionally(exited);
+        }
+      }
+    }
+
+    /**
+     * Keep the tail of a worker's stderr so crashes can be explained.
+     * Draining it also keeps the worker from blocking on a full pipe.
+     * @param worker The worker process to read from.
+     */
+    private void readErrors(Process worker) {
+      try (
+        BufferedReader reader = new BufferedReader(
+          new InputStreamReader(worker.getErrorStream(), StandardCharsets.UTF_8)
+        )
+      ) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          synchronized (this.stderrTail) {
+            this.stderrTail.addLast(line);
+            while (this.stderrTail.size() > STDERR_TAIL_LINES) {
+              this.stderrTail.removeFirst();
+            }
+          }
+        }
+      } catch (IOException e) {
+        // The worker is gone, nothing left to drain.
+      }
+    }
+
+    /**
+     * Describe why a worker's output ended.
+     * @param worker The worker process.
+     * @return       A message with the exit code and the last lines of stderr.
+     */
+    private String describeExit(Process worker) {
+      String code;
+      try {
+        code = worker.waitFor(1, TimeUnit.SECONDS)
+          ? String.valueOf(worker.exitValue())
+          : "unknown";
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        code = "unknown";
+      }
+      synchronized (this.stderrTail) {
+        return String.format(
+          "worker exited with code %s%s",
+          code,
+          this.stderrTail.isEmpty()
+            ? ""
+            : ", stderr:" +
+            System.lineSeparator() +
+            String.join(System.lineSeparator(), this.stderrTail)
+        );
+      }
+    }
+  }
+}
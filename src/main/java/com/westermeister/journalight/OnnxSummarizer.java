@@ -0,0 +1,555 @@
+/**
+ * Provides summarization with an ONNX model, without leaving the JVM.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OnnxValue;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Responsible for summarizing text abstractively, with the same kind of
+ * transformer model as ModelSummarizer, but run by ONNX Runtime on the CPU
+ * right here in the JVM. There's no Python process to start, feed JSON to and
+ * keep alive, and its threads are tuned alongside the scrapers'.
+ *
+ * The model is a seq2seq model exported to ONNX, e.g. with
+ * "optimum-cli export onnx --model sshleifer/distilbart-cnn-12-6 DIR", into
+ * the directory set with "journalight.onnx.model": "encoder_model.onnx",
+ * "decoder_model.onnx" and the tokenizer's "vocab.json" and "merges.txt".
+ * If "decoder_with_past_model.onnx" is there too, each step of decoding only
+ * runs the newest token through it, with the attention keys and values of the
+ * earlier ones carried over; otherwise every step runs the whole summary so far.
+ *
+ * Texts are cut off and summaries bounded as in the Python module: the model
+ * reads the first 3999 characters, and writes 20 to 280 tokens, picking the
+ * likeliest next token each time without repeating any three tokens in a row.
+ * Longer texts are cut down first if "journalight.summarizer.trim" is set, as
+ * ModelSummarizer does. The sessions are loaded on first use and kept, as are
+ * the input buffers.
+ * Each session uses "journalight.onnx.threads" threads, half the cores by
+ * default, so the other half is left to the browsers.
+ */
+class OnnxSummarizer implements Summarizer {
+  /** Directory of the model unless told otherwise. */
+  static final String DEFAULT_MODEL = "models/distilbart-cnn-12-6";
+
+  /** Longest text the model is given, in characters, as in the Python module. */
+  static final int MAX_INPUT = 3999;
+
+  /** Longest input the model can read, in tokens, special tokens included. */
+  private static final int MAX_INPUT_TOKENS = 1024;
+
+  /** File of the decoder that reads earlier tokens' keys and values, if any. */
+  private static final String WITH_PAST = "decoder_with_past_model.onnx";
+
+  /** Number of tokens in a row that may not repeat within a summary. */
+  private static final int NO_REPEAT = 3;
+
+  /** Directory with the model and tokenizer files. */
+  private final Path directory;
+
+  /** Threads each session runs an operator on. */
+  private final int threads;
+
+  /** Length texts are trimmed to before the model reads them, or 0 to never trim. */
+  private final int trimTo;
+
+  /** Turns texts into tokens and back, or null if not loaded yet. */
+  private BpeTokenizer tokenizer;
+
+  /** Runs the sessions, or null if not loaded yet. */
+  private OrtEnvironment environment;
+
+  /** Reads the text, or null if not loaded yet. */
+  private OrtSession encoder;
+
+  /** Writes the summary's first token, or each token if there's no decoderWithPast. */
+  private OrtSession decoder;
+
+  /** Writes each later token from the earlier ones' keys and values, or null. */
+  private OrtSession decoderWithPast;
+
+  /** The text's token IDs. Reused between texts. */
+  private final LongBuffer inputIds = longs(MAX_INPUT_TOKENS);
+
+  /** Marks every token of the text as one to attend to. Reused between texts. */
+  private final LongBuffer attentionMask = longs(MAX_INPUT_TOKENS);
+
+  /** The summary's token IDs so far. Reused between steps and texts. */
+  private final LongBuffer decoderIds = longs(ModelSummarizer.MAX_LENGTH);
+
+  /** Consulted before the model, or null to always run the model. */
+  private SummaryCache cache;
+
+  /** Use the model and number of threads set by system properties. */
+  OnnxSummarizer() {
+    this(
+      Paths.get(System.getProperty("journalight.onnx.model", DEFAULT_MODEL)),
+      Integer.getInteger(
+        "journalight.onnx.threads",
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2)
+      )
+    );
+  }
+
+  /**
+   * Use a model. Nothing is loaded until the first summary is asked for.
+   * @param directory Directory with the model and tokenizer files.
+   * @param threads   Threads each session runs an operator on.
+   */
+  OnnxSummarizer(Path directory, int threads) {
+    this.directory = directory;
+    this.threads = Math.max(1, threads);
+    this.trimTo = Integer.getInteger(
+      "journalight.summarizer.trim",
+      ModelSummarizer.DEFAULT_TRIM
+    );
+  }
+
+  /**
+   * Answer repeated texts from a cache. Only misses reach the model.
+   * @param cache The cache to consult and fill.
+   */
+  @Override
+  public void useCache(SummaryCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Summarizes each string within a list of strings, one after the other.
+   * The model is only loaded if some string isn't in the cache.
+   * @param strings The list of strings to be summarized.
+   * @return        Summaries for each string, in the same order.
+   * @throws SummarizerException If the model can't be loaded or run.
+   */
+  @Override
+  public synchronized List<String> summarize(List<String> strings) {
+    Events.SummarizeBatch event = new Events.SummarizeBatch();
+    event.begin();
+    long started = System.nanoTime();
+    List<String> texts = new ArrayList<>();
+    List<String> keys = new ArrayList<>();
+    List<String> summaries = new ArrayList<>();
+    for (String string : strings) {
+      // Trimmed before the key is made, as ModelSummarizer does, so both key alike.
+      String text = this.trimTo > 0
+        ? ExtractiveSummarizer.extract(string, this.trimTo)
+        : string;
+      String key = this.cache == null
+        ? null
+        : SummaryCache.key(
+          text,
+          this.model(),
+          ModelSummarizer.MIN_LENGTH,
+          ModelSummarizer.MAX_LENGTH
+        );
+      String summary = key == null ? null : this.cache.get(key);
+      if (summary != null) {
+        ++event.cacheHits;
+      }
+      texts.add(text);
+      keys.add(key);
+      summaries.add(summary);
+    }
+    for (int i = 0; i < summaries.size(); ++i) {
+      if (summaries.get(i) == null) {
+        this.load();
+        String summary = this.summarizeOne(texts.get(i));
+        if (keys.get(i) != null) {
+          this.cache.put(keys.get(i), summary);
+        }
+        summaries.set(i, summary);
+      }
+    }
+    Metrics.SUMMARIZE_BATCH.since(started);
+    event.end();
+    if (event.shouldCommit()) {
+      event.texts = strings.size();
+      event.inputBytes = ModelSummarizer.bytes(strings);
+      event.outputBytes = ModelSummarizer.bytes(summaries);
+      event.commit();
+    }
+    return summaries;
+  }
+
+  /**
+   * Get the name of the model, for cache keys. Summaries differ from the Python
+   * module's for the same model, since it searches more widely, so the name
+   * does too.
+   * @return E.g. "onnx:distilbart-cnn-12-6".
+   */
+  @Override
+  public String model() {
+    return "onnx:" + this.directory.getFileName();
+  }
+
+  /**
+   * Check whether the model can be loaded, loading it if needed.
+   * @return True if usable, false otherwise.
+   */
+  @Override
+  public boolean isHealthy() {
+    try {
+      this.load();
+      return true;
+    } catch (SummarizerException e) {
+      System.err.format("ONNX summarizer is not usable: %s%n", e.getMessage());
+      return false;
+    }
+  }
+
+  /** Close the sessions. */
+  @Override
+  public synchronized void close() {
+    for (OrtSession session : new OrtSession[] {
+      this.encoder,
+      this.decoder,
+      this.decoderWithPast,
+    }) {
+      if (session != null) {
+        try {
+          session.close();
+        } catch (OrtException e) {
+          System.err.format("Could not close ONNX session: %s%n", e);
+        }
+      }
+    }
+    this.encoder = null;
+    this.decoder = null;
+    this.decoderWithPast = null;
+  }
+
+  /**
+   * Load the tokenizer and the sessions, unless they're loaded already.
+   * @throws SummarizerException If a file is missing or can't be loaded.
+   */
+  private synchronized void load() {
+    if (this.encoder != null) {
+      return;
+    }
+    for (String file : List.of(
+      "encoder_model.onnx",
+      "decoder_model.onnx",
+      "vocab.json",
+      "merges.txt"
+    )) {
+      if (!Files.isRegularFile(this.directory.resolve(file))) {
+        throw new SummarizerException(
+          "No " + file + " in " + this.directory.toAbsolutePath()
+        );
+      }
+    }
+    try {
+      this.tokenizer = new BpeTokenizer(this.directory);
+      // Loads the native library, which even the options need.
+      this.environment = OrtEnvironment.getEnvironment();
+      try (
+        OrtSession.SessionOptions options = new OrtSession.SessionOptions()
+      ) {
+        options.setIntraOpNumThreads(this.threads);
+        options.setInterOpNumThreads(1);
+        options.setExecutionMode(
+          OrtSession.SessionOptions.ExecutionMode.SEQUENTIAL
+        );
+        options.setOptimizationLevel(
+          OrtSession.SessionOptions.OptLevel.ALL_OPT
+        );
+        this.encoder = this.session("encoder_model.onnx", options);
+        this.decoder = this.session("decoder_model.onnx", options);
+        if (Files.isRegularFile(this.directory.resolve(WITH_PAST))) {
+          this.decoderWithPast = this.session(WITH_PAST, options);
+        }
+      }
+    } catch (OrtException | RuntimeException e) {
+      // Thrown if the native library or the tokenizer's files can't be loaded.
+      this.close();
+      throw new SummarizerException(
+        "Could not load the ONNX model in " + this.directory.toAbsolutePath(),
+        e
+      );
+    }
+  }
+
+  /**
+   * Load a session.
+   * @param file    The model's file name in the directory.
+   * @param options How to run it.
+   * @return        The session.
+   * @throws OrtException If the model can't be loaded.
+   */
+  private OrtSession session(String file, OrtSession.SessionOptions options)
+    throws OrtException {
+    return this.environment.createSession(
+      this.directory.resolve(file).toString(),
+      options
+    );
+  }
+
+  /**
+   * Summarize a text with the loaded model.
+   * @param text The text.
+   * @return     Its summary.
+   * @throws SummarizerException If the model fails.
+   */
+  private String summarizeOne(String text) {
+    List<Integer> tokens = this.tokenizer.encode(
+      text.substring(0, Math.min(text.length(), MAX_INPUT))
+    );
+    int start = this.tokenizer.id("<s>");
+    int end = this.tokenizer.id("</s>");
+    int length = Math.min(tokens.size(), MAX_INPUT_TOKENS - 2) + 2;
+    this.inputIds.clear();
+    this.attentionMask.clear();
+    this.inputIds.put(start);
+    for (int i = 0; i < length - 2; ++i) {
+      this.inputIds.put(tokens.get(i));
+    }
+    this.inputIds.put(end);
+    for (int i = 0; i < length; ++i) {
+      this.attentionMask.put(1);
+    }
+    this.inputIds.flip();
+    this.attentionMask.flip();
+    long[] shape = { 1, length };
+
+    try (
+      OnnxTensor ids = OnnxTensor.createTensor(
+        this.environment,
+        this.inputIds,
+        shape
+      );
+      OnnxTensor mask = OnnxTensor.createTensor(
+        this.environment,
+        this.attentionMask,
+        shape
+      );
+      OrtSession.Result encoded = this.encoder.run(
+        Map.of("input_ids", ids, "attention_mask", mask)
+      )
+    ) {
+      OnnxTensor hidden = (OnnxTensor) encoded.get(0);
+      return clean(
+        this.tokenizer.decode(this.decode(hidden, mask, start, end))
+      );
+    } catch (OrtException e) {
+      throw new SummarizerException("ONNX model failed: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Write a summary token by token, as BART does: it starts from "</s>", is
+   * made to write "<s>" first, and ends with "</s>".
+   * @param hidden What the encoder made of the text.
+   * @param mask   The text's attention mask.
+   * @param start  ID of "<s>".
+   * @param end    ID of "</s>".
+   * @return       The summary's token IDs, special tokens included.
+   * @throws OrtException If the model fails.
+   */
+  private List<Integer> decode(
+    OnnxTensor hidden,
+    OnnxTensor mask,
+    int start,
+    int end
+  ) throws OrtException {
+    List<Integer> summary = new ArrayList<>(List.of(end));
+    // The first step's outputs hold the keys and values of the text, which
+    // every later step reads; the latest step's hold those of the summary so far.
+    OrtSession.Result first = null;
+    OrtSession.Result latest = null;
+    try {
+      while (summary.size() < ModelSummarizer.MAX_LENGTH) {
+        boolean cached = first != null;
+        OrtSession session = cached ? this.decoderWithPast : this.decoder;
+        this.decoderIds.clear();
+        for (int i = cached ? summary.size() - 1 : 0; i < summary.size(); ++i) {
+          this.decoderIds.put(summary.get(i));
+        }
+        this.decoderIds.flip();
+        int steps = this.decoderIds.limit();
+        OrtSession.Result result;
+        try (
+          OnnxTensor ids = OnnxTensor.createTensor(
+            this.environment,
+            this.decoderIds,
+            new long[] { 1, steps }
+          )
+        ) {
+          Map<String, OnnxTensor> inputs = new HashMap<>();
+          inputs.put("input_ids", ids);
+          inputs.put("encoder_hidden_states", hidden);
+          inputs.put("encoder_attention_mask", mask);
+          if (cached) {
+            carry(first, inputs);
+            if (latest != null) {
+              carry(latest, inputs);
+            }
+          }
+          inputs.keySet().retainAll(session.getInputNames());
+          result = session.run(inputs);
+        }
+        // The step before has been read, so its outputs can go.
+        if (first == null && this.decoderWithPast != null) {
+          first = result;
+        } else {
+          if (latest != null) {
+            latest.close();
+          }
+          latest = result;
+        }
+
+        OnnxValue scores = result.get("logits").orElse(result.get(0));
+        FloatBuffer logits = ((OnnxTensor) scores).getFloatBuffer();
+        int vocabulary = logits.limit() / steps;
+        int next = next(
+          logits,
+          (steps - 1) * vocabulary,
+          vocabulary,
+          summary,
+          start,
+          end
+        );
+        summary.add(next);
+        if (next == end) {
+          break;
+        }
+      }
+    } finally {
+      if (first != null) {
+        first.close();
+      }
+      if (latest != null) {
+        latest.close();
+      }
+    }
+    return summary;
+  }
+
+  /**
+   * Feed a step's attention keys and values ("present.*") to the next step
+   * ("past_key_values.*").
+   * @param result The step's outputs.
+   * @param inputs The next step's inputs, which get them.
+   */
+  private static void carry(
+    OrtSession.Result result,
+    Map<String, OnnxTensor> inputs
+  ) {
+    for (Map.Entry<String, OnnxValue> output : result) {
+      String name = output.getKey();
+      if (name.startsWith("present.")) {
+        inputs.put(
+          "past_key_values." + name.substring("present.".length()),
+          (OnnxTensor) output.getValue()
+        );
+      }
+    }
+  }
+
+  /**
+   * Pick the next token of a summary: the likeliest one that's allowed.
+   * The first token is always "<s>", and the summary ends with "</s>" within the
+   * length bounds; no three tokens in a row may repeat.
+   * @param logits     The model's scores.
+   * @param offset     Where the scores of the next token start.
+   * @param vocabulary Number of tokens.
+   * @param summary    The summary so far.
+   * @param start      ID of "<s>".
+   * @param end        ID of "</s>".
+   * @return           The token's ID.
+   */
+  static int next(
+    FloatBuffer logits,
+    int offset,
+    int vocabulary,
+    List<Integer> summary,
+    int start,
+    int end
+  ) {
+    if (summary.size() == 1) {
+      return start;
+    }
+    if (summary.size() == ModelSummarizer.MAX_LENGTH - 1) {
+      return end;
+    }
+    Set<Integer> banned = repeats(summary);
+    if (summary.size() < ModelSummarizer.MIN_LENGTH) {
+      banned.add(end);
+    }
+    int best = end;
+    float bestScore = Float.NEGATIVE_INFINITY;
+    for (int token = 0; token < vocabulary; ++token) {
+      float score = logits.get(offset + token);
+      if (score > bestScore && !banned.contains(token)) {
+        best = token;
+        bestScore = score;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Find the tokens that would repeat the last few tokens of a summary.
+   * @param summary The summary so far.
+   * @return        Tokens that would complete a run of NO_REPEAT tokens seen before.
+   */
+  static Set<Integer> repeats(List<Integer> summary) {
+    Set<Integer> repeats = new HashSet<>();
+    int prefix = NO_REPEAT - 1;
+    int tail = summary.size() - prefix;
+    for (int i = 0; tail > 0 && i < tail; ++i) {
+      boolean same = true;
+      for (int k = 0; k < prefix && same; ++k) {
+        same = summary.get(i + k).equals(summary.get(tail + k));
+      }
+      if (same) {
+        repeats.add(summary.get(i + prefix));
+      }
+    }
+    return repeats;
+  }
+
+  /**
+   * Fix the model's usual mistakes in a summary, as the Python module does.
+   * @param summary The summary as generated.
+   * @return        The fixed summary.
+   */
+  static String clean(String summary) {
+    String cleaned = summary.strip().replace(" .", ".");
+    // A closing quote goes after the period.
+    if (cleaned.endsWith("\"")) {
+      cleaned = cleaned.substring(0, cleaned.length() - 1) + ".\"";
+    }
+    return cleaned;
+  }
+
+  /**
+   * Allocate a buffer that ONNX Runtime can read in place.
+   * @param capacity Number of longs.
+   * @return         The buffer, in native byte order.
+   */
+  private static LongBuffer longs(int capacity) {
+    return ByteBuffer
+      .allocateDirect(capacity * Long.BYTES)
+      .order(ByteOrder.nativeOrder())
+      .asLongBuffer();
+  }
+}
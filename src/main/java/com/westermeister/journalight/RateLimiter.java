@@ -0,0 +1,289 @@
+/**
+ * Provides per-host politeness limits for scrapers.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Responsible for keeping every scraper polite towards the hosts it visits.
+ * Each host gets a token bucket, which limits the request rate while allowing
+ * short bursts, and a cap on the number of requests in flight at once. Limits
+ * are shared by every scraper in the JVM, so two scrapers hitting the same
+ * host share its budget.
+ *
+ * A host's limits can be overridden with a system property named
+ * "journalight.politeness.HOST" set to "RATE,BURST,MAX_IN_FLIGHT",
+ * e.g. -Djournalight.politeness.www.npr.org=0.5,2,4.
+ */
+class RateLimiter {
+  /** Limits used for hosts nobody has defined, which is effectively unlimited. */
+  private static final Limits UNLIMITED = new Limits(
+    Double.POSITIVE_INFINITY,
+    1,
+    Integer.MAX_VALUE
+  );
+
+  /** The limiter shared by all scrapers. */
+  private static final RateLimiter SHARED = new RateLimiter();
+
+  /** The state for every host seen so far. */
+  private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+  /** Limits that were defined for hosts, before any overrides. */
+  private final Map<String, Limits> defined = new ConcurrentHashMap<>();
+
+  /**
+   * Get the limiter shared by all scrapers.
+   * @return The shared instance.
+   */
+  static RateLimiter shared() {
+    return SHARED;
+  }
+
+  /**
+   * Define a host's limits, replacing any earlier definition.
+   * Scrapers call this every run, so an unchanged definition keeps the host's bucket
+   * state. A changed one, or one made after the host was first used, starts a new
+   * bucket with the new limits. Requests already in flight finish under the old one.
+   * @param host          The host name, e.g. "www.npr.org".
+   * @param ratePerSecond Average number of requests per second.
+   * @param burst         Number of requests that may be made back to back after a quiet period.
+   * @param maxInFlight   Number of requests that may be loading at once.
+   */
+  void define(String host, double ratePerSecond, int burst, int maxInFlight) {
+    Limits limits = new Limits(ratePerSecond, burst, maxInFlight);
+    Limits previous = this.defined.put(host, limits);
+    if (!limits.equals(previous)) {
+      this.buckets.remove(host);
+    }
+  }
+
+  /**
+   * Wait until a request to the URL's host is allowed, then claim an in-flight slot.
+   * @param url The URL about to be requested.
+   * @return    A permit that must be released once the request has finished loading.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  Permit acquire(String url) throws InterruptedException {
+    Bucket bucket = this.bucket(url);
+    bucket.slots.acquire();
+    try {
+      long wait = bucket.reserve();
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+    } catch (InterruptedException e) {
+      bucket.slots.release();
+      throw e;
+    }
+    return new Permit(bucket);
+  }
+
+  /**
+   * Claim a request to the URL's host only if that's possible right now.
+   * @param url The URL about to be requested.
+   * @return    A permit that must be released once the request has finished loading, or null.
+   */
+  Permit tryAcquire(String url) {
+    Bucket bucket = this.bucket(url);
+    if (!bucket.slots.tryAcquire()) {
+      return null;
+    }
+    if (!bucket.tryTake()) {
+      bucket.slots.release();
+      return null;
+    }
+    return new Permit(bucket);
+  }
+
+  /**
+   * Get how long until a request to the URL's host would get a token, ignoring in-flight slots.
+   * @param url The URL about to be requested.
+   * @return    The wait in nanoseconds, 0 if a token is available now.
+   */
+  long nanosUntilToken(String url) {
+    return this.bucket(url).nanosUntilToken();
+  }
+
+  /**
+   * Get the number of requests that may be loading at once for the URL's host.
+   * @param url A URL on the host.
+   * @return    The limit.
+   */
+  int maxInFlight(String url) {
+    return this.bucket(url).limits.maxInFlight;
+  }
+
+  /**
+   * Find or create the bucket for a URL's host.
+   * @param url A URL on the host.
+   * @return    The bucket.
+   */
+  private Bucket bucket(String url) {
+    String host;
+    try {
+      host = URI.create(url).getHost();
+    } catch (IllegalArgumentException e) {
+      host = null;
+    }
+    return this.buckets.computeIfAbsent(
+      host == null ? "" : host,
+      name -> new Bucket(this.limits(name))
+    );
+  }
+
+  /**
+   * Work out a host's limits: its override if set, else its definition, else no limits.
+   * @param host The host name.
+   * @return     The limits.
+   */
+  private Limits limits(String host) {
+    String override = System.getProperty("journalight.politeness." + host);
+    if (override != null) {
+      String[] parts = override.split(",");
+      try {
+        return new Limits(
+          Double.parseDouble(parts[0].trim()),
+          Integer.parseInt(parts[1].trim()),
+          Integer.parseInt(parts[2].trim())
+        );
+      } catch (RuntimeException e) {
+        System.err.format(
+          "Ignoring malformed politeness override for %s: %s%n",
+          host,
+          override
+        );
+      }
+    }
+    return this.defined.getOrDefault(host, UNLIMITED);
+  }
+
+  /** A host's configured limits. */
+  private static class Limits {
+    final double ratePerSecond;
+    final int burst;
+    final int maxInFlight;
+
+    Limits(double ratePerSecond, int burst, int maxInFlight) {
+      this.ratePerSecond = ratePerSecond;
+      this.burst = Math.max(1, burst);
+      this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Limits)) {
+        return false;
+      }
+      Limits limits = (Limits) other;
+      return (
+        this.ratePerSecond == limits.ratePerSecond &&
+        this.burst == limits.burst &&
+        this.maxInFlight == limits.maxInFlight
+      );
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.ratePerSecond, this.burst, this.maxInFlight);
+    }
+  }
+
+  /** A host's token bucket and in-flight slots. */
+  private static class Bucket {
+    final Limits limits;
+    final Semaphore slots;
+
+    /** Tokens available as of lastRefill. Negative values are reservations. Guarded by this. */
+    private double tokens;
+
+    /** When tokens was last brought up to date. Guarded by this. */
+    private long lastRefill = System.nanoTime();
+
+    Bucket(Limits limits) {
+      this.limits = limits;
+      this.slots = new Semaphore(limits.maxInFlight, true);
+      this.tokens = limits.burst;
+    }
+
+    /**
+     * Take a token, going into debt if none is available.
+     * @return How long the caller must wait before using the token, in nanoseconds.
+     */
+    synchronized long reserve() {
+      this.refill();
+      this.tokens -= 1;
+      return this.tokens >= 0 ? 0 : this.nanosFor(-this.tokens);
+    }
+
+    /**
+     * Take a token only if one is available now.
+     * @return True if a token was taken, false otherwise.
+     */
+    synchronized boolean tryTake() {
+      this.refill();
+      if (this.tokens < 1) {
+        return false;
+      }
+      this.tokens -= 1;
+      return true;
+    }
+
+    /**
+     * Get how long until a whole token is available.
+     * @return The wait in nanoseconds, 0 if available now.
+     */
+    synchronized long nanosUntilToken() {
+      this.refill();
+      return this.tokens >= 1 ? 0 : this.nanosFor(1 - this.tokens);
+    }
+
+    /** Add the tokens earned since the last refill, up to the burst size. */
+    private void refill() {
+      long now = System.nanoTime();
+      if (Double.isInfinite(this.limits.ratePerSecond)) {
+        this.tokens = this.limits.burst;
+        this.lastRefill = now;
+        return;
+      }
+      double earned = (now - this.lastRefill) / 1e9 * this.limits.ratePerSecond;
+      this.tokens = Math.min(this.limits.burst, this.tokens + earned);
+      this.lastRefill = now;
+    }
+
+    /**
+     * Convert a number of tokens into the time it takes to earn them.
+     * @param tokens The number of tokens.
+     * @return       The time in nanoseconds.
+     */
+    private long nanosFor(double tokens) {
+      return (long) Math.ceil(tokens / this.limits.ratePerSecond * 1e9);
+    }
+  }
+
+  /** An in-flight slot for one request. */
+  static class Permit {
+    private final Bucket bucket;
+    private boolean released;
+
+    private Permit(Bucket bucket) {
+      this.bucket = bucket;
+    }
+
+    /** Give the slot back. Safe to call more than once. */
+    void release() {
+      if (!this.released) {
+        this.released = true;
+        this.bucket.slots.release();
+      }
+    }
+  }
+}
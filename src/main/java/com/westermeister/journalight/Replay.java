@@ -0,0 +1,237 @@
+/**
+ * Provides recording of what runs fetch, and replaying it from a fake news server.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.microsoft.playwright.*;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Responsible for making runs reproducible. Runs can be recorded, so every
+ * response they fetch is kept as a snapshot, and replayed, so every page and
+ * asset is loaded from a FakeNewsServer instead of the real sites.
+ *
+ * Replaying rewrites URLs where they're loaded: "https://www.npr.org/news/"
+ * is fetched as "BASE/https/www.npr.org/news/", BASE being the server's. The
+ * scrapers, politeness limits and seen-URL store keep seeing the original URL.
+ *
+ * Set the system property "journalight.record" to a directory to record a run
+ * into it, and "journalight.replay" to such a directory to replay one. Pages
+ * loaded over HTTP are rewritten by HttpFetcher; pages loaded in a browser are
+ * fetched here on the browser's behalf, through RequestFilter's route.
+ */
+class Replay {
+  /** The replay shared by every fetcher and browser page. */
+  private static final Replay SHARED = new Replay(
+    System.getProperty("journalight.record") == null
+      ? null
+      : new Snapshots(Paths.get(System.getProperty("journalight.record")))
+  );
+
+  /** Fetches on behalf of browser pages. */
+  private final HttpClient client = HttpClient
+    .newBuilder()
+    .followRedirects(HttpClient.Redirect.NORMAL)
+    .connectTimeout(Duration.ofSeconds(10))
+    .build();
+
+  /** Keeps every response, or null if not recording. */
+  private final Snapshots recording;
+
+  /** The server's base URL, e.g. "http://127.0.0.1:8099", or null if not replaying. */
+  private volatile String target;
+
+  /**
+   * Set up recording and replaying.
+   * @param recording Keeps every response, or null to not record.
+   */
+  Replay(Snapshots recording) {
+    this.recording = recording;
+  }
+
+  /**
+   * Get the replay shared by every fetcher and browser page.
+   * @return The shared instance.
+   */
+  static Replay shared() {
+    return SHARED;
+  }
+
+  /**
+   * Load everything from a fake news server from now on.
+   * @param base The server's base URL, or null to load from the real sites again.
+   */
+  void replayTo(String base) {
+    this.target = base;
+  }
+
+  /**
+   * Check whether loads go anywhere but straight to the real sites.
+   * @return True if recording or replaying.
+   */
+  boolean active() {
+    return this.recording != null || this.target != null;
+  }
+
+  /**
+   * Get where to load a URL from.
+   * @param url The original URL.
+   * @return    The URL on the fake news server if replaying, or else the original.
+   */
+  String rewrite(String url) {
+    String base = this.target;
+    if (base == null) {
+      return url;
+    }
+    String path = encode(url);
+    return path == null ? url : base + path;
+  }
+
+  /**
+   * Undo rewrite().
+   * @param url A URL that was loaded, possibly after redirects.
+   * @return    The original URL.
+   */
+  String original(String url) {
+    String base = this.target;
+    if (base == null || !url.startsWith(base + "/")) {
+      return url;
+    }
+    String original = decode(url.substring(base.length()));
+    return original == null ? url : original;
+  }
+
+  /**
+   * Keep a response, if recording.
+   * @param url         The original URL.
+   * @param status      The response's status.
+   * @param contentType Its Content-Type header, or null.
+   * @param body        Its body, without any content encoding.
+   */
+  void record(String url, int status, String contentType, byte[] body) {
+    if (this.recording == null) {
+      return;
+    }
+    // Keyed the way a fake news server will ask for it, e.g. with the path's "/".
+    String path = encode(url);
+    this.recording.put(
+      path == null ? url : decode(path),
+      new Snapshots.Snapshot(status, contentType, body)
+    );
+  }
+
+  /**
+   * Answer a browser page's request when recording or replaying, by fetching it here.
+   * @param route The intercepted request.
+   * @return      True if it was answered, false if it should go to the network as usual.
+   */
+  boolean serve(Route route) {
+    if (!this.active()) {
+      return false;
+    }
+    Request request = route.request();
+    if (!request.method().equals("GET")) {
+      // Nothing but GETs can be replayed, so they're not recorded either.
+      if (this.target != null) {
+        route.abort("blockedbyclient");
+        return true;
+      }
+      return false;
+    }
+    HttpRequest.Builder fetch = HttpRequest
+      .newBuilder(URI.create(this.rewrite(request.url())))
+      .timeout(Duration.ofSeconds(30))
+      .header("User-Agent", HttpFetcher.USER_AGENT)
+      .GET();
+    String accept = request.headers().get("accept");
+    if (accept != null) {
+      fetch.header("Accept", accept);
+    }
+    HttpResponse<byte[]> response;
+    try {
+      response =
+        this.client.send(
+          fetch.build(),
+          HttpResponse.BodyHandlers.ofByteArray()
+        );
+    } catch (IOException | IllegalArgumentException e) {
+      route.abort("failed");
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      route.abort("failed");
+      return true;
+    }
+    String contentType = response
+      .headers()
+      .firstValue("Content-Type")
+      .orElse(null);
+    this.record(
+      request.url(),
+      response.statusCode(),
+      contentType,
+      response.body()
+    );
+    Route.FulfillOptions options = new Route.FulfillOptions()
+      .setStatus(response.statusCode())
+      .setBodyBytes(response.body());
+    if (contentType != null) {
+      options.setHeaders(Map.of("content-type", contentType));
+    }
+    route.fulfill(options);
+    return true;
+  }
+
+  /** Write out the recording's index, if recording. */
+  void save() {
+    if (this.recording != null) {
+      this.recording.save();
+      System.out.format("Recorded %d responses%n", this.recording.size());
+    }
+  }
+
+  /**
+   * Turn a URL into the path it's served at by a fake news server.
+   * @param url The original URL, e.g. "https://www.npr.org/news/?page=2".
+   * @return    E.g. "/https/www.npr.org/news/?page=2", or null if it isn't absolute.
+   */
+  static String encode(String url) {
+    URI uri;
+    try {
+      uri = URI.create(url);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+      return null;
+    }
+    String path = uri.getRawPath() == null || uri.getRawPath().isEmpty()
+      ? "/"
+      : uri.getRawPath();
+    String query = uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery();
+    return "/" + uri.getScheme() + "/" + uri.getRawAuthority() + path + query;
+  }
+
+  /**
+   * Undo encode().
+   * @param path A path and query as served by a fake news server.
+   * @return     The original URL, or null if the path doesn't name one.
+   */
+  static String decode(String path) {
+    String[] parts = path.split("/", 4);
+    if (parts.length < 3 || parts[1].isEmpty() || parts[2].isEmpty()) {
+      return null;
+    }
+    String rest = parts.length == 4 ? parts[3] : "";
+    return parts[1] + "://" + parts[2] + "/" + rest;
+  }
+}
@@ -0,0 +1,248 @@
+/**
+ * Provides a filter for the requests browser pages make.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.microsoft.playwright.*;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Responsible for keeping browser pages from downloading what scrapers never read.
+ * Requests are blocked by resource type (images, fonts, video and the like), by
+ * host (ad and analytics networks), and scripts are blocked unless their host is
+ * on the source's allow-list, since most of our sources render server-side.
+ *
+ * The defaults can be changed with system properties:
+ * "journalight.filter" set to "false" turns filtering off,
+ * "journalight.filter.types" replaces the blocked resource types, and
+ * "journalight.filter.hosts" adds blocked hosts. Lists are comma-separated,
+ * and a host pattern starting with "*." also matches every subdomain.
+ */
+class RequestFilter {
+  /** Resource types that never contribute text. Names as in Playwright's Request.resourceType(). */
+  private static final List<String> DEFAULT_BLOCKED_TYPES = List.of(
+    "image",
+    "media",
+    "font",
+    "texttrack",
+    "manifest",
+    "eventsource",
+    "websocket"
+  );
+
+  /** Ad, tracking and analytics networks our sources embed. */
+  private static final List<String> DEFAULT_BLOCKED_HOSTS = List.of(
+    "*.doubleclick.net",
+    "*.googlesyndication.com",
+    "*.googletagservices.com",
+    "*.googletagmanager.com",
+    "*.google-analytics.com",
+    "*.amazon-adsystem.com",
+    "*.adnxs.com",
+    "*.moatads.com",
+    "*.taboola.com",
+    "*.outbrain.com",
+    "*.scorecardresearch.com",
+    "*.chartbeat.com",
+    "*.chartbeat.net",
+    "*.quantserve.com",
+    "*.krxd.net",
+    "*.facebook.net",
+    "*.nr-data.net",
+    "*.newrelic.com"
+  );
+
+  /**
+   * Typical transfer sizes per resource type, used to estimate the bytes saved.
+   * Blocked requests are never sent, so their real sizes can't be known.
+   */
+  private static final Map<String, Long> TYPICAL_BYTES = Map.of(
+    "image",
+    20_000L,
+    "media",
+    500_000L,
+    "font",
+    30_000L,
+    "script",
+    25_000L,
+    "stylesheet",
+    15_000L
+  );
+
+  /** Transfer size assumed for types without a typical size. */
+  private static final long DEFAULT_TYPICAL_BYTES = 5_000;
+
+  /** Requests blocked by every filter so far. */
+  private static final AtomicLong BLOCKED = new AtomicLong();
+
+  /** Estimated bytes saved by every filter so far. */
+  private static final AtomicLong BYTES_SAVED = new AtomicLong();
+
+  /** Whether anything is blocked at all. */
+  private final boolean enabled;
+
+  /** Resource types to block. */
+  private final Set<String> blockedTypes;
+
+  /** Host patterns to block. */
+  private final List<String> blockedHosts;
+
+  /** Host patterns whose scripts may run. */
+  private final List<String> allowedScripts = new ArrayList<>();
+
+  /** Serves the requests that are let through from disk where possible, if set. */
+  private volatile AssetCache assets;
+
+  /** Set up a filter with the defaults and any overrides from system properties. */
+  RequestFilter() {
+    this.enabled =
+      Boolean.parseBoolean(System.getProperty("journalight.filter", "true"));
+    String types = System.getProperty("journalight.filter.types");
+    this.blockedTypes =
+      new HashSet<>(types != null ? split(types) : DEFAULT_BLOCKED_TYPES);
+    this.blockedHosts = new ArrayList<>(DEFAULT_BLOCKED_HOSTS);
+    String hosts = System.getProperty("journalight.filter.hosts");
+    if (hosts != null) {
+      this.blockedHosts.addAll(split(hosts));
+    }
+  }
+
+  /**
+   * Describe what every filter has done so far.
+   * @return A one-line summary of the counters.
+   */
+  static String stats() {
+    return String.format(
+      "%d requests blocked, ~%d KiB saved",
+      BLOCKED.get(),
+      BYTES_SAVED.get() / 1024
+    );
+  }
+
+  /**
+   * Let scripts from some hosts run, because the source needs them to render.
+   * Blocked hosts stay blocked.
+   * @param hostPatterns Host patterns, e.g. "*.npr.org".
+   */
+  void allowScripts(String... hostPatterns) {
+    this.allowedScripts.addAll(Arrays.asList(hostPatterns));
+  }
+
+  /**
+   * Answer the requests that are let through from an asset cache where possible.
+   * Playwright routes a request to one handler only, so the cache shares the filter's.
+   * @param assets The cache, or null to send every request to the network.
+   */
+  void useAssetCache(AssetCache assets) {
+    this.assets = assets;
+  }
+
+  /**
+   * Filter every request made by a browser context's pages, including ones opened later.
+   * Requests that are let through are recorded or replayed if a run is, and
+   * otherwise answered from the asset cache where possible.
+   * @param context The context.
+   */
+  void install(BrowserContext context) {
+    context.route(
+      "**/*",
+      route -> {
+        Request request = route.request();
+        AssetCache cache = this.assets;
+        if (this.blocks(request.resourceType(), request.url())) {
+          BLOCKED.incrementAndGet();
+          BYTES_SAVED.addAndGet(
+            TYPICAL_BYTES.getOrDefault(
+              request.resourceType(),
+              DEFAULT_TYPICAL_BYTES
+            )
+          );
+          route.abort("blockedbyclient");
+        } else if (
+          !Replay.shared().serve(route) &&
+          (cache == null || !cache.serve(route))
+        ) {
+          route.resume();
+        }
+      }
+    );
+  }
+
+  /**
+   * Decide whether to block a request.
+   * @param resourceType The request's resource type, as in Playwright's Request.resourceType().
+   * @param url          The request's URL.
+   * @return             True to block it, false to let it through.
+   */
+  boolean blocks(String resourceType, String url) {
+    if (!this.enabled || resourceType.equals("document")) {
+      return false;
+    }
+    String host = host(url);
+    if (matches(this.blockedHosts, host)) {
+      return true;
+    }
+    if (this.blockedTypes.contains(resourceType)) {
+      return true;
+    }
+    return resourceType.equals("script") && !matches(this.allowedScripts, host);
+  }
+
+  /**
+   * Check a host against host patterns.
+   * @param patterns Host patterns; "*.example.org" matches example.org and its subdomains.
+   * @param host     The host.
+   * @return         True if any pattern matches.
+   */
+  private static boolean matches(List<String> patterns, String host) {
+    for (String pattern : patterns) {
+      if (pattern.startsWith("*.")) {
+        String domain = pattern.substring(2);
+        if (host.equals(domain) || host.endsWith("." + domain)) {
+          return true;
+        }
+      } else if (host.equals(pattern)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get a URL's host.
+   * @param url The URL.
+   * @return    The host in lowercase, or an empty string if there is none.
+   */
+  private static String host(String url) {
+    try {
+      String host = URI.create(url).getHost();
+      return host == null ? "" : host.toLowerCase();
+    } catch (IllegalArgumentException e) {
+      return "";
+    }
+  }
+
+  /**
+   * Split a comma-separated list.
+   * @param list The list.
+   * @return     Its non-empty, trimmed entries.
+   */
+  private static List<String> split(String list) {
+    List<String> entries = new ArrayList<>();
+    for (String entry : list.split(",")) {
+      if (!entry.isBlank()) {
+        entries.add(entry.trim());
+      }
+    }
+    return entries;
+  }
+}
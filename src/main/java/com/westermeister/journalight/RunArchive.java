@@ -0,0 +1,755 @@
+/**
+ * Provides an append-only log of every run's results.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Responsible for keeping every run's items, so digests of the last day or
+ * week, and what changed between two runs, can be had without scraping again.
+ *
+ * Items are appended to "runs.log" as typed binary records, gathered into
+ * blocks of up to 64 KiB that are compressed on their own. Each block starts
+ * with its magic, lengths, number of records, time and checksum. "runs.idx"
+ * holds one entry per block, its time and offset, so a time range is found by
+ * binary search without reading the log. Scans map the log rather than read
+ * it, inflate a block at a time straight from the mapping into one reused
+ * buffer, and hand out records that decode only the fields that are asked for.
+ *
+ * A run is everything appended at once, and is identified by its time. Times
+ * never go backwards, so both files stay sorted. A crash can only cut off the
+ * last block, which is dropped when the archive is next written to.
+ *
+ * Several processes may share an archive, e.g. the daemon and "--since".
+ * Writers hold a lock on the log while they recover and append, and take up
+ * whatever other writers appended meanwhile. Readers never write, and only
+ * see the blocks that were complete when they opened the archive.
+ */
+class RunArchive implements AutoCloseable {
+  /** Starts every block: "JLRB". */
+  private static final int BLOCK_MAGIC = 0x4A4C5242;
+
+  /** Size of a block's header: magic, lengths, records, time and CRC. */
+  private static final int BLOCK_HEADER = 28;
+
+  /** Size of an index entry: time and offset. */
+  private static final int INDEX_ENTRY = 16;
+
+  /** Blocks are closed once their records take this many bytes uncompressed. */
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  /** Most of the log mapped at once. */
+  private static final long WINDOW = 256L * 1024 * 1024;
+
+  /** Type of a record holding one item. */
+  private static final byte ITEM = 1;
+
+  /** Flag of an item that needed a summary, so its text is one. */
+  private static final byte SUMMARIZED = 1;
+
+  /** The blocks. */
+  private final FileChannel log;
+
+  /** One entry per block. */
+  private final FileChannel index;
+
+  /** Whether the archive was opened for reading only. */
+  private final boolean readOnly;
+
+  /** Number of blocks. Guarded by this for writing. */
+  private volatile long blocks;
+
+  /** Time of the latest run, in epoch milliseconds. Guarded by this. */
+  private long latest = Long.MIN_VALUE;
+
+  /**
+   * Open an archive for appending, dropping whatever a crash left half-written.
+   * @param directory Directory that holds the archive; created if missing.
+   */
+  RunArchive(Path directory) {
+    this(directory, false);
+  }
+
+  /**
+   * Open an archive.
+   * @param directory Directory that holds the archive; created if missing.
+   * @param readOnly  Whether to only read, e.g. while a daemon appends to it.
+   */
+  RunArchive(Path directory, boolean readOnly) {
+    this.readOnly = readOnly;
+    try {
+      Files.createDirectories(directory);
+      this.log = open(directory.resolve("runs.log"), readOnly);
+      this.index = open(directory.resolve("runs.idx"), readOnly);
+      if (readOnly) {
+        this.blocks = this.complete();
+      } else {
+        FileLock lock = this.log.lock();
+        try {
+          this.recover();
+        } finally {
+          lock.release();
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Append a run of every source.
+   * @param result Scraped data by source key, as returned by Scraper.run().
+   * @param time   When the run happened.
+   * @return       The time the run is archived under, never before the last run's.
+   */
+  synchronized Instant append(
+    Map<String, List<Map<String, String>>> result,
+    Instant time
+  ) {
+    if (this.readOnly) {
+      throw new IllegalStateException("The archive was opened read-only");
+    }
+    long millis = Math.max(time.toEpochMilli(), this.latest);
+    try {
+      FileLock lock = this.log.lock();
+      try {
+        // Takes up other writers' blocks, and drops a crashed one's.
+        this.recover();
+        millis = Math.max(millis, this.latest);
+        this.latest = millis;
+        this.write(result, millis);
+      } finally {
+        lock.release();
+      }
+    } catch (IOException e) {
+      System.err.format("Couldn't archive the run: %s%n", e);
+      Metrics.ERRORS.inc("archive", "write");
+    }
+    return Instant.ofEpochMilli(millis);
+  }
+
+  /**
+   * Append a run of one source.
+   * @param source The source's key.
+   * @param items  Its items, as stored by BaseScraper.
+   * @param time   When the run happened.
+   * @return       The time the run is archived under, never before the last run's.
+   */
+  Instant append(String source, List<Map<String, String>> items, Instant time) {
+    return this.append(Map.of(source, items), time);
+  }
+
+  /**
+   * Write a run's items as blocks. Call only while holding the log's lock.
+   * @param result Scraped data by source key.
+   * @param millis The run's time, in epoch milliseconds.
+   * @throws IOException If writing fails.
+   */
+  private void write(
+    Map<String, List<Map<String, String>>> result,
+    long millis
+  ) throws IOException {
+    ByteBuffer raw = ByteBuffer.allocate(BLOCK_SIZE);
+    int records = 0;
+    for (Map.Entry<String, List<Map<String, String>>> source : result
+      .entrySet()) {
+      for (Map<String, String> item : source.getValue()) {
+        byte[][] fields = {
+          utf8(source.getKey()),
+          utf8(item.get("url")),
+          utf8(item.get("text")),
+        };
+        // Type, time, flags and one length per field.
+        int size = 1 + 8 + 1 + 4 * fields.length;
+        for (byte[] field : fields) {
+          size += field.length;
+        }
+        if (raw.remaining() < size && records > 0) {
+          this.writeBlock(raw, records, millis);
+          records = 0;
+        }
+        if (raw.remaining() < size) {
+          raw = ByteBuffer.allocate(Math.max(size, BLOCK_SIZE));
+        }
+        raw.put(ITEM);
+        raw.putLong(millis);
+        raw.put("yes".equals(item.get("needsSummary")) ? SUMMARIZED : 0);
+        for (byte[] field : fields) {
+          raw.putInt(field.length);
+          raw.put(field);
+        }
+        ++records;
+      }
+    }
+    if (records > 0) {
+      this.writeBlock(raw, records, millis);
+    }
+    this.log.force(false);
+    this.index.force(false);
+  }
+
+  /**
+   * Compress a block's records, append it to the log and index it.
+   * @param raw     The records, which is cleared for the next block.
+   * @param records Number of records.
+   * @param time    The run's time, in epoch milliseconds.
+   * @throws IOException If writing fails.
+   */
+  private void writeBlock(ByteBuffer raw, int records, long time)
+    throws IOException {
+    raw.flip();
+    int rawLength = raw.remaining();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    deflater.setInput(raw);
+    deflater.finish();
+    ByteBuffer compressed = ByteBuffer.allocate(BLOCK_HEADER + rawLength + 64);
+    compressed.position(BLOCK_HEADER);
+    while (!deflater.finished()) {
+      if (!compressed.hasRemaining()) {
+        ByteBuffer larger = ByteBuffer.allocate(compressed.capacity() * 2);
+        compressed.flip();
+        larger.put(compressed);
+        compressed = larger;
+      }
+      deflater.deflate(compressed);
+    }
+    deflater.end();
+    int compressedLength = compressed.position() - BLOCK_HEADER;
+    CRC32 crc = new CRC32();
+    crc.update(compressed.array(), BLOCK_HEADER, compressedLength);
+    compressed.putInt(0, BLOCK_MAGIC);
+    compressed.putInt(4, rawLength);
+    compressed.putInt(8, compressedLength);
+    compressed.putInt(12, records);
+    compressed.putLong(16, time);
+    compressed.putInt(24, (int) crc.getValue());
+    compressed.flip();
+
+    long offset = this.log.size();
+    while (compressed.hasRemaining()) {
+      this.log.write(compressed, offset + compressed.position());
+    }
+    ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+    entry.putLong(time).putLong(offset).flip();
+    long at = this.blocks * INDEX_ENTRY;
+    while (entry.hasRemaining()) {
+      this.index.write(entry, at + entry.position());
+    }
+    ++this.blocks;
+    raw.clear();
+  }
+
+  /**
+   * Visit every item archived in a time range, oldest first.
+   * The record passed to the visitor is reused, so it must not be kept.
+   * @param from    Oldest time, or null for no limit.
+   * @param until   Time up to, exclusively, or null for no limit.
+   * @param visitor Gets each item.
+   */
+  void scan(Instant from, Instant until, Consumer<Record> visitor) {
+    long low = from == null ? Long.MIN_VALUE : from.toEpochMilli();
+    long high = until == null ? Long.MAX_VALUE : until.toEpochMilli();
+    long blocks = this.blocks;
+    try {
+      MappedByteBuffer entries = this.index.map(
+        FileChannel.MapMode.READ_ONLY,
+        0,
+        blocks * INDEX_ENTRY
+      );
+      long first = firstAtOrAfter(entries, blocks, low);
+      Record record = new Record();
+      Inflater inflater = new Inflater();
+      ByteBuffer raw = ByteBuffer.allocate(BLOCK_SIZE);
+      MappedByteBuffer window = null;
+      long windowStart = 0;
+      for (long block = first; block < blocks; ++block) {
+        long time = entries.getLong((int) (block * INDEX_ENTRY));
+        if (time >= high) {
+          break;
+        }
+        long offset = entries.getLong((int) (block * INDEX_ENTRY + 8));
+        if (
+          window == null ||
+          offset < windowStart ||
+          offset + BLOCK_HEADER > windowStart + window.capacity() ||
+          offset +
+          BLOCK_HEADER +
+          window.getInt((int) (offset - windowStart) + 8) >
+          windowStart + window.capacity()
+        ) {
+          windowStart = offset;
+          window =
+            this.log.map(
+              FileChannel.MapMode.READ_ONLY,
+              offset,
+              Math.min(WINDOW, this.log.size() - offset)
+            );
+        }
+        raw = this.inflate(window, (int) (offset - windowStart), inflater, raw);
+        record.block = raw;
+        for (int at = 0; at < raw.limit(); at = record.end) {
+          record.at(at);
+          visitor.accept(record);
+        }
+      }
+      inflater.end();
+    } catch (IOException | DataFormatException e) {
+      throw new UncheckedIOException(
+        e instanceof IOException ? (IOException) e : new IOException(e)
+      );
+    }
+  }
+
+  /**
+   * Inflate a block straight from the mapped log.
+   * @param window   A mapping of the log that holds the whole block.
+   * @param at       Where the block starts in the mapping.
+   * @param inflater Reused between blocks.
+   * @param raw      Reused between blocks, if it's large enough.
+   * @return         The block's records, from position 0 to the limit.
+   * @throws IOException         If the block is damaged.
+   * @throws DataFormatException If the block is damaged.
+   */
+  private ByteBuffer inflate(
+    ByteBuffer window,
+    int at,
+    Inflater inflater,
+    ByteBuffer raw
+  ) throws IOException, DataFormatException {
+    int rawLength = window.getInt(at + 4);
+    int compressedLength = window.getInt(at + 8);
+    if (window.getInt(at) != BLOCK_MAGIC) {
+      throw new IOException("Damaged archive block at " + at);
+    }
+    ByteBuffer compressed = window.slice(at + BLOCK_HEADER, compressedLength);
+    CRC32 crc = new CRC32();
+    crc.update(compressed.duplicate());
+    if ((int) crc.getValue() != window.getInt(at + 24)) {
+      throw new IOException("Damaged archive block at " + at);
+    }
+    if (raw.capacity() < rawLength) {
+      raw = ByteBuffer.allocate(rawLength);
+    }
+    raw.clear();
+    inflater.reset();
+    inflater.setInput(compressed);
+    while (!inflater.finished() && raw.hasRemaining()) {
+      inflater.inflate(raw);
+    }
+    raw.flip();
+    return raw;
+  }
+
+  /**
+   * Get the times of the runs archived in a time range.
+   * @param from  Oldest time, or null for no limit.
+   * @param until Time up to, exclusively, or null for no limit.
+   * @return      The runs' times, oldest first.
+   */
+  List<Instant> runs(Instant from, Instant until) {
+    long low = from == null ? Long.MIN_VALUE : from.toEpochMilli();
+    long high = until == null ? Long.MAX_VALUE : until.toEpochMilli();
+    TreeSet<Long> times = new TreeSet<>();
+    long blocks = this.blocks;
+    try {
+      MappedByteBuffer entries = this.index.map(
+        FileChannel.MapMode.READ_ONLY,
+        0,
+        blocks * INDEX_ENTRY
+      );
+      for (
+        long block = firstAtOrAfter(entries, blocks, low);
+        block < blocks;
+        ++block
+      ) {
+        long time = entries.getLong((int) (block * INDEX_ENTRY));
+        if (time >= high) {
+          break;
+        }
+        times.add(time);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    List<Instant> runs = new ArrayList<>();
+    for (long time : times) {
+      runs.add(Instant.ofEpochMilli(time));
+    }
+    return runs;
+  }
+
+  /**
+   * Get the items of one run.
+   * @param run The run's time, as returned by append() or runs().
+   * @return    Its items by source key, in the same shape as Scraper.run()'s result.
+   */
+  Map<String, List<Map<String, String>>> run(Instant run) {
+    return this.digest(run, run.plusMillis(1));
+  }
+
+  /**
+   * Get every item archived in a time range, e.g. the last day's, each URL and
+   * text only once, as of the latest run that had it.
+   * @param from  Oldest time, or null for no limit.
+   * @param until Time up to, exclusively, or null for no limit.
+   * @return      The items by source key, newest first, shaped like Scraper.run()'s result.
+   */
+  Map<String, List<Map<String, String>>> digest(Instant from, Instant until) {
+    Map<String, Map<String, Map<String, String>>> latest = new HashMap<>();
+    this.scan(
+      from,
+      until,
+      record -> {
+        Map<String, String> item = record.item();
+        Map<String, Map<String, String>> items = latest.computeIfAbsent(
+          item.get("source"),
+          source -> new LinkedHashMap<>()
+        );
+        String key = item.get("url") + "\n" + item.get("text");
+        // Moved to the end, so the latest run's order wins.
+        items.remove(key);
+        items.put(key, item);
+      }
+    );
+    Map<String, List<Map<String, String>>> digest = new LinkedHashMap<>();
+    for (Map.Entry<String, Map<String, Map<String, String>>> source : latest
+      .entrySet()) {
+      List<Map<String, String>> items = new ArrayList<>(
+        source.getValue().values()
+      );
+      Collections.reverse(items);
+      digest.put(source.getKey(), items);
+    }
+    return digest;
+  }
+
+  /**
+   * Compare each source's latest run with the run of it before, e.g. to see what
+   * the last refresh brought. Runs are read newest first, and only until every
+   * source has been seen twice.
+   * @param sources The keys of every source.
+   * @return        Changes by source key, as returned by diff().
+   */
+  Map<String, List<Map<String, String>>> changes(Collection<String> sources) {
+    Map<String, List<Map<String, String>>> newer = new LinkedHashMap<>();
+    Map<String, List<Map<String, String>>> older = new LinkedHashMap<>();
+    List<Instant> runs = this.runs(null, null);
+    for (int i = runs.size() - 1; i >= 0; --i) {
+      Map<String, List<Map<String, String>>> run = this.run(runs.get(i));
+      for (Map.Entry<String, List<Map<String, String>>> source : run
+        .entrySet()) {
+        if (!newer.containsKey(source.getKey())) {
+          newer.put(source.getKey(), source.getValue());
+        } else {
+          older.putIfAbsent(source.getKey(), source.getValue());
+        }
+      }
+      if (older.keySet().containsAll(sources)) {
+        break;
+      }
+    }
+    return diff(older, newer);
+  }
+
+  /**
+   * Compare two runs by URL, per source.
+   * @param older The older run's items by source key.
+   * @param newer The newer run's items by source key.
+   * @return      Items by source key, each with "change" set to "added" for
+   *              URLs only the newer run has and "removed" for URLs only the
+   *              older run has. Sources only one run has are left out.
+   */
+  static Map<String, List<Map<String, String>>> diff(
+    Map<String, List<Map<String, String>>> older,
+    Map<String, List<Map<String, String>>> newer
+  ) {
+    Map<String, List<Map<String, String>>> diff = new LinkedHashMap<>();
+    for (String source : newer.keySet()) {
+      if (!older.containsKey(source)) {
+        continue;
+      }
+      List<Map<String, String>> changes = new ArrayList<>();
+      changes.addAll(changed(newer.get(source), older.get(source), "added"));
+      changes.addAll(changed(older.get(source), newer.get(source), "removed"));
+      diff.put(source, changes);
+    }
+    return diff;
+  }
+
+  /**
+   * Find the items whose URL isn't among some other items'.
+   * @param items  The items.
+   * @param others The other items.
+   * @param change What to set the "change" of each item found to.
+   * @return       Copies of the items found.
+   */
+  private static List<Map<String, String>> changed(
+    List<Map<String, String>> items,
+    List<Map<String, String>> others,
+    String change
+  ) {
+    TreeSet<String> urls = new TreeSet<>();
+    for (Map<String, String> other : others) {
+      urls.add(String.valueOf(other.get("url")));
+    }
+    List<Map<String, String>> changed = new ArrayList<>();
+    for (Map<String, String> item : items) {
+      if (!urls.contains(String.valueOf(item.get("url")))) {
+        Map<String, String> copy = new LinkedHashMap<>(item);
+        copy.put("change", change);
+        changed.add(copy);
+      }
+    }
+    return changed;
+  }
+
+  /** Close the files. */
+  @Override
+  public synchronized void close() {
+    try {
+      this.log.close();
+      this.index.close();
+    } catch (IOException e) {
+      System.err.format("Couldn't close the archive: %s%n", e);
+    }
+  }
+
+  /**
+   * Drop whatever a crash left half-written: an index entry cut short, entries
+   * of blocks that aren't all there, and log bytes no entry points to.
+   * Call only while holding the log's lock.
+   * @throws IOException If the files can't be read or truncated.
+   */
+  private void recover() throws IOException {
+    long blocks = this.complete();
+    long end = 0;
+    if (blocks > 0) {
+      ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+      this.index.read(entry, (blocks - 1) * INDEX_ENTRY);
+      ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER);
+      this.log.read(header, entry.getLong(8));
+      end = entry.getLong(8) + BLOCK_HEADER + header.getInt(8);
+    }
+    this.index.truncate(blocks * INDEX_ENTRY);
+    this.log.truncate(end);
+    this.blocks = blocks;
+  }
+
+  /**
+   * Count the blocks that are all there, from the first up to the last one
+   * whose index entry and log bytes were both written in full. Also finds the
+   * latest run's time.
+   * @return The number of blocks.
+   * @throws IOException If the files can't be read.
+   */
+  private long complete() throws IOException {
+    long blocks = this.index.size() / INDEX_ENTRY;
+    ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER);
+    ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+    while (blocks > 0) {
+      entry.clear();
+      this.index.read(entry, (blocks - 1) * INDEX_ENTRY);
+      long offset = entry.getLong(8);
+      header.clear();
+      int read = this.log.read(header, offset);
+      if (
+        read == BLOCK_HEADER &&
+        header.getInt(0) == BLOCK_MAGIC &&
+        offset + BLOCK_HEADER + header.getInt(8) <= this.log.size()
+      ) {
+        this.latest = entry.getLong(0);
+        break;
+      }
+      --blocks;
+    }
+    return blocks;
+  }
+
+  /**
+   * Open one of the archive's files, creating it if missing.
+   * @param file     The file.
+   * @param readOnly Whether to only read it.
+   * @return         The open file.
+   * @throws IOException If it can't be opened.
+   */
+  private static FileChannel open(Path file, boolean readOnly)
+    throws IOException {
+    if (!readOnly) {
+      return FileChannel.open(
+        file,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE
+      );
+    }
+    try {
+      Files.createFile(file);
+    } catch (FileAlreadyExistsException e) {
+      // Nothing to create.
+    }
+    return FileChannel.open(file, StandardOpenOption.READ);
+  }
+
+  /**
+   * Binary search the index for the first block at or after a time.
+   * @param entries The mapped index.
+   * @param blocks  Number of blocks.
+   * @param time    The time, in epoch milliseconds.
+   * @return        The block's number, or the number of blocks if there's none.
+   */
+  private static long firstAtOrAfter(
+    ByteBuffer entries,
+    long blocks,
+    long time
+  ) {
+    long low = 0;
+    long high = blocks;
+    while (low < high) {
+      long middle = (low + high) >>> 1;
+      if (entries.getLong((int) (middle * INDEX_ENTRY)) < time) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Encode a field.
+   * @param text The field, or null.
+   * @return     Its UTF-8 bytes, empty for null.
+   */
+  private static byte[] utf8(String text) {
+    return text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * One archived item, read in place from its inflated block. Fields are only
+   * decoded when asked for.
+   */
+  static final class Record {
+    /** The inflated block. */
+    private ByteBuffer block;
+
+    /** Where the record's fields start. */
+    private int fields;
+
+    /** Where the next record starts. */
+    private int end;
+
+    /**
+     * Move to the record at a position in the block.
+     * @param at The position.
+     * @throws IllegalStateException If there's no item there.
+     */
+    private void at(int at) {
+      if (this.block.get(at) != ITEM) {
+        throw new IllegalStateException("Unknown archive record type at " + at);
+      }
+      this.fields = at + 1 + 8 + 1;
+      int next = this.fields;
+      for (int i = 0; i < 3; ++i) {
+        next += 4 + this.block.getInt(next);
+      }
+      this.end = next;
+    }
+
+    /**
+     * Get the time of the item's run.
+     * @return The time.
+     */
+    Instant time() {
+      return Instant.ofEpochMilli(this.block.getLong(this.fields - 9));
+    }
+
+    /**
+     * Check whether the item needed a summary, so its text is one.
+     * @return True if it did.
+     */
+    boolean summarized() {
+      return (this.block.get(this.fields - 1) & SUMMARIZED) != 0;
+    }
+
+    /**
+     * Get the key of the item's source.
+     * @return The key.
+     */
+    String source() {
+      return this.field(0);
+    }
+
+    /**
+     * Get where the item was found.
+     * @return The URL.
+     */
+    String url() {
+      return this.field(1);
+    }
+
+    /**
+     * Get the item's text.
+     * @return The text: the summary, if it was summarized.
+     */
+    String text() {
+      return this.field(2);
+    }
+
+    /**
+     * Copy the item out of the block.
+     * @return The item, as stored by BaseScraper, with its "source" and "time" added.
+     */
+    Map<String, String> item() {
+      Map<String, String> item = new HashMap<>();
+      item.put("source", this.source());
+      item.put("url", this.url());
+      item.put("text", this.text());
+      item.put("needsSummary", this.summarized() ? "yes" : "no");
+      item.put("time", this.time().toString());
+      return item;
+    }
+
+    /**
+     * Decode a field.
+     * @param which The field's number: 0 for the source, 1 for the URL, 2 for the text.
+     * @return      The field.
+     */
+    private String field(int which) {
+      int at = this.fields;
+      for (int i = 0; i < which; ++i) {
+        at += 4 + this.block.getInt(at);
+      }
+      int length = this.block.getInt(at);
+      return StandardCharsets.UTF_8
+        .decode(this.block.slice(at + 4, length))
+        .toString();
+    }
+  }
+}
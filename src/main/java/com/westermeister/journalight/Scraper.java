@@ -5,69 +5,422 @@
 
 package com.westermeister.journalight;
 
-import com.microsoft.playwright.*;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-/** Responsible for running and combining output from all news scrapers. */
-class Scraper {
+/**
+ * Responsible for running and combining output from all news scrapers.
+ *
+ * A run has a time budget, set in seconds with the system property
+ * "journalight.deadline". Whatever hasn't finished by then is left out, so one
+ * hung page can't hold up the digest. An article that takes longer than
+ * "journalight.hedge" seconds is requested a second time, possibly on another
+ * browser, and whichever attempt finishes first is used.
+ */
+class Scraper implements AutoCloseable {
+  /** Every news source, by the key of its results, in the order they're shown. */
+  static final Map<String, SourceDefinition> SOURCES =
+    SourceDefinition.loadAll();
+
+  /**
+   * Default number of browsers, however many sources there are.
+   * Can be changed with the system property "journalight.browsers".
+   */
+  private static final int DEFAULT_BROWSERS = 3;
+
+  /** Default time budget of a run, in seconds. */
+  private static final int DEFAULT_DEADLINE_SECONDS = 180;
+
+  /** Default time an article may take before it's requested again, in seconds. */
+  private static final int DEFAULT_HEDGE_SECONDS = 10;
+
+  /** Longest to wait for background asset downloads before saving the cache. */
+  private static final Duration ASSET_DOWNLOAD_WAIT = Duration.ofSeconds(30);
+
+  /** Provides the browsers every scraper runs in. Kept across runs. */
+  private final BrowserPool pool;
+
+  /** Whether the pool was created here and should be closed here. */
+  private final boolean ownsPool;
+
+  /** The sources to scrape, by key, in the order they're scraped. */
+  private final Map<String, SourceDefinition> sources;
+
+  /** What earlier runs scraped, or null to scrape everything. */
+  private SeenStore seen;
+
+  /** Serves scripts and stylesheets to browser pages across runs, or null. */
+  private AssetCache assets;
+
+  /** Time budget of a run, in milliseconds. */
+  private final long deadlineMs =
+    TimeUnit.SECONDS.toMillis(
+      Integer.getInteger("journalight.deadline", DEFAULT_DEADLINE_SECONDS)
+    );
+
+  /** Time an article may take before it's requested again, in milliseconds, or 0 for never. */
+  private final long hedgeMs =
+    TimeUnit.SECONDS.toMillis(
+      Integer.getInteger("journalight.hedge", DEFAULT_HEDGE_SECONDS)
+    );
+
+  /** Starts second attempts at slow articles. */
+  private final ScheduledExecutorService hedger =
+    Executors.newSingleThreadScheduledExecutor(
+      task -> {
+        Thread thread = new Thread(task, "scraper-hedge");
+        thread.setDaemon(true);
+        return thread;
+      }
+    );
+
+  /** The latest run of each source. */
+  private final Map<String, SourceRun> latest = new ConcurrentHashMap<>();
+
+  /** Use a pool of our own. */
+  Scraper() {
+    this.pool = new BrowserPool(
+      Integer.getInteger("journalight.browsers", DEFAULT_BROWSERS)
+    );
+    this.ownsPool = true;
+    this.sources = SOURCES;
+  }
+
+  /**
+   * Use a shared pool, which stays open when this scraper is closed.
+   * @param pool Provides the browsers every scraper runs in.
+   */
+  Scraper(BrowserPool pool) {
+    this(pool, SOURCES);
+  }
+
+  /**
+   * Scrape other sources than the bundled ones, e.g. SyntheticNews's, on a shared pool.
+   * @param pool    Provides the browsers every scraper runs in.
+   * @param sources The sources to scrape, by key.
+   */
+  Scraper(BrowserPool pool, Map<String, SourceDefinition> sources) {
+    this.pool = pool;
+    this.ownsPool = false;
+    this.sources = sources;
+  }
+
+  /**
+   * Make later runs incremental: anything an earlier run scraped is reused instead.
+   * The store isn't saved here; call its save() once the items have their final text.
+   * @param seen What earlier runs scraped, or null to scrape everything.
+   */
+  void useSeenStore(SeenStore seen) {
+    this.seen = seen;
+  }
+
+  /**
+   * Load the scripts and stylesheets of browser pages from a cache shared across runs.
+   * The cache's index is saved after every run.
+   * @param assets The cache, or null to load everything from the network.
+   */
+  void useAssetCache(AssetCache assets) {
+    this.assets = assets;
+  }
 
   /**
    * Run every available news scraper and combine their data into a map.
    * @return The scraped data with keys mapping to each respective news site's scraped data.
    */
   Map<String, List<Map<String, String>>> run() {
-    Map<String, List<Map<String, String>>> result = new HashMap<>();
+    return this.run(null);
+  }
+
+  /**
+   * Run every available news scraper, streaming items that need a summary into a pipeline.
+   * @param pipeline Receives items as they're scraped, or null to just collect them.
+   * @return         The scraped data with keys mapping to each respective news site's scraped data.
+   */
+  Map<String, List<Map<String, String>>> run(SummaryPipeline pipeline) {
+    // Playwright Java doesn't support multithreading, so each page is scraped
+    // on the pool thread that owns its browser. Serial scraping is NOT an
+    // option - it's significantly slower - but neither is a browser per source
+    // once there are dozens. So every index and article page is a task of its
+    // own, and the pool's fixed set of browsers take whichever tasks are ready.
+    long deadline = this.deadline();
+    Map<String, SourceRun> running = new LinkedHashMap<>();
+    for (String source : this.sources.keySet()) {
+      running.put(source, this.start(source, pipeline));
+    }
 
-    // Playwright Java doesn't support multithreading.
-    // Therefore, we have to declare a Playwright instance for each scraper.
-    // Serial scraping is NOT an option - it's significantly slower.
+    // Combine and return the results, or whatever finished before the deadline.
+    Map<String, List<Map<String, String>>> result = new HashMap<>();
+    for (String source : running.keySet()) {
+      result.put(
+        source,
+        this.collect(source, running.get(source), deadline)
+      );
+    }
+    this.saveAssets();
+    return result;
+  }
 
-    // Declare PBS scraper's thread.
-    Playwright pbsPlaywright = Playwright.create();
-    PBSScraper pbsScraper = new PBSScraper(
-      pbsPlaywright.chromium().launch().newPage()
+  /**
+   * Run one news scraper, streaming items that need a summary into a pipeline.
+   * @param source   The source's key, e.g. "pbs".
+   * @param pipeline Receives items as they're scraped, or null to just collect them.
+   * @return         The source's scraped data.
+   */
+  List<Map<String, String>> run(String source, SummaryPipeline pipeline) {
+    if (!this.sources.containsKey(source)) {
+      throw new IllegalArgumentException("Unknown source: " + source);
+    }
+    List<Map<String, String>> items = this.collect(
+      source,
+      this.start(source, pipeline),
+      this.deadline()
     );
-    Thread pbsScraperThread = new Thread(pbsScraper);
+    this.saveAssets();
+    return items;
+  }
+
+  /**
+   * Describe how busy each of the pool's browsers has been, to help size the pool.
+   * @return A one-line summary.
+   */
+  String utilization() {
+    return this.pool.utilization();
+  }
+
+  /**
+   * Describe how well the asset cache has done since this was last called.
+   * @return A one-line summary, or null if there's no asset cache.
+   */
+  String assetStats() {
+    return this.assets == null ? null : this.assets.stats();
+  }
+
+  /**
+   * Describe how each source's pages ended in its latest run.
+   * @return A one-line summary, e.g. "PBS 12 scraped (1 hedged), 3 reused; NPR 1 failed".
+   */
+  String report() {
+    List<String> lines = new ArrayList<>();
+    for (SourceDefinition definition : this.sources.values()) {
+      SourceRun run = this.latest.get(definition.key);
+      if (run != null) {
+        lines.add(definition.name + " " + run.summary());
+      }
+    }
+    return String.join("; ", lines);
+  }
+
+  /**
+   * Get how each page of a source ended in its latest run.
+   * @param source The source's key, e.g. "pbs".
+   * @return       The index's outcome, then the articles', or none if it hasn't run.
+   */
+  List<SourceRun.Outcome> outcomes(String source) {
+    SourceRun run = this.latest.get(source);
+    return run == null ? new ArrayList<>() : run.outcomes();
+  }
+
+  /** Close the browser pool, unless it's shared. */
+  @Override
+  public void close() {
+    this.hedger.shutdownNow();
+    if (this.ownsPool) {
+      this.pool.close();
+    }
+  }
 
-    // Declare NPR scraper's thread.
-    Playwright nprPlaywright = Playwright.create();
-    NPRScraper nprScraper = new NPRScraper(
-      nprPlaywright.chromium().launch().newPage()
+  /**
+   * Scrape a source on pooled browsers: its index as one task, then each article as another.
+   * An article that fails is left out, but the rest of the source is still returned.
+   * @param source   The source's key, e.g. "pbs".
+   * @param pipeline Receives items as they're scraped, or null.
+   * @return         The source's run, which tracks its pages as they finish.
+   */
+  private SourceRun start(String source, SummaryPipeline pipeline) {
+    SourceDefinition definition = this.sources.get(source);
+    SourceRun run = new SourceRun(definition.index.url);
+    this.latest.put(source, run);
+    // Sources read over HTTP never ask for their page, so they don't start a browser.
+    CompletableFuture<Void> index = this.pool.submitLazily(
+        pages -> {
+          GenericScraper scraper = new GenericScraper(pages, definition);
+          scraper.streamTo(pipeline);
+          scraper.remember(this.seen);
+          scraper.cacheAssets(this.assets);
+          List<String> links = scraper.scrapeIndex();
+          run.indexed(scraper.output());
+          this.fork(run, scraper, definition, links, pipeline);
+          return null;
+        }
+      );
+    run.indexing(index);
+    index.exceptionally(
+      e -> {
+        System.err.format("Scraping %s failed:%n", definition.name);
+        Metrics.ERRORS.inc("scraper", "index");
+        e.printStackTrace();
+        run.indexFailed(e);
+        return null;
+      }
     );
-    Thread nprScraperThread = new Thread(nprScraper);
+    return run;
+  }
+
+  /**
+   * Scrape a source's articles as tasks of their own, which any worker may take.
+   * An article that's slow to load is hedged with a second task.
+   * @param run        The source's run, which gets every article.
+   * @param scraper    The scraper that read the index.
+   * @param definition The source.
+   * @param links      The articles to scrape.
+   * @param pipeline   Receives the items of each article once it's done, or null.
+   */
+  private void fork(
+    SourceRun run,
+    GenericScraper scraper,
+    SourceDefinition definition,
+    List<String> links,
+    SummaryPipeline pipeline
+  ) {
+    // URLs that earlier runs scraped aren't visited again; their items are reused instead.
+    int known = 0;
+    for (String link : links) {
+      // An index task that outlived the deadline starts nothing more.
+      if (run.isCutOff()) {
+        break;
+      }
+      List<Map<String, String>> items = scraper.previously(link);
+      if (items != null) {
+        ++known;
+        run.reuse(link, items);
+        continue;
+      }
+      CompletableFuture<List<Map<String, String>>> article = SourceRun.hedge(
+        () ->
+          this.pool.forkLazily(
+              link,
+              (pages, permit) -> {
+                GenericScraper assistant = new GenericScraper(
+                  pages,
+                  definition
+                );
+                assistant.assist(scraper);
+                // Only the attempt that wins is summarized, once it has.
+                assistant.streamTo(null);
+                return assistant.scrapeArticle(link, permit);
+              }
+            ),
+        this.hedgeMs,
+        this.hedger,
+        () -> {
+          System.out.format("Slow to load, requesting again: %s%n", link);
+          run.hedged(link);
+        }
+      );
+      article.whenComplete(
+        (done, e) -> {
+          if (e != null && !article.isCancelled()) {
+            System.err.format("Could not scrape %s: %s%n", link, e);
+            Metrics.ERRORS.inc("scraper", "article");
+          }
+        }
+      );
+      // Recorded from here, since only the winning attempt's items get summaries.
+      run.add(
+        link,
+        article,
+        done -> {
+          scraper.recordVisit(link, done);
+          summarize(done, pipeline);
+        }
+      );
+    }
+    if (known > 0) {
+      System.out.format(
+        "%s already scraped %d of %d articles%n",
+        definition.name,
+        known,
+        links.size()
+      );
+    }
 
-    // Declare UPI scraper's thread.
-    Playwright upiPlaywright = Playwright.create();
-    UPIScraper upiScraper = new UPIScraper(
-      upiPlaywright.chromium().launch().newPage()
+    // A source with failed or cut off articles is scraped in full again next run.
+    run.seal(
+      articles -> {
+        scraper.include(articles);
+        scraper.recordRun();
+      }
     );
-    Thread upiScraperThread = new Thread(upiScraper);
+  }
+
+  /**
+   * Queue the items that need a summary.
+   * @param items    An article's items.
+   * @param pipeline Summarizes them, or null.
+   */
+  private static void summarize(
+    List<Map<String, String>> items,
+    SummaryPipeline pipeline
+  ) {
+    if (pipeline == null) {
+      return;
+    }
+    for (Map<String, String> item : items) {
+      if ("yes".equals(item.get("needsSummary"))) {
+        pipeline.submit(item);
+      }
+    }
+  }
+
+  /**
+   * Work out when a run starting now has to end.
+   * @return The deadline, in System.nanoTime() terms.
+   */
+  private long deadline() {
+    return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.deadlineMs);
+  }
 
-    // Run the threads.
-    pbsScraperThread.start();
-    nprScraperThread.start();
-    upiScraperThread.start();
+  /** Save the asset cache's index, if there is a cache. */
+  private void saveAssets() {
+    if (this.assets != null) {
+      this.assets.awaitDownloads(ASSET_DOWNLOAD_WAIT);
+      this.assets.save();
+    }
+  }
 
-    // Cleanup time!
+  /**
+   * Wait for a source and get its output, or as much of it as is done by the deadline.
+   * @param source   The source's key, e.g. "pbs".
+   * @param run      The source's run.
+   * @param deadline When to stop waiting, in System.nanoTime() terms.
+   * @return         Its output, which is empty if it couldn't be scraped at all.
+   */
+  private List<Map<String, String>> collect(
+    String source,
+    SourceRun run,
+    long deadline
+  ) {
     try {
-      pbsScraperThread.join();
-      nprScraperThread.join();
-      upiScraperThread.join();
+      List<Map<String, String>> items = run.await(deadline);
+      List<SourceRun.Outcome> outcomes = run.outcomes();
+      // The first outcome is the index's.
+      for (SourceRun.Outcome outcome : outcomes.subList(1, outcomes.size())) {
+        Metrics.ARTICLES.inc(source, outcome.status.name().toLowerCase());
+      }
+      return items;
     } catch (InterruptedException e) {
       System.err.println("Interrupt occurred!");
-      e.printStackTrace();
+      Thread.currentThread().interrupt();
     }
-    pbsPlaywright.close();
-    nprPlaywright.close();
-    upiPlaywright.close();
-
-    // Combine and return the results.
-    result.put("pbs", pbsScraper.output());
-    result.put("npr", nprScraper.output());
-    result.put("upi", upiScraper.output());
-    return result;
+    return new ArrayList<>();
   }
 }
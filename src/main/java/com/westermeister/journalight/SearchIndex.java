@@ -0,0 +1,638 @@
+/**
+ * Provides full-text search over every article scraped so far.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Responsible for keeping every scraped item searchable: its text, which is
+ * the summary if it was summarized, its URL, its source, and when it was
+ * indexed. Queries are words that must all occur, and "quoted phrases" whose
+ * words must occur in a row, optionally limited to a source and time range.
+ * Hits come newest first.
+ *
+ * Items are added after each run and written out by flush() as a new
+ * IndexSegment, so the index grows incrementally and nothing is rewritten.
+ * Once there are many small segments, a background thread merges the
+ * smallest ones, so queries don't have to look into more and more files. The
+ * segments in use are listed in a manifest that's replaced atomically, so a
+ * crash never leaves a half-written index behind. An index opened read-only,
+ * e.g. to search while the daemon adds to it, never touches the files.
+ *
+ * Segments are memory-mapped, so the heap only ever holds the items waiting
+ * for a flush, the postings of the terms being queried, and the hits. Queries
+ * over a long history stay fast since each segment skips straight to a term's
+ * postings by binary search, and segments outside the time range are skipped.
+ */
+class SearchIndex implements AutoCloseable {
+  /** Lists the segments in use, one file name per line. */
+  private static final String MANIFEST = "segments";
+
+  /** Segments are merged once there are this many small enough ones. */
+  private static final int MERGE_FACTOR = 8;
+
+  /** Most documents a merge produces, which bounds the memory merges take. */
+  private static final int MAX_MERGED_DOCS = 50_000;
+
+  /** Matches a quoted phrase or a single word of a query. */
+  private static final Pattern CLAUSE = Pattern.compile(
+    "\"([^\"]*)\"?|(\\S+)"
+  );
+
+  /** Directory that holds the segments and the manifest. */
+  private final Path directory;
+
+  /** Whether the index was opened for searching only. */
+  private final boolean readOnly;
+
+  /** Merges segments in the background. */
+  private final ExecutorService merger = Executors.newSingleThreadExecutor(
+    task -> {
+      Thread thread = new Thread(task, "index-merge");
+      thread.setDaemon(true);
+      return thread;
+    }
+  );
+
+  /** The segments in use. Replaced, never modified, so queries need no lock. */
+  private volatile List<IndexSegment> segments;
+
+  /** Items added since the last flush. Guarded by this. */
+  private final List<IndexSegment.Doc> pending = new ArrayList<>();
+
+  /** Keys of the pending items. Guarded by this. */
+  private final Set<String> pendingKeys = new HashSet<>();
+
+  /** Number of the next segment file. Guarded by this. */
+  private int nextSegment;
+
+  /**
+   * Open an index for adding to, picking up whatever earlier runs wrote.
+   * @param directory Directory that holds the index; created if missing.
+   */
+  SearchIndex(Path directory) {
+    this(directory, false);
+  }
+
+  /**
+   * Open an index, picking up whatever earlier runs wrote.
+   * @param directory Directory that holds the index; created if missing.
+   * @param readOnly  Whether to only search, e.g. while a daemon adds to it.
+   */
+  SearchIndex(Path directory, boolean readOnly) {
+    this.directory = directory;
+    this.readOnly = readOnly;
+    try {
+      Files.createDirectories(directory);
+      Path manifest = directory.resolve(MANIFEST);
+      List<String> names = Files.exists(manifest)
+        ? Files.readAllLines(manifest, StandardCharsets.UTF_8)
+        : List.of();
+      List<IndexSegment> segments = new ArrayList<>();
+      for (String name : names) {
+        if (!name.isBlank()) {
+          segments.add(new IndexSegment(directory.resolve(name)));
+          this.nextSegment = Math.max(this.nextSegment, number(name) + 1);
+        }
+      }
+      this.segments = List.copyOf(segments);
+      if (readOnly) {
+        // Unlisted files may be a writer's segments that aren't committed yet.
+        return;
+      }
+      // Whatever isn't listed was left behind by a crash or an unfinished merge.
+      try (Stream<Path> files = Files.list(directory)) {
+        files
+          .filter(file -> !names.contains(file.getFileName().toString()))
+          .filter(file -> !file.getFileName().toString().equals(MANIFEST))
+          .forEach(SearchIndex::delete);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Add every item of a run, skipping items that were indexed before.
+   * @param result Scraped data by source key, as returned by Scraper.run().
+   * @param time   When the items were scraped.
+   */
+  void add(Map<String, List<Map<String, String>>> result, Instant time) {
+    for (String source : result.keySet()) {
+      this.add(source, result.get(source), time);
+    }
+  }
+
+  /**
+   * Add a source's items, skipping items that were indexed before.
+   * @param source The source's key.
+   * @param items  Its items, as stored by BaseScraper.
+   * @param time   When the items were scraped.
+   */
+  synchronized void add(
+    String source,
+    List<Map<String, String>> items,
+    Instant time
+  ) {
+    if (this.readOnly) {
+      throw new IllegalStateException("The index was opened read-only");
+    }
+    for (Map<String, String> item : items) {
+      String text = item.get("text");
+      String url = item.getOrDefault("url", "");
+      if (text == null || text.isBlank()) {
+        continue;
+      }
+      String key = keyTerm(url, text);
+      if (this.pendingKeys.contains(key) || this.contains(key)) {
+        continue;
+      }
+      this.pendingKeys.add(key);
+      this.pending.add(
+        new IndexSegment.Doc(time.toEpochMilli(), source, url, text)
+      );
+    }
+  }
+
+  /**
+   * Write the items added since the last flush into a new segment, and merge
+   * segments in the background if there are enough small ones.
+   */
+  synchronized void flush() {
+    if (this.pending.isEmpty()) {
+      return;
+    }
+    try {
+      Path path = this.directory.resolve(name(this.nextSegment++));
+      IndexSegment.write(path, this.pending);
+      List<IndexSegment> segments = new ArrayList<>(this.segments);
+      segments.add(new IndexSegment(path));
+      this.commit(segments);
+      this.pending.clear();
+      this.pendingKeys.clear();
+    } catch (IOException e) {
+      // The items stay pending, so the next flush tries again.
+      System.err.format("Couldn't write the search index: %s%n", e);
+      Metrics.ERRORS.inc("index", "write");
+      return;
+    }
+    if (!this.merger.isShutdown()) {
+      this.merger.execute(this::merge);
+    }
+  }
+
+  /**
+   * Find items, newest first.
+   * @param query  Words that must all occur, and "quoted phrases" whose words
+   *               must occur in a row, ignoring case and punctuation. Blank to
+   *               match every item.
+   * @param source Key of the only source to search, or null for all.
+   * @param from   Oldest time to search, or null for no limit.
+   * @param until  Time to search up to, exclusively, or null for no limit.
+   * @param limit  Most hits to return, at least 1.
+   * @return       The hits, newest first.
+   * @throws IllegalArgumentException If the limit isn't positive.
+   */
+  List<Hit> search(
+    String query,
+    String source,
+    Instant from,
+    Instant until,
+    int limit
+  ) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("Limit must be positive: " + limit);
+    }
+    long started = System.nanoTime();
+    List<List<String>> clauses = new ArrayList<>();
+    Matcher matcher = CLAUSE.matcher(query == null ? "" : query);
+    while (matcher.find()) {
+      List<String> words = words(
+        matcher.group(1) != null ? matcher.group(1) : matcher.group(2)
+      );
+      if (!words.isEmpty()) {
+        clauses.add(words);
+      }
+    }
+    long low = from == null ? Long.MIN_VALUE : from.toEpochMilli();
+    long high = until == null ? Long.MAX_VALUE : until.toEpochMilli();
+
+    // Newest segments first, so older ones can be skipped once there are enough.
+    List<IndexSegment> segments = new ArrayList<>(this.segments);
+    segments.sort((a, b) -> Long.compare(b.newest(), a.newest()));
+    List<Match> matches = new ArrayList<>();
+    for (IndexSegment segment : segments) {
+      if (matches.size() >= limit) {
+        matches.sort((a, b) -> Long.compare(b.time, a.time));
+        matches.subList(limit, matches.size()).clear();
+        if (segment.newest() < matches.get(limit - 1).time) {
+          break;
+        }
+      }
+      if (segment.newest() >= low && segment.oldest() < high) {
+        this.search(segment, clauses, source, low, high, limit, matches);
+      }
+    }
+    matches.sort((a, b) -> Long.compare(b.time, a.time));
+    List<Hit> hits = new ArrayList<>();
+    for (Match match : matches.subList(0, Math.min(limit, matches.size()))) {
+      IndexSegment.Doc doc = match.segment.doc(match.doc);
+      hits.add(
+        new Hit(doc.source, doc.url, doc.text, Instant.ofEpochMilli(doc.time))
+      );
+    }
+    Metrics.SEARCH.since(started);
+    return hits;
+  }
+
+  /**
+   * Find the matching documents of one segment.
+   * @param segment The segment.
+   * @param clauses The query's words and phrases, each a list of words.
+   * @param source  Key of the only source to search, or null for all.
+   * @param low     Oldest time to search, in epoch milliseconds.
+   * @param high    Time to search up to, exclusively, in epoch milliseconds.
+   * @param limit   Most matches to find, the newest.
+   * @param matches Gets the matches.
+   */
+  private void search(
+    IndexSegment segment,
+    List<List<String>> clauses,
+    String source,
+    long low,
+    long high,
+    int limit,
+    List<Match> matches
+  ) {
+    // Every word of every clause must occur, as must the source's term.
+    // Positions are only read for the words of phrases, which need them.
+    Map<String, Boolean> terms = new HashMap<>();
+    for (List<String> clause : clauses) {
+      for (String word : clause) {
+        terms.merge(word, clause.size() > 1, Boolean::logicalOr);
+      }
+    }
+    if (source != null) {
+      terms.put(sourceTerm(source), false);
+    }
+    Map<String, IndexSegment.Postings> postings = new HashMap<>();
+    for (Map.Entry<String, Boolean> term : terms.entrySet()) {
+      IndexSegment.Postings found = segment.postings(
+        term.getKey(),
+        term.getValue()
+      );
+      if (found == null) {
+        return;
+      }
+      postings.put(term.getKey(), found);
+    }
+    int[] candidates = null;
+    for (IndexSegment.Postings found : postings.values()) {
+      candidates = candidates == null
+        ? found.docs
+        : intersect(candidates, found.docs);
+    }
+    if (candidates == null) {
+      candidates = new int[segment.docs()];
+      Arrays.setAll(candidates, doc -> doc);
+    }
+
+    // Documents are oldest first, so the newest matches are found from the end.
+    int found = 0;
+    for (int i = candidates.length - 1; i >= 0 && found < limit; --i) {
+      int doc = candidates[i];
+      long time = segment.time(doc);
+      if (time < low || time >= high) {
+        continue;
+      }
+      boolean all = true;
+      for (List<String> clause : clauses) {
+        if (clause.size() > 1 && !adjacent(clause, postings, doc)) {
+          all = false;
+          break;
+        }
+      }
+      if (all) {
+        matches.add(new Match(segment, doc, time));
+        ++found;
+      }
+    }
+  }
+
+  /**
+   * Get the number of items in the index, not counting ones waiting for a flush.
+   * @return The number.
+   */
+  int size() {
+    int size = 0;
+    for (IndexSegment segment : this.segments) {
+      size += segment.docs();
+    }
+    return size;
+  }
+
+  /**
+   * Get the number of segment files in use.
+   * @return The number.
+   */
+  int segments() {
+    return this.segments.size();
+  }
+
+  /** Flush the pending items, and wait for merges to finish. */
+  @Override
+  public void close() {
+    this.flush();
+    this.merger.shutdown();
+    try {
+      this.merger.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      System.err.println("Interrupt occurred!");
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Merge the smallest segments while there are enough small enough ones. */
+  private void merge() {
+    while (true) {
+      List<IndexSegment> smallest = new ArrayList<>(this.segments);
+      smallest.sort(Comparator.comparingInt(IndexSegment::docs));
+      if (smallest.size() < MERGE_FACTOR) {
+        return;
+      }
+      smallest = smallest.subList(0, MERGE_FACTOR);
+      List<IndexSegment.Doc> docs = new ArrayList<>();
+      for (IndexSegment segment : smallest) {
+        if (docs.size() + segment.docs() > MAX_MERGED_DOCS) {
+          return;
+        }
+        docs.addAll(segment.all());
+      }
+      try {
+        Path path;
+        synchronized (this) {
+          path = this.directory.resolve(name(this.nextSegment++));
+        }
+        IndexSegment.write(path, docs);
+        IndexSegment merged = new IndexSegment(path);
+        synchronized (this) {
+          List<IndexSegment> segments = new ArrayList<>(this.segments);
+          segments.removeAll(smallest);
+          segments.add(merged);
+          this.commit(segments);
+        }
+      } catch (IOException e) {
+        System.err.format("Couldn't merge the search index: %s%n", e);
+        Metrics.ERRORS.inc("index", "merge");
+        return;
+      }
+      // Mappings outlive their files, so queries still reading them are unaffected.
+      for (IndexSegment segment : smallest) {
+        delete(segment.path());
+      }
+    }
+  }
+
+  /**
+   * Start using a new list of segments, replacing the manifest atomically.
+   * @param segments The segments to use.
+   * @throws IOException If the manifest can't be written.
+   */
+  private synchronized void commit(List<IndexSegment> segments)
+    throws IOException {
+    StringBuilder manifest = new StringBuilder();
+    for (IndexSegment segment : segments) {
+      manifest.append(segment.path().getFileName()).append('\n');
+    }
+    Path file = this.directory.resolve(MANIFEST);
+    Path temp = Files.createTempFile(this.directory, MANIFEST, ".tmp");
+    Files.writeString(temp, manifest, StandardCharsets.UTF_8);
+    Files.move(
+      temp,
+      file,
+      StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE
+    );
+    this.segments = List.copyOf(segments);
+  }
+
+  /**
+   * Check whether an item was indexed before.
+   * @param key The item's key term.
+   * @return    True if any segment has it.
+   */
+  private boolean contains(String key) {
+    for (IndexSegment segment : this.segments) {
+      if (segment.contains(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parse a time to search from or up to.
+   * @param text A date, e.g. "2021-06-01", meaning its start in UTC, or an
+   *             instant, e.g. "2021-06-01T12:00:00Z", or null.
+   * @return     The time, or null if the text is null or blank.
+   * @throws java.time.format.DateTimeParseException If it's neither.
+   */
+  static Instant time(String text) {
+    if (text == null || text.isBlank()) {
+      return null;
+    }
+    return text.contains("T")
+      ? Instant.parse(text)
+      : LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC).toInstant();
+  }
+
+  /**
+   * Split text into the words it's searched by.
+   * @param text The text.
+   * @return     Its words, lowercased, without punctuation.
+   */
+  static List<String> words(String text) {
+    List<String> words = new ArrayList<>();
+    for (String word : text.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+")) {
+      if (!word.isEmpty()) {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Get the term that finds a source's items.
+   * @param source The source's key.
+   * @return       The term.
+   */
+  static String sourceTerm(String source) {
+    return "source:" + source;
+  }
+
+  /**
+   * Get the term that tells whether an item was indexed before.
+   * @param url  Where the item was found.
+   * @param text Its text.
+   * @return     The term, with a hash of both.
+   */
+  static String keyTerm(String url, String text) {
+    try {
+      byte[] hash = MessageDigest
+        .getInstance("SHA-256")
+        .digest((url + "\n" + text).getBytes(StandardCharsets.UTF_8));
+      StringBuilder term = new StringBuilder("key:");
+      for (int i = 0; i < 12; ++i) {
+        term.append(String.format("%02x", hash[i]));
+      }
+      return term.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available", e);
+    }
+  }
+
+  /**
+   * Intersect two ascending lists of documents.
+   * @param a One list.
+   * @param b The other.
+   * @return  The documents in both, in ascending order.
+   */
+  private static int[] intersect(int[] a, int[] b) {
+    int[] both = new int[Math.min(a.length, b.length)];
+    int count = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length;) {
+      if (a[i] < b[j]) {
+        ++i;
+      } else if (a[i] > b[j]) {
+        ++j;
+      } else {
+        both[count++] = a[i];
+        ++i;
+        ++j;
+      }
+    }
+    return Arrays.copyOf(both, count);
+  }
+
+  /**
+   * Check whether a phrase's words occur in a row in a document.
+   * @param phrase   The phrase's words.
+   * @param postings The postings of each word, which all contain the document.
+   * @param doc      The document.
+   * @return         True if they do.
+   */
+  private static boolean adjacent(
+    List<String> phrase,
+    Map<String, IndexSegment.Postings> postings,
+    int doc
+  ) {
+    int[][] positions = new int[phrase.size()][];
+    for (int i = 0; i < phrase.size(); ++i) {
+      IndexSegment.Postings found = postings.get(phrase.get(i));
+      positions[i] = found.positions[Arrays.binarySearch(found.docs, doc)];
+    }
+    for (int start : positions[0]) {
+      boolean all = true;
+      for (int i = 1; i < positions.length && all; ++i) {
+        all = Arrays.binarySearch(positions[i], start + i) >= 0;
+      }
+      if (all) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the file name of a segment.
+   * @param number The segment's number.
+   * @return       The name.
+   */
+  private static String name(int number) {
+    return String.format("segment-%08d.jlx", number);
+  }
+
+  /**
+   * Get the number of a segment.
+   * @param name The segment's file name.
+   * @return     The number.
+   */
+  private static int number(String name) {
+    return Integer.parseInt(name.replaceAll("[^0-9]", ""));
+  }
+
+  /**
+   * Delete a file, complaining if that fails.
+   * @param file The file.
+   */
+  private static void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      System.err.format("Couldn't delete %s: %s%n", file, e);
+    }
+  }
+
+  /** An item found by a query. */
+  static final class Hit {
+    /** The key of the source it's from. */
+    final String source;
+
+    /** Where it was found. */
+    final String url;
+
+    /** Its text: the summary, if it was summarized. */
+    final String text;
+
+    /** When it was indexed. */
+    final Instant time;
+
+    Hit(String source, String url, String text, Instant time) {
+      this.source = source;
+      this.url = url;
+      this.text = text;
+      this.time = time;
+    }
+  }
+
+  /** A matching document, before its stored fields are read. */
+  private static final class Match {
+    final IndexSegment segment;
+    final int doc;
+    final long time;
+
+    Match(IndexSegment segment, int doc, long time) {
+      this.segment = segment;
+      this.doc = doc;
+      this.time = time;
+    }
+  }
+}
@@ -0,0 +1,426 @@
+/**
+ * Provides a persistent record of what earlier runs scraped.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Responsible for letting runs skip work that earlier runs already did.
+ * Every visited URL is stored with the items scraped from it, in a file named
+ * after the URL's hash, so lookups cost the same however long the history gets.
+ * A Bloom filter kept next to those files answers most "never seen" lookups
+ * without touching the disk. Each source also gets a fingerprint of its index
+ * page's links, so a source whose index hasn't changed can reuse its last items
+ * wholesale.
+ *
+ * Nothing reaches the disk until save(), which should only be called once every
+ * item has its final text, i.e. after summarization succeeded.
+ */
+class SeenStore {
+  /** Default lifetime of a URL's entry. */
+  private static final Duration DEFAULT_TTL = Duration.ofDays(30);
+
+  /** Size of the Bloom filter, which is good for about 100,000 URLs. */
+  private static final int BLOOM_BITS = 1 << 20;
+
+  /** Number of bits the Bloom filter sets per URL. */
+  private static final int BLOOM_HASHES = 4;
+
+  /** JSON shape of a URL's items. */
+  private static final Type ITEMS = new TypeToken<List<Map<String, String>>>() {}
+    .getType();
+
+  /** JSON shape of the source fingerprints. */
+  private static final Type SOURCES = new TypeToken<Map<String, Source>>() {}
+    .getType();
+
+  /** Directory that holds the store. */
+  private final Path directory;
+
+  /** Lifetime of a URL's entry, measured from when it was scraped. */
+  private final Duration ttl;
+
+  /** Bits for every URL ever saved. Guarded by itself. */
+  private final BitSet bloom;
+
+  /** Fingerprints and items of every source, as of the last save. */
+  private final Map<String, Source> sources = new ConcurrentHashMap<>();
+
+  /** URLs scraped this run with their items, by source, waiting for save(). */
+  private final Map<String, Map<String, List<Map<String, String>>>> pendingUrls =
+    new ConcurrentHashMap<>();
+
+  /** Sources scraped this run, waiting for save(). */
+  private final Map<String, Source> pendingSources = new ConcurrentHashMap<>();
+
+  private final Gson gson = new Gson();
+
+  /**
+   * Use the default lifetime.
+   * @param directory Directory that holds the store; created if missing.
+   */
+  SeenStore(Path directory) {
+    this(directory, DEFAULT_TTL);
+  }
+
+  /**
+   * Open a store, picking up whatever earlier runs saved.
+   * @param directory Directory that holds the store; created if missing.
+   * @param ttl       Lifetime of a URL's entry, after which the URL is scraped again.
+   */
+  SeenStore(Path directory, Duration ttl) {
+    this.directory = directory;
+    this.ttl = ttl;
+    try {
+      Files.createDirectories(directory);
+      this.bloom = this.loadBloom();
+      Path sources = directory.resolve("sources.json");
+      Map<String, Source> saved = Files.exists(sources)
+        ? this.gson.fromJson(
+            Files.readString(sources, StandardCharsets.UTF_8),
+            SOURCES
+          )
+        : null;
+      if (saved != null) {
+        this.sources.putAll(saved);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Compute the fingerprint of an index page.
+   * @param url   The index page's URL.
+   * @param links The links it lists, in order.
+   * @return      A hex-encoded SHA-256 hash.
+   */
+  static String fingerprint(String url, List<String> links) {
+    return hex(sha256(url + "\n" + String.join("\n", links)));
+  }
+
+  /**
+   * Look up the items an earlier run scraped from a URL.
+   * @param url The URL.
+   * @return    Copies of the items, which may be none, or null if the URL is new or expired.
+   */
+  List<Map<String, String>> lookup(String url) {
+    byte[] hash = sha256(url);
+    synchronized (this.bloom) {
+      if (!mayContain(this.bloom, hash)) {
+        return null;
+      }
+    }
+    Path file = this.path(hex(hash));
+    try {
+      if (!Files.exists(file)) {
+        return null;
+      }
+      Instant saved = Files.getLastModifiedTime(file).toInstant();
+      if (saved.plus(this.ttl).isBefore(Instant.now())) {
+        Files.deleteIfExists(file);
+        return null;
+      }
+      return this.gson.fromJson(
+        Files.readString(file, StandardCharsets.UTF_8),
+        ITEMS
+      );
+    } catch (IOException | RuntimeException e) {
+      System.err.format("Could not read seen URL %s: %s%n", url, e);
+      return null;
+    }
+  }
+
+  /**
+   * Look up a source's items from the last run, if its index page hasn't changed since.
+   * @param source      Name of the source.
+   * @param fingerprint The index page's current fingerprint.
+   * @return            Copies of the items, or null if the index changed or was never seen.
+   */
+  List<Map<String, String>> unchanged(String source, String fingerprint) {
+    Source saved = this.sources.get(source);
+    if (saved == null || !saved.fingerprint.equals(fingerprint)) {
+      return null;
+    }
+    List<Map<String, String>> items = new ArrayList<>();
+    for (Map<String, String> item : saved.items) {
+      items.add(new HashMap<>(item));
+    }
+    return items;
+  }
+
+  /**
+   * Remember the items scraped from a URL.
+   * The items are written as they are at save() time, so summaries added meanwhile are kept.
+   * @param source Name of the source that scraped the URL.
+   * @param url    The URL.
+   * @param items  The items scraped from it, which may be none.
+   */
+  void record(String source, String url, List<Map<String, String>> items) {
+    this.pendingUrls
+      .computeIfAbsent(source, name -> new ConcurrentHashMap<>())
+      .put(url, items);
+  }
+
+  /**
+   * Remember everything a source produced from an index page.
+   * The items are written as they are at save() time, so summaries added meanwhile are kept.
+   * @param source      Name of the source.
+   * @param fingerprint The index page's fingerprint.
+   * @param items       Every item the source produced.
+   */
+  void recordSource(
+    String source,
+    String fingerprint,
+    List<Map<String, String>> items
+  ) {
+    this.pendingSources.put(source, new Source(fingerprint, items));
+  }
+
+  /**
+   * Forget everything one source recorded since its last save, e.g. because its
+   * run failed before the items got their summaries.
+   * @param source Name of the source.
+   */
+  synchronized void discard(String source) {
+    this.pendingUrls.remove(source);
+    this.pendingSources.remove(source);
+  }
+
+  /** Write out everything recorded since the last save. */
+  void save() {
+    for (String source : new ArrayList<>(this.pendingUrls.keySet())) {
+      this.save(source);
+    }
+    for (String source : new ArrayList<>(this.pendingSources.keySet())) {
+      this.save(source);
+    }
+  }
+
+  /**
+   * Write out everything one source recorded since its last save.
+   * Other sources may still be waiting for summaries, so they're left alone.
+   * @param source Name of the source.
+   */
+  synchronized void save(String source) {
+    Map<String, List<Map<String, String>>> urls = this.pendingUrls.remove(
+      source
+    );
+    if (urls != null) {
+      urls.forEach(this::saveUrl);
+    }
+    Source fingerprint = this.pendingSources.remove(source);
+    if (fingerprint != null) {
+      this.sources.put(source, fingerprint);
+    }
+    try {
+      synchronized (this.bloom) {
+        Path bloomFile = this.directory.resolve("urls.bloom");
+        Path temp = Files.createTempFile(this.directory, "urls", ".tmp");
+        Files.write(temp, this.bloom.toByteArray());
+        Files.move(
+          temp,
+          bloomFile,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE
+        );
+      }
+      this.write(
+        this.directory.resolve("sources.json"),
+        this.gson.toJson(this.sources, SOURCES)
+      );
+    } catch (IOException e) {
+      System.err.format("Could not save seen URL index: %s%n", e);
+    }
+  }
+
+  /**
+   * Write out a URL's entry and add it to the Bloom filter.
+   * @param url   The URL.
+   * @param items The items scraped from it.
+   */
+  private void saveUrl(String url, List<Map<String, String>> items) {
+    byte[] hash = sha256(url);
+    Path file = this.path(hex(hash));
+    try {
+      Files.createDirectories(file.getParent());
+      this.write(file, this.gson.toJson(items, ITEMS));
+      synchronized (this.bloom) {
+        add(this.bloom, hash);
+      }
+    } catch (IOException e) {
+      System.err.format("Could not save seen URL %s: %s%n", url, e);
+    }
+  }
+
+  /**
+   * Read the Bloom filter, rebuilding it from the entry files if it's missing.
+   * @return The filter.
+   * @throws IOException If the directory can't be read.
+   */
+  private BitSet loadBloom() throws IOException {
+    Path file = this.directory.resolve("urls.bloom");
+    if (Files.exists(file)) {
+      return BitSet.valueOf(Files.readAllBytes(file));
+    }
+    BitSet bloom = new BitSet(BLOOM_BITS);
+    Path urls = this.directory.resolve("urls");
+    if (Files.isDirectory(urls)) {
+      try (Stream<Path> walk = Files.walk(urls, 2)) {
+        walk
+          .filter(Files::isRegularFile)
+          .map(path -> path.getFileName().toString())
+          .filter(name -> name.matches("[0-9a-f]{64}"))
+          .forEach(name -> add(bloom, unhex(name)));
+      }
+    }
+    return bloom;
+  }
+
+  /**
+   * Get the disk location of a URL's entry. Entries are spread over subdirectories by hash prefix.
+   * @param hash The hex-encoded hash of the URL.
+   * @return     The entry's file.
+   */
+  private Path path(String hash) {
+    return this.directory
+      .resolve("urls")
+      .resolve(hash.substring(0, 2))
+      .resolve(hash);
+  }
+
+  /**
+   * Replace a file's contents atomically.
+   * @param file     The file.
+   * @param contents The new contents.
+   * @throws IOException If writing fails.
+   */
+  private void write(Path file, String contents) throws IOException {
+    Path temp = Files.createTempFile(
+      file.getParent(),
+      file.getFileName().toString(),
+      ".tmp"
+    );
+    Files.writeString(temp, contents, StandardCharsets.UTF_8);
+    Files.move(
+      temp,
+      file,
+      StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE
+    );
+  }
+
+  /**
+   * Set a URL's bits in a Bloom filter.
+   * @param bloom The filter.
+   * @param hash  The SHA-256 hash of the URL.
+   */
+  private static void add(BitSet bloom, byte[] hash) {
+    for (int i = 0; i < BLOOM_HASHES; ++i) {
+      bloom.set(bit(hash, i));
+    }
+  }
+
+  /**
+   * Check a URL's bits in a Bloom filter.
+   * @param bloom The filter.
+   * @param hash  The SHA-256 hash of the URL.
+   * @return      False if the URL was definitely never added, true if it may have been.
+   */
+  private static boolean mayContain(BitSet bloom, byte[] hash) {
+    for (int i = 0; i < BLOOM_HASHES; ++i) {
+      if (!bloom.get(bit(hash, i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Pick one of a URL's Bloom filter bits. Each uses a different four bytes of the hash.
+   * @param hash  The SHA-256 hash of the URL.
+   * @param which Which of the bits to pick.
+   * @return      The bit index.
+   */
+  private static int bit(byte[] hash, int which) {
+    int value = 0;
+    for (int i = which * 4; i < which * 4 + 4; ++i) {
+      value = (value << 8) | (hash[i] & 0xff);
+    }
+    return Math.floorMod(value, BLOOM_BITS);
+  }
+
+  /**
+   * Hash a string.
+   * @param text The string.
+   * @return     Its SHA-256 hash.
+   */
+  private static byte[] sha256(String text) {
+    try {
+      return MessageDigest
+        .getInstance("SHA-256")
+        .digest(text.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available", e);
+    }
+  }
+
+  /**
+   * Hex-encode bytes.
+   * @param bytes The bytes.
+   * @return      Two lowercase hex digits per byte.
+   */
+  private static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Decode hex into bytes.
+   * @param hex Two hex digits per byte.
+   * @return    The bytes.
+   */
+  private static byte[] unhex(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; ++i) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+    }
+    return bytes;
+  }
+
+  /** A source's index fingerprint and the items it produced. */
+  private static class Source {
+    final String fingerprint;
+    final List<Map<String, String>> items;
+
+    Source(String fingerprint, List<Map<String, String>> items) {
+      this.fingerprint = fingerprint;
+      this.items = items;
+    }
+  }
+}
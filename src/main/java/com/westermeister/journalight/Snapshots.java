@@ -0,0 +1,216 @@
+/**
+ * Provides an on-disk store of recorded responses.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Responsible for keeping what a run fetched, so later runs can be replayed
+ * against exactly the same pages. Each response is kept with its status and
+ * content type, and its body decoded, by the URL it was fetched from.
+ *
+ * The directory holds "index.json", which maps URLs to entries, and the bodies
+ * under "bodies/", named by the SHA-256 of their URL.
+ */
+class Snapshots {
+  /** JSON shape of the index. */
+  private static final Type INDEX = new TypeToken<Map<String, Entry>>() {}
+    .getType();
+
+  private final Gson gson = new Gson();
+
+  /** Where the snapshots are kept. */
+  private final Path directory;
+
+  /** Every snapshot, by URL. Guarded by this. */
+  private final Map<String, Entry> entries;
+
+  /**
+   * Open a directory of snapshots, creating it on the first put().
+   * @param directory Where the snapshots are kept.
+   */
+  Snapshots(Path directory) {
+    this.directory = directory;
+    this.entries = this.load();
+  }
+
+  /**
+   * Keep a response, replacing any earlier one for the URL. The index isn't saved until save().
+   * @param url      The URL it was fetched from.
+   * @param snapshot The response.
+   */
+  void put(String url, Snapshot snapshot) {
+    String blob = hex(sha256(url));
+    Path file = this.path(blob);
+    try {
+      Files.createDirectories(file.getParent());
+      Files.write(file, snapshot.body);
+    } catch (IOException e) {
+      System.err.format("Could not record %s: %s%n", url, e);
+      return;
+    }
+    Entry entry = new Entry();
+    entry.status = snapshot.status;
+    entry.contentType = snapshot.contentType;
+    entry.blob = blob;
+    synchronized (this) {
+      this.entries.put(url, entry);
+    }
+  }
+
+  /**
+   * Look a response up.
+   * @param url The URL it was fetched from.
+   * @return    The response, or null if none was kept.
+   */
+  Snapshot get(String url) {
+    Entry entry;
+    synchronized (this) {
+      entry = this.entries.get(url);
+    }
+    if (entry == null) {
+      return null;
+    }
+    try {
+      return new Snapshot(
+        entry.status,
+        entry.contentType,
+        Files.readAllBytes(this.path(entry.blob))
+      );
+    } catch (IOException e) {
+      System.err.format("Could not read snapshot of %s: %s%n", url, e);
+      return null;
+    }
+  }
+
+  /**
+   * Get the number of responses kept.
+   * @return The number of URLs.
+   */
+  synchronized int size() {
+    return this.entries.size();
+  }
+
+  /** Write out the index, so later runs find every response. */
+  synchronized void save() {
+    Path index = this.directory.resolve("index.json");
+    try {
+      Files.createDirectories(this.directory);
+      Path temp = Files.createTempFile(this.directory, "index.json", ".tmp");
+      Files.writeString(
+        temp,
+        this.gson.toJson(this.entries),
+        StandardCharsets.UTF_8
+      );
+      Files.move(
+        temp,
+        index,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      );
+    } catch (IOException e) {
+      System.err.format("Could not save snapshot index: %s%n", e);
+    }
+  }
+
+  /**
+   * Read the index.
+   * @return Every snapshot by URL, or none if there's no readable index.
+   */
+  private Map<String, Entry> load() {
+    Path index = this.directory.resolve("index.json");
+    if (!Files.exists(index)) {
+      return new HashMap<>();
+    }
+    try {
+      Map<String, Entry> entries = this.gson.fromJson(
+        Files.readString(index, StandardCharsets.UTF_8),
+        INDEX
+      );
+      return entries == null ? new HashMap<>() : entries;
+    } catch (IOException | JsonParseException e) {
+      System.err.format("Ignoring unreadable snapshot index: %s%n", e);
+      return new HashMap<>();
+    }
+  }
+
+  /**
+   * Get where a body is kept.
+   * @param blob The body's name.
+   * @return     Its path, spread over subdirectories by its first two characters.
+   */
+  private Path path(String blob) {
+    return this.directory.resolve("bodies")
+      .resolve(blob.substring(0, 2))
+      .resolve(blob);
+  }
+
+  /**
+   * Hash a URL.
+   * @param url The URL.
+   * @return    Its SHA-256.
+   */
+  private static byte[] sha256(String url) {
+    try {
+      return MessageDigest
+        .getInstance("SHA-256")
+        .digest(url.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available", e);
+    }
+  }
+
+  /**
+   * Encode bytes as lowercase hex.
+   * @param bytes The bytes.
+   * @return      The hex string.
+   */
+  private static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /** A response, ready to be served again. */
+  static class Snapshot {
+    final int status;
+
+    /** The Content-Type header, or null. */
+    final String contentType;
+
+    /** The body, without any content encoding. */
+    final byte[] body;
+
+    Snapshot(int status, String contentType, byte[] body) {
+      this.status = status;
+      this.contentType = contentType;
+      this.body = body;
+    }
+  }
+
+  /** How a snapshot is indexed. */
+  private static class Entry {
+    int status;
+    String contentType;
+
+    /** Name of the file with the body. */
+    String blob;
+  }
+}
@@ -0,0 +1,424 @@
+/**
+ * Provides the bookkeeping of one source's scrape within a run.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Responsible for tracking a source's pages as they finish, so a run that hits
+ * its deadline can still return whatever is done. Every page, the index
+ * included, ends with an Outcome, which is the run's per-page status.
+ *
+ * Items are returned in the order the index lists their pages, teasers first,
+ * whether the source finished or was cut off.
+ */
+class SourceRun {
+  /** How a page ended. */
+  enum Status {
+    /** Not finished yet. */
+    PENDING,
+    /** Loaded and read. */
+    SCRAPED,
+    /** Not loaded, since an earlier run scraped it. */
+    REUSED,
+    /** Loading or reading it failed. */
+    FAILED,
+    /** Cut off by the run's deadline. */
+    TIMED_OUT,
+  }
+
+  /** The index page's outcome. */
+  private final Outcome index;
+
+  /** The index task, which is cancelled if the deadline passes first. */
+  private volatile CompletableFuture<?> indexTask;
+
+  /** Items stored from the index page itself. */
+  private volatile List<Map<String, String>> teasers = new ArrayList<>();
+
+  /** Article pages, in the order the index lists them. */
+  private final List<Article> articles = new CopyOnWriteArrayList<>();
+
+  /** Set once the deadline has passed, after which no page may start. */
+  private volatile boolean cutOff;
+
+  /** Completes once every page has finished, whichever way. */
+  private final CompletableFuture<Void> finished = new CompletableFuture<>();
+
+  /** When the run started, for the outcomes' durations. */
+  private final long startNanos = System.nanoTime();
+
+  /**
+   * Start tracking a source.
+   * @param url The source's index URL.
+   */
+  SourceRun(String url) {
+    this.index = new Outcome(url);
+  }
+
+  /**
+   * Run a task, and run it again if it hasn't finished after a delay, in case
+   * the first attempt is stuck on a slow page. The first attempt to succeed wins.
+   * @param attempt Starts an attempt.
+   * @param delayMs How long to wait before starting the second attempt, or 0 to never start one.
+   * @param timer   Starts the second attempt.
+   * @param hedged  Called when the second attempt is started.
+   * @return        The first successful attempt's result, or the last failure if every
+   *                attempt fails. Once it's done, or cancelled, every attempt is cancelled.
+   */
+  static <T> CompletableFuture<T> hedge(
+    Supplier<CompletableFuture<T>> attempt,
+    long delayMs,
+    ScheduledExecutorService timer,
+    Runnable hedged
+  ) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    List<CompletableFuture<T>> attempts = new CopyOnWriteArrayList<>();
+    AtomicInteger running = new AtomicInteger(1);
+    Consumer<CompletableFuture<T>> watch = started -> {
+      attempts.add(started);
+      started.whenComplete(
+        (value, e) -> {
+          if (e == null) {
+            result.complete(value);
+          } else if (running.decrementAndGet() == 0) {
+            result.completeExceptionally(e);
+          }
+        }
+      );
+      // The result may have been settled while this attempt was starting.
+      if (result.isDone()) {
+        started.cancel(false);
+      }
+    };
+    watch.accept(attempt.get());
+    if (delayMs > 0 && !result.isDone()) {
+      ScheduledFuture<?> second = timer.schedule(
+        () -> {
+          if (!result.isDone()) {
+            running.incrementAndGet();
+            hedged.run();
+            watch.accept(attempt.get());
+          }
+        },
+        delayMs,
+        TimeUnit.MILLISECONDS
+      );
+      result.whenComplete((value, e) -> second.cancel(false));
+    }
+    result.whenComplete(
+      (value, e) -> {
+        for (CompletableFuture<T> started : attempts) {
+          started.cancel(false);
+        }
+      }
+    );
+    return result;
+  }
+
+  /**
+   * Register the index task, so the deadline can cancel it.
+   * @param task The task.
+   */
+  void indexing(CompletableFuture<?> task) {
+    this.indexTask = task;
+  }
+
+  /**
+   * Record that the index page was read.
+   * @param teasers Items stored from the index page itself.
+   */
+  void indexed(List<Map<String, String>> teasers) {
+    this.teasers = new ArrayList<>(teasers);
+    this.settle(this.index, Status.SCRAPED);
+  }
+
+  /**
+   * Record that the index page couldn't be read, which finishes the source.
+   * @param e Why.
+   */
+  void indexFailed(Throwable e) {
+    this.settle(
+      this.index,
+      isCancellation(e) ? Status.TIMED_OUT : Status.FAILED
+    );
+    this.finished.complete(null);
+  }
+
+  /**
+   * Add an article that's being scraped.
+   * @param url     The article's URL.
+   * @param task    Scrapes it. Cancelled if the deadline passes first.
+   * @param deliver Takes the article's items before they count as done.
+   */
+  void add(
+    String url,
+    CompletableFuture<List<Map<String, String>>> task,
+    Consumer<List<Map<String, String>>> deliver
+  ) {
+    Article article = new Article(
+      new Outcome(url),
+      task,
+      task.thenApply(
+        items -> {
+          deliver.accept(items);
+          return items;
+        }
+      )
+    );
+    this.articles.add(article);
+    article.items.whenComplete(
+      (items, e) ->
+        this.settle(
+          article.outcome,
+          e == null
+            ? Status.SCRAPED
+            : isCancellation(e) ? Status.TIMED_OUT : Status.FAILED
+        )
+    );
+    // Added after the deadline, e.g. by an index task that was already running.
+    if (this.cutOff) {
+      task.cancel(false);
+    }
+  }
+
+  /**
+   * Add an article whose items an earlier run scraped.
+   * @param url   The article's URL.
+   * @param items The items.
+   */
+  void reuse(String url, List<Map<String, String>> items) {
+    CompletableFuture<List<Map<String, String>>> done =
+      CompletableFuture.completedFuture(items);
+    Article article = new Article(new Outcome(url), done, done);
+    this.articles.add(article);
+    this.settle(article.outcome, Status.REUSED);
+  }
+
+  /**
+   * Mark an article as hedged, since a second attempt was started.
+   * @param url The article's URL.
+   */
+  void hedged(String url) {
+    for (Article article : this.articles) {
+      if (article.outcome.url.equals(url)) {
+        article.outcome.hedged = true;
+      }
+    }
+  }
+
+  /**
+   * Signal that every article has been added. The source finishes once they all have.
+   * @param whenAllRead Takes the articles' items, in order, before the source
+   *                    counts as finished, if no page failed or was cut off.
+   */
+  void seal(Consumer<List<Map<String, String>>> whenAllRead) {
+    int count = this.articles.size();
+    CompletableFuture<?>[] items = new CompletableFuture<?>[count];
+    for (int i = 0; i < items.length; ++i) {
+      Article article = this.articles.get(i);
+      if (this.cutOff) {
+        article.task.cancel(false);
+      }
+      items[i] = article.items;
+    }
+    CompletableFuture
+      .allOf(items)
+      .whenComplete(
+        (done, e) -> {
+          try {
+            if (e == null) {
+              List<Map<String, String>> all = new ArrayList<>();
+              for (Article article : this.articles) {
+                all.addAll(article.items.join());
+              }
+              whenAllRead.accept(all);
+            }
+          } finally {
+            this.finished.complete(null);
+          }
+        }
+      );
+  }
+
+  /**
+   * Wait for the source to finish, but not past a deadline. Pages still
+   * unfinished at the deadline are cut off and left out.
+   * @param deadline When to stop waiting, in System.nanoTime() terms.
+   * @return         The items of every page that finished in time.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  List<Map<String, String>> await(long deadline) throws InterruptedException {
+    try {
+      this.finished.get(
+        Math.max(0, deadline - System.nanoTime()),
+        TimeUnit.NANOSECONDS
+      );
+    } catch (TimeoutException e) {
+      this.cutOff();
+    } catch (ExecutionException e) {
+      // Never completed exceptionally.
+    }
+    return this.items();
+  }
+
+  /**
+   * Check whether the deadline has passed, so no more pages should be started.
+   * @return True if the run was cut off.
+   */
+  boolean isCutOff() {
+    return this.cutOff;
+  }
+
+  /**
+   * Get the items of every page that has finished so far.
+   * @return Teasers first, then articles in the order the index lists them.
+   */
+  List<Map<String, String>> items() {
+    List<Map<String, String>> items = new ArrayList<>(this.teasers);
+    for (Article article : this.articles) {
+      if (article.items.isDone() && !article.items.isCompletedExceptionally()) {
+        items.addAll(article.items.join());
+      }
+    }
+    return items;
+  }
+
+  /**
+   * Get how each page ended.
+   * @return The index's outcome, then the articles', in the order the index lists them.
+   */
+  List<Outcome> outcomes() {
+    List<Outcome> outcomes = new ArrayList<>();
+    outcomes.add(this.index);
+    for (Article article : this.articles) {
+      outcomes.add(article.outcome);
+    }
+    return outcomes;
+  }
+
+  /**
+   * Count the pages by how they ended.
+   * @return E.g. "12 scraped (1 hedged), 3 reused, 1 timed out".
+   */
+  String summary() {
+    Map<Status, Integer> counts = new EnumMap<>(Status.class);
+    int hedged = 0;
+    for (Outcome outcome : this.outcomes()) {
+      counts.merge(outcome.status, 1, Integer::sum);
+      if (outcome.hedged) {
+        ++hedged;
+      }
+    }
+    List<String> parts = new ArrayList<>();
+    for (Map.Entry<Status, Integer> count : counts.entrySet()) {
+      String part =
+        count.getValue() +
+        " " +
+        count.getKey().name().toLowerCase().replace('_', ' ');
+      if (count.getKey() == Status.SCRAPED && hedged > 0) {
+        part += String.format(" (%d hedged)", hedged);
+      }
+      parts.add(part);
+    }
+    return String.join(", ", parts);
+  }
+
+  /** Give up on every unfinished page. */
+  private void cutOff() {
+    // Set first, so articles added meanwhile are cancelled by add() if not here.
+    this.cutOff = true;
+    CompletableFuture<?> task = this.indexTask;
+    if (task != null) {
+      task.cancel(false);
+    }
+    this.settle(this.index, Status.TIMED_OUT);
+    for (Article article : this.articles) {
+      article.task.cancel(false);
+      this.settle(article.outcome, Status.TIMED_OUT);
+    }
+  }
+
+  /**
+   * Record how a page ended, unless it already has.
+   * @param outcome The page's outcome.
+   * @param status  How it ended.
+   */
+  private void settle(Outcome outcome, Status status) {
+    synchronized (outcome) {
+      if (outcome.status == Status.PENDING) {
+        outcome.status = status;
+        outcome.millis =
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startNanos);
+      }
+    }
+  }
+
+  /**
+   * Check whether a future failed because it was cancelled.
+   * @param e Its exception, possibly wrapped by a dependent future.
+   * @return  True if it was cancelled.
+   */
+  private static boolean isCancellation(Throwable e) {
+    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+    return cause instanceof CancellationException;
+  }
+
+  /** How a page ended. */
+  static class Outcome {
+    /** The page's URL. */
+    final String url;
+
+    /** How it ended. */
+    volatile Status status = Status.PENDING;
+
+    /** Whether a second attempt was started because the first was slow. */
+    volatile boolean hedged;
+
+    /** Time from the start of the source's run until the page ended. */
+    volatile long millis;
+
+    Outcome(String url) {
+      this.url = url;
+    }
+  }
+
+  /** An article page being scraped. */
+  private static class Article {
+    final Outcome outcome;
+
+    /** Scrapes the article. */
+    final CompletableFuture<List<Map<String, String>>> task;
+
+    /** The article's items, once they've been delivered. */
+    final CompletableFuture<List<Map<String, String>>> items;
+
+    Article(
+      Outcome outcome,
+      CompletableFuture<List<Map<String, String>>> task,
+      CompletableFuture<List<Map<String, String>>> items
+    ) {
+      this.outcome = outcome;
+      this.task = task;
+      this.items = items;
+    }
+  }
+}
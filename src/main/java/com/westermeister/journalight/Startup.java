@@ -0,0 +1,97 @@
+/**
+ * Provides measurements of how long the program takes to get going.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Responsible for timing startup: from the JVM's start to main(), to the first
+ * browser being ready, and to the first page load, whichever engine does it.
+ * For a short periodic run, these are most of its wall time. Each milestone is
+ * only timed the first time it's reached, and is also exported as a metric.
+ */
+final class Startup {
+  private Startup() {}
+
+  /** When the JVM started, in epoch milliseconds. */
+  private static final long JVM_START_MS = ProcessHandle
+    .current()
+    .info()
+    .startInstant()
+    .map(Instant::toEpochMilli)
+    .orElse(System.currentTimeMillis());
+
+  /** Milliseconds from the JVM's start to main(), or -1 if not reached. */
+  private static final AtomicLong MAIN = new AtomicLong(-1);
+
+  /** Milliseconds from the JVM's start to the first browser, or -1 if not reached. */
+  private static final AtomicLong BROWSER = new AtomicLong(-1);
+
+  /** Milliseconds from the JVM's start to the first page load, or -1 if not reached. */
+  private static final AtomicLong NAVIGATION = new AtomicLong(-1);
+
+  /** Mark that main() has started. */
+  static void main() {
+    reach(MAIN, "main");
+  }
+
+  /** Mark that a browser has been launched or connected to. */
+  static void browserReady() {
+    reach(BROWSER, "browser");
+  }
+
+  /** Mark that a page has started loading. */
+  static void navigating() {
+    reach(NAVIGATION, "navigation");
+  }
+
+  /**
+   * Describe how long each milestone took to reach.
+   * @return E.g. "main after 310 ms, first navigation after 402 ms, no browser".
+   */
+  static String report() {
+    List<String> parts = new ArrayList<>();
+    describe(parts, MAIN, "main");
+    describe(parts, NAVIGATION, "first navigation");
+    describe(parts, BROWSER, "first browser");
+    if (BROWSER.get() < 0) {
+      parts.add("no browser");
+    }
+    return String.join(", ", parts);
+  }
+
+  /**
+   * Time a milestone, unless it was reached before.
+   * @param milestone Holds its time.
+   * @param name      Its label in the metric.
+   */
+  private static void reach(AtomicLong milestone, String name) {
+    long elapsed = System.currentTimeMillis() - JVM_START_MS;
+    if (milestone.compareAndSet(-1, elapsed)) {
+      Metrics.STARTUP.add(elapsed, name);
+    }
+  }
+
+  /**
+   * Describe a milestone, if it was reached.
+   * @param parts     Gets the description.
+   * @param milestone Holds its time.
+   * @param name      What to call it.
+   */
+  private static void describe(
+    List<String> parts,
+    AtomicLong milestone,
+    String name
+  ) {
+    long elapsed = milestone.get();
+    if (elapsed >= 0) {
+      parts.add(String.format("%s after %d ms", name, elapsed));
+    }
+  }
+}
@@ -1,61 +1,82 @@
 /**
- * Bindings to Python Summarization module.
+ * Provides a common view of summarization backends.
  * Copyright (c) 2021 Westermeister. All rights reserved.
  */
 
 package com.westermeister.journalight;
 
-import com.google.gson.Gson;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
 
-/** Responsible for summarizing text. */
-class Summarizer {
+/**
+ * Responsible for turning texts into summaries of roughly tweet length.
+ *
+ * The backend is picked with the system property "journalight.summarizer":
+ * "model", the default, summarizes abstractively with a transformer model in
+ * Python worker processes; "onnx" runs such a model, exported to ONNX, right
+ * here in the JVM; "extractive" picks the most central sentences of each text,
+ * also in the JVM, in well under a millisecond per text.
+ */
+interface Summarizer extends AutoCloseable {
+  /**
+   * Create the backend chosen by the system property "journalight.summarizer".
+   * @return The summarizer.
+   * @throws IllegalArgumentException If the property names no backend.
+   */
+  static Summarizer create() {
+    String backend = System.getProperty("journalight.summarizer", "model");
+    switch (backend) {
+      case "model":
+        return new ModelSummarizer();
+      case "onnx":
+        return new OnnxSummarizer();
+      case "extractive":
+        return new ExtractiveSummarizer();
+      default:
+        throw new IllegalArgumentException(
+          "Unknown summarizer \"" +
+          backend +
+          "\", expected model, onnx or extractive"
+        );
+    }
+  }
 
   /**
    * Summarizes each string within a list of strings.
    * @param strings The list of strings to be summarized.
-   * @return        Summaries for each string.
+   * @return        Summaries for each string, in the same order.
+   * @throws SummarizerException If the backend fails.
    */
-  List<String> summarize(List<String> strings) {
-    List<String> result = new ArrayList<>();
-    try {
-      Gson gson = new Gson();
-      String jsonStrings = gson.toJson(strings);
-
-      ProcessBuilder builder = new ProcessBuilder(
-        "python",
-        "./lib/Summarizer.py"
-      );
-      Process process = builder.start();
-
-      OutputStream stdin = process.getOutputStream();
-      InputStream stdout = process.getInputStream();
-
-      BufferedReader reader = new BufferedReader(new InputStreamReader(stdout));
-      BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(stdin));
-
-      writer.write(jsonStrings);
-      writer.flush();
-      writer.close();
-
-      Scanner scanner = new Scanner(stdout);
-      List<String> output = new ArrayList<>();
-      while (scanner.hasNextLine()) {
-        output.add(scanner.nextLine());
-      }
-      String[] jsonOutput = gson.fromJson(output.get(0), String[].class);
-      for (String str : jsonOutput) {
-        result.add(str);
-      }
-    } catch (Exception e) {}
-    return result;
+  List<String> summarize(List<String> strings);
+
+  /**
+   * Get the name of the model summaries come from, e.g. for cache keys.
+   * @return The model name.
+   */
+  String model();
+
+  /**
+   * Answer repeated texts from a cache, if summarizing is costly enough to be worth it.
+   * @param cache The cache to consult and fill.
+   */
+  default void useCache(SummaryCache cache) {}
+
+  /**
+   * Check whether the backend is up and answering requests, starting it if needed.
+   * @return True if usable, false otherwise.
+   */
+  default boolean isHealthy() {
+    return true;
   }
+
+  /**
+   * Get the number of workers that calls are split between.
+   * @return The number of workers, which callers may batch for.
+   */
+  default int workers() {
+    return 1;
+  }
+
+  /** Release whatever the backend holds. */
+  @Override
+  default void close() {}
 }
@@ -0,0 +1,28 @@
+/**
+ * Provides the exception thrown when summarization fails.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+/** Signals that the summarizer worker could not produce summaries. */
+class SummarizerException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Create the exception with a message.
+   * @param message What went wrong.
+   */
+  SummarizerException(String message) {
+    super(message);
+  }
+
+  /**
+   * Create the exception with a message and an underlying cause.
+   * @param message What went wrong.
+   * @param cause   The exception that caused the failure.
+   */
+  SummarizerException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,337 @@
+/**
+ * Provides a two-tier cache for summaries.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Responsible for remembering summaries across runs.
+ * Entries are addressed by a hash of the normalized text plus the model and
+ * length settings that produced them. Recently used entries live in memory,
+ * and every entry is also written to disk, where it expires after a TTL or
+ * when the directory outgrows its size limit (least recently used first).
+ */
+class SummaryCache {
+  /** Default number of entries kept in memory. */
+  private static final int DEFAULT_MEMORY_ENTRIES = 1024;
+
+  /** Default size limit of the disk tier. */
+  private static final long DEFAULT_MAX_DISK_BYTES = 64L * 1024 * 1024;
+
+  /** Default lifetime of a disk entry. */
+  private static final Duration DEFAULT_TTL = Duration.ofDays(7);
+
+  /** Directory that holds the disk tier. */
+  private final Path directory;
+
+  /** Size limit of the disk tier. */
+  private final long maxDiskBytes;
+
+  /** Lifetime of a disk entry, measured from its last use. */
+  private final Duration ttl;
+
+  /** The memory tier, in access order. Guarded by itself. */
+  private final LinkedHashMap<String, String> memory;
+
+  /** Approximate size of the disk tier. */
+  private final AtomicLong diskBytes = new AtomicLong();
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Use default limits.
+   * @param directory Directory that holds the disk tier; created if missing.
+   */
+  SummaryCache(Path directory) {
+    this(
+      directory,
+      DEFAULT_MEMORY_ENTRIES,
+      DEFAULT_MAX_DISK_BYTES,
+      DEFAULT_TTL
+    );
+  }
+
+  /**
+   * Open a cache, picking up whatever earlier runs left on disk.
+   * @param directory      Directory that holds the disk tier; created if missing.
+   * @param memoryEntries  Number of entries kept in memory.
+   * @param maxDiskBytes   Size limit of the disk tier.
+   * @param ttl            Lifetime of a disk entry, measured from its last use.
+   */
+  SummaryCache(
+    Path directory,
+    int memoryEntries,
+    long maxDiskBytes,
+    Duration ttl
+  ) {
+    this.directory = directory;
+    this.maxDiskBytes = maxDiskBytes;
+    this.ttl = ttl;
+    this.memory =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+          return this.size() > memoryEntries;
+        }
+      };
+    try {
+      Files.createDirectories(directory);
+      this.diskBytes.set(this.entries().stream().mapToLong(this::size).sum());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Compute the cache key for a summarization.
+   * Whitespace differences don't change the key, since they don't change the article.
+   * @param text      The text to be summarized.
+   * @param model     Name of the model that summarizes it.
+   * @param minLength Minimum summary length passed to the model.
+   * @param maxLength Maximum summary length passed to the model.
+   * @return          A hex-encoded SHA-256 hash.
+   */
+  static String key(String text, String model, int minLength, int maxLength) {
+    String normalized = text.strip().replaceAll("\\s+", " ");
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available", e);
+    }
+    String material = String.join(
+      "\u0000",
+      model,
+      String.valueOf(minLength),
+      String.valueOf(maxLength),
+      normalized
+    );
+    digest.update(material.getBytes(StandardCharsets.UTF_8));
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Look up a summary.
+   * @param key A key from key().
+   * @return    The summary, or null on a miss.
+   */
+  String get(String key) {
+    synchronized (this.memory) {
+      String summary = this.memory.get(key);
+      if (summary != null) {
+        this.memoryHits.incrementAndGet();
+        Metrics.CACHE.inc("summaries", "memory_hit");
+        return summary;
+      }
+    }
+
+    Path file = this.path(key);
+    try {
+      if (Files.exists(file)) {
+        if (this.isExpired(file)) {
+          this.delete(file);
+        } else {
+          String summary = Files.readString(file, StandardCharsets.UTF_8);
+          // The modification time doubles as the last-used time for eviction.
+          Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+          synchronized (this.memory) {
+            this.memory.put(key, summary);
+          }
+          this.diskHits.incrementAndGet();
+          Metrics.CACHE.inc("summaries", "disk_hit");
+          return summary;
+        }
+      }
+    } catch (IOException e) {
+      System.err.format("Could not read cached summary %s: %s%n", file, e);
+    }
+    this.misses.incrementAndGet();
+    Metrics.CACHE.inc("summaries", "miss");
+    return null;
+  }
+
+  /**
+   * Store a summary in both tiers, evicting old disk entries if needed.
+   * @param key     A key from key().
+   * @param summary The summary.
+   */
+  void put(String key, String summary) {
+    synchronized (this.memory) {
+      this.memory.put(key, summary);
+    }
+    Path file = this.path(key);
+    try {
+      Files.createDirectories(file.getParent());
+      Path temp = Files.createTempFile(file.getParent(), key, ".tmp");
+      Files.writeString(temp, summary, StandardCharsets.UTF_8);
+      long previous = Files.exists(file) ? this.size(file) : 0;
+      Files.move(
+        temp,
+        file,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      );
+      this.diskBytes.addAndGet(this.size(file) - previous);
+    } catch (IOException e) {
+      System.err.format("Could not cache summary %s: %s%n", file, e);
+    }
+    if (this.diskBytes.get() > this.maxDiskBytes) {
+      this.evict();
+    }
+  }
+
+  /**
+   * Describe how well the cache has been doing.
+   * @return A one-line summary of the hit and miss counters.
+   */
+  String stats() {
+    return String.format(
+      "%d hits (%d memory, %d disk), %d misses",
+      this.memoryHits.get() + this.diskHits.get(),
+      this.memoryHits.get(),
+      this.diskHits.get(),
+      this.misses.get()
+    );
+  }
+
+  /**
+   * Get the number of lookups answered from memory.
+   * @return The counter value.
+   */
+  long memoryHits() {
+    return this.memoryHits.get();
+  }
+
+  /**
+   * Get the number of lookups answered from disk.
+   * @return The counter value.
+   */
+  long diskHits() {
+    return this.diskHits.get();
+  }
+
+  /**
+   * Get the number of lookups that found nothing.
+   * @return The counter value.
+   */
+  long misses() {
+    return this.misses.get();
+  }
+
+  /** Drop expired disk entries, then least recently used ones until the size limit holds. */
+  private synchronized void evict() {
+    List<Path> files;
+    try {
+      files = this.entries();
+    } catch (IOException e) {
+      System.err.format("Could not list summary cache: %s%n", e);
+      return;
+    }
+    files.sort(Comparator.comparing(this::lastModified));
+    for (Path file : files) {
+      if (this.isExpired(file) || this.diskBytes.get() > this.maxDiskBytes) {
+        this.delete(file);
+      }
+    }
+  }
+
+  /**
+   * Get the disk location of an entry. Entries are spread over subdirectories by hash prefix.
+   * @param key A key from key().
+   * @return    The entry's file.
+   */
+  private Path path(String key) {
+    return this.directory.resolve(key.substring(0, 2)).resolve(key);
+  }
+
+  /**
+   * List every entry currently on disk.
+   * @return The entry files.
+   * @throws IOException If the directory can't be walked.
+   */
+  private List<Path> entries() throws IOException {
+    try (Stream<Path> walk = Files.walk(this.directory, 2)) {
+      return walk
+        .filter(Files::isRegularFile)
+        .filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+        .collect(Collectors.toCollection(ArrayList::new));
+    }
+  }
+
+  /**
+   * Delete an entry from disk and account for the freed space.
+   * @param file The entry's file.
+   */
+  private void delete(Path file) {
+    long size = this.size(file);
+    try {
+      if (Files.deleteIfExists(file)) {
+        this.diskBytes.addAndGet(-size);
+      }
+    } catch (IOException e) {
+      System.err.format("Could not evict cached summary %s: %s%n", file, e);
+    }
+  }
+
+  /**
+   * Check whether an entry has gone unused for longer than the TTL.
+   * @param file An entry's file.
+   * @return     True if expired, false otherwise.
+   */
+  private boolean isExpired(Path file) {
+    return this.lastModified(file).plus(this.ttl).isBefore(Instant.now());
+  }
+
+  /**
+   * Get when an entry was last written or read.
+   * @param file An entry's file.
+   * @return     The time, or the epoch if unknown.
+   */
+  private Instant lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file).toInstant();
+    } catch (IOException e) {
+      return Instant.EPOCH;
+    }
+  }
+
+  /**
+   * Get the size of an entry.
+   * @param file An entry's file.
+   * @return     Its size in bytes, or 0 if unknown.
+   */
+  private long size(Path file) {
+    try {
+      return Files.size(file);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,263 @@
+/**
+ * Provides a summarization stage that runs alongside the scrapers.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Responsible for summarizing scraped items while scraping is still going on.
+ * Scrapers hand over their items through a bounded queue, and a single consumer
+ * thread sends whatever has piled up to the summarizer as one batch. Summaries
+ * are written straight into the item maps they belong to, so every summary
+ * stays attached to its source and URL regardless of arrival order.
+ *
+ * With a Duplicates index, an item whose text is a near-duplicate of one that
+ * was summarized before, e.g. the same wire story from another source, gets
+ * that summary instead of being summarized again, and its "sameStoryAs" value
+ * is set to the other item's URL.
+ */
+class SummaryPipeline {
+  /** Default number of items that may wait for summarization. */
+  private static final int DEFAULT_CAPACITY = 32;
+
+  /** Default upper bound for the number of texts sent to one worker in one request. */
+  private static final int DEFAULT_BATCH_SIZE = 4;
+
+  /** Marks the end of the input. Compared by identity. */
+  private static final Map<String, String> END = new HashMap<>();
+
+  /** Does the actual summarization. */
+  private final Summarizer summarizer;
+
+  /** Items waiting for a summary. */
+  private final BlockingQueue<Map<String, String>> queue;
+
+  /** Upper bound for the number of texts sent in one request. */
+  private final int batchSize;
+
+  /** Stories summarized so far, or null to summarize every item. */
+  private Duplicates duplicates;
+
+  /** Runs the consumer loop. */
+  private final Thread consumer;
+
+  /** The first failure of the consumer, if any. */
+  private volatile RuntimeException failure;
+
+  /**
+   * Use default queue capacity and batch size, scaled up so every worker gets a batch.
+   * @param summarizer Does the actual summarization.
+   */
+  SummaryPipeline(Summarizer summarizer) {
+    this(
+      summarizer,
+      DEFAULT_CAPACITY * summarizer.workers(),
+      DEFAULT_BATCH_SIZE * summarizer.workers()
+    );
+  }
+
+  /**
+   * Set up the stage without starting it.
+   * @param summarizer Does the actual summarization.
+   * @param capacity   Number of items that may wait before submit() blocks.
+   * @param batchSize  Upper bound for the number of texts sent in one request.
+   */
+  SummaryPipeline(Summarizer summarizer, int capacity, int batchSize) {
+    this.summarizer = summarizer;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.batchSize = batchSize;
+    this.consumer = new Thread(this::consume, "summary-pipeline");
+  }
+
+  /**
+   * Answer near-duplicates of stories summarized before with their summaries.
+   * Must be called before start(). The index may be shared with other pipelines.
+   * @param duplicates The stories summarized so far, which gets every new one.
+   */
+  void useDuplicates(Duplicates duplicates) {
+    this.duplicates = duplicates;
+  }
+
+  /** Start the consumer thread. */
+  void start() {
+    this.consumer.start();
+  }
+
+  /**
+   * Queue an item for summarization, waiting if the queue is full.
+   * Its "text" value is replaced with the summary once it's done.
+   * @param item A scraped item, as stored by BaseScraper.
+   */
+  void submit(Map<String, String> item) {
+    try {
+      this.queue.put(item);
+      if (item != END) {
+        Metrics.SUMMARY_QUEUE.add(1);
+      }
+    } catch (InterruptedException e) {
+      System.err.println("Interrupt occurred!");
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Signal that no more items are coming and wait until every queued item is summarized.
+   * @throws SummarizerException If any batch failed; items of failed batches keep their original text.
+   */
+  void finish() {
+    this.submit(END);
+    try {
+      this.consumer.join();
+    } catch (InterruptedException e) {
+      System.err.println("Interrupt occurred!");
+      Thread.currentThread().interrupt();
+    }
+    if (this.failure != null) {
+      throw this.failure;
+    }
+  }
+
+  /** Summarize batches as they arrive until the end marker shows up. */
+  private void consume() {
+    List<Map<String, String>> batch = new ArrayList<>();
+    boolean done = false;
+    while (!done) {
+      try {
+        batch.add(this.queue.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      this.queue.drainTo(batch, this.batchSize - 1);
+      if (batch.get(batch.size() - 1) == END) {
+        batch.remove(batch.size() - 1);
+        done = true;
+      }
+      Metrics.SUMMARY_QUEUE.add(-batch.size());
+      if (!batch.isEmpty() && this.failure == null) {
+        this.summarizeDistinct(batch);
+      }
+      batch.clear();
+    }
+  }
+
+  /**
+   * Summarize a batch, each story only once, and store each summary in its item.
+   * @param batch The items to summarize.
+   */
+  private void summarizeDistinct(List<Map<String, String>> batch) {
+    if (this.duplicates == null) {
+      this.summarizeBatch(batch);
+      return;
+    }
+    List<Map<String, String>> distinct = new ArrayList<>();
+    List<long[]> signatures = new ArrayList<>();
+    // Near-duplicates of an earlier item in this batch, mapped to that item.
+    Map<Map<String, String>, Map<String, String>> copies =
+      new IdentityHashMap<>();
+    for (Map<String, String> item : batch) {
+      long[] signature = Duplicates.signature(item.get("text"));
+      if (signature != null) {
+        Duplicates.Story story = this.duplicates.find(
+          signature,
+          item.get("url")
+        );
+        if (story != null) {
+          item.put("text", story.summary);
+          item.put("sameStoryAs", story.url);
+          Metrics.DUPLICATES.inc();
+          continue;
+        }
+        Map<String, String> same = null;
+        for (int i = 0; i < distinct.size() && same == null; ++i) {
+          if (
+            signatures.get(i) != null &&
+            Duplicates.similarity(signature, signatures.get(i)) >=
+            Duplicates.THRESHOLD
+          ) {
+            same = distinct.get(i);
+          }
+        }
+        if (same != null) {
+          copies.put(item, same);
+          continue;
+        }
+      }
+      distinct.add(item);
+      signatures.add(signature);
+    }
+
+    this.summarizeBatch(distinct);
+    if (this.failure != null) {
+      return;
+    }
+    // Only remembered once summarized, so no text is ever reused as a summary.
+    for (int i = 0; i < distinct.size(); ++i) {
+      Map<String, String> item = distinct.get(i);
+      if (signatures.get(i) != null) {
+        this.duplicates.add(
+          signatures.get(i),
+          item.get("url"),
+          item.get("text")
+        );
+      }
+    }
+    for (Map.Entry<Map<String, String>, Map<String, String>> copy : copies
+      .entrySet()) {
+      copy.getKey().put("text", copy.getValue().get("text"));
+      copy.getKey().put("sameStoryAs", copy.getValue().get("url"));
+      Metrics.DUPLICATES.inc();
+    }
+  }
+
+  /**
+   * Summarize a batch and store each summary in its item.
+   * After a failure, later batches are skipped so the scrapers never block on a full queue.
+   * @param batch The items to summarize.
+   */
+  private void summarizeBatch(List<Map<String, String>> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    List<String> texts = new ArrayList<>();
+    List<Events.SummarizeItem> events = new ArrayList<>();
+    for (Map<String, String> item : batch) {
+      texts.add(item.get("text"));
+      Events.SummarizeItem event = new Events.SummarizeItem();
+      event.begin();
+      events.add(event);
+    }
+    try {
+      long started = System.nanoTime();
+      List<String> summaries = this.summarizer.summarize(texts);
+      long perItem = (System.nanoTime() - started) / batch.size();
+      for (int i = 0; i < batch.size(); ++i) {
+        batch.get(i).put("text", summaries.get(i));
+        Metrics.SUMMARIZE_ITEM.record(perItem);
+        Events.SummarizeItem event = events.get(i);
+        event.end();
+        if (event.shouldCommit()) {
+          event.url = batch.get(i).get("url");
+          event.batchSize = batch.size();
+          event.inputBytes =
+            texts.get(i).getBytes(StandardCharsets.UTF_8).length;
+          event.outputBytes =
+            summaries.get(i).getBytes(StandardCharsets.UTF_8).length;
+          event.commit();
+        }
+      }
+    } catch (RuntimeException e) {
+      Metrics.ERRORS.inc("pipeline", "batch_failed");
+      this.failure = e;
+    }
+  }
+}
@@ -0,0 +1,217 @@
+/**
+ * Provides made-up news sources of any size.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Responsible for generating news sources for a FakeNewsServer to serve, so
+ * scraping throughput can be measured offline, with as many articles as it
+ * takes. Each source has an index page linking to every one of its articles,
+ * and a definition to scrape it with, shaped like the bundled NPR one.
+ *
+ * Pages are generated on request from the URL alone, so they cost no memory,
+ * and the same seed always gives the same pages.
+ */
+class SyntheticNews {
+  /** Words the text is made of. */
+  private static final String[] WORDS = (
+    "the a of to in and said on for that with was is by officials new " +
+    "president state government people year would more after told city " +
+    "court police report week federal percent health million country"
+  ).split(" ");
+
+  /** Number of paragraphs in an article. */
+  private static final int PARAGRAPHS = 12;
+
+  /** Every how many paragraphs a section header appears. */
+  private static final int HEADER_EVERY = 5;
+
+  /** Number of sources. */
+  private final int sources;
+
+  /** Number of articles per source. */
+  private final int articles;
+
+  /** Seeds the text. */
+  private final long seed;
+
+  /**
+   * Describe the sources to generate.
+   * @param sources  Number of sources.
+   * @param articles Number of articles per source.
+   * @param seed     Seeds the text.
+   */
+  SyntheticNews(int sources, int articles, long seed) {
+    this.sources = sources;
+    this.articles = articles;
+    this.seed = seed;
+  }
+
+  /**
+   * Get the definitions to scrape the sources with, for Scraper's constructor.
+   * Their politeness limits are loose, so the server's latency is what paces them.
+   * @return Every source by key, e.g. "synthetic-0".
+   */
+  Map<String, SourceDefinition> sources() {
+    Map<String, SourceDefinition> sources = new LinkedHashMap<>();
+    for (int i = 0; i < this.sources; ++i) {
+      SourceDefinition source = new SourceDefinition();
+      source.key = "synthetic-" + i;
+      source.name = "Synthetic " + i;
+      source.engine = "http";
+      source.politeness = new SourceDefinition.Politeness();
+      source.politeness.secondsBetweenRequests = 0.001;
+      source.politeness.burst = 100;
+      source.politeness.maxInFlight = 16;
+      source.index = new SourceDefinition.Index();
+      source.index.url = "https://" + host(i) + "/";
+      source.index.links = new SourceDefinition.Links();
+      source.index.links.selector = "h2.title > a";
+      source.article = new SourceDefinition.Article();
+      SourceDefinition.Lead lead = new SourceDefinition.Lead();
+      lead.paragraphs = "div#storytext > p";
+      lead.dropMatching = "div#storytext > p > strong";
+      lead.summarize = true;
+      source.article.leads.add(lead);
+      source.validate();
+      sources.put(source.key, source);
+    }
+    return sources;
+  }
+
+  /**
+   * Generate the page at a URL, for FakeNewsServer's constructor.
+   * @param url The page's original URL.
+   * @return    The page, or null if there's none at the URL.
+   */
+  Snapshots.Snapshot page(String url) {
+    URI uri = URI.create(url);
+    int source = this.source(uri.getHost());
+    if (source < 0) {
+      return null;
+    }
+    String path = uri.getPath();
+    if (path.equals("/")) {
+      return html(this.index(source));
+    }
+    if (path.startsWith("/articles/")) {
+      try {
+        int article = Integer.parseInt(path.substring("/articles/".length()));
+        if (article >= 0 && article < this.articles) {
+          return html(this.article(source, article));
+        }
+      } catch (NumberFormatException e) {
+        // Not an article.
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Generate a source's index page.
+   * @param source The source's number.
+   * @return       The page's HTML.
+   */
+  private String index(int source) {
+    Random random = new Random(this.seed * 31 + source);
+    StringBuilder html = new StringBuilder();
+    html.append("<html><head><title>Synthetic ").append(source);
+    html.append("</title></head><body>");
+    for (int i = 0; i < this.articles; ++i) {
+      html.append("<article><h2 class=\"title\"><a href=\"https://");
+      html.append(host(source)).append("/articles/").append(i).append("\">");
+      html.append(sentence(random)).append("</a></h2></article>");
+    }
+    return html.append("</body></html>").toString();
+  }
+
+  /**
+   * Generate an article page, with a bold section header every few paragraphs.
+   * @param source  The source's number.
+   * @param article The article's number.
+   * @return        The page's HTML.
+   */
+  private String article(int source, int article) {
+    Random random = new Random((this.seed * 31 + source) * 1_000_003 + article);
+    StringBuilder html = new StringBuilder();
+    html.append("<html><head><title>").append(sentence(random));
+    html.append("</title></head><body><div id=\"storytext\">");
+    for (int i = 0; i < PARAGRAPHS; ++i) {
+      if (i > 0 && i % HEADER_EVERY == 0) {
+        html.append("<p><strong>").append(sentence(random));
+        html.append("</strong></p>");
+        continue;
+      }
+      html.append("<p>");
+      int sentences = 2 + random.nextInt(3);
+      for (int j = 0; j < sentences; ++j) {
+        html.append(j > 0 ? " " : "").append(sentence(random));
+      }
+      html.append("</p>");
+    }
+    return html.append("</div></body></html>").toString();
+  }
+
+  /**
+   * Get the number of the source a host belongs to.
+   * @param host The host.
+   * @return     The source's number, or -1 if it isn't one of ours.
+   */
+  private int source(String host) {
+    for (int i = 0; i < this.sources; ++i) {
+      if (host(i).equals(host)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Get a source's host.
+   * @param source The source's number.
+   * @return       The host, under the reserved ".test" domain.
+   */
+  private static String host(int source) {
+    return "news-" + source + ".synthetic.test";
+  }
+
+  /**
+   * Make a sentence of about 20 words.
+   * @param random Picks the words.
+   * @return       The sentence, capitalized and ending with a period.
+   */
+  private static String sentence(Random random) {
+    List<String> words = new ArrayList<>();
+    int count = 14 + random.nextInt(12);
+    for (int i = 0; i < count; ++i) {
+      words.add(WORDS[random.nextInt(WORDS.length)]);
+    }
+    String sentence = String.join(" ", words);
+    return (
+      Character.toUpperCase(sentence.charAt(0)) + sentence.substring(1) + "."
+    );
+  }
+
+  /**
+   * Wrap HTML into a page.
+   * @param html The HTML.
+   * @return     A successful response with it.
+   */
+  private static Snapshots.Snapshot html(String html) {
+    return new Snapshots.Snapshot(
+      200,
+      "text/html; charset=utf-8",
+      html.getBytes(StandardCharsets.UTF_8)
+    );
+  }
+}
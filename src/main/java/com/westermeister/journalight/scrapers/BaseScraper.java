@@ -6,28 +6,179 @@
 package com.westermeister.journalight;
 
 import com.microsoft.playwright.*;
+import com.microsoft.playwright.options.WaitUntilState;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
-/** Responsible for hosting utilities for children scrapers. */
+/**
+ * Responsible for hosting utilities for children scrapers.
+ * Pages are loaded either in a browser tab or, for server-rendered sites, with
+ * a plain HTTP request and an in-JVM HTML parser. With the latter, any page whose
+ * request fails or that lacks its ready selector is reloaded in a browser tab.
+ * The browser tab is only opened once a page needs one, so a source read over
+ * HTTP alone never starts a browser.
+ */
 abstract class BaseScraper implements Runnable {
-  /** Used like a browser tab to perform the scraping. */
-  private final Page page;
+  /** Ways of loading pages. */
+  enum Engine {
+    /** A Chromium tab, which runs the page's scripts. */
+    BROWSER,
+    /** A plain HTTP request, falling back to BROWSER where that isn't enough. */
+    HTTP,
+  }
+
+  /**
+   * True once a page has left about:blank, its DOM is parsed, and the selector it takes
+   * matches. Gives up on the selector once the page has fully loaded.
+   */
+  private static final String READY =
+    "sel => location.href !== 'about:blank' && (" +
+    "document.readyState === 'complete' || (document.readyState !== 'loading' &&" +
+    " (!sel || document.querySelector(sel) !== null)))";
+
+  /** How long a page load may take, in milliseconds. */
+  private static final double LOAD_TIMEOUT_MS = 30000;
+
+  /** Opens the browser tab we're given. Other tabs are opened in its context. */
+  private final Supplier<Page> pages;
+
+  /** The browser tab we were given, or null if not opened yet. */
+  private Page home;
+
+  /** The page being scraped. */
+  private WebPage current;
+
+  /** Matches what we're going to read from the current page, or null. */
+  private String ready;
+
+  /** How pages are loaded. */
+  private Engine engine = Engine.BROWSER;
+
+  /** Keeps us polite towards the hosts we visit. Shared with every other scraper. */
+  private final RateLimiter limiter = RateLimiter.shared();
+
+  /** Keeps browser pages from downloading what we never read. */
+  private final RequestFilter filter = new RequestFilter();
+
+  /** Serves scripts and stylesheets to browser pages from disk, if set. */
+  private AssetCache assets;
+
+  /** Loads pages for the HTTP engine. Shared with every other scraper. */
+  private final HttpFetcher fetcher = HttpFetcher.shared();
 
   /** Stores the scraped data. */
   private final List<Map<String, String>> result;
 
+  /** Receives items that need a summary as soon as they're scraped, if set. */
+  private SummaryPipeline pipeline;
+
+  /** What earlier runs scraped, if incremental runs are enabled. */
+  private SeenStore seen;
+
+  /** Name of the source, as in Scraper's results, or null to use the class name. */
+  private String name;
+
+  /** Fingerprint of this run's index page, once unchanged() has computed it. */
+  private String fingerprint;
+
   /**
    * Initialize browser tab to be used for scraping, as well as storage.
    * @param page A page object from a Playwright browser instance.
    */
   BaseScraper(Page page) {
-    this.page = page;
+    this(() -> page);
+    this.current = new BrowserPage(this.home());
+  }
+
+  /**
+   * Initialize storage, and the browser tab to be used for scraping once one is needed.
+   * @param pages Opens a page in a Playwright browser instance. Called at most once.
+   */
+  BaseScraper(Supplier<Page> pages) {
+    this.pages = pages;
     this.result = new ArrayList<>();
   }
 
+  /**
+   * Let scripts from some hosts run in browser pages, because the source needs them to render.
+   * Scripts from any other host are blocked.
+   * @param hostPatterns Host patterns, e.g. "*.npr.org" for npr.org and its subdomains.
+   */
+  void allowScripts(String... hostPatterns) {
+    this.filter.allowScripts(hostPatterns);
+  }
+
+  /**
+   * Choose how pages are loaded from now on.
+   * @param engine The engine to use. BROWSER is the default.
+   */
+  void useEngine(Engine engine) {
+    this.engine = engine;
+  }
+
+  /**
+   * Load the scripts and stylesheets of browser pages from a cache shared across runs.
+   * @param assets The cache, or null to load everything from the network.
+   */
+  void cacheAssets(AssetCache assets) {
+    this.assets = assets;
+    this.filter.useAssetCache(assets);
+  }
+
+  /**
+   * Hand items that need a summary to a pipeline as soon as they're stored.
+   * The pipeline writes each summary back into the stored item.
+   * @param pipeline The summarization stage to feed.
+   */
+  void streamTo(SummaryPipeline pipeline) {
+    this.pipeline = pipeline;
+  }
+
+  /**
+   * Name the source this scraper covers, for the seen-URL store and events.
+   * @param name The source's key in Scraper's results, e.g. "pbs".
+   */
+  void name(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Work for another scraper of the same source, e.g. on an article it forked.
+   * This scraper's items go to the same pipeline and are named after the same source,
+   * but stay in this scraper's output until the owner includes them.
+   * @param owner The scraper that found the work.
+   */
+  void assist(BaseScraper owner) {
+    this.name = owner.name;
+    this.pipeline = owner.pipeline;
+    this.seen = owner.seen;
+    this.cacheAssets(owner.assets);
+  }
+
+  /**
+   * Skip URLs and index pages that earlier runs already scraped.
+   * @param seen What earlier runs scraped, or null to scrape everything.
+   */
+  void remember(SeenStore seen) {
+    this.seen = seen;
+  }
+
+  /**
+   * Record this run's output so the next run can reuse it. Call only after run() succeeded.
+   */
+  void recordRun() {
+    if (this.seen != null && this.fingerprint != null) {
+      this.seen.recordSource(this.source(), this.fingerprint, this.result);
+    }
+  }
+
   /** Run the scraper via a thread and store <= 10 results into the corresponding attribute. */
   public abstract void run();
 
@@ -42,70 +193,171 @@ abstract class BaseScraper implements Runnable {
   }
 
   /**
-   * Move the browser tab to the given URL.
-   * @param url   The URL to move to.
-   * @param delay Number of seconds to wait before the request.
+   * Define how hard we may hit a host, replacing any earlier definition.
+   * @param host                   The host name, e.g. "www.npr.org".
+   * @param secondsBetweenRequests Average number of seconds between requests.
+   * @param burst                  Number of requests that may be made back to back after a quiet period.
+   * @param maxInFlight            Number of pages that may be loading at once.
    */
-  void request(String url, int delay) {
-    try {
-      Thread.sleep(delay * 1000);
-    } catch (InterruptedException e) {}
-    this.page.navigate(url);
+  void politeness(
+    String host,
+    double secondsBetweenRequests,
+    int burst,
+    int maxInFlight
+  ) {
+    this.limiter.define(host, 1 / secondsBetweenRequests, burst, maxInFlight);
   }
 
   /**
-   * Test whether a selector yields any matches.
-   * @param selector The selector to match.
-   * @return         True if exists, false otherwise.
+   * Check whether the current index page lists the same links as last run.
+   * If it does, last run's items become this run's output, and the scraper should stop.
+   * @param links The links the index page lists, in order.
+   * @return      True if nothing changed, false if the index needs scraping.
    */
-  boolean exists(String selector) {
-    ElementHandle result = this.page.querySelector(selector);
-    return result != null;
+  boolean unchanged(List<String> links) {
+    if (this.seen == null) {
+      return false;
+    }
+    this.fingerprint = SeenStore.fingerprint(this.url(), links);
+    List<Map<String, String>> items = this.seen.unchanged(
+      this.source(),
+      this.fingerprint
+    );
+    if (items == null) {
+      return false;
+    }
+    System.out.format(
+      "%s is unchanged since last run, reusing %d items%n",
+      this.source(),
+      items.size()
+    );
+    this.result.addAll(items);
+    return true;
   }
 
   /**
-   * Get the innerText of the first selected element.
-   * @param selector The selector to match.
-   * @return         The innerText.
+   * Load the given URL, waiting until the host's politeness limits allow it.
+   * In a browser, this returns as soon as the DOM is parsed and the selector matches,
+   * without waiting for the load event.
+   * @param url           The URL to move to.
+   * @param readySelector Matches what we're going to read, or null to only wait for the DOM.
    */
-  String getText(String selector) {
-    return this.page.innerText(selector);
+  void request(String url, String readySelector) {
+    this.request(url, readySelector, this.acquire(url));
   }
 
   /**
-   * Get the innerText values of all elements that match the selector.
-   * @param selector The selector to match.
-   * @return         The list of innerText values.
+   * Load the given URL with an in-flight slot for its host that was already claimed.
+   * @param url           The URL to move to.
+   * @param readySelector Matches what we're going to read, or null to only wait for the DOM.
+   * @param permit        The slot, which is released once the page has loaded.
    */
-  List<String> getTextAll(String selector) {
-    List<ElementHandle> elements = this.page.querySelectorAll(selector);
-    List<String> texts = new ArrayList<>();
-    for (ElementHandle element : elements) {
-      texts.add(element.innerText());
+  void request(String url, String readySelector, RateLimiter.Permit permit) {
+    WebPage loaded;
+    try {
+      if (this.engine == Engine.HTTP) {
+        Events.Navigate event = this.startNavigation(url);
+        long started = System.nanoTime();
+        loaded = this.complete(url, this.fetcher.fetch(url), LOAD_TIMEOUT_MS);
+        this.endNavigation(event, started, loaded);
+      } else {
+        this.navigate(this.home(), url, readySelector);
+        loaded = new BrowserPage(this.home());
+      }
+    } finally {
+      permit.release();
     }
-    return texts;
+    this.current = loaded != null ? loaded : this.browse(url, readySelector);
+    this.ready = readySelector;
+  }
+
+  /**
+   * Visit one URL, as a task of its own. What it stores is recorded by recordVisit().
+   * @param url           The URL to visit.
+   * @param readySelector Matches what the parser reads, or null to only wait for the DOM.
+   * @param permit        An in-flight slot for the URL's host that was already claimed.
+   * @param parser        Reads and stores the page.
+   * @return              The items stored from the page.
+   */
+  List<Map<String, String>> visit(
+    String url,
+    String readySelector,
+    RateLimiter.Permit permit,
+    Runnable parser
+  ) {
+    this.request(url, readySelector, permit);
+    parser.run();
+    return this.result;
   }
 
   /**
-   * Get all the links of selected anchor tags.
-   * @param selector A selector for anchor tags.
-   * @return         The list of links.
+   * Remember the items visited from a URL, so the next run can reuse them.
+   * Only the items that are kept and summarized should be recorded, e.g. those
+   * of a hedged visit's winning attempt, not the loser's.
+   * @param url   The URL.
+   * @param items The items stored from it.
    */
-  List<String> getLinkAll(String selector) {
-    List<ElementHandle> linkElements = this.page.querySelectorAll(selector);
-    List<String> links = new ArrayList<>();
-    for (ElementHandle element : linkElements) {
-      links.add(element.getAttribute("href"));
+  void recordVisit(String url, List<Map<String, String>> items) {
+    if (this.seen != null) {
+      this.seen.record(this.source(), url, new ArrayList<>(items));
     }
-    return links;
   }
 
   /**
-   * Return the URL that the page attribute is currently set to.
+   * Look up what an earlier run scraped from a URL.
+   * @param url The URL.
+   * @return    The items scraped from it, or null if it's new or runs aren't incremental.
+   */
+  List<Map<String, String>> previously(String url) {
+    return this.seen != null ? this.seen.lookup(url) : null;
+  }
+
+  /**
+   * Add items scraped elsewhere, e.g. by assisting scrapers, to the output.
+   * @param items The items.
+   */
+  void include(List<Map<String, String>> items) {
+    this.result.addAll(items);
+  }
+
+  /**
+   * Read everything an extraction describes from the page being scraped, all at once.
+   * If the page came over HTTP and lacks the ready selector, it's reloaded in a browser first.
+   * @param extraction What to read.
+   * @return           What was read.
+   */
+  Extraction.Result extract(Extraction extraction) {
+    // Only a page that came over HTTP can be helped by a browser, and a browser
+    // page has already waited for the ready selector, so it isn't checked again.
+    if (
+      this.ready != null &&
+      this.current instanceof HtmlPage &&
+      !this.current.exists(this.ready)
+    ) {
+      this.fallBack(this.ready);
+    }
+    Events.Extract event = new Events.Extract();
+    event.begin();
+    long started = System.nanoTime();
+    Extraction.Result result = this.current.extract(extraction);
+    Metrics.EXTRACTION.since(started, this.source(), engineName(this.current));
+    event.end();
+    if (event.shouldCommit()) {
+      event.source = this.source();
+      event.url = this.current.url();
+      event.engine = engineName(this.current);
+      event.fields = extraction.fields().size();
+      event.commit();
+    }
+    return result;
+  }
+
+  /**
+   * Return the URL of the page being scraped.
    * @return The URL.
    */
   String url() {
-    return this.page.url();
+    return this.current.url();
   }
 
   /**
@@ -119,6 +371,211 @@ abstract class BaseScraper implements Runnable {
     }
   }
 
+  /**
+   * Wait for an HTTP fetch.
+   * @param url       The URL being fetched.
+   * @param fetch     The fetch.
+   * @param timeoutMs How long to wait, or 0 if it's known to be done.
+   * @return          The page, or null if the fetch failed or timed out.
+   */
+  private WebPage complete(
+    String url,
+    CompletableFuture<HtmlPage> fetch,
+    double timeoutMs
+  ) {
+    try {
+      return timeoutMs > 0
+        ? fetch.get((long) timeoutMs, TimeUnit.MILLISECONDS)
+        : fetch.getNow(null);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted while loading " + url);
+    } catch (Exception e) {
+      System.err.format("Could not fetch %s over HTTP: %s%n", url, e);
+      Metrics.ERRORS.inc("scraper", "fetch");
+      fetch.cancel(true);
+      return null;
+    }
+  }
+
+  /**
+   * Reload the current page in a browser tab because an HTTP-loaded copy lacks a selector.
+   * @param selector The selector that didn't match.
+   * @return         The browser's copy of the page, or the current page if it's already one.
+   */
+  private WebPage fallBack(String selector) {
+    if (!(this.current instanceof HtmlPage)) {
+      return this.current;
+    }
+    System.out.format(
+      "Nothing matches %s in %s, retrying with a browser%n",
+      selector,
+      this.current.url()
+    );
+    this.current = this.browse(this.current.url(), selector);
+    return this.current;
+  }
+
+  /**
+   * Load a URL in a browser tab, waiting until the host's politeness limits allow it.
+   * @param url      The URL to load.
+   * @param selector Matches what we're going to read, or null.
+   * @return         The loaded page.
+   */
+  private WebPage browse(String url, String selector) {
+    Page tab = this.home();
+    RateLimiter.Permit permit = this.acquire(url);
+    try {
+      this.navigate(tab, url, selector);
+    } finally {
+      permit.release();
+    }
+    return new BrowserPage(tab);
+  }
+
+  /**
+   * Move a tab to a URL, returning once the DOM is parsed and the selector matches.
+   * A selector that never shows up isn't an error; the queries will just find nothing.
+   * @param tab      The tab.
+   * @param url      The URL.
+   * @param selector Matches what we're going to read, or null.
+   */
+  private void navigate(Page tab, String url, String selector) {
+    Events.Navigate event = this.startNavigation(url);
+    long started = System.nanoTime();
+    Response response = tab.navigate(
+      url,
+      new Page.NavigateOptions()
+        .setWaitUntil(WaitUntilState.DOMCONTENTLOADED)
+        .setTimeout(LOAD_TIMEOUT_MS)
+    );
+    if (response != null) {
+      String length = response.headers().get("content-length");
+      try {
+        event.bytes = length == null ? 0 : Long.parseLong(length);
+      } catch (NumberFormatException e) {
+        // Leave it unknown.
+      }
+    }
+    try {
+      if (selector == null) {
+        return;
+      }
+      tab.waitForFunction(
+        READY,
+        selector,
+        new Page.WaitForFunctionOptions()
+          .setPollingInterval(100)
+          .setTimeout(LOAD_TIMEOUT_MS)
+      );
+    } catch (TimeoutError e) {
+      System.err.format("Gave up waiting for %s in %s%n", selector, url);
+      Metrics.ERRORS.inc("scraper", "ready_timeout");
+    } finally {
+      Metrics.PAGES.inc(this.source(), "browser");
+      Metrics.NAVIGATION.since(started, this.source(), "browser");
+      event.engine = "browser";
+      event.end();
+      event.commit();
+    }
+  }
+
+  /**
+   * Get the browser tab we were given, opening it if this is the first time.
+   * @return The tab.
+   */
+  private Page home() {
+    if (this.home == null) {
+      this.home = this.pages.get();
+      this.filter.install(this.home.context());
+    }
+    return this.home;
+  }
+
+  /**
+   * Start timing a page load.
+   * @param url The page's URL.
+   * @return    The event, to be finished by endNavigation().
+   */
+  private Events.Navigate startNavigation(String url) {
+    Startup.navigating();
+    Events.Navigate event = new Events.Navigate();
+    event.begin();
+    event.source = this.source();
+    event.url = url;
+    return event;
+  }
+
+  /**
+   * Finish timing a page load.
+   * @param event   The event from startNavigation().
+   * @param started When the load started, in System.nanoTime() terms.
+   * @param page    The loaded page, or null if loading failed.
+   */
+  private void endNavigation(
+    Events.Navigate event,
+    long started,
+    WebPage page
+  ) {
+    event.end();
+    if (page != null) {
+      String engine = engineName(page);
+      Metrics.PAGES.inc(this.source(), engine);
+      Metrics.NAVIGATION.since(started, this.source(), engine);
+    }
+    if (event.shouldCommit()) {
+      event.engine = page == null ? "http" : engineName(page);
+      if (page instanceof HtmlPage) {
+        event.bytes = ((HtmlPage) page).bytes();
+      }
+      event.commit();
+    }
+  }
+
+  /**
+   * Name the engine that loaded a page, for events.
+   * @param page The page.
+   * @return     "http" or "browser".
+   */
+  private static String engineName(WebPage page) {
+    return page instanceof HtmlPage ? "http" : "browser";
+  }
+
+  /**
+   * Name this scraper's source for the seen-URL store, events and metrics.
+   * @return The name given to name(), or else the class name.
+   */
+  private String source() {
+    return this.name != null ? this.name : this.getClass().getSimpleName();
+  }
+
+  /**
+   * Wait for the politeness limits of a URL's host.
+   * @param url The URL about to be requested.
+   * @return    A permit to release once the page has loaded.
+   */
+  RateLimiter.Permit acquire(String url) {
+    Events.RateLimit event = new Events.RateLimit();
+    event.begin();
+    long started = System.nanoTime();
+    try {
+      return this.limiter.acquire(url);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException(
+        "Interrupted while waiting to request " + url
+      );
+    } finally {
+      Metrics.RATE_LIMIT_WAIT.since(started, this.source());
+      event.end();
+      if (event.shouldCommit()) {
+        event.source = this.source();
+        event.url = url;
+        event.commit();
+      }
+    }
+  }
+
   /**
    * Store a scraped object into the result.
    * @param text         The scraped text.
@@ -126,10 +583,24 @@ abstract class BaseScraper implements Runnable {
    * @param needsSummary Either "yes" or "no".
    */
   void storeResult(String text, String url, String needsSummary) {
+    Events.Store event = new Events.Store();
+    event.begin();
     Map<String, String> resultItem = new HashMap<>();
     resultItem.put("text", text);
     resultItem.put("url", url);
     resultItem.put("needsSummary", needsSummary);
     this.result.add(resultItem);
+    if (this.pipeline != null && needsSummary.equals("yes")) {
+      this.pipeline.submit(resultItem);
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.source = this.source();
+      event.url = url;
+      event.needsSummary = needsSummary.equals("yes");
+      event.bytes =
+        text == null ? 0 : text.getBytes(StandardCharsets.UTF_8).length;
+      event.commit();
+    }
   }
 }
@@ -0,0 +1,90 @@
+/**
+ * Provides a view of a page loaded by Playwright.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.microsoft.playwright.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** Responsible for querying a live browser tab. */
+class BrowserPage implements WebPage {
+  /** Reads every field of an extraction in the page itself. */
+  private static final String EXTRACT = String.join(
+    "\n",
+    "fields => {",
+    "  const values = {};",
+    "  for (const field of fields) {",
+    "    const all = field.kind === 'TEXTS' || field.kind === 'ATTRIBUTES';",
+    "    const matches = all",
+    "      ? Array.from(document.querySelectorAll(field.selector))",
+    "      : [document.querySelector(field.selector)].filter(match => match);",
+    "    if (field.kind === 'EXISTS') {",
+    "      values[field.name] = matches.length > 0;",
+    "      continue;",
+    "    }",
+    "    const read = matches.map(match =>",
+    "      field.attribute ? match.getAttribute(field.attribute) : match.innerText);",
+    "    values[field.name] = all ? read : read.length > 0 ? read[0] : null;",
+    "  }",
+    "  return values;",
+    "}"
+  );
+
+  /** How long reading a page may take, in milliseconds. */
+  private static final double EXTRACT_TIMEOUT_MS = 5000;
+
+  /** The browser tab. */
+  private final Page page;
+
+  /**
+   * Wrap a browser tab.
+   * @param page A page object from a Playwright browser instance.
+   */
+  BrowserPage(Page page) {
+    this.page = page;
+  }
+
+  /** Implement interface method. */
+  public boolean exists(String selector) {
+    ElementHandle result = this.page.querySelector(selector);
+    if (result == null) {
+      return false;
+    }
+    result.dispose();
+    return true;
+  }
+
+  /**
+   * Implement interface method. Costs three round trips to the browser, however many fields
+   * there are: one to read them, one to fetch what was read, and one to let go of it.
+   * Fails with a TimeoutError if the page is too busy to be read in time.
+   */
+  @SuppressWarnings("unchecked")
+  public Extraction.Result extract(Extraction extraction) {
+    List<Map<String, Object>> fields = new ArrayList<>();
+    for (Extraction.Field field : extraction.fields()) {
+      fields.add(field.toMap());
+    }
+    // Unlike evaluate(), waiting for a function can time out. The values are
+    // truthy, so the first try returns them.
+    JSHandle handle = this.page.waitForFunction(
+      EXTRACT,
+      fields,
+      new Page.WaitForFunctionOptions().setTimeout(EXTRACT_TIMEOUT_MS)
+    );
+    try {
+      return new Extraction.Result((Map<String, Object>) handle.jsonValue());
+    } finally {
+      handle.dispose();
+    }
+  }
+
+  /** Implement interface method. */
+  public String url() {
+    return this.page.url();
+  }
+}
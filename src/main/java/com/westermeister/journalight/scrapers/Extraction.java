@@ -0,0 +1,186 @@
+/**
+ * Provides a declarative description of what to read from a page.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Responsible for describing everything a scraper reads from one page, so it
+ * can all be read at once: in a single round trip to the browser, or a single
+ * pass over parsed HTML. Each field has a name, a selector, and what to read
+ * from the matching elements.
+ */
+class Extraction {
+  /** What a field reads. */
+  enum Kind {
+    /** Text of the first match, or null. */
+    TEXT,
+    /** Text of every match. */
+    TEXTS,
+    /** An attribute of the first match, or null. */
+    ATTRIBUTE,
+    /** An attribute of every match. */
+    ATTRIBUTES,
+    /** Whether anything matches. */
+    EXISTS,
+  }
+
+  /** The fields, in the order they were added. */
+  private final List<Field> fields = new ArrayList<>();
+
+  /**
+   * Read the text of the first element that matches a selector.
+   * @param name     Name to look the value up by.
+   * @param selector The selector to match.
+   * @return         This extraction.
+   */
+  Extraction text(String name, String selector) {
+    return this.add(name, selector, Kind.TEXT, null);
+  }
+
+  /**
+   * Read the text of every element that matches a selector.
+   * @param name     Name to look the values up by.
+   * @param selector The selector to match.
+   * @return         This extraction.
+   */
+  Extraction texts(String name, String selector) {
+    return this.add(name, selector, Kind.TEXTS, null);
+  }
+
+  /**
+   * Read an attribute of the first element that matches a selector, as written in the page.
+   * @param name      Name to look the value up by.
+   * @param selector  The selector to match.
+   * @param attribute The attribute, e.g. "href".
+   * @return          This extraction.
+   */
+  Extraction attribute(String name, String selector, String attribute) {
+    return this.add(name, selector, Kind.ATTRIBUTE, attribute);
+  }
+
+  /**
+   * Read an attribute of every element that matches a selector, as written in the page.
+   * @param name      Name to look the values up by.
+   * @param selector  The selector to match.
+   * @param attribute The attribute, e.g. "href".
+   * @return          This extraction.
+   */
+  Extraction attributes(String name, String selector, String attribute) {
+    return this.add(name, selector, Kind.ATTRIBUTES, attribute);
+  }
+
+  /**
+   * Check whether anything matches a selector.
+   * @param name     Name to look the answer up by.
+   * @param selector The selector to match.
+   * @return         This extraction.
+   */
+  Extraction exists(String name, String selector) {
+    return this.add(name, selector, Kind.EXISTS, null);
+  }
+
+  /**
+   * Get the fields.
+   * @return The fields, in the order they were added.
+   */
+  List<Field> fields() {
+    return Collections.unmodifiableList(this.fields);
+  }
+
+  /**
+   * Add a field.
+   * @param name      Name to look the value up by.
+   * @param selector  The selector to match.
+   * @param kind      What to read.
+   * @param attribute The attribute to read, or null for text.
+   * @return          This extraction.
+   */
+  private Extraction add(
+    String name,
+    String selector,
+    Kind kind,
+    String attribute
+  ) {
+    this.fields.add(new Field(name, selector, kind, attribute));
+    return this;
+  }
+
+  /** One thing to read. */
+  static class Field {
+    final String name;
+    final String selector;
+    final Kind kind;
+    final String attribute;
+
+    Field(String name, String selector, Kind kind, String attribute) {
+      this.name = name;
+      this.selector = selector;
+      this.kind = kind;
+      this.attribute = attribute;
+    }
+
+    /**
+     * Describe the field for the browser, which gets it as a JSON object.
+     * @return The field's properties.
+     */
+    Map<String, Object> toMap() {
+      Map<String, Object> map = new HashMap<>();
+      map.put("name", this.name);
+      map.put("selector", this.selector);
+      map.put("kind", this.kind.name());
+      map.put("attribute", this.attribute);
+      return map;
+    }
+  }
+
+  /** What an extraction read from a page. */
+  static class Result {
+    /** Values by field name: a String or null, a List of Strings, or a Boolean. */
+    private final Map<String, Object> values;
+
+    /**
+     * Wrap extracted values.
+     * @param values Values by field name: a String or null, a List of Strings, or a Boolean.
+     */
+    Result(Map<String, Object> values) {
+      this.values = values;
+    }
+
+    /**
+     * Get the value of a TEXT or ATTRIBUTE field.
+     * @param name The field's name.
+     * @return     The value, or null if nothing matched.
+     */
+    String get(String name) {
+      return (String) this.values.get(name);
+    }
+
+    /**
+     * Get the values of a TEXTS or ATTRIBUTES field.
+     * @param name The field's name.
+     * @return     A modifiable list of the values, which may be empty.
+     */
+    @SuppressWarnings("unchecked")
+    List<String> getAll(String name) {
+      List<String> values = (List<String>) this.values.get(name);
+      return values == null ? new ArrayList<>() : new ArrayList<>(values);
+    }
+
+    /**
+     * Get the answer of an EXISTS field.
+     * @param name The field's name.
+     * @return     True if anything matched, false otherwise.
+     */
+    boolean exists(String name) {
+      return Boolean.TRUE.equals(this.values.get(name));
+    }
+  }
+}
@@ -0,0 +1,401 @@
+/**
+ * Provides a scraper that runs source definitions.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.microsoft.playwright.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Responsible for scraping any source a SourceDefinition describes.
+ * The index page is read in one extraction: teasers are stored as they are, and
+ * links that survive the exclusions are visited. Each article is read in one
+ * extraction as well, with the definition's leads tried in order until one of
+ * them applies.
+ *
+ * run() does it all on one page, one article after the other. Alternatively,
+ * scrapeIndex() reads the index and returns the links, which can then be
+ * scraped as separate tasks with scrapeArticle(), each by a scraper assisting
+ * the one that read the index.
+ */
+class GenericScraper extends BaseScraper {
+  /** The source to scrape. */
+  private final SourceDefinition source;
+
+  /** What we read from the index. */
+  private final Extraction index;
+
+  /** What we read from an article, or null if none are visited. */
+  private final Extraction article;
+
+  /**
+   * Set up the scraper for a source.
+   * @param page   A page object from a Playwright browser instance.
+   * @param source The source to scrape.
+   */
+  GenericScraper(Page page, SourceDefinition source) {
+    this(() -> page, source);
+  }
+
+  /**
+   * Set up the scraper for a source, opening a browser tab only once a page needs one.
+   * @param pages  Opens a page in a Playwright browser instance. Called at most once.
+   * @param source The source to scrape.
+   */
+  GenericScraper(Supplier<Page> pages, SourceDefinition source) {
+    super(pages);
+    this.source = source;
+    this.name(source.key);
+    this.useEngine(source.engine());
+    this.allowScripts(source.scripts.toArray(new String[0]));
+    SourceDefinition.Politeness politeness = source.politeness;
+    if (politeness != null) {
+      this.politeness(
+        source.host(),
+        politeness.secondsBetweenRequests,
+        politeness.burst,
+        politeness.maxInFlight
+      );
+    }
+    this.index = indexExtraction(source.index);
+    this.article = source.article == null
+      ? null
+      : articleExtraction(source.article);
+  }
+
+  /** Implement abstract base class method. */
+  public void run() {
+    // URLs that earlier runs scraped aren't visited again; their items are reused instead.
+    for (String link : this.scrapeIndex()) {
+      List<Map<String, String>> items = this.previously(link);
+      if (items != null) {
+        this.include(items);
+        continue;
+      }
+      int before = this.output().size();
+      this.scrapeArticle(link, this.acquire(link));
+      List<Map<String, String>> output = this.output();
+      this.recordVisit(link, output.subList(before, output.size()));
+    }
+  }
+
+  /**
+   * Read the index page and store its teasers.
+   * @return Links to the articles to visit, which is none if the index is
+   *         unchanged since last run.
+   */
+  List<String> scrapeIndex() {
+    SourceDefinition.Index definition = this.source.index;
+    this.request(definition.url, indexReady(definition));
+    Extraction.Result page = this.extract(this.index);
+
+    // Teasers, if any, come with their text, so they're stored without a visit.
+    List<String> teasers = new ArrayList<>();
+    List<String> teaserLinks = new ArrayList<>();
+    if (definition.teasers != null) {
+      teasers = page.getAll("teasers");
+      teaserLinks = page.getAll("teaserLinks");
+      int count = limit(
+        definition.teasers.links,
+        Math.min(teasers.size(), teaserLinks.size())
+      );
+      this.capArraySize(teasers, count);
+      this.capArraySize(teaserLinks, count);
+      for (int i = teasers.size() - 1; i >= 0; --i) {
+        if (containsAny(teaserLinks.get(i), definition.exclude)) {
+          teasers.remove(i);
+          teaserLinks.remove(i);
+        }
+      }
+    }
+
+    List<String> articleLinks = new ArrayList<>();
+    if (definition.links != null) {
+      articleLinks = page.getAll("links");
+      this.capArraySize(
+        articleLinks,
+        limit(definition.links, articleLinks.size())
+      );
+      // A link's tag, e.g. its section, can rule it out.
+      if (definition.tags != null) {
+        List<String> tags = page.getAll("tags");
+        this.capArraySize(tags, articleLinks.size());
+        for (int i = tags.size() - 1; i >= 0; --i) {
+          if (containsAny(tags.get(i), definition.tags.exclude)) {
+            articleLinks.remove(i);
+          }
+        }
+      }
+      articleLinks.removeIf(link -> containsAny(link, definition.exclude));
+    }
+
+    List<String> indexLinks = new ArrayList<>(teaserLinks);
+    indexLinks.addAll(articleLinks);
+    if (this.unchanged(indexLinks)) {
+      return new ArrayList<>();
+    }
+    for (int i = 0; i < teasers.size(); ++i) {
+      String text = after(teasers.get(i), definition.teasers.after);
+      this.storeResult(text, teaserLinks.get(i), "no");
+    }
+    if (this.article == null || articleLinks.isEmpty()) {
+      return new ArrayList<>();
+    }
+    System.out.format(
+      "Found %d candidates from %s%n",
+      articleLinks.size(),
+      this.source.name
+    );
+    return articleLinks;
+  }
+
+  /**
+   * Visit an article and store its lead.
+   * @param url    The article's URL.
+   * @param permit An in-flight slot for the URL's host that was already claimed.
+   * @return       The items stored from the article.
+   */
+  List<Map<String, String>> scrapeArticle(
+    String url,
+    RateLimiter.Permit permit
+  ) {
+    System.out.format(
+      "Inspecting candidate from %s: %s%n",
+      this.source.name,
+      url
+    );
+    return this.visit(
+      url,
+      articleReady(this.source.article),
+      permit,
+      this::parseArticle
+    );
+  }
+
+  /** Read and store an article's lead. */
+  private void parseArticle() {
+    Map<String, String> lead = readLead(
+      this.source.article,
+      this.extract(this.article)
+    );
+    if (lead != null) {
+      this.storeResult(lead.get("text"), this.url(), lead.get("needsSummary"));
+    }
+  }
+
+  /**
+   * Read an article's lead, using the first of the definition's leads that applies.
+   * @param definition The article's definition.
+   * @param article    What was read from the article, as described by articleExtraction().
+   * @return           The lead's "text" and "needsSummary", or null if the article is skipped.
+   */
+  static Map<String, String> readLead(
+    SourceDefinition.Article definition,
+    Extraction.Result article
+  ) {
+    String title = article.get("title");
+    for (SourceDefinition.Lead lead : definition.leads) {
+      if (lead.when != null && !article.exists("when " + lead.when)) {
+        continue;
+      }
+      List<String> paragraphs = article.getAll("paragraphs " + lead.paragraphs);
+      if (
+        !paragraphs.isEmpty() &&
+        startsWithAny(paragraphs.get(0), lead.dropFirstPrefixes)
+      ) {
+        paragraphs.remove(0);
+      }
+      List<String> headers = lead.dropMatching == null
+        ? List.of()
+        : article.getAll("paragraphs " + lead.dropMatching);
+      paragraphs.removeIf(
+        paragraph ->
+          headers.contains(paragraph) ||
+          startsWithAny(paragraph, lead.dropPrefixes)
+      );
+      if (paragraphs.isEmpty()) {
+        continue;
+      }
+      String text = lead.first
+        ? paragraphs.get(0)
+        : String.join(" ", paragraphs);
+      if (lead.contains != null && !text.contains(lead.contains)) {
+        continue;
+      }
+
+      // This lead applies, so it decides whether the article is kept at all.
+      if (containsAny(text, lead.skipIfContains)) {
+        return null;
+      }
+      text = after(text, lead.after);
+      if (lead.rule != null) {
+        text = LeadRules.get(lead.rule).apply(text, title);
+      }
+      if (text == null || text.isEmpty()) {
+        return null;
+      }
+      Map<String, String> read = new HashMap<>();
+      read.put("text", text);
+      read.put("needsSummary", lead.summarize ? "yes" : "no");
+      return read;
+    }
+    return null;
+  }
+
+  /**
+   * Describe what to read from the index.
+   * @param definition The index's definition.
+   * @return           One field per list of links or teasers.
+   */
+  private static Extraction indexExtraction(
+    SourceDefinition.Index definition
+  ) {
+    Extraction extraction = new Extraction();
+    if (definition.links != null) {
+      extraction.attributes(
+        "links",
+        definition.links.selector,
+        definition.links.attribute
+      );
+    }
+    if (definition.tags != null) {
+      if (definition.tags.attribute == null) {
+        extraction.texts("tags", definition.tags.selector);
+      } else {
+        extraction.attributes(
+          "tags",
+          definition.tags.selector,
+          definition.tags.attribute
+        );
+      }
+    }
+    if (definition.teasers != null) {
+      extraction
+        .texts("teasers", definition.teasers.text)
+        .attributes(
+          "teaserLinks",
+          definition.teasers.links.selector,
+          definition.teasers.links.attribute
+        );
+    }
+    return extraction;
+  }
+
+  /**
+   * Describe what to read from an article. Selectors shared by several leads are read once.
+   * @param definition The article's definition.
+   * @return           The title, plus fields named after each lead's selectors.
+   */
+  static Extraction articleExtraction(
+    SourceDefinition.Article definition
+  ) {
+    Extraction extraction = new Extraction().text("title", "title");
+    Set<String> conditions = new HashSet<>();
+    Set<String> paragraphs = new HashSet<>();
+    for (SourceDefinition.Lead lead : definition.leads) {
+      if (lead.when != null && conditions.add(lead.when)) {
+        extraction.exists("when " + lead.when, lead.when);
+      }
+      if (paragraphs.add(lead.paragraphs)) {
+        extraction.texts("paragraphs " + lead.paragraphs, lead.paragraphs);
+      }
+      if (lead.dropMatching != null && paragraphs.add(lead.dropMatching)) {
+        extraction.texts("paragraphs " + lead.dropMatching, lead.dropMatching);
+      }
+    }
+    return extraction;
+  }
+
+  /**
+   * Get the selector that tells the index is ready to be read.
+   * @param definition The index's definition.
+   * @return           The configured selector, or else that of the first links read.
+   */
+  private static String indexReady(SourceDefinition.Index definition) {
+    if (definition.ready != null) {
+      return definition.ready;
+    }
+    return definition.links != null
+      ? definition.links.selector
+      : definition.teasers.links.selector;
+  }
+
+  /**
+   * Get the selector that tells an article is ready to be read.
+   * @param definition The article's definition.
+   * @return           The configured selector, or else any paragraph selector.
+   */
+  private static String articleReady(SourceDefinition.Article definition) {
+    if (definition.ready != null) {
+      return definition.ready;
+    }
+    Set<String> selectors = new LinkedHashSet<>();
+    for (SourceDefinition.Lead lead : definition.leads) {
+      selectors.add(lead.paragraphs);
+    }
+    return String.join(", ", selectors);
+  }
+
+  /**
+   * Get the number of links to keep.
+   * @param links     The links' definition.
+   * @param available The number of links read.
+   * @return          The configured limit, if any and lower, or else the number read.
+   */
+  private static int limit(SourceDefinition.Links links, int available) {
+    return links.limit > 0 ? Math.min(links.limit, available) : available;
+  }
+
+  /**
+   * Keep what follows a marker.
+   * @param text   The text.
+   * @param marker The marker, or null.
+   * @return       What follows the marker's first occurrence, trimmed, or the
+   *               text as is if there's no marker.
+   */
+  private static String after(String text, String marker) {
+    if (marker == null || !text.contains(marker)) {
+      return text;
+    }
+    return text.substring(text.indexOf(marker) + marker.length()).trim();
+  }
+
+  /**
+   * Check whether a text contains any of some strings.
+   * @param text    The text.
+   * @param needles The strings.
+   * @return        True if any is found.
+   */
+  private static boolean containsAny(String text, List<String> needles) {
+    for (String needle : needles) {
+      if (text.contains(needle)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check whether a text starts with any of some prefixes.
+   * @param text     The text.
+   * @param prefixes The prefixes.
+   * @return         True if any matches.
+   */
+  private static boolean startsWithAny(String text, List<String> prefixes) {
+    for (String prefix : prefixes) {
+      if (text.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Provides a view of a page fetched over plain HTTP.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * Responsible for querying server-rendered HTML without a browser.
+ * Nothing here runs scripts, so content that pages build client-side is missing.
+ */
+class HtmlPage implements WebPage {
+  /** The parsed document. */
+  private final Document document;
+
+  /** The URL the document came from, after redirects. */
+  private final String url;
+
+  /** Size of the document as transferred. */
+  private final long bytes;
+
+  /**
+   * Wrap a parsed document.
+   * @param document The parsed document.
+   * @param url      The URL the document came from, after redirects.
+   * @param bytes    Size of the document as transferred.
+   */
+  HtmlPage(Document document, String url, long bytes) {
+    this.document = document;
+    this.url = url;
+    this.bytes = bytes;
+  }
+
+  /** Implement interface method. */
+  public boolean exists(String selector) {
+    return this.document.selectFirst(selector) != null;
+  }
+
+  /** Implement interface method. */
+  public Extraction.Result extract(Extraction extraction) {
+    Map<String, Object> values = new HashMap<>();
+    for (Extraction.Field field : extraction.fields()) {
+      switch (field.kind) {
+        case EXISTS:
+          values.put(field.name, this.exists(field.selector));
+          break;
+        case TEXT:
+        case ATTRIBUTE:
+          Element element = this.document.selectFirst(field.selector);
+          values.put(
+            field.name,
+            element == null ? null : this.read(element, field)
+          );
+          break;
+        default:
+          List<String> all = new ArrayList<>();
+          for (Element match : this.document.select(field.selector)) {
+            all.add(this.read(match, field));
+          }
+          values.put(field.name, all);
+      }
+    }
+    return new Extraction.Result(values);
+  }
+
+  /** Implement interface method. */
+  public String url() {
+    return this.url;
+  }
+
+  /**
+   * Get the size of the document as transferred.
+   * @return The size in bytes, compressed if it was sent compressed.
+   */
+  long bytes() {
+    return this.bytes;
+  }
+
+  /**
+   * Read a field's value from a matching element.
+   * @param element The element.
+   * @param field   The field.
+   * @return        The element's text, or the attribute as written if the field names one.
+   */
+  private String read(Element element, Extraction.Field field) {
+    if (field.attribute == null) {
+      return element.text();
+    }
+    return element.hasAttr(field.attribute)
+      ? element.attr(field.attribute)
+      : null;
+  }
+}
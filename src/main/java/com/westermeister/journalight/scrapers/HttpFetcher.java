@@ -0,0 +1,149 @@
+/**
+ * Provides a lightweight page loader that doesn't need a browser.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import org.jsoup.Jsoup;
+
+/**
+ * Responsible for fetching and parsing HTML pages over plain HTTP.
+ * One client is shared by all scrapers so connections to a host are reused.
+ * When a run is recorded or replayed, pages go through Replay; the pages it
+ * returns keep their original URLs either way.
+ */
+class HttpFetcher {
+  /** Some sites turn away clients that don't look like a browser. */
+  static final String USER_AGENT =
+    "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/94.0.4595.0 Safari/537.36";
+
+  /** How long a single page may take. */
+  private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+  /** Finds the charset parameter of a Content-Type header. */
+  private static final Pattern CHARSET = Pattern.compile(
+    "charset=\"?([^\";]+)",
+    Pattern.CASE_INSENSITIVE
+  );
+
+  /** The fetcher shared by all scrapers. */
+  private static final HttpFetcher SHARED = new HttpFetcher();
+
+  /** Records what's fetched, and points fetches at a fake news server. */
+  private final Replay replay;
+
+  /** Keeps connections open between requests. */
+  private final HttpClient client = HttpClient
+    .newBuilder()
+    .followRedirects(HttpClient.Redirect.NORMAL)
+    .connectTimeout(Duration.ofSeconds(10))
+    .build();
+
+  /** Use the shared replay, which does nothing unless configured. */
+  HttpFetcher() {
+    this(Replay.shared());
+  }
+
+  /**
+   * Use a replay of our own.
+   * @param replay Records what's fetched, and points fetches at a fake news server.
+   */
+  HttpFetcher(Replay replay) {
+    this.replay = replay;
+  }
+
+  /**
+   * Get the fetcher shared by all scrapers.
+   * @return The shared instance.
+   */
+  static HttpFetcher shared() {
+    return SHARED;
+  }
+
+  /**
+   * Start fetching a page. Parsing happens off the caller's thread.
+   * @param url The page's URL.
+   * @return    The parsed page, or an UncheckedIOException for error statuses.
+   */
+  CompletableFuture<HtmlPage> fetch(String url) {
+    HttpRequest request = HttpRequest
+      .newBuilder(URI.create(this.replay.rewrite(url)))
+      .timeout(TIMEOUT)
+      .header("User-Agent", USER_AGENT)
+      .header("Accept", "text/html,application/xhtml+xml")
+      .header("Accept-Encoding", "gzip")
+      .GET()
+      .build();
+    return this.client.sendAsync(
+        request,
+        HttpResponse.BodyHandlers.ofInputStream()
+      )
+      .thenApply(this::parse);
+  }
+
+  /**
+   * Parse a response into a page.
+   * @param response The response, with its body not yet read.
+   * @return         The parsed page.
+   */
+  private HtmlPage parse(HttpResponse<InputStream> response) {
+    String url = this.replay.original(response.uri().toString());
+    try (InputStream raw = response.body()) {
+      byte[] transferred = raw.readAllBytes();
+      byte[] body = transferred;
+      if (
+        response
+          .headers()
+          .firstValue("Content-Encoding")
+          .orElse("")
+          .equalsIgnoreCase("gzip")
+      ) {
+        try (
+          InputStream gzip = new GZIPInputStream(
+            new ByteArrayInputStream(transferred)
+          )
+        ) {
+          body = gzip.readAllBytes();
+        }
+      }
+      String contentType = response
+        .headers()
+        .firstValue("Content-Type")
+        .orElse(null);
+      // Error responses are recorded too, so replays fail the same way.
+      this.replay.record(url, response.statusCode(), contentType, body);
+      if (response.statusCode() >= 400) {
+        throw new IOException(
+          String.format("HTTP %d for %s", response.statusCode(), url)
+        );
+      }
+      // Without a charset in the header, jsoup looks for a <meta> tag.
+      String charset = null;
+      Matcher matcher = CHARSET.matcher(contentType == null ? "" : contentType);
+      if (matcher.find()) {
+        charset = matcher.group(1);
+      }
+      return new HtmlPage(
+        Jsoup.parse(new ByteArrayInputStream(body), charset, url),
+        url,
+        transferred.length
+      );
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Provides the lead rules source definitions can refer to by name.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import java.text.BreakIterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Responsible for the few ways of reading a lead that selectors and markers
+ * can't express. A source definition names a rule, and GenericScraper applies it
+ * as the last step of reading a lead.
+ */
+final class LeadRules {
+  /** A way of finishing a lead. */
+  interface Rule {
+    /**
+     * Finish a lead.
+     * @param lead  The lead as read so far.
+     * @param title The article's title, or null if it has none.
+     * @return      The finished lead, or null or an empty string to skip the article.
+     */
+    String apply(String lead, String title);
+  }
+
+  /** Every rule, by name. */
+  private static final Map<String, Rule> RULES = Map.of(
+    "news-wrap",
+    LeadRules::newsWrap
+  );
+
+  private LeadRules() {}
+
+  /**
+   * Get a rule.
+   * @param name The rule's name.
+   * @return     The rule.
+   * @throws IllegalArgumentException If there's no such rule.
+   */
+  static Rule get(String name) {
+    Rule rule = RULES.get(name);
+    if (rule == null) {
+      throw new IllegalArgumentException("Unknown lead rule: " + name);
+    }
+    return rule;
+  }
+
+  /**
+   * Read the summary lead of a broadcast transcript, as PBS NewsHour publishes them.
+   * A "news wrap" transcript, which details news highlights, keeps its whole lead.
+   * Any other transcript is an interview, whose lead ends by introducing the guest.
+   * @param lead  The transcript's first paragraph.
+   * @param title The transcript's title.
+   * @return      The lead, or an empty string if it's all introduction.
+   */
+  private static String newsWrap(String lead, String title) {
+    if (title != null && title.startsWith("News Wrap")) {
+      // e.g. replaces "In our news wrap Friday" with "This Friday" for brevity.
+      return lead.replace("In our news wrap", "This");
+    }
+    // If nothing's left after removing the last sentence, the lead was mostly an
+    // introduction and doesn't contain a meaningful news summary.
+    return removeLastSentence(lead);
+  }
+
+  /**
+   * Removes the last sentence of a piece of text.
+   * @param text The text to analyze.
+   * @return     The text, but with the last sentence removed.
+   */
+  private static String removeLastSentence(String text) {
+    BreakIterator boundary = BreakIterator.getSentenceInstance(Locale.US);
+    boundary.setText(text);
+    boundary.last();
+    int start = boundary.previous();
+    return start == BreakIterator.DONE ? "" : text.substring(0, start);
+  }
+}
@@ -0,0 +1,348 @@
+/**
+ * Provides declarative definitions of news sources.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Responsible for describing a news source as data: where its index is, which
+ * links to follow, what to leave out, how to read each article's lead, and how
+ * hard its host may be hit. GenericScraper runs any definition, so adding a
+ * source means adding a definition, not code.
+ *
+ * The bundled sources are read from "sources.json" on the classpath. More can be
+ * added, or bundled ones replaced by key, with a directory of JSON files named by
+ * the system property "journalight.sources", one definition per file.
+ */
+class SourceDefinition {
+  /** Name of the classpath resource with the bundled sources. */
+  private static final String BUNDLED = "/sources.json";
+
+  /** JSON shape of the bundled sources. */
+  private static final Type LIST = new TypeToken<List<SourceDefinition>>() {}
+    .getType();
+
+  private static final Gson GSON = new Gson();
+
+  /** Key of the source's results, e.g. "npr". */
+  String key;
+
+  /** Name shown in the digest, e.g. "NPR". */
+  String name;
+
+  /** How pages are loaded: "browser" or "http". */
+  String engine = "browser";
+
+  /** Host patterns whose scripts may run in browser pages, e.g. "*.npr.org". */
+  List<String> scripts = new ArrayList<>();
+
+  /** How hard the source's host may be hit, or null for no limits. */
+  Politeness politeness;
+
+  /** What to read from the index page. */
+  Index index;
+
+  /** What to read from each article the index links to, or null to visit none. */
+  Article article;
+
+  /**
+   * Load the bundled sources and those from the "journalight.sources" directory.
+   * Invalid files in the directory are reported and skipped.
+   * @return Every source by key, bundled ones first, in the order they're defined.
+   */
+  static Map<String, SourceDefinition> loadAll() {
+    Map<String, SourceDefinition> sources = new LinkedHashMap<>();
+    for (SourceDefinition source : bundled()) {
+      source.validate();
+      sources.put(source.key, source);
+    }
+    String directory = System.getProperty("journalight.sources");
+    if (directory != null) {
+      for (Path file : files(Paths.get(directory))) {
+        try {
+          SourceDefinition source = parse(Files.readString(file));
+          sources.put(source.key, source);
+        } catch (IOException | RuntimeException e) {
+          System.err.format("Ignoring source definition %s: %s%n", file, e);
+        }
+      }
+    }
+    return sources;
+  }
+
+  /**
+   * Parse and validate one definition.
+   * @param json The definition as a JSON object.
+   * @return     The definition.
+   */
+  static SourceDefinition parse(String json) {
+    SourceDefinition source = GSON.fromJson(json, SourceDefinition.class);
+    if (source == null) {
+      throw new IllegalArgumentException("Empty source definition");
+    }
+    source.validate();
+    return source;
+  }
+
+  /**
+   * Get the engine pages are loaded with.
+   * @return The engine.
+   */
+  BaseScraper.Engine engine() {
+    return BaseScraper.Engine.valueOf(this.engine.toUpperCase());
+  }
+
+  /**
+   * Get the host the politeness limits apply to.
+   * @return The configured host, or else the index URL's host.
+   */
+  String host() {
+    if (this.politeness != null && this.politeness.host != null) {
+      return this.politeness.host;
+    }
+    return URI.create(this.index.url).getHost();
+  }
+
+  /**
+   * Check that everything needed to run the definition is there.
+   * @throws IllegalArgumentException If something is missing or unknown.
+   */
+  void validate() {
+    require(
+      this.key != null && !this.key.isBlank(),
+      "Source definition needs a key"
+    );
+    String what = "Source " + this.key;
+    require(this.name != null, what + " needs a name");
+    try {
+      this.engine();
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException(
+        what + " has an unknown engine: " + this.engine
+      );
+    }
+    require(
+      this.index != null && this.index.url != null,
+      what + " needs an index URL"
+    );
+    require(
+      this.index.links != null || this.index.teasers != null,
+      what + " needs index links or teasers"
+    );
+    require(
+      this.index.links == null || this.index.links.selector != null,
+      what + " needs a link selector"
+    );
+    require(
+      this.index.teasers == null ||
+      (this.index.teasers.text != null &&
+        this.index.teasers.links != null &&
+        this.index.teasers.links.selector != null),
+      what + " needs teaser text and link selectors"
+    );
+    require(
+      this.index.tags == null || this.index.tags.selector != null,
+      what + " needs a tag selector"
+    );
+    if (this.article != null) {
+      require(!this.article.leads.isEmpty(), what + " needs article leads");
+      for (Lead lead : this.article.leads) {
+        require(lead.paragraphs != null, what + " needs paragraph selectors");
+        if (lead.rule != null) {
+          LeadRules.get(lead.rule);
+        }
+      }
+    }
+  }
+
+  /**
+   * Fail validation unless a condition holds.
+   * @param condition The condition.
+   * @param message   What's wrong otherwise.
+   */
+  private static void require(boolean condition, String message) {
+    if (!condition) {
+      throw new IllegalArgumentException(message);
+    }
+  }
+
+  /**
+   * Read the bundled sources.
+   * @return The definitions, not yet validated.
+   */
+  private static List<SourceDefinition> bundled() {
+    InputStream stream = SourceDefinition.class.getResourceAsStream(BUNDLED);
+    if (stream == null) {
+      throw new IllegalStateException("Missing resource " + BUNDLED);
+    }
+    try (
+      Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)
+    ) {
+      return GSON.fromJson(reader, LIST);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (JsonParseException e) {
+      throw new IllegalStateException("Malformed resource " + BUNDLED, e);
+    }
+  }
+
+  /**
+   * List the definition files in a directory.
+   * @param directory The directory.
+   * @return          Its JSON files, sorted by name, or none if it can't be read.
+   */
+  private static List<Path> files(Path directory) {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+        .filter(file -> file.toString().endsWith(".json"))
+        .sorted()
+        .collect(Collectors.toList());
+    } catch (IOException e) {
+      System.err.format("Could not read source definitions: %s%n", e);
+      return new ArrayList<>();
+    }
+  }
+
+  /** Limits for the source's host. See RateLimiter. */
+  static class Politeness {
+    /** The host, or null for the index URL's host. */
+    String host;
+
+    /** Average number of seconds between requests. */
+    double secondsBetweenRequests = 1;
+
+    /** Number of requests that may be made back to back after a quiet period. */
+    int burst = 1;
+
+    /** Number of pages that may be loading at once. */
+    int maxInFlight = 1;
+  }
+
+  /** What to read from the index page. */
+  static class Index {
+    /** The index page's URL. */
+    String url;
+
+    /** Matches what we read from the index, or null for the first link selector. */
+    String ready;
+
+    /** Links to the articles to visit, or null to visit none. */
+    Links links;
+
+    /** Teasers whose text is stored as is, without visiting their links, or null. */
+    Teasers teasers;
+
+    /** Drops every link, visited or teased, that contains one of these. */
+    List<String> exclude = new ArrayList<>();
+
+    /** Labels read alongside the links to visit, which can drop them, or null. */
+    Tags tags;
+  }
+
+  /** Links read from a page. */
+  static class Links {
+    /** Matches the link elements. */
+    String selector;
+
+    /** The attribute holding the URL. */
+    String attribute = "href";
+
+    /** Number of links to keep, before any are excluded, or 0 for all. */
+    int limit;
+  }
+
+  /** Items whose text is on the index page itself. */
+  static class Teasers {
+    /** Matches the teaser text elements, one per link. */
+    String text;
+
+    /** The teasers' links. */
+    Links links;
+
+    /** Keep only what follows this marker in a teaser, if present, or null. */
+    String after;
+  }
+
+  /** A label per link, e.g. its section, which can rule the link out. */
+  static class Tags {
+    /** Matches the label elements, one per link, in the same order. */
+    String selector;
+
+    /** The attribute to read, or null for the text. */
+    String attribute;
+
+    /** Drops a link whose label contains one of these. */
+    List<String> exclude = new ArrayList<>();
+  }
+
+  /** What to read from each article. */
+  static class Article {
+    /** Matches what we read from an article, or null for every paragraph selector. */
+    String ready;
+
+    /** Ways of reading the lead, tried in order. The first one that applies wins. */
+    List<Lead> leads = new ArrayList<>();
+  }
+
+  /**
+   * One way of reading an article's lead. Paragraphs are read and filtered, then
+   * either the first one or all of them joined become the lead, which is
+   * checked, trimmed and stored.
+   */
+  static class Lead {
+    /** Applies only if this matches in the article, or always if null. */
+    String when;
+
+    /** Matches the paragraphs. */
+    String paragraphs;
+
+    /** Drops the first paragraph if it starts with one of these, e.g. an editor's note. */
+    List<String> dropFirstPrefixes = new ArrayList<>();
+
+    /** Drops every paragraph starting with one of these. */
+    List<String> dropPrefixes = new ArrayList<>();
+
+    /** Drops paragraphs whose text equals that of an element this matches, or null. */
+    String dropMatching;
+
+    /** Whether the lead is the first paragraph, rather than all of them joined. */
+    boolean first;
+
+    /** Applies only if the lead contains this, or always if null. */
+    String contains;
+
+    /** Skips the whole article if the lead contains one of these. */
+    List<String> skipIfContains = new ArrayList<>();
+
+    /** Keep only what follows this marker in the lead, if present, or null. */
+    String after;
+
+    /** Name of a rule in LeadRules to finish the lead with, or null. */
+    String rule;
+
+    /** Whether the lead is long enough to need a summary. */
+    boolean summarize;
+  }
+}
@@ -0,0 +1,29 @@
+/**
+ * Provides a common view of loaded pages, whichever engine loaded them.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+/** Responsible for answering CSS selector queries against a loaded page. */
+interface WebPage {
+  /**
+   * Test whether a selector yields any matches.
+   * @param selector The selector to match.
+   * @return         True if exists, false otherwise.
+   */
+  boolean exists(String selector);
+
+  /**
+   * Read everything an extraction describes, all at once.
+   * @param extraction What to read.
+   * @return           What was read.
+   */
+  Extraction.Result extract(Extraction extraction);
+
+  /**
+   * Get the URL the page was loaded from, after redirects.
+   * @return The URL.
+   */
+  String url();
+}
@@ -0,0 +1,164 @@
+/**
+ * Tests for the asset cache.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for the AssetCache class. */
+public class AssetCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Serves a few assets with different caching headers. */
+  private HttpServer server;
+
+  /** Number of full responses the server has sent. */
+  private final AtomicInteger downloads = new AtomicInteger();
+
+  @Before
+  public void startServer() throws Exception {
+    this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    this.server.createContext(
+      "/",
+      exchange -> {
+        String path = exchange.getRequestURI().getPath();
+        String cacheControl = path.startsWith("/fresh")
+          ? "public, max-age=3600"
+          : path.startsWith("/secret") ? "no-store" : "no-cache";
+        exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+        exchange.getResponseHeaders().set("ETag", "\"v1\"");
+        exchange.getResponseHeaders().set("Content-Type", "text/javascript");
+        String etag = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if ("\"v1\"".equals(etag)) {
+          exchange.sendResponseHeaders(304, -1);
+          exchange.close();
+          return;
+        }
+        byte[] body = ("// " + path.replaceAll("[0-9]", "")).getBytes(
+          StandardCharsets.UTF_8
+        );
+        this.downloads.incrementAndGet();
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      }
+    );
+    this.server.start();
+  }
+
+  @After
+  public void stopServer() {
+    this.server.stop(0);
+  }
+
+  /** Check that fresh entries are served across instances, and stale ones are revalidated in the background. */
+  @Test
+  public void servesAndRevalidates() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    AssetCache cache = new AssetCache(directory);
+    String fresh = this.url("/fresh.js");
+    String stale = this.url("/stale.js");
+    assertTrue(cache.lookup(fresh) == null);
+    cache.download(fresh).join();
+    cache.download(stale).join();
+    assertTrue(new String(cache.lookup(fresh).body).equals("// /fresh.js"));
+    assertTrue(
+      cache.lookup(fresh).headers.get("content-type").equals("text/javascript")
+    );
+    // The page loads a stale asset itself, while the cache asks whether it changed.
+    assertTrue(cache.lookup(stale) == null);
+    cache.awaitDownloads(Duration.ofSeconds(5));
+    assertTrue(cache.hits() == 2 && cache.revalidations() == 1);
+    assertTrue(cache.misses() == 2 && this.downloads.get() == 2);
+    assertTrue(cache.stats().startsWith("50% hit ratio (2 hits, 2 misses, 1 "));
+    assertTrue(cache.stats().startsWith("0% hit ratio (0 hits, 0 misses, 0 "));
+    cache.save();
+
+    AssetCache reopened = new AssetCache(directory);
+    assertTrue(reopened.lookup(fresh) != null && reopened.hits() == 1);
+    assertTrue(this.downloads.get() == 2);
+  }
+
+  /** Check that uncacheable responses are left out. */
+  @Test
+  public void skipsUncacheable() throws Exception {
+    AssetCache cache = new AssetCache(this.folder.getRoot().toPath());
+    String secret = this.url("/secret.js");
+    cache.download(secret).join();
+    cache.download(secret).join();
+    assertTrue(cache.lookup(secret) == null);
+    assertTrue(this.downloads.get() == 1);
+  }
+
+  /** Check that identical bodies are stored once, and the least recently used entry is evicted. */
+  @Test
+  public void sharesBodiesAndEvicts() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    AssetCache cache = new AssetCache(directory, 30);
+    cache.download(this.url("/fresh1.js")).join();
+    cache.download(this.url("/fresh2.js")).join();
+    assertTrue(blobs(directory) == 1);
+    cache.download(this.url("/fresh-other.js")).join();
+    assertTrue(blobs(directory) == 2);
+    cache.download(this.url("/fresh-another.js")).join();
+    assertTrue(cache.lookup(this.url("/fresh-another.js")) != null);
+    assertTrue(cache.lookup(this.url("/fresh-other.js")) == null);
+    assertTrue(cache.lookup(this.url("/fresh2.js")) == null);
+  }
+
+  /** Check that downloads still running are indexed by save(), and unindexed bodies are deleted. */
+  @Test
+  public void savesBackgroundDownloads() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    AssetCache cache = new AssetCache(directory);
+    String fresh = this.url("/fresh.js");
+    cache.download(fresh);
+    cache.awaitDownloads(Duration.ofSeconds(5));
+    cache.save();
+    Path orphan = directory.resolve("blobs").resolve("ab").resolve("abcdef");
+    Files.createDirectories(orphan.getParent());
+    Files.writeString(orphan, "// gone");
+
+    AssetCache reopened = new AssetCache(directory);
+    assertTrue(reopened.lookup(fresh) != null);
+    assertTrue(!Files.exists(orphan) && blobs(directory) == 1);
+  }
+
+  /**
+   * Build a URL on the test server.
+   * @param path The path.
+   * @return     The URL.
+   */
+  private String url(String path) {
+    return "http://localhost:" + this.server.getAddress().getPort() + path;
+  }
+
+  /**
+   * Count the stored bodies.
+   * @param directory The cache's directory.
+   * @return          The number of body files.
+   */
+  private static long blobs(Path directory) throws Exception {
+    try (Stream<Path> files = Files.walk(directory.resolve("blobs"))) {
+      return files.filter(Files::isRegularFile).count();
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Tests for the BPE tokenizer.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for the BpeTokenizer class. */
+public class BpeTokenizerTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Write a tiny tokenizer, whose vocabulary spells spaces and accents by byte.
+   * @param merges The lines of merges.txt.
+   * @return       The tokenizer.
+   */
+  private BpeTokenizer tokenizer(String... merges) throws IOException {
+    Path directory = this.folder.getRoot().toPath();
+    Files.writeString(
+      directory.resolve("vocab.json"),
+      "{\"<s>\": 0, \"</s>\": 1, \"a\": 2, \"b\": 3, \"c\": 4, \"\u0120\": 5," +
+      " \"ab\": 6, \"\u0120a\": 7, \"\u0120ab\": 8, \"bc\": 9, \"\u00c3\": 10," +
+      " \"\u00a9\": 11, \"\u00c3\u00a9\": 12, \".\": 13}",
+      StandardCharsets.UTF_8
+    );
+    Files.write(
+      directory.resolve("merges.txt"),
+      List.of(merges),
+      StandardCharsets.UTF_8
+    );
+    return new BpeTokenizer(directory);
+  }
+
+  /** Check that text is merged into the vocabulary's tokens and spelled back. */
+  @Test
+  public void roundTrips() throws IOException {
+    BpeTokenizer tokenizer = this.tokenizer(
+      "#version: 0.2",
+      "\u0120 a",
+      "\u0120a b",
+      "a b",
+      "\u00c3 \u00a9"
+    );
+    List<Integer> ids = tokenizer.encode("ab ab c.");
+    assertTrue(ids.equals(List.of(6, 8, 5, 4, 13)));
+    assertTrue(tokenizer.decode(ids).equals("ab ab c."));
+    assertTrue(tokenizer.encode("\u00e9").equals(List.of(12)));
+    assertTrue(tokenizer.decode(List.of(12)).equals("\u00e9"));
+    assertTrue(tokenizer.size() == 14);
+    assertTrue(tokenizer.id("</s>") == 1);
+  }
+
+  /** Check that the lowest ranked merge goes first. */
+  @Test
+  public void mergesByRank() throws IOException {
+    assertTrue(
+      this.tokenizer("a b", "b c").encode("abc").equals(List.of(6, 4))
+    );
+    assertTrue(
+      this.tokenizer("b c", "a b").encode("abc").equals(List.of(2, 9))
+    );
+  }
+
+  /** Check that special tokens are left out of decoded text. */
+  @Test
+  public void skipsSpecialTokens() throws IOException {
+    BpeTokenizer tokenizer = this.tokenizer("a b");
+    assertTrue(tokenizer.decode(List.of(0, 6, 1)).equals("ab"));
+    try {
+      tokenizer.id("<mask>");
+      assertTrue(false);
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("<mask>"));
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * Tests for the browser pool.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/** Tests for the BrowserPool class. */
+public class BrowserPoolTest {
+  /** Check that tasks which never ask for their page don't start a browser. */
+  @Test
+  public void launchesLazily() throws Exception {
+    try (BrowserPool pool = new BrowserPool(2)) {
+      int answer = pool.submitLazily(pages -> 42).get(5, TimeUnit.SECONDS);
+      assertTrue(answer == 42);
+      assertTrue(pool.launches() == 0);
+    }
+  }
+
+  /** Check that sources read over HTTP are scraped without starting a browser. */
+  @Test
+  public void scrapesOverHttpWithoutBrowser() throws Exception {
+    SyntheticNews news = new SyntheticNews(2, 3, 7);
+    try (
+      FakeNewsServer server = new FakeNewsServer(news::page, 7);
+      BrowserPool pool = new BrowserPool(2);
+      Scraper scraper = new Scraper(pool, news.sources())
+    ) {
+      server.start();
+      Replay.shared().replayTo(server.base());
+      Map<String, List<Map<String, String>>> result = scraper.run();
+      assertTrue(result.size() == 2);
+      for (List<Map<String, String>> items : result.values()) {
+        assertTrue(items.size() == 3);
+      }
+      assertTrue(pool.launches() == 0);
+    } finally {
+      Replay.shared().replayTo(null);
+    }
+  }
+}
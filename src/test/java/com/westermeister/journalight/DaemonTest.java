@@ -0,0 +1,183 @@
+/**
+ * Tests for the daemon mode.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for the Daemon class. */
+public class DaemonTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Check that the digest is served from the snapshot and revalidated by ETag. */
+  @Test
+  public void servesPublishedDigest() throws Exception {
+    try (
+      Daemon daemon = new Daemon(
+        null,
+        null,
+        null,
+        Map.of(),
+        new InetSocketAddress("localhost", 0)
+      )
+    ) {
+      daemon.publish(
+        "npr",
+        List.of(Map.of("text", "Short story.", "url", "https://npr.org/1"))
+      );
+      daemon.start();
+      HttpClient client = HttpClient.newHttpClient();
+      URI uri = URI.create(
+        "http://localhost:" + daemon.port() + "/digest.json"
+      );
+      HttpResponse<String> first = client.send(
+        HttpRequest.newBuilder(uri).build(),
+        HttpResponse.BodyHandlers.ofString()
+      );
+      assertTrue(first.statusCode() == 200);
+      assertTrue(first.body().contains("\"npr\":[{\"text\":\"Short story.\""));
+      String etag = first.headers().firstValue("ETag").orElseThrow();
+
+      HttpResponse<String> second = client.send(
+        HttpRequest.newBuilder(uri).header("If-None-Match", etag).build(),
+        HttpResponse.BodyHandlers.ofString()
+      );
+      assertTrue(second.statusCode() == 304);
+
+      daemon.publish("npr", List.of());
+      HttpResponse<String> third = client.send(
+        HttpRequest.newBuilder(uri).header("If-None-Match", etag).build(),
+        HttpResponse.BodyHandlers.ofString()
+      );
+      assertTrue(third.statusCode() == 200);
+
+      HttpResponse<String> missing = client.send(
+        HttpRequest.newBuilder(uri.resolve("/nope")).build(),
+        HttpResponse.BodyHandlers.ofString()
+      );
+      assertTrue(missing.statusCode() == 404);
+
+      HttpResponse<String> metrics = client.send(
+        HttpRequest.newBuilder(uri.resolve("/metrics")).build(),
+        HttpResponse.BodyHandlers.ofString()
+      );
+      assertTrue(metrics.statusCode() == 200);
+      assertTrue(
+        metrics.body().contains("# TYPE journalight_pages_total counter")
+      );
+      assertTrue(metrics.headers().firstValue("ETag").isEmpty());
+    }
+  }
+
+  /** Check that a failed refresh leaves nothing unsummarized to be saved later. */
+  @Test
+  public void discardsFailedRefresh() throws Exception {
+    SeenStore seen = new SeenStore(this.folder.getRoot().toPath());
+    Scraper failing = new Scraper(null, Map.of()) {
+      @Override
+      List<Map<String, String>> run(String source, SummaryPipeline pipeline) {
+        seen.record(
+          source,
+          "https://npr.org/1",
+          List.of(Map.of("text", "Raw article text.", "needsSummary", "yes"))
+        );
+        throw new IllegalStateException("Browser crashed");
+      }
+    };
+    try (
+      Daemon daemon = new Daemon(
+        failing,
+        new ExtractiveSummarizer(),
+        seen,
+        Map.of(),
+        new InetSocketAddress("localhost", 0)
+      )
+    ) {
+      daemon.refresh("npr");
+    }
+    seen.save();
+    assertTrue(seen.lookup("https://npr.org/1") == null);
+    failing.close();
+  }
+
+  /** Check that the search index is served with filters, refusing bad ones. */
+  @Test
+  public void servesSearch() throws Exception {
+    try (
+      SearchIndex index = new SearchIndex(this.folder.getRoot().toPath());
+      Daemon daemon = new Daemon(
+        null,
+        null,
+        null,
+        Map.of(),
+        new InetSocketAddress("localhost", 0)
+      )
+    ) {
+      index.add(
+        "npr",
+        List.of(
+          Map.of("text", "Burn pits bill passes.", "url", "https://npr.org/1")
+        ),
+        Instant.parse("2021-06-07T08:00:00Z")
+      );
+      index.flush();
+      daemon.useIndex(index);
+      daemon.start();
+      HttpClient client = HttpClient.newHttpClient();
+      URI base = URI.create("http://localhost:" + daemon.port());
+
+      URI search = base.resolve(
+        "/search?q=%22burn+pits%22&source=npr&from=2021-06-07"
+      );
+      HttpResponse<String> hits = client.send(
+        HttpRequest.newBuilder(search).build(),
+        HttpResponse.BodyHandlers.ofString()
+      );
+      assertTrue(hits.statusCode() == 200);
+      assertTrue(hits.body().contains("\"url\":\"https://npr.org/1\""));
+      assertTrue(hits.body().contains("\"time\":\"2021-06-07T08:00:00Z\""));
+      assertTrue(hits.headers().firstValue("ETag").isEmpty());
+
+      HttpResponse<String> none = client.send(
+        HttpRequest
+          .newBuilder(base.resolve("/search?q=pits&until=2021-06-07"))
+          .build(),
+        HttpResponse.BodyHandlers.ofString()
+      );
+      assertTrue(none.body().equals("[]"));
+
+      HttpResponse<String> bad = client.send(
+        HttpRequest
+          .newBuilder(base.resolve("/search?q=pits&from=yesterday"))
+          .build(),
+        HttpResponse.BodyHandlers.ofString()
+      );
+      assertTrue(bad.statusCode() == 400);
+    }
+  }
+
+  /** Check that intervals parse with suffixes and as ISO durations. */
+  @Test
+  public void parsesIntervals() {
+    assertTrue(Daemon.parseInterval("90s").equals(Duration.ofSeconds(90)));
+    assertTrue(Daemon.parseInterval("15m").equals(Duration.ofMinutes(15)));
+    assertTrue(Daemon.parseInterval("2h").equals(Duration.ofHours(2)));
+    assertTrue(Daemon.parseInterval("PT10M").equals(Duration.ofMinutes(10)));
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * Tests for near-duplicate story detection.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Tests for the Duplicates class. */
+public class DuplicatesTest {
+  /** A wire story as one outlet ran it. */
+  static final String STORY =
+    "The Senate passed a bill on Thursday that would expand health coverage " +
+    "for veterans exposed to toxic burn pits, sending the measure to the " +
+    "president, who has said he will sign it into law. The vote was 86 to 11 " +
+    "after a week of delays that drew protests from veterans on the Capitol steps.";
+
+  /** The same story as another outlet ran it, with a few words changed. */
+  static final String SAME_STORY =
+    "The Senate on Thursday passed a bill that would expand health coverage " +
+    "for veterans exposed to toxic burn pits, sending the measure to the " +
+    "president, who has said he will sign it into law. The vote was 86 to 11 " +
+    "after a week of delays that drew protests from veterans at the Capitol.";
+
+  /** A different story. */
+  static final String OTHER_STORY =
+    "A wildfire in northern California grew overnight to more than 50,000 " +
+    "acres, forcing thousands of residents to flee as crews struggled with " +
+    "hot, dry winds. Officials said several homes had been destroyed.";
+
+  /** Check that signatures estimate how much texts overlap. */
+  @Test
+  public void estimatesSimilarity() {
+    long[] story = Duplicates.signature(STORY);
+    assertTrue(Duplicates.similarity(story, story) == 1);
+    assertTrue(
+      Duplicates.similarity(story, Duplicates.signature(SAME_STORY)) >=
+      Duplicates.THRESHOLD
+    );
+    assertTrue(
+      Duplicates.similarity(story, Duplicates.signature(OTHER_STORY)) < 0.1
+    );
+    assertTrue(Duplicates.signature("Too short") == null);
+    assertTrue(Duplicates.signature(null) == null);
+  }
+
+  /** Check that a near-duplicate finds the story it duplicates, and nothing else does. */
+  @Test
+  public void findsSameStory() {
+    Duplicates duplicates = new Duplicates();
+    duplicates.add(Duplicates.signature(STORY), "https://a.test/1", "Summary.");
+    Duplicates.Story found = duplicates.find(
+      Duplicates.signature(SAME_STORY),
+      "https://b.test/1"
+    );
+    assertTrue(found != null);
+    assertTrue(found.url.equals("https://a.test/1"));
+    assertTrue(found.summary.equals("Summary."));
+    assertTrue(
+      duplicates.find(Duplicates.signature(OTHER_STORY), "https://b.test/2") ==
+      null
+    );
+  }
+
+  /** Check that the oldest stories are forgotten once there are too many. */
+  @Test
+  public void forgetsOldest() {
+    Duplicates duplicates = new Duplicates(1);
+    duplicates.add(Duplicates.signature(STORY), "https://a.test/1", "One.");
+    duplicates.add(
+      Duplicates.signature(OTHER_STORY),
+      "https://a.test/2",
+      "Two."
+    );
+    assertTrue(duplicates.size() == 1);
+    assertTrue(duplicates.find(Duplicates.signature(STORY), "") == null);
+    assertTrue(duplicates.find(Duplicates.signature(OTHER_STORY), "") != null);
+  }
+
+  /** Check that a story found again at the same URL isn't its own duplicate, and replaces itself. */
+  @Test
+  public void skipsOwnStory() {
+    Duplicates duplicates = new Duplicates();
+    duplicates.add(Duplicates.signature(STORY), "https://a.test/1", "Old.");
+    assertTrue(
+      duplicates.find(Duplicates.signature(SAME_STORY), "https://a.test/1") ==
+      null
+    );
+    duplicates.add(
+      Duplicates.signature(SAME_STORY),
+      "https://a.test/1",
+      "New."
+    );
+    assertTrue(duplicates.size() == 1);
+    Duplicates.Story found = duplicates.find(
+      Duplicates.signature(STORY),
+      "https://b.test/1"
+    );
+    assertTrue(found.summary.equals("New."));
+  }
+}
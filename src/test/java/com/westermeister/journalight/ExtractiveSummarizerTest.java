@@ -0,0 +1,88 @@
+/**
+ * Tests for the extractive summarizer.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/** Tests for the ExtractiveSummarizer class. */
+public class ExtractiveSummarizerTest {
+  /** An article whose first and last sentences are about the same thing as most others. */
+  private static final String ARTICLE = String.join(
+    " ",
+    "The city council approved the new budget for public schools on Tuesday.",
+    "Weather was mild across the region, with light winds in the afternoon.",
+    "The budget gives public schools more money for teachers and buses.",
+    "A local bakery celebrated its fiftieth anniversary with free pastries.",
+    "Teachers said the money for public schools was long overdue.",
+    "Council members will vote on the school budget again next spring."
+  );
+
+  /** Check that summaries fit the length bounds and keep the sentences' order. */
+  @Test
+  public void fitsTweet() {
+    String summary = ExtractiveSummarizer.extract(ARTICLE, 280);
+    assertTrue(summary.length() >= ExtractiveSummarizer.MIN_LENGTH);
+    assertTrue(summary.length() <= ExtractiveSummarizer.MAX_LENGTH);
+    List<String> sentences = ExtractiveSummarizer.sentences(ARTICLE);
+    int last = -1;
+    for (String sentence : ExtractiveSummarizer.sentences(summary)) {
+      int index = sentences.indexOf(sentence);
+      assertTrue(index > last);
+      last = index;
+    }
+  }
+
+  /** Check that sentences sharing the text's topic are picked over asides. */
+  @Test
+  public void picksCentralSentences() {
+    String summary = ExtractiveSummarizer.extract(ARTICLE, 140);
+    assertTrue(summary.contains("public schools"));
+    assertTrue(!summary.contains("bakery"));
+    assertTrue(!summary.contains("Weather"));
+  }
+
+  /** Check that short texts are kept whole and overlong sentences are cut at a word. */
+  @Test
+  public void trims() {
+    assertTrue(ExtractiveSummarizer.extract(" Short. ", 280).equals("Short."));
+    String sentence = String.join(" ", Collections.nCopies(100, "word")) + ".";
+    String cut = ExtractiveSummarizer.extract(sentence, 50);
+    assertTrue(cut.length() <= 50);
+    assertTrue(cut.endsWith("word..."));
+  }
+
+  /** Check that a short best sentence followed by an overlong one doesn't break the cut. */
+  @Test
+  public void fallsBackPastShortSentence() {
+    String overlong = "Officials said more " +
+      String.join(" ", Collections.nCopies(60, "details")) +
+      " today.";
+    String summary = ExtractiveSummarizer.extract("Hi. " + overlong, 280);
+    assertTrue(summary.length() <= 280);
+    assertTrue(summary.startsWith("Officials said more details"));
+    assertTrue(summary.endsWith("details..."));
+  }
+
+  /** Check the interface: one summary per text, in order, from the "textrank" model. */
+  @Test
+  public void summarizesEach() {
+    Summarizer summarizer = new ExtractiveSummarizer();
+    List<String> summaries = summarizer.summarize(
+      Arrays.asList(ARTICLE, "Nothing to cut.", ARTICLE)
+    );
+    assertTrue(summaries.size() == 3);
+    assertTrue(summaries.get(1).equals("Nothing to cut."));
+    assertTrue(summaries.get(0).equals(summaries.get(2)));
+    assertTrue(summarizer.model().equals("textrank"));
+    assertTrue(summarizer.isHealthy());
+    summarizer.close();
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * Tests for the plain HTTP page view.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.jsoup.Jsoup;
+import org.junit.Test;
+
+/** Tests for the HtmlPage class. */
+public class HtmlPageTest {
+
+  /** Check that every kind of extraction field is read, and misses are reported. */
+  @Test
+  public void extracts() {
+    String html =
+      "<h1> Big  <b>news</b> </h1><ul>" +
+      "<li><a href='/a'>One</a></li><li><a href='https://x.org/b'>Two</a></li>" +
+      "</ul>";
+    HtmlPage page = new HtmlPage(
+      Jsoup.parse(html, "https://example.org/"),
+      "https://example.org/",
+      html.length()
+    );
+    Extraction.Result result = page.extract(
+      new Extraction()
+        .exists("heading", "h1")
+        .exists("subheading", "h2")
+        .text("title", "h1")
+        .text("subtitle", "h2")
+        .texts("items", "li a")
+        .attribute("first", "li a", "href")
+        .attributes("links", "li a", "href")
+        .attributes("navigation", "nav a", "href")
+    );
+    assertTrue(result.exists("heading") && !result.exists("subheading"));
+    assertTrue(result.get("title").equals("Big news"));
+    assertTrue(result.get("subtitle") == null);
+    assertTrue(result.getAll("items").equals(List.of("One", "Two")));
+    assertTrue(result.get("first").equals("/a"));
+    assertTrue(result.getAll("links").equals(List.of("/a", "https://x.org/b")));
+    assertTrue(result.getAll("navigation").isEmpty());
+  }
+}
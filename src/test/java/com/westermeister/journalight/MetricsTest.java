@@ -0,0 +1,122 @@
+/**
+ * Tests for the metrics registry.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/** Tests for the Metrics class. */
+public class MetricsTest {
+
+  /** Check that every value falls into a bucket that starts at or below it and ends above it. */
+  @Test
+  public void bucketsValues() {
+    List<Long> values = new ArrayList<>();
+    for (long value = 0; value < 4096; ++value) {
+      values.add(value);
+    }
+    values.add(123_456_789L);
+    values.add((1L << 40) - 1);
+    for (long value : values) {
+      int index = Metrics.Buckets.index(value);
+      assertTrue(Metrics.Buckets.lowest(index) <= value);
+      assertTrue(Metrics.Buckets.lowest(index + 1) > value);
+      // Eight buckets per power of two, so no bucket is wider than 1/8 of its start.
+      long width =
+        Metrics.Buckets.lowest(index + 1) - Metrics.Buckets.lowest(index);
+      assertTrue(width <= Math.max(1, Metrics.Buckets.lowest(index) / 8));
+    }
+  }
+
+  /** Check that quantiles are estimated within a bucket. */
+  @Test
+  public void estimatesQuantiles() {
+    Metrics.Histogram histogram = new Metrics.Histogram(
+      "test_quantile_seconds",
+      "Durations."
+    );
+    for (int millis = 1; millis <= 100; ++millis) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+    assertTrue(histogram.count() == 100);
+    double median = histogram.quantile(0.5);
+    assertTrue(median >= 0.050 && median <= 0.050 * 1.125);
+    double p99 = histogram.quantile(0.99);
+    assertTrue(p99 >= 0.099 && p99 <= 0.099 * 1.125);
+    assertTrue(histogram.quantile(0.5, new String[0]) == median);
+  }
+
+  /** Check that counters and histograms are exported in the Prometheus text format. */
+  @Test
+  public void exportsText() {
+    Metrics.Counter counter = new Metrics.Counter(
+      "test_loads_total",
+      "Loads.",
+      "source"
+    );
+    counter.inc("npr");
+    counter.add(2, "npr");
+    counter.inc("say \"hi\"");
+    Metrics.Histogram histogram = new Metrics.Histogram(
+      "test_load_seconds",
+      "Load times.",
+      "source"
+    );
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(3), "npr");
+    histogram.record(TimeUnit.SECONDS.toNanos(2), "npr");
+
+    String text = Metrics.text();
+    assertTrue(text.contains("# HELP test_loads_total Loads.\n"));
+    assertTrue(text.contains("# TYPE test_loads_total counter\n"));
+    assertTrue(text.contains("test_loads_total{source=\"npr\"} 3\n"));
+    assertTrue(
+      text.contains("test_loads_total{source=\"say \\\"hi\\\"\"} 1\n")
+    );
+    assertTrue(text.contains("# TYPE test_load_seconds histogram\n"));
+    // 3 ms falls below 4.096 ms, 2 s below 2.097152 s.
+    assertTrue(
+      text.contains(
+        "test_load_seconds_bucket{source=\"npr\",le=\"0.002048\"} 0\n"
+      )
+    );
+    assertTrue(
+      text.contains(
+        "test_load_seconds_bucket{source=\"npr\",le=\"0.004096\"} 1\n"
+      )
+    );
+    assertTrue(
+      text.contains(
+        "test_load_seconds_bucket{source=\"npr\",le=\"2.097152\"} 2\n"
+      )
+    );
+    assertTrue(
+      text.contains("test_load_seconds_bucket{source=\"npr\",le=\"+Inf\"} 2\n")
+    );
+    assertTrue(text.contains("test_load_seconds_sum{source=\"npr\"} 2.003\n"));
+    assertTrue(text.contains("test_load_seconds_count{source=\"npr\"} 2\n"));
+  }
+
+  /** Check that a metric refuses the wrong number of labels. */
+  @Test
+  public void checksLabels() {
+    Metrics.Counter counter = new Metrics.Counter(
+      "test_checked_total",
+      "Checked.",
+      "source",
+      "engine"
+    );
+    try {
+      counter.inc("npr");
+      assertTrue(false);
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("takes 2 labels, not 1"));
+    }
+  }
+}
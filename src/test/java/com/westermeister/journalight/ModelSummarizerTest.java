@@ -0,0 +1,144 @@
+/**
+ * Tests for the summarizer bindings.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+/** Tests for the ModelSummarizer class. */
+public class ModelSummarizerTest {
+
+  /** A stand-in worker that "summarizes" by upper-casing and signing with its PID. */
+  private static final String FAKE_WORKER = String.join(
+    "\n",
+    "import json, os, sys",
+    "print(json.dumps({'type': 'ready', 'model': 'fake'}), flush=True)",
+    "for line in sys.stdin:",
+    "    req = json.loads(line)",
+    "    res = {'id': req['id'], 'ok': True}",
+    "    if req['type'] == 'summarize':",
+    "        res['summaries'] = [t.upper() + ' ' + str(os.getpid()) for t in req['texts']]",
+    "    print(json.dumps(res), flush=True)"
+  );
+
+  /** Check that the worker starts, answers pings, and shuts down cleanly. */
+  @Test
+  public void healthCheck() {
+    Summarizer summarizer = new ModelSummarizer();
+    assertTrue(summarizer.isHealthy());
+    assertTrue(summarizer.model().length() > 0);
+    assertTrue(summarizer.summarize(new ArrayList<String>()).isEmpty());
+    summarizer.close();
+  }
+
+  /** Check that summaries work as intended. */
+  @Test
+  public void sanityCheck() {
+    Summarizer summarizer = new ModelSummarizer();
+    List<String> strings = new ArrayList<String>();
+
+    strings.add(
+      "This morning, former President Jonald T. Rump announced that he would be running for re-election in 2024 against the Democratic incumbent, Boe J. Riden. The announcement has startled many Republicans, including Florida Gov. Don ReSanta, who has already announced his campaign. \"Look, I respect Rump,\" Mr. ReSanta was quoted as saying. \"But we just need someone else. The Republican party doesn't need someone who lost to Riden in 2020. If we want to take back the White House, it has to be through someone new.\" Later that day, Mr. Rump spat back, saying \"Stupid loser ReSanta is too afraid to say what he really thinks! He's mad that I'm running because it means that he's gonna get his ass kicked in the primaries! Sad!\" Democrats have also responded to the announcement with surprise. President Riden said in a statement that he was ready to take Rump on, and that he would beat him just like he did in 2020. Other Democrats have been a little more wary, worried that Rump's base would come back in a full force, and possibly lead to another round of violence at Capitol Hill if the election doesn't go Rump's way. Whatever happens, the 2024 election is looking to be the most intense in modern history. MSNABCNN correspondent Machel Raddow reporting."
+    );
+
+    strings.add(
+      "There's a new ice cream shop opening up at 7th Avenue... with a twist! The shop, named \"Political Ice Cream,\" sells ice cream that is politically-themed! You thought the constant campaigning, ads, debates, opinion pieces, etc. weren't enough? No problem! At Political Ice Cream, you can theme your Ice Cream with political toppings, such as \"Blue Wave\" M&Ms, or \"Make America Great Again\" cookie crumbles! Yum, yum! Doesn't that sound delicious? Get yours at 7th Avenue today!"
+    );
+
+    List<String> summaries = summarizer.summarize(strings);
+
+    System.out.println(summaries.get(0));
+    assertTrue(
+      summaries
+        .get(0)
+        .equals(
+          "Former President Jonald T. Rump announced that he would be running for re-election in 2024 against the Democratic incumbent, Boe J. Riden. Florida Gov. Don ReSanta has already announced his campaign. Democrats have also responded with surprise."
+        )
+    );
+
+    assertTrue(
+      summaries
+        .get(1)
+        .equals(
+          "Political Ice Cream is a new ice cream shop opening up at 7th Avenue. The shop, named \"Political Ice Cream,\" sells ice cream that is politically-themed. You can theme your ice cream with political toppings, such as \"Blue Wave\" M&Ms."
+        )
+    );
+  }
+
+  /** Check that texts run through the model together are each summarized, in order. */
+  @Test
+  public void summarizesBatch() {
+    Summarizer summarizer = new ModelSummarizer(1, 2);
+    List<String> summaries = summarizer.summarize(
+      Arrays.asList(
+        "The city council voted on Tuesday to close Main Street to cars " +
+        "every Saturday this summer, turning the downtown strip into a " +
+        "market for farmers and street performers. Shop owners had asked " +
+        "for the change for years, saying weekend traffic kept shoppers " +
+        "away. The first car-free Saturday is planned for June 5, and the " +
+        "council will decide in the fall whether to make the closures " +
+        "permanent.",
+        "A heat wave will bring temperatures above 100 degrees to much of " +
+        "the Pacific Northwest this weekend, forecasters said. Officials " +
+        "urged residents to stay indoors and check on elderly neighbors, " +
+        "and cities opened cooling centers in libraries and schools."
+      )
+    );
+    summarizer.close();
+    assertTrue(summaries.size() == 2);
+    assertTrue(summaries.get(0).contains("Main Street"));
+    assertTrue(summaries.get(1).contains("heat"));
+  }
+
+  /** Check that texts are split between workers longest first, evening out their load. */
+  @Test
+  public void shardsLongestFirst() {
+    List<String> texts = Arrays.asList("aaaa", "b", "cc", "ddd", "eeeee");
+    List<List<Integer>> shards = ModelSummarizer.shard(texts, 2);
+    assertTrue(shards.size() == 2);
+    assertTrue(shards.get(0).equals(Arrays.asList(4, 2, 1)));
+    assertTrue(shards.get(1).equals(Arrays.asList(0, 3)));
+    assertTrue(ModelSummarizer.shard(texts, 10).size() == 5);
+    assertTrue(
+      ModelSummarizer
+        .shard(texts, 1)
+        .get(0)
+        .equals(Arrays.asList(4, 0, 3, 2, 1))
+    );
+  }
+
+  /** Check that a call is split between workers and its summaries come back in order. */
+  @Test
+  public void splitsBetweenWorkers() {
+    Summarizer summarizer = new ModelSummarizer(
+      Arrays.asList("python", "-c", FAKE_WORKER),
+      "fake",
+      Duration.ofSeconds(30),
+      3
+    );
+    assertTrue(summarizer.workers() == 3);
+    List<String> texts = new ArrayList<>();
+    for (int i = 0; i < 7; ++i) {
+      texts.add("article " + "x".repeat(i * 10) + i);
+    }
+    List<String> summaries = summarizer.summarize(texts);
+    Set<String> pids = new HashSet<>();
+    for (int i = 0; i < texts.size(); ++i) {
+      String summary = summaries.get(i);
+      assertTrue(summary.startsWith(texts.get(i).toUpperCase() + " "));
+      pids.add(summary.substring(summary.lastIndexOf(' ') + 1));
+    }
+    assertTrue(pids.size() == 3);
+    summarizer.close();
+  }
+}
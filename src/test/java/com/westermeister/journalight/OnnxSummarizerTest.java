@@ -0,0 +1,134 @@
+/**
+ * Tests for the ONNX summarizer.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for the OnnxSummarizer class. */
+public class OnnxSummarizerTest {
+  private static final int START = 0;
+  private static final int END = 2;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Make scores for one step that favor one token.
+   * @param favorite The token scored highest.
+   * @return         Scores for a vocabulary of 5 tokens.
+   */
+  private static FloatBuffer scores(int favorite) {
+    float[] scores = { 0.1f, 0.2f, 0.3f, 0.4f, 0.5f };
+    scores[favorite] = 9;
+    return FloatBuffer.wrap(scores);
+  }
+
+  /**
+   * Make a summary of some length that never repeats.
+   * @param length Its number of tokens.
+   * @return       The summary, starting as BART's do.
+   */
+  private static List<Integer> summary(int length) {
+    List<Integer> summary = new ArrayList<>(List.of(END, START));
+    while (summary.size() < length) {
+      summary.add(100 + summary.size());
+    }
+    return summary;
+  }
+
+  /** Check that a directory without a model is unhealthy and fails to summarize. */
+  @Test
+  public void reportsMissingModel() {
+    OnnxSummarizer summarizer = new OnnxSummarizer(
+      this.folder.getRoot().toPath(),
+      1
+    );
+    assertTrue(!summarizer.isHealthy());
+    try {
+      summarizer.summarize(List.of("Some text."));
+      assertTrue(false);
+    } catch (SummarizerException e) {
+      assertTrue(e.getMessage().contains("encoder_model.onnx"));
+    }
+    assertTrue(summarizer.model().startsWith("onnx:"));
+    summarizer.close();
+  }
+
+  /** Check that a batch answered by the cache doesn't need the model. */
+  @Test
+  public void answersFromCacheWithoutModel() {
+    OnnxSummarizer summarizer = new OnnxSummarizer(
+      this.folder.getRoot().toPath().resolve("model"),
+      1
+    );
+    SummaryCache cache = new SummaryCache(
+      this.folder.getRoot().toPath().resolve("cache")
+    );
+    cache.put(
+      SummaryCache.key(
+        "Some text.",
+        summarizer.model(),
+        ModelSummarizer.MIN_LENGTH,
+        ModelSummarizer.MAX_LENGTH
+      ),
+      "Text."
+    );
+    summarizer.useCache(cache);
+    List<String> summaries = summarizer.summarize(List.of("Some text."));
+    assertTrue(summaries.equals(List.of("Text.")));
+    try {
+      summarizer.summarize(List.of("Some text.", "Other text."));
+      assertTrue(false);
+    } catch (SummarizerException e) {
+      assertTrue(e.getMessage().contains("encoder_model.onnx"));
+    }
+    summarizer.close();
+  }
+
+  /** Check that summaries start with "<s>" and end within the length bounds. */
+  @Test
+  public void boundsLength() {
+    assertTrue(
+      OnnxSummarizer.next(scores(4), 0, 5, List.of(END), START, END) == START
+    );
+    List<Integer> early = summary(ModelSummarizer.MIN_LENGTH - 1);
+    assertTrue(OnnxSummarizer.next(scores(END), 0, 5, early, START, END) == 4);
+    List<Integer> enough = summary(ModelSummarizer.MIN_LENGTH);
+    assertTrue(
+      OnnxSummarizer.next(scores(END), 0, 5, enough, START, END) == END
+    );
+    List<Integer> full = summary(ModelSummarizer.MAX_LENGTH - 1);
+    assertTrue(OnnxSummarizer.next(scores(3), 0, 5, full, START, END) == END);
+  }
+
+  /** Check that no three tokens in a row are written twice. */
+  @Test
+  public void avoidsRepeats() {
+    List<Integer> summary = summary(ModelSummarizer.MIN_LENGTH);
+    summary.addAll(List.of(3, 4, 1, 3));
+    assertTrue(OnnxSummarizer.repeats(summary).isEmpty());
+    summary.add(4);
+    assertTrue(OnnxSummarizer.repeats(summary).equals(Set.of(1)));
+    assertTrue(OnnxSummarizer.next(scores(1), 0, 5, summary, START, END) == 4);
+  }
+
+  /** Check that summaries are tidied as the Python module tidies them. */
+  @Test
+  public void cleansSummary() {
+    assertTrue(OnnxSummarizer.clean(" Rain falls . ").equals("Rain falls."));
+    assertTrue(
+      OnnxSummarizer.clean("He said \"no\"").equals("He said \"no.\"")
+    );
+  }
+}
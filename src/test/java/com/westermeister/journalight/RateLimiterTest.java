@@ -0,0 +1,70 @@
+/**
+ * Tests for the per-host rate limiter.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Tests for the RateLimiter class. */
+public class RateLimiterTest {
+
+  /** Check that bursts are allowed and then the rate kicks in. */
+  @Test
+  public void tokenBucket() throws Exception {
+    RateLimiter limiter = new RateLimiter();
+    limiter.define("a.example", 10, 2, 10);
+
+    // Two back to back, then the third has to wait about 100ms.
+    assertTrue(limiter.tryAcquire("https://a.example/1") != null);
+    assertTrue(limiter.tryAcquire("https://a.example/2") != null);
+    assertTrue(limiter.tryAcquire("https://a.example/3") == null);
+    assertTrue(limiter.nanosUntilToken("https://a.example/3") > 0);
+
+    long start = System.nanoTime();
+    limiter.acquire("https://a.example/3").release();
+    long waitedMillis = (System.nanoTime() - start) / 1000000;
+    assertTrue(waitedMillis >= 50 && waitedMillis < 1000);
+
+    // Other hosts aren't affected.
+    assertTrue(limiter.tryAcquire("https://b.example/1") != null);
+  }
+
+  /** Check that in-flight slots are enforced and given back. */
+  @Test
+  public void inFlightSlots() {
+    RateLimiter limiter = new RateLimiter();
+    limiter.define("c.example", 1000, 100, 1);
+
+    RateLimiter.Permit first = limiter.tryAcquire("https://c.example/1");
+    assertTrue(first != null);
+    assertTrue(limiter.tryAcquire("https://c.example/2") == null);
+    first.release();
+    first.release();
+    assertTrue(limiter.tryAcquire("https://c.example/2") != null);
+    assertTrue(limiter.tryAcquire("https://c.example/3") == null);
+  }
+
+  /** Check that a later definition replaces an earlier one, even for a host already used. */
+  @Test
+  public void redefinesLimits() {
+    RateLimiter limiter = new RateLimiter();
+    assertTrue(limiter.maxInFlight("https://d.example/1") == Integer.MAX_VALUE);
+    limiter.define("d.example", 1000, 100, 2);
+    assertTrue(limiter.maxInFlight("https://d.example/1") == 2);
+
+    // Defining the same limits again keeps the bucket, and with it the slots taken.
+    RateLimiter.Permit first = limiter.tryAcquire("https://d.example/1");
+    RateLimiter.Permit second = limiter.tryAcquire("https://d.example/2");
+    assertTrue(first != null && second != null);
+    limiter.define("d.example", 1000, 100, 2);
+    assertTrue(limiter.tryAcquire("https://d.example/3") == null);
+
+    limiter.define("d.example", 1000, 100, 3);
+    assertTrue(limiter.maxInFlight("https://d.example/1") == 3);
+    assertTrue(limiter.tryAcquire("https://d.example/3") != null);
+  }
+}
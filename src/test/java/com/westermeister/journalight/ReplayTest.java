@@ -0,0 +1,140 @@
+/**
+ * Tests for recording and replaying runs.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for the Replay class, with a FakeNewsServer serving SyntheticNews. */
+public class ReplayTest {
+  private static final String INDEX = "https://news-1.synthetic.test/";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Generates two sources of three articles each. */
+  private final SyntheticNews news = new SyntheticNews(2, 3, 7);
+
+  /** Serves the generated sources. */
+  private FakeNewsServer server;
+
+  @Before
+  public void startServer() throws Exception {
+    this.server = new FakeNewsServer(this.news::page, 7);
+    this.server.start();
+  }
+
+  @After
+  public void stopServer() {
+    this.server.close();
+  }
+
+  /** Check that URLs survive being turned into a server path and back. */
+  @Test
+  public void encodesUrls() {
+    for (
+      String url : List.of(
+        "https://www.npr.org/",
+        "https://www.npr.org/sections/news/",
+        "http://example.org:8080/a/b?page=2&q=x%20y"
+      )
+    ) {
+      assertTrue(Replay.decode(Replay.encode(url)).equals(url));
+    }
+    assertTrue(
+      Replay.encode("https://example.org").equals("/https/example.org/")
+    );
+    assertTrue(Replay.encode("/relative") == null);
+    assertTrue(Replay.decode("/favicon.ico") == null);
+  }
+
+  /** Check that replayed pages are fetched from the server but keep their original URL. */
+  @Test
+  public void replaysFromServer() throws Exception {
+    Replay replay = new Replay(null);
+    replay.replayTo(this.server.base());
+    HttpFetcher fetcher = new HttpFetcher(replay);
+
+    HtmlPage index = fetcher.fetch(INDEX).get(5, TimeUnit.SECONDS);
+    assertTrue(index.url().equals(INDEX));
+    List<String> links = index
+      .extract(new Extraction().attributes("links", "h2.title > a", "href"))
+      .getAll("links");
+    assertTrue(links.size() == 3);
+    assertTrue(links.get(2).equals(INDEX + "articles/2"));
+
+    HtmlPage article = fetcher.fetch(links.get(0)).get(5, TimeUnit.SECONDS);
+    assertTrue(article.url().equals(links.get(0)));
+    assertTrue(article.exists("div#storytext > p > strong"));
+    assertTrue(this.server.requests() == 2);
+  }
+
+  /** Check that a recorded run can be replayed from its snapshots alone. */
+  @Test
+  public void replaysRecording() throws Exception {
+    Snapshots snapshots = new Snapshots(this.folder.getRoot().toPath());
+    Replay recording = new Replay(snapshots);
+    recording.replayTo(this.server.base());
+    HtmlPage recorded = new HttpFetcher(recording)
+      .fetch(INDEX)
+      .get(5, TimeUnit.SECONDS);
+    recording.save();
+
+    try (
+      FakeNewsServer replayed = new FakeNewsServer(
+        new Snapshots(this.folder.getRoot().toPath())::get,
+        0
+      )
+    ) {
+      replayed.start();
+      Replay replay = new Replay(null);
+      replay.replayTo(replayed.base());
+      HttpFetcher fetcher = new HttpFetcher(replay);
+      HtmlPage page = fetcher.fetch(INDEX).get(5, TimeUnit.SECONDS);
+      assertTrue(page.url().equals(INDEX));
+      assertTrue(page.bytes() == recorded.bytes());
+      // Only what was recorded can be replayed.
+      try {
+        fetcher.fetch(INDEX + "articles/0").get(5, TimeUnit.SECONDS);
+        assertTrue(false);
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause().getMessage().contains("HTTP 404"));
+      }
+    }
+  }
+
+  /** Check that the server delays and fails responses as configured. */
+  @Test
+  public void injectsLatencyAndFailures() throws Exception {
+    Replay replay = new Replay(null);
+    replay.replayTo(this.server.base());
+    HttpFetcher fetcher = new HttpFetcher(replay);
+
+    this.server.latency(Duration.ofMillis(200), Duration.ofMillis(50));
+    long start = System.nanoTime();
+    fetcher.fetch(INDEX).get(5, TimeUnit.SECONDS);
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+
+    this.server.latency(Duration.ZERO, Duration.ZERO);
+    this.server.failures(1);
+    try {
+      fetcher.fetch(INDEX).get(5, TimeUnit.SECONDS);
+      assertTrue(false);
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause().getMessage().contains("HTTP 503"));
+    }
+    assertTrue(this.server.stats().equals("2 requests, 1 failed on purpose"));
+  }
+}
@@ -0,0 +1,30 @@
+/**
+ * Tests for the request filter.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Tests for the RequestFilter class. */
+public class RequestFilterTest {
+
+  /** Check blocking by type, by host, and of scripts off the allow-list. */
+  @Test
+  public void blocks() {
+    RequestFilter filter = new RequestFilter();
+    filter.allowScripts("*.npr.org");
+    assertTrue(!filter.blocks("document", "https://www.npr.org/"));
+    assertTrue(!filter.blocks("stylesheet", "https://www.npr.org/a.css"));
+    assertTrue(filter.blocks("image", "https://media.npr.org/a.jpg"));
+    assertTrue(filter.blocks("font", "https://fonts.example.com/a.woff2"));
+    assertTrue(!filter.blocks("script", "https://npr.org/app.js"));
+    assertTrue(!filter.blocks("script", "https://www.npr.org/app.js"));
+    assertTrue(filter.blocks("script", "https://cdn.example.com/app.js"));
+    assertTrue(filter.blocks("xhr", "https://stats.g.doubleclick.net/collect"));
+    assertTrue(!filter.blocks("xhr", "https://api.npr.org/stories"));
+  }
+}
@@ -0,0 +1,213 @@
+/**
+ * Tests for the run archive.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for the RunArchive class. */
+public class RunArchiveTest {
+  /** When the first run in these tests started. */
+  private static final Instant FIRST_RUN = Instant.parse(
+    "2021-06-07T08:00:00Z"
+  );
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Get when a run started, runs being an hour apart as the daemon's are.
+   * @param run The run's number, counting from 0.
+   * @return    When it started.
+   */
+  private static Instant run(int run) {
+    return FIRST_RUN.plus(Duration.ofHours(run));
+  }
+
+  /**
+   * Make one source's items, one per article page.
+   * @param host  The source's host, e.g. "npr.test".
+   * @param pages The pages' numbers, which make up their URLs and texts.
+   * @return      The items, in the order given.
+   */
+  private static List<Map<String, String>> pages(String host, int... pages) {
+    List<Map<String, String>> items = new ArrayList<>();
+    for (int page : pages) {
+      items.add(
+        Map.of(
+          "url",
+          "https://" + host + "/" + page,
+          "text",
+          "Story " + page + " from " + host + ".",
+          "needsSummary",
+          "yes"
+        )
+      );
+    }
+    return items;
+  }
+
+  /** Check that time ranges find the runs in them, and digests keep each item once. */
+  @Test
+  public void readsTimeRanges() {
+    Path directory = this.folder.getRoot().toPath();
+    try (RunArchive archive = new RunArchive(directory)) {
+      archive.append(
+        Map.of("npr", pages("npr.test", 1), "ap", pages("ap.test", 1)),
+        run(0)
+      );
+      archive.append("npr", pages("npr.test", 2, 1), run(1));
+      archive.append("npr", pages("npr.test", 3), run(2));
+      assertTrue(archive.runs(null, null).size() == 3);
+      assertTrue(archive.runs(run(1), run(2)).equals(List.of(run(1))));
+
+      Map<String, List<Map<String, String>>> digest = archive.digest(
+        run(0),
+        run(2)
+      );
+      assertTrue(digest.get("npr").size() == 2);
+      assertTrue(
+        digest.get("npr").get(0).get("url").equals("https://npr.test/1")
+      );
+      assertTrue(digest.get("npr").get(0).get("needsSummary").equals("yes"));
+      assertTrue(digest.get("ap").size() == 1);
+      assertTrue(archive.digest(run(2), null).get("npr").size() == 1);
+      assertTrue(archive.run(run(1)).get("npr").size() == 2);
+      assertTrue(!archive.run(run(1)).containsKey("ap"));
+    }
+  }
+
+  /** Check that runs spanning several blocks come back whole and in order, after reopening. */
+  @Test
+  public void persistsBlocks() {
+    Path directory = this.folder.getRoot().toPath();
+    int[] numbers = new int[5000];
+    for (int i = 0; i < numbers.length; ++i) {
+      numbers[i] = i;
+    }
+    List<Map<String, String>> items = pages("npr.test", numbers);
+    try (RunArchive archive = new RunArchive(directory)) {
+      archive.append("npr", items, run(0));
+    }
+    try (RunArchive archive = new RunArchive(directory)) {
+      List<String> urls = new ArrayList<>();
+      archive.scan(null, null, record -> urls.add(record.url()));
+      assertTrue(urls.size() == 5000);
+      assertTrue(urls.get(0).equals("https://npr.test/0"));
+      assertTrue(urls.get(4999).equals("https://npr.test/4999"));
+    }
+  }
+
+  /** Check that times never go backwards, so the index stays sorted. */
+  @Test
+  public void keepsTimesInOrder() {
+    Path directory = this.folder.getRoot().toPath();
+    try (RunArchive archive = new RunArchive(directory)) {
+      archive.append("npr", pages("npr.test", 1), run(1));
+      Instant archived = archive.append("npr", pages("npr.test", 2), run(0));
+      assertTrue(archived.equals(run(1)));
+      assertTrue(archive.runs(run(1), null).size() == 1);
+    }
+  }
+
+  /** Check that a block cut short by a crash is dropped, and the archive is appended to after it. */
+  @Test
+  public void recoversFromCrash() throws IOException {
+    Path directory = this.folder.getRoot().toPath();
+    try (RunArchive archive = new RunArchive(directory)) {
+      archive.append("npr", pages("npr.test", 1), run(0));
+      archive.append("npr", pages("npr.test", 2), run(1));
+    }
+    try (
+      FileChannel log = FileChannel.open(
+        directory.resolve("runs.log"),
+        StandardOpenOption.WRITE
+      )
+    ) {
+      log.truncate(log.size() - 3);
+    }
+    try (RunArchive archive = new RunArchive(directory)) {
+      assertTrue(archive.runs(null, null).equals(List.of(run(0))));
+      archive.append("npr", pages("npr.test", 3), run(2));
+      AtomicInteger count = new AtomicInteger();
+      archive.scan(null, null, record -> count.incrementAndGet());
+      assertTrue(count.get() == 2);
+    }
+  }
+
+  /** Check that readers leave a writer's half-written block alone, and writers take up each other's. */
+  @Test
+  public void sharesWithOtherProcesses() throws IOException {
+    Path directory = this.folder.getRoot().toPath();
+    try (
+      RunArchive daemon = new RunArchive(directory);
+      RunArchive other = new RunArchive(directory)
+    ) {
+      daemon.append("npr", pages("npr.test", 1), run(0));
+      long size;
+      try (
+        FileChannel log = FileChannel.open(
+          directory.resolve("runs.log"),
+          StandardOpenOption.WRITE
+        )
+      ) {
+        // The daemon's next block, written to the log but not indexed yet.
+        log.write(ByteBuffer.wrap(new byte[100]), log.size());
+        size = log.size();
+      }
+      try (RunArchive reader = new RunArchive(directory, true)) {
+        assertTrue(reader.runs(null, null).equals(List.of(run(0))));
+      }
+      assertTrue(directory.resolve("runs.log").toFile().length() == size);
+
+      other.append("ap", pages("ap.test", 1), run(1));
+      daemon.append("npr", pages("npr.test", 2), run(2));
+      assertTrue(daemon.runs(null, null).size() == 3);
+      assertTrue(other.run(run(1)).get("ap").size() == 1);
+    }
+    try (RunArchive reader = new RunArchive(directory, true)) {
+      AtomicInteger count = new AtomicInteger();
+      reader.scan(null, null, record -> count.incrementAndGet());
+      assertTrue(count.get() == 3);
+    }
+  }
+
+  /** Check that each source's latest run is compared with its run before. */
+  @Test
+  public void diffsRuns() {
+    Path directory = this.folder.getRoot().toPath();
+    try (RunArchive archive = new RunArchive(directory)) {
+      archive.append("npr", pages("npr.test", 1, 2), run(0));
+      archive.append("ap", pages("ap.test", 1), run(0));
+      archive.append("npr", pages("npr.test", 2, 3), run(1));
+      Map<String, List<Map<String, String>>> changes = archive.changes(
+        Set.of("npr", "ap")
+      );
+      List<Map<String, String>> npr = changes.get("npr");
+      assertTrue(npr.size() == 2);
+      assertTrue(npr.get(0).get("url").equals("https://npr.test/3"));
+      assertTrue(npr.get(0).get("change").equals("added"));
+      assertTrue(npr.get(1).get("url").equals("https://npr.test/1"));
+      assertTrue(npr.get(1).get("change").equals("removed"));
+      assertTrue(!changes.containsKey("ap"));
+    }
+  }
+}
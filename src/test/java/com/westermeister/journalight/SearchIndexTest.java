@@ -0,0 +1,189 @@
+/**
+ * Tests for the full-text index.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for the SearchIndex and IndexSegment classes. */
+public class SearchIndexTest {
+  private static final Instant MONDAY = Instant.parse("2021-06-07T08:00:00Z");
+  private static final Instant TUESDAY = Instant.parse("2021-06-08T08:00:00Z");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Make an item as stored by BaseScraper.
+   * @param url  Where it was found.
+   * @param text Its text.
+   * @return     The item.
+   */
+  private static Map<String, String> item(String url, String text) {
+    return Map.of("url", url, "text", text, "needsSummary", "no");
+  }
+
+  /**
+   * Count the hits of a query over every source and time.
+   * @param index The index.
+   * @param query The query.
+   * @return      The number of hits, up to 10.
+   */
+  private static int count(SearchIndex index, String query) {
+    return index.search(query, null, null, null, 10).size();
+  }
+
+  /** Check that words, phrases, sources and times all narrow the hits down. */
+  @Test
+  public void findsItems() {
+    Path directory = this.folder.getRoot().toPath();
+    try (SearchIndex index = new SearchIndex(directory)) {
+      index.add(
+        "npr",
+        List.of(
+          item("https://npr.test/1", "The Senate passed the burn pits bill."),
+          item("https://npr.test/2", "Wildfire smoke drifts over the city.")
+        ),
+        MONDAY
+      );
+      index.flush();
+      index.add(
+        "pbs",
+        List.of(
+          item(
+            "https://pbs.test/1",
+            "Veterans cheered as the Senate passed it."
+          )
+        ),
+        TUESDAY
+      );
+      index.flush();
+
+      List<SearchIndex.Hit> senate = index.search(
+        "senate",
+        null,
+        null,
+        null,
+        10
+      );
+      assertTrue(senate.size() == 2);
+      // Newest first.
+      assertTrue(senate.get(0).url.equals("https://pbs.test/1"));
+      assertTrue(senate.get(0).source.equals("pbs"));
+      assertTrue(senate.get(0).time.equals(TUESDAY));
+      assertTrue(
+        senate.get(1).text.equals("The Senate passed the burn pits bill.")
+      );
+
+      assertTrue(count(index, "Senate PASSED") == 2);
+      assertTrue(count(index, "\"senate passed\"") == 2);
+      assertTrue(count(index, "\"passed senate\"") == 0);
+      assertTrue(count(index, "\"burn pits\" senate") == 1);
+      assertTrue(index.search("senate", "npr", null, null, 10).size() == 1);
+      assertTrue(index.search("", "npr", null, null, 10).size() == 2);
+      assertTrue(index.search("senate", null, TUESDAY, null, 10).size() == 1);
+      assertTrue(index.search("senate", null, null, TUESDAY, 10).size() == 1);
+      assertTrue(index.search("senate", null, null, null, 1).size() == 1);
+      assertTrue(count(index, "hurricane") == 0);
+      assertTrue(count(index, null) == 3);
+    }
+  }
+
+  /** Check that the index survives a restart and never takes an item twice. */
+  @Test
+  public void persists() {
+    Path directory = this.folder.getRoot().toPath();
+    Map<String, String> item = item(
+      "https://npr.test/1",
+      "Burn pits bill passes."
+    );
+    try (SearchIndex index = new SearchIndex(directory)) {
+      index.add("npr", List.of(item, item), MONDAY);
+    }
+    try (SearchIndex index = new SearchIndex(directory)) {
+      assertTrue(index.size() == 1);
+      index.add("npr", List.of(item), TUESDAY);
+      index.flush();
+      assertTrue(index.size() == 1);
+      List<SearchIndex.Hit> hits = index.search("pits", null, null, null, 10);
+      assertTrue(hits.size() == 1);
+      assertTrue(hits.get(0).time.equals(MONDAY));
+    }
+  }
+
+  /** Check that small segments are merged in the background, keeping every item. */
+  @Test
+  public void mergesSegments() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    try (SearchIndex index = new SearchIndex(directory)) {
+      for (int i = 0; i < 8; ++i) {
+        index.add(
+          "npr",
+          List.of(
+            item("https://npr.test/" + i, "Story number " + i + " today.")
+          ),
+          MONDAY.plusSeconds(i)
+        );
+        index.flush();
+      }
+    }
+    try (SearchIndex index = new SearchIndex(directory)) {
+      assertTrue(index.segments() == 1);
+      assertTrue(index.size() == 8);
+      List<SearchIndex.Hit> hits = index.search("story", null, null, null, 10);
+      assertTrue(hits.size() == 8);
+      assertTrue(hits.get(0).url.equals("https://npr.test/7"));
+      assertTrue(count(index, "\"number 3\" today") == 1);
+    }
+    // Only the merged segment and the manifest are left.
+    assertTrue(Files.list(directory).count() == 2);
+  }
+
+  /** Check that a read-only index leaves uncommitted segments alone, and limits must be positive. */
+  @Test
+  public void searchesBesideWriter() throws IOException {
+    Path directory = this.folder.getRoot().toPath();
+    try (SearchIndex index = new SearchIndex(directory)) {
+      index.add("npr", List.of(item("https://npr.test/1", "Pits.")), MONDAY);
+    }
+    // A segment the daemon has written but not yet listed in the manifest.
+    Path uncommitted = Files.writeString(directory.resolve("next.seg"), "");
+    try (SearchIndex index = new SearchIndex(directory, true)) {
+      assertTrue(count(index, "pits") == 1);
+      try {
+        index.search("pits", null, null, null, 0);
+        assertTrue(false);
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage().contains("positive"));
+      }
+    }
+    assertTrue(Files.exists(uncommitted));
+    new SearchIndex(directory).close();
+    assertTrue(!Files.exists(uncommitted));
+  }
+
+  /** Check that times parse as dates or instants. */
+  @Test
+  public void parsesTimes() {
+    assertTrue(
+      SearchIndex
+        .time("2021-06-08")
+        .equals(Instant.parse("2021-06-08T00:00:00Z"))
+    );
+    assertTrue(SearchIndex.time("2021-06-08T08:00:00Z").equals(TUESDAY));
+    assertTrue(SearchIndex.time("") == null);
+    assertTrue(SearchIndex.time(null) == null);
+  }
+}
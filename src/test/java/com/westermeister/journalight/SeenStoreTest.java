@@ -0,0 +1,74 @@
+/**
+ * Tests for the seen-URL store.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for the SeenStore class. */
+public class SeenStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Check that URLs and fingerprints survive a restart, with text as of save time. */
+  @Test
+  public void persistsAcrossInstances() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    SeenStore store = new SeenStore(directory);
+    Map<String, String> item = new HashMap<>();
+    item.put("text", "Long article.");
+    item.put("url", "https://a.org/1");
+    item.put("needsSummary", "yes");
+    List<Map<String, String>> items = new ArrayList<>(List.of(item));
+    String fingerprint = SeenStore.fingerprint(
+      "https://a.org/",
+      List.of("https://a.org/1")
+    );
+    assertTrue(store.lookup("https://a.org/1") == null);
+    store.record("A", "https://a.org/1", items);
+    store.record("A", "https://a.org/2", new ArrayList<>());
+    store.recordSource("A", fingerprint, items);
+    store.record("B", "https://b.org/1", new ArrayList<>());
+    item.put("text", "Summary.");
+    store.save("A");
+
+    SeenStore reopened = new SeenStore(directory);
+    List<Map<String, String>> seen = reopened.lookup("https://a.org/1");
+    assertTrue(seen.get(0).get("text").equals("Summary."));
+    assertTrue(reopened.lookup("https://a.org/2").isEmpty());
+    assertTrue(reopened.lookup("https://a.org/3") == null);
+    assertTrue(reopened.lookup("https://b.org/1") == null);
+    assertTrue(reopened.unchanged("A", fingerprint).size() == 1);
+    String changed = SeenStore.fingerprint("https://a.org/", List.of());
+    assertTrue(reopened.unchanged("A", changed) == null);
+
+    // The Bloom filter is rebuilt from the entries if it goes missing.
+    Files.delete(directory.resolve("urls.bloom"));
+    assertTrue(new SeenStore(directory).lookup("https://a.org/1") != null);
+  }
+
+  /** Check that old entries are scraped again. */
+  @Test
+  public void expires() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    SeenStore store = new SeenStore(directory, Duration.ZERO);
+    store.record("A", "https://a.org/1", new ArrayList<>());
+    store.save();
+    Thread.sleep(5);
+    assertTrue(store.lookup("https://a.org/1") == null);
+  }
+}
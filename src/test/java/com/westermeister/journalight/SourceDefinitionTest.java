@@ -0,0 +1,119 @@
+/**
+ * Tests for the source definitions.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for the SourceDefinition class. */
+public class SourceDefinitionTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Check that the bundled sources load in order, and extra files add and replace sources. */
+  @Test
+  public void loadsBundledAndExtraSources() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    Files.writeString(
+      directory.resolve("ap.json"),
+      "{\"key\": \"ap\", \"name\": \"AP\", \"index\": {" +
+      "\"url\": \"https://apnews.com/\", \"links\": {\"selector\": \"a\"}}}"
+    );
+    Files.writeString(
+      directory.resolve("npr.json"),
+      "{\"key\": \"npr\", \"name\": \"National Public Radio\", \"index\": {" +
+      "\"url\": \"https://www.npr.org/\", \"links\": {\"selector\": \"a\"}}}"
+    );
+    Files.writeString(directory.resolve("broken.json"), "{\"key\": \"x\"}");
+    System.setProperty("journalight.sources", directory.toString());
+    Map<String, SourceDefinition> sources;
+    try {
+      sources = SourceDefinition.loadAll();
+    } finally {
+      System.clearProperty("journalight.sources");
+    }
+    assertTrue(
+      List.copyOf(sources.keySet()).equals(List.of("pbs", "npr", "upi", "ap"))
+    );
+    assertTrue(sources.get("npr").name.equals("National Public Radio"));
+    assertTrue(sources.get("ap").engine() == BaseScraper.Engine.BROWSER);
+    assertTrue(sources.get("ap").host().equals("apnews.com"));
+    assertTrue(sources.get("upi").engine() == BaseScraper.Engine.HTTP);
+  }
+
+  /** Check that definitions missing what they need, or naming unknown rules, are rejected. */
+  @Test
+  public void rejectsInvalidDefinitions() {
+    String valid =
+      "{\"key\": \"a\", \"name\": \"A\", \"index\": {" +
+      "\"url\": \"https://a.org/\", \"links\": {\"selector\": \"a\"}}";
+    assertTrue(SourceDefinition.parse(valid + "}").key.equals("a"));
+    assertTrue(rejects("{\"name\": \"A\"}"));
+    assertTrue(rejects(valid + ", \"engine\": \"telnet\"}"));
+    assertTrue(rejects(valid + ", \"article\": {\"leads\": []}}"));
+    assertTrue(
+      rejects(
+        valid +
+        ", \"article\": {\"leads\": [{\"paragraphs\": \"p\", \"rule\": \"nope\"}]}}"
+      )
+    );
+  }
+
+  /** Check that NPR's lead drops an editor's note only when it comes first. */
+  @Test
+  public void dropsLeadingEditorsNote() {
+    SourceDefinition.Article npr = SourceDefinition
+      .loadAll()
+      .get("npr")
+      .article;
+    Map<String, Object> values = Map.of(
+      "paragraphs div#storytext > p",
+      List.of(
+        "Editor's note: This story contains graphic descriptions.",
+        "Rain fell.",
+        "Rivers",
+        "Editor's note: An earlier version misspelled a name.",
+        "Roads closed."
+      ),
+      "paragraphs div#storytext > p > strong",
+      List.of("Rivers")
+    );
+    Map<String, String> lead = GenericScraper.readLead(
+      npr,
+      new Extraction.Result(values)
+    );
+    assertTrue(
+      lead
+        .get("text")
+        .equals(
+          "Rain fell. Editor's note: An earlier version misspelled a name. Roads closed."
+        )
+    );
+    assertTrue(lead.get("needsSummary").equals("yes"));
+  }
+
+  /**
+   * Check whether a definition is rejected.
+   * @param json The definition.
+   * @return     True if parsing it fails.
+   */
+  private static boolean rejects(String json) {
+    try {
+      SourceDefinition.parse(json);
+      return false;
+    } catch (IllegalArgumentException e) {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/**
+ * Tests for the bookkeeping of a source's scrape.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Test;
+
+/** Tests for the SourceRun class. */
+public class SourceRunTest {
+  private final ScheduledExecutorService timer =
+    Executors.newSingleThreadScheduledExecutor();
+
+  @After
+  public void stopTimer() {
+    this.timer.shutdownNow();
+  }
+
+  /** Check that a stuck attempt is hedged, and the first attempt to finish wins. */
+  @Test
+  public void hedgesSlowAttempts() throws Exception {
+    List<CompletableFuture<String>> attempts = new ArrayList<>();
+    AtomicBoolean hedged = new AtomicBoolean();
+    CompletableFuture<String> result = SourceRun.hedge(
+      () -> {
+        CompletableFuture<String> attempt = new CompletableFuture<>();
+        synchronized (attempts) {
+          attempts.add(attempt);
+          if (attempts.size() == 2) {
+            attempt.complete("second");
+          }
+        }
+        return attempt;
+      },
+      50,
+      this.timer,
+      () -> hedged.set(true)
+    );
+    assertTrue(result.get(5, TimeUnit.SECONDS).equals("second"));
+    assertTrue(hedged.get());
+    // The loser is cancelled right after the result completes.
+    try {
+      attempts.get(0).get(5, TimeUnit.SECONDS);
+    } catch (CancellationException e) {
+      // Expected.
+    }
+    assertTrue(attempts.get(0).isCancelled());
+  }
+
+  /** Check that only the winner is delivered, even when the loser finishes last. */
+  @Test
+  public void deliversOnlyWinner() throws Exception {
+    List<CompletableFuture<List<Map<String, String>>>> attempts =
+      new ArrayList<>();
+    CompletableFuture<List<Map<String, String>>> article = SourceRun.hedge(
+      () -> {
+        CompletableFuture<List<Map<String, String>>> attempt =
+          new CompletableFuture<>();
+        synchronized (attempts) {
+          attempts.add(attempt);
+        }
+        return attempt;
+      },
+      20,
+      this.timer,
+      () -> {}
+    );
+    SourceRun run = new SourceRun("https://a.org/");
+    List<Map<String, String>> delivered = new ArrayList<>();
+    run.add("https://a.org/1", article, delivered::addAll);
+    while (true) {
+      synchronized (attempts) {
+        if (attempts.size() == 2) {
+          break;
+        }
+      }
+      Thread.sleep(5);
+    }
+    attempts.get(1).complete(List.of(item("Winner.")));
+    attempts.get(0).complete(List.of(item("Loser.")));
+    List<Map<String, String>> won = article.get(5, TimeUnit.SECONDS);
+    assertTrue(won.get(0).get("text").equals("Winner."));
+    assertTrue(delivered.size() == 1);
+    assertTrue(delivered.get(0).get("text").equals("Winner."));
+  }
+
+  /** Check that a fast attempt isn't hedged, and a failed one fails the result. */
+  @Test
+  public void hedgesOnlyWhenSlow() throws Exception {
+    AtomicBoolean hedged = new AtomicBoolean();
+    CompletableFuture<String> fast = SourceRun.hedge(
+      () -> CompletableFuture.completedFuture("first"),
+      50,
+      this.timer,
+      () -> hedged.set(true)
+    );
+    CompletableFuture<String> failed = SourceRun.hedge(
+      () -> CompletableFuture.failedFuture(new IllegalStateException()),
+      50,
+      this.timer,
+      () -> hedged.set(true)
+    );
+    Thread.sleep(200);
+    assertTrue(fast.get().equals("first"));
+    assertTrue(failed.isCompletedExceptionally());
+    assertTrue(!hedged.get());
+  }
+
+  /** Check that a deadline returns what finished and cuts off the rest. */
+  @Test
+  public void returnsPartialResultsAtDeadline() throws Exception {
+    SourceRun run = new SourceRun("https://a.org/");
+    run.indexed(List.of(item("Teaser.")));
+    CompletableFuture<List<Map<String, String>>> slow =
+      new CompletableFuture<>();
+    run.add(
+      "https://a.org/1",
+      CompletableFuture.completedFuture(List.of(item("First."))),
+      items -> {}
+    );
+    run.add("https://a.org/2", slow, items -> {});
+    run.reuse("https://a.org/3", List.of(item("Third.")));
+    AtomicBoolean recorded = new AtomicBoolean();
+    run.seal(items -> recorded.set(true));
+
+    List<Map<String, String>> items = run.await(
+      System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100)
+    );
+    assertTrue(items.size() == 3);
+    assertTrue(items.get(0).get("text").equals("Teaser."));
+    assertTrue(items.get(1).get("text").equals("First."));
+    assertTrue(items.get(2).get("text").equals("Third."));
+    assertTrue(slow.isCancelled());
+    assertTrue(!recorded.get());
+
+    List<SourceRun.Outcome> outcomes = run.outcomes();
+    assertTrue(outcomes.get(0).status == SourceRun.Status.SCRAPED);
+    assertTrue(outcomes.get(1).status == SourceRun.Status.SCRAPED);
+    assertTrue(outcomes.get(2).status == SourceRun.Status.TIMED_OUT);
+    assertTrue(outcomes.get(3).status == SourceRun.Status.REUSED);
+    assertTrue(run.summary().equals("2 scraped, 1 reused, 1 timed out"));
+  }
+
+  /** Check that articles an index task adds after the deadline are cancelled at once. */
+  @Test
+  public void cancelsArticlesAddedLate() throws Exception {
+    SourceRun run = new SourceRun("https://a.org/");
+    CompletableFuture<Void> index = new CompletableFuture<>();
+    run.indexing(index);
+    run.await(System.nanoTime());
+    assertTrue(run.isCutOff());
+    assertTrue(index.isCancelled());
+
+    // The index task was already running, so it goes on to add its articles.
+    CompletableFuture<List<Map<String, String>>> late =
+      new CompletableFuture<>();
+    AtomicBoolean delivered = new AtomicBoolean();
+    run.add("https://a.org/1", late, items -> delivered.set(true));
+    assertTrue(late.isCancelled());
+    run.seal(items -> {});
+    late.complete(List.of(item("Late.")));
+    assertTrue(!delivered.get());
+    assertTrue(run.items().isEmpty());
+    assertTrue(run.outcomes().get(1).status == SourceRun.Status.TIMED_OUT);
+  }
+
+  /** Check that a failed article is left out, and the rest is delivered and recorded. */
+  @Test
+  public void leavesOutFailedArticles() throws Exception {
+    SourceRun run = new SourceRun("https://a.org/");
+    run.indexed(new ArrayList<>());
+    List<Map<String, String>> delivered = new ArrayList<>();
+    run.add(
+      "https://a.org/1",
+      CompletableFuture.failedFuture(new IllegalStateException()),
+      delivered::addAll
+    );
+    run.add(
+      "https://a.org/2",
+      CompletableFuture.completedFuture(List.of(item("Second."))),
+      delivered::addAll
+    );
+    AtomicBoolean recorded = new AtomicBoolean();
+    run.seal(items -> recorded.set(true));
+
+    List<Map<String, String>> items = run.await(
+      System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+    );
+    assertTrue(items.size() == 1);
+    assertTrue(delivered.equals(items));
+    assertTrue(!recorded.get());
+    assertTrue(run.outcomes().get(1).status == SourceRun.Status.FAILED);
+  }
+
+  /**
+   * Make an item the way scrapers store them.
+   * @param text The item's text.
+   * @return     The item.
+   */
+  private static Map<String, String> item(String text) {
+    return Map.of("text", text, "url", "https://a.org/", "needsSummary", "no");
+  }
+}
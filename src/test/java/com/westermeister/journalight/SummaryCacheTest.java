@@ -0,0 +1,69 @@
+/**
+ * Tests for the summary cache.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for the SummaryCache class. */
+public class SummaryCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Check that keys ignore whitespace but not the model or length settings. */
+  @Test
+  public void keys() {
+    String key = SummaryCache.key("A  story.\n", "m", 20, 280);
+    assertTrue(key.equals(SummaryCache.key(" A story.", "m", 20, 280)));
+    assertTrue(!key.equals(SummaryCache.key("A story.", "other", 20, 280)));
+    assertTrue(!key.equals(SummaryCache.key("A story.", "m", 20, 100)));
+  }
+
+  /** Check that entries survive a restart and are counted correctly. */
+  @Test
+  public void persistsAcrossInstances() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    SummaryCache cache = new SummaryCache(directory);
+    assertTrue(cache.get("ab01") == null);
+    cache.put("ab01", "Summary.");
+    assertTrue(cache.get("ab01").equals("Summary."));
+    assertTrue(cache.memoryHits() == 1 && cache.misses() == 1);
+
+    SummaryCache reopened = new SummaryCache(directory);
+    assertTrue(reopened.get("ab01").equals("Summary."));
+    assertTrue(reopened.get("ab01").equals("Summary."));
+    assertTrue(reopened.diskHits() == 1 && reopened.memoryHits() == 1);
+  }
+
+  /** Check that expired and oversized disk entries go away. */
+  @Test
+  public void evicts() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    SummaryCache expiring = new SummaryCache(directory, 0, 1024, Duration.ZERO);
+    expiring.put("cd01", "Summary.");
+    Thread.sleep(5);
+    assertTrue(expiring.get("cd01") == null);
+
+    SummaryCache small = new SummaryCache(directory, 0, 10, Duration.ofDays(1));
+    small.put("ef01", "0123456789");
+    Files.setLastModifiedTime(
+      directory.resolve("ef").resolve("ef01"),
+      FileTime.from(Instant.now().minusSeconds(60))
+    );
+    small.put("ef02", "0123456789");
+    assertTrue(small.get("ef01") == null);
+    assertTrue(small.get("ef02").equals("0123456789"));
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Tests for the streaming summarization stage.
+ * Copyright (c) 2021 Westermeister. All rights reserved.
+ */
+
+package com.westermeister.journalight;
+
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/** Tests for the SummaryPipeline class. */
+public class SummaryPipelineTest {
+
+  /** A stand-in worker that "summarizes" by upper-casing, so no model is needed. */
+  private static final String FAKE_WORKER = String.join(
+    "\n",
+    "import json, sys",
+    "print(json.dumps({'type': 'ready', 'model': 'fake'}), flush=True)",
+    "for line in sys.stdin:",
+    "    req = json.loads(line)",
+    "    res = {'id': req['id'], 'ok': True}",
+    "    if req['type'] == 'summarize':",
+    "        res['summaries'] = [t.upper() for t in req['texts']]",
+    "    print(json.dumps(res), flush=True)"
+  );
+
+  /** Check that every summary ends up in the item it was made from. */
+  @Test
+  public void joinsByIdentity() {
+    Summarizer summarizer = new ModelSummarizer(
+      Arrays.asList("python", "-c", FAKE_WORKER),
+      Duration.ofSeconds(30)
+    );
+    SummaryPipeline pipeline = new SummaryPipeline(summarizer, 2, 3);
+    pipeline.start();
+
+    List<Map<String, String>> items = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      Map<String, String> item = new HashMap<>();
+      item.put("text", "article " + i);
+      item.put("url", "https://example.com/" + i);
+      items.add(item);
+      pipeline.submit(item);
+    }
+    pipeline.finish();
+    summarizer.close();
+
+    for (int i = 0; i < items.size(); ++i) {
+      assertTrue(items.get(i).get("text").equals("ARTICLE " + i));
+      assertTrue(items.get(i).get("url").equals("https://example.com/" + i));
+    }
+  }
+
+  /** Check that the same story from several sources is summarized once and fanned out. */
+  @Test
+  public void summarizesSameStoryOnce() {
+    Summarizer summarizer = new ModelSummarizer(
+      Arrays.asList("python", "-c", FAKE_WORKER),
+      Duration.ofSeconds(30)
+    );
+    Duplicates duplicates = new Duplicates();
+    long before = Metrics.DUPLICATES.get();
+    List<Map<String, String>> items = new ArrayList<>();
+    for (
+      String text : Arrays.asList(
+        DuplicatesTest.STORY,
+        DuplicatesTest.OTHER_STORY,
+        DuplicatesTest.SAME_STORY,
+        DuplicatesTest.SAME_STORY
+      )
+    ) {
+      Map<String, String> item = new HashMap<>();
+      item.put("text", text);
+      item.put("url", "https://example.com/" + items.size());
+      items.add(item);
+    }
+
+    // The first three in one run, the last in a later run sharing the index.
+    SummaryPipeline first = new SummaryPipeline(summarizer, 3, 3);
+    first.useDuplicates(duplicates);
+    first.start();
+    for (Map<String, String> item : items.subList(0, 3)) {
+      first.submit(item);
+    }
+    first.finish();
+    SummaryPipeline later = new SummaryPipeline(summarizer, 3, 3);
+    later.useDuplicates(duplicates);
+    later.start();
+    later.submit(items.get(3));
+    later.finish();
+    summarizer.close();
+
+    String summary = DuplicatesTest.STORY.toUpperCase();
+    assertTrue(items.get(0).get("text").equals(summary));
+    assertTrue(!items.get(0).containsKey("sameStoryAs"));
+    assertTrue(
+      items.get(1).get("text").equals(DuplicatesTest.OTHER_STORY.toUpperCase())
+    );
+    for (Map<String, String> item : items.subList(2, 4)) {
+      assertTrue(item.get("text").equals(summary));
+      assertTrue(item.get("sameStoryAs").equals("https://example.com/0"));
+    }
+    assertTrue(duplicates.size() == 2);
+    assertTrue(Metrics.DUPLICATES.get() - before == 2);
+  }
+}